@@ -9,6 +9,8 @@ public class NetworkQueryStatus {
     public static final int INTERNAL_ERROR = 10000;
     public static final int URI_PATH_ERROR = 10001;
     public static final int URI_QUERY_ERROR = 10002;
+    /** the request was not sent, the peer is unreachable or busy */
+    public static final int PEER_UNAVAILABLE = 10003;
 
     /** 20000+ is reserved for network package real_state = 20000 + WeCrossException.ErrorCode */
     public static final int NETWORK_PACKAGE_ERROR = 20000;
@@ -2,6 +2,7 @@ package com.webank.wecross.config;
 
 import com.moandjiezana.toml.Toml;
 import com.webank.wecross.exception.WeCrossException;
+import com.webank.wecross.network.NettyTransport;
 import com.webank.wecross.network.client.ClientConnection;
 import com.webank.wecross.network.client.ClientMessageEngine;
 import com.webank.wecross.network.client.NettyAsyncHttpClientEngine;
@@ -16,11 +17,14 @@ public class AccountManagerEngineConfig {
     @Resource(name = "newClientConnection")
     ClientConnection clientConnection;
 
+    @Resource NettyTransport nettyTransport;
+
     @Bean
     public ClientMessageEngine newAccountManagerEngine() throws WeCrossException {
 
         NettyAsyncHttpClientEngine engine = new NettyAsyncHttpClientEngine();
         engine.setClientConnection(clientConnection);
+        engine.setTransport(nettyTransport);
         engine.init();
         return engine;
     }
@@ -172,6 +172,24 @@ public class ConfigReaderConfig {
             logger.info("threadQueueCapacity not set, use default: {}", threadQueueCapacity);
         }
 
+        Long channelsPerPeer = (Long) p2pMap.get("channelsPerPeer");
+        if (channelsPerPeer == null) {
+            channelsPerPeer = new Long(P2PConfig.DEFAULT_CHANNELS_PER_PEER);
+            logger.info("channelsPerPeer not set, use default: {}", channelsPerPeer);
+        }
+
+        Long maxPendingMessages = (Long) p2pMap.get("maxPendingMessages");
+        if (maxPendingMessages == null) {
+            maxPendingMessages = new Long(P2PConfig.DEFAULT_MAX_PENDING_MESSAGES);
+            logger.info("maxPendingMessages not set, use default: {}", maxPendingMessages);
+        }
+
+        Long maxInflightRequests = (Long) p2pMap.get("maxInflightRequests");
+        if (maxInflightRequests == null) {
+            maxInflightRequests = new Long(P2PConfig.DEFAULT_MAX_INFLIGHT_REQUESTS);
+            logger.info("maxInflightRequests not set, use default: {}", maxInflightRequests);
+        }
+
         p2PConfig.setCaCert(resolver.getResource(caCertPath));
         p2PConfig.setSslCert(resolver.getResource(sslCertPath));
         p2PConfig.setSslKey(resolver.getResource(sslKeyPath));
@@ -180,6 +198,9 @@ public class ConfigReaderConfig {
         p2PConfig.setPeers(peers);
         p2PConfig.setThreadNum(threadNum);
         p2PConfig.setThreadQueueCapacity(threadQueueCapacity);
+        p2PConfig.setChannelsPerPeer(channelsPerPeer.intValue());
+        p2PConfig.setMaxPendingMessages(maxPendingMessages.intValue());
+        p2PConfig.setMaxInflightRequests(maxInflightRequests.intValue());
 
         return p2PConfig;
     }
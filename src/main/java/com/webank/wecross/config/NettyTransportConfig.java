@@ -0,0 +1,52 @@
+package com.webank.wecross.config;
+
+import com.moandjiezana.toml.Toml;
+import com.webank.wecross.exception.WeCrossException;
+import com.webank.wecross.network.NettyTransport;
+import java.util.Arrays;
+import javax.annotation.Resource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class NettyTransportConfig {
+    private static Logger logger = LoggerFactory.getLogger(NettyTransportConfig.class);
+
+    @Resource Toml toml;
+
+    @Bean
+    public NettyTransport newNettyTransport() throws WeCrossException {
+        String transport = toml.getString("advanced.netty.transport", NettyTransport.AUTO);
+        if (!Arrays.asList(NettyTransport.AUTO, NettyTransport.EPOLL, NettyTransport.NIO)
+                .contains(transport)) {
+            throw new WeCrossException(
+                    WeCrossException.ErrorCode.UNEXPECTED_CONFIG,
+                    "[advanced.netty.transport] should be auto, epoll or nio: " + transport);
+        }
+
+        String sslProvider = toml.getString("advanced.netty.sslProvider", NettyTransport.AUTO);
+        if (!Arrays.asList(NettyTransport.AUTO, NettyTransport.OPENSSL, NettyTransport.JDK)
+                .contains(sslProvider)) {
+            throw new WeCrossException(
+                    WeCrossException.ErrorCode.UNEXPECTED_CONFIG,
+                    "[advanced.netty.sslProvider] should be auto, openssl or jdk: " + sslProvider);
+        }
+
+        Long ioThreads = toml.getLong("advanced.netty.ioThreads", 0L);
+        if (ioThreads < 0) {
+            throw new WeCrossException(
+                    WeCrossException.ErrorCode.UNEXPECTED_CONFIG,
+                    "[advanced.netty.ioThreads] should not be negative: " + ioThreads);
+        }
+
+        NettyTransport nettyTransport = new NettyTransport();
+        nettyTransport.setTransport(transport);
+        nettyTransport.setSslProvider(sslProvider);
+        nettyTransport.setIoThreads(ioThreads.intValue());
+
+        logger.info("newNettyTransport: {}", nettyTransport);
+        return nettyTransport;
+    }
+}
@@ -1,6 +1,7 @@
 package com.webank.wecross.config;
 
 import com.webank.wecross.account.AccountSyncManager;
+import com.webank.wecross.network.NettyTransport;
 import com.webank.wecross.network.p2p.P2PService;
 import com.webank.wecross.network.p2p.netty.NettyBootstrap;
 import com.webank.wecross.network.p2p.netty.NettyService;
@@ -30,6 +31,8 @@ public class P2PServiceConfig {
 
     @Resource AccountSyncManager accountSyncManager;
 
+    @Resource NettyTransport nettyTransport;
+
     @Bean
     public P2PService newP2PService() {
         ThreadPoolTaskExecutor threadPool =
@@ -43,6 +46,7 @@ public class P2PServiceConfig {
                         seqMapper, peerManager, zoneManager, accountSyncManager);
         NettyBootstrap nettyBootstrap =
                 NettyBootstrapFactory.build(p2pConfig, threadPool, messageCallback);
+        nettyBootstrap.setTransport(nettyTransport);
         NettyService nettyService =
                 NettyServiceFactory.build(seqMapper, threadPool, nettyBootstrap);
 
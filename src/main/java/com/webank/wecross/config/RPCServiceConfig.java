@@ -1,6 +1,7 @@
 package com.webank.wecross.config;
 
 import com.webank.wecross.account.AccountManager;
+import com.webank.wecross.network.NettyTransport;
 import com.webank.wecross.network.rpc.RPCService;
 import com.webank.wecross.network.rpc.URIHandlerDispatcher;
 import com.webank.wecross.network.rpc.authentication.AuthFilter;
@@ -21,12 +22,15 @@ public class RPCServiceConfig {
 
     @Resource WebService webService;
 
+    @Resource NettyTransport nettyTransport;
+
     @Bean
     public RPCService newRPCService() {
         RPCBootstrap rpcBootstrap = new RPCBootstrap();
         rpcBootstrap.setConfig(rpcConfig);
         rpcBootstrap.setAccountManager(accountManager);
         rpcBootstrap.setAuthFilter(authFilter);
+        rpcBootstrap.setTransport(nettyTransport);
 
         URIHandlerDispatcher uriHandlerDispatcher = new URIHandlerDispatcher();
         uriHandlerDispatcher.setWebService(webService);
@@ -1,16 +1,32 @@
 package com.webank.wecross.config;
 
+import com.moandjiezana.toml.Toml;
+import com.webank.wecross.stubmanager.BlockMemoryBudget;
 import com.webank.wecross.stubmanager.MemoryBlockManagerFactory;
+import com.webank.wecross.utils.ConfigUtils;
 import javax.annotation.Resource;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
 @Configuration
 public class ResourceBlockManagerFactoryConfig {
+    @Resource Toml toml;
+
     @Resource ResourceThreadPoolConfig.ResourceThreadPool resourceThreadPool;
 
     @Bean
     public MemoryBlockManagerFactory newResourceBlockManagerFactory() {
-        return new MemoryBlockManagerFactory(resourceThreadPool);
+        MemoryBlockManagerFactory memoryBlockManagerFactory =
+                new MemoryBlockManagerFactory(resourceThreadPool);
+
+        // shared by the block caches of all chains
+        long maxMemoryMB =
+                ConfigUtils.parseLong(
+                        toml,
+                        "advanced.blockCache.maxMemoryMB",
+                        MemoryBlockManagerFactory.DEFAULT_CACHE_MEMORY / 1024 / 1024);
+        memoryBlockManagerFactory.setBlockMemoryBudget(
+                new BlockMemoryBudget(maxMemoryMB * 1024 * 1024));
+        return memoryBlockManagerFactory;
     }
 }
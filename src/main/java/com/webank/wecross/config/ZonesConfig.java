@@ -174,7 +174,7 @@ public class ZonesConfig {
 
             Chain chain = new Chain(zone, chainInfo, driver, localConnection);
             chain.setDriver(driver);
-            chain.setBlockManager(resourceBlockManagerFactory.build(chain));
+            chain.setBlockManager(resourceBlockManagerFactory.build(chain, stubToml));
             chain.setStubType(type);
             for (ResourceInfo resourceInfo : resources) {
                 com.webank.wecross.resource.Resource resource =
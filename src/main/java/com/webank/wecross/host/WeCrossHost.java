@@ -3,7 +3,9 @@ package com.webank.wecross.host;
 import com.webank.wecross.account.AccountManager;
 import com.webank.wecross.account.AccountSyncManager;
 import com.webank.wecross.network.NetworkMessage;
+import com.webank.wecross.network.NetworkMessageCodec;
 import com.webank.wecross.network.p2p.P2PService;
+import com.webank.wecross.network.p2p.netty.common.Node;
 import com.webank.wecross.network.rpc.RPCService;
 import com.webank.wecross.peer.Peer;
 import com.webank.wecross.peer.PeerManager;
@@ -18,13 +20,18 @@ import com.webank.wecross.stub.Path;
 import com.webank.wecross.zone.Chain;
 import com.webank.wecross.zone.Zone;
 import com.webank.wecross.zone.ZoneManager;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class WeCrossHost {
     private Logger logger = LoggerFactory.getLogger(WeCrossHost.class);
 
+    /** all peers get the status again at this period, in case a change was lost */
+    private static final long statusSyncPeriod = 30000;
+
     private ZoneManager zoneManager;
     private PeerManager peerManager;
     private AccountManager accountManager;
@@ -33,6 +40,13 @@ public class WeCrossHost {
     private P2PService p2PService;
     private RPCService rpcService;
     private PollingManager pollingManager;
+    private NetworkMessageCodec codec = new NetworkMessageCodec();
+
+    // the status last sent to peers, changes are pushed to all of them
+    private int statusSeq = -1;
+    private int statusAccountSeq = -1;
+    private long statusSyncTime = 0;
+    private Set<Node> statusPeers = new HashSet<>();
 
     Thread mainLoopThread;
 
@@ -75,6 +89,7 @@ public class WeCrossHost {
         while (flag) {
             try {
                 Thread.sleep(1000);
+                // only changes and new peers cost messages
                 broadcastStatus();
                 dumpStatus();
 
@@ -104,13 +119,21 @@ public class WeCrossHost {
         }
     }
 
-    private void broadcastStatus() {
+    /**
+     * Send the status to all peers once it changed, and to the newly connected ones. Heartbeats
+     * carry it meanwhile, the full broadcast is repeated only every statusSyncPeriod.
+     */
+    public void broadcastStatus() {
         int seq = zoneManager.getSeq();
         int accountSeq = accountSyncManager.getSeq();
+        long now = System.currentTimeMillis();
+        boolean changed = seq != statusSeq || accountSeq != statusAccountSeq;
+        boolean sync = now - statusSyncTime >= statusSyncPeriod;
 
         PeerSeqMessageData peerSeqMessageData = new PeerSeqMessageData();
         peerSeqMessageData.setSeq(seq);
         peerSeqMessageData.setAccountSeq(accountSeq);
+        peerSeqMessageData.setCodecVersion(NetworkMessageCodec.CODEC_VERSION);
 
         NetworkMessage<Object> msg = new NetworkMessage<>();
         msg.newSeq();
@@ -118,13 +141,35 @@ public class WeCrossHost {
         msg.setVersion(Versions.currentVersion);
         msg.setMethod("seq");
 
+        if (changed) {
+            try {
+                p2PService.setHeartBeatStatus(
+                        codec.encodeMessage(msg, NetworkMessageCodec.CODEC_JSON));
+            } catch (Exception e) {
+                logger.warn("Encode status error", e);
+            }
+        }
+
+        Set<Node> peers = new HashSet<>();
         for (Peer peer : peerManager.getPeerInfos().values()) {
+            peers.add(peer.getNode());
+            if (!changed && !sync && statusPeers.contains(peer.getNode())) {
+                continue;
+            }
+
             if (logger.isDebugEnabled()) {
                 logger.debug(
                         "Send peer seq, to peer:{}, seq:{}, accountSeq:{}", peer, seq, accountSeq);
             }
             zoneManager.getP2PService().asyncSendMessage(peer, msg, null);
         }
+
+        statusSeq = seq;
+        statusAccountSeq = accountSeq;
+        statusPeers = peers;
+        if (changed || sync) {
+            statusSyncTime = now;
+        }
     }
 
     private void dumpStatus() {
@@ -424,6 +424,7 @@ public class InterchainScheduler {
             resource.getBlockManager()
                     .asyncGetBlock(
                             blockNumber,
+                            true,
                             (blockHeaderException, block) -> {
                                 if (Objects.nonNull(blockHeaderException)) {
                                     callback.onReturn(
@@ -0,0 +1,184 @@
+package com.webank.wecross.network;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.ssl.OpenSsl;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.SslProvider;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import javax.net.ssl.SSLException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Event loops and TLS provider of the p2p server and client, the rpc server and the account-manager
+ * client. The native epoll transport and OpenSSL (netty-tcnative) are used when available, NIO and
+ * the JDK provider otherwise.
+ *
+ * <p>All servers share one boss thread and one group of io threads, so a router runs ioThreads
+ * event loops in total instead of a set per server and client.
+ */
+public class NettyTransport {
+    private static final Logger logger = LoggerFactory.getLogger(NettyTransport.class);
+
+    public static final String AUTO = "auto";
+    public static final String EPOLL = "epoll";
+    public static final String NIO = "nio";
+    public static final String OPENSSL = "openssl";
+    public static final String JDK = "jdk";
+
+    private static NettyTransport defaultTransport;
+
+    /** auto, epoll or nio */
+    private String transport = AUTO;
+    /** auto, openssl or jdk */
+    private String sslProvider = AUTO;
+    /** io threads shared by all servers and clients, 0 for twice the cores */
+    private int ioThreads = 0;
+
+    private EventLoopGroup bossGroup;
+    private EventLoopGroup workerGroup;
+
+    /** @return the transport of servers and clients not given one, with the default settings */
+    public static synchronized NettyTransport getDefault() {
+        if (defaultTransport == null) {
+            defaultTransport = new NettyTransport();
+        }
+        return defaultTransport;
+    }
+
+    public String getTransport() {
+        return transport;
+    }
+
+    public void setTransport(String transport) {
+        this.transport = transport;
+    }
+
+    public String getSslProvider() {
+        return sslProvider;
+    }
+
+    public void setSslProvider(String sslProvider) {
+        this.sslProvider = sslProvider;
+    }
+
+    public int getIoThreads() {
+        return ioThreads;
+    }
+
+    public void setIoThreads(int ioThreads) {
+        this.ioThreads = ioThreads;
+    }
+
+    public boolean isEpoll() {
+        if (NIO.equals(transport)) {
+            return false;
+        }
+        if (!Epoll.isAvailable()) {
+            if (EPOLL.equals(transport)) {
+                logger.warn(" epoll not available, use nio, cause: ", Epoll.unavailabilityCause());
+            }
+            return false;
+        }
+        return true;
+    }
+
+    public synchronized EventLoopGroup getBossGroup() {
+        if (bossGroup == null) {
+            bossGroup = newEventLoopGroup(1, "netty-boss");
+        }
+        return bossGroup;
+    }
+
+    public synchronized EventLoopGroup getWorkerGroup() {
+        if (workerGroup == null) {
+            workerGroup = newEventLoopGroup(ioThreads, "netty-io");
+            logger.info(" netty io threads: {}, epoll: {}", ioThreads, isEpoll());
+        }
+        return workerGroup;
+    }
+
+    private EventLoopGroup newEventLoopGroup(int threads, String name) {
+        DefaultThreadFactory threadFactory = new DefaultThreadFactory(name);
+        return isEpoll()
+                ? new EpollEventLoopGroup(threads, threadFactory)
+                : new NioEventLoopGroup(threads, threadFactory);
+    }
+
+    public Class<? extends ServerChannel> getServerChannelClass() {
+        return isEpoll() ? EpollServerSocketChannel.class : NioServerSocketChannel.class;
+    }
+
+    public Class<? extends SocketChannel> getChannelClass() {
+        return isEpoll() ? EpollSocketChannel.class : NioSocketChannel.class;
+    }
+
+    public SslProvider getSslProviderType() {
+        if (JDK.equals(sslProvider)) {
+            return SslProvider.JDK;
+        }
+        if (!OpenSsl.isAvailable()) {
+            if (OPENSSL.equals(sslProvider)) {
+                logger.warn(
+                        " openssl not available, use jdk, cause: ", OpenSsl.unavailabilityCause());
+            }
+            return SslProvider.JDK;
+        }
+        return SslProvider.OPENSSL;
+    }
+
+    /**
+     * @param builder with the certificates and keys, its provider is set here
+     * @return the context of the configured provider, or of the JDK one if the key or cipher suites
+     *     are not supported by OpenSSL
+     */
+    public SslContext buildSslContext(SslContextBuilder builder) throws SSLException {
+        SslProvider provider = getSslProviderType();
+        if (provider == SslProvider.JDK) {
+            return builder.sslProvider(SslProvider.JDK).build();
+        }
+
+        try {
+            return builder.sslProvider(provider).build();
+        } catch (SSLException | RuntimeException e) {
+            logger.warn(" {} ssl context not supported, use jdk, e: ", provider, e);
+            return builder.sslProvider(SslProvider.JDK).build();
+        }
+    }
+
+    /** Close the event loops, and the channels on them */
+    public synchronized void shutdown() {
+        if (bossGroup != null) {
+            bossGroup.shutdownGracefully();
+            bossGroup = null;
+        }
+        if (workerGroup != null) {
+            workerGroup.shutdownGracefully();
+            workerGroup = null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "NettyTransport{"
+                + "transport='"
+                + transport
+                + '\''
+                + ", sslProvider='"
+                + sslProvider
+                + '\''
+                + ", ioThreads="
+                + ioThreads
+                + '}';
+    }
+}
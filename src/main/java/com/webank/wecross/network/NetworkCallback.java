@@ -2,15 +2,13 @@ package com.webank.wecross.network;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.webank.wecross.stub.ObjectMapperFactory;
 
 public abstract class NetworkCallback<T> {
     private TypeReference<?> typeReference;
     protected int status;
     protected String message;
     protected NetworkResponse<T> data;
-    private ObjectMapper objectMapper = ObjectMapperFactory.getObjectMapper();
+    private NetworkMessageCodec codec = new NetworkMessageCodec();
 
     public void execute() {
         this.onResponse(status, message, data);
@@ -22,14 +20,12 @@ public abstract class NetworkCallback<T> {
         this.status = status;
     }
 
-    public NetworkResponse<Object> parseContent(String content) throws Exception {
+    public NetworkResponse<Object> parseContent(byte[] content) throws Exception {
         if (typeReference == null) {
             throw new Exception("Callback message type has not been set");
         }
 
-        NetworkResponse<Object> networkResponse =
-                (NetworkResponse<Object>) objectMapper.readValue(content, typeReference);
-        return networkResponse;
+        return codec.decodeResponse(content, typeReference);
     }
 
     @JsonIgnore
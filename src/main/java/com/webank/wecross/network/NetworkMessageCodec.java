@@ -0,0 +1,380 @@
+package com.webank.wecross.network;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import com.webank.wecross.stub.ObjectMapperFactory;
+import com.webank.wecross.stub.Request;
+import com.webank.wecross.stub.ResourceInfo;
+import com.webank.wecross.stub.Response;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Function;
+
+/**
+ * Encodes NetworkMessage and NetworkResponse for the p2p network.
+ *
+ * <p>Two codecs: JSON, understood by every peer, and a versioned binary envelope used with peers
+ * that announced it in their seq message. The binary envelope keeps version, seq and method as
+ * plain fields, so a message is decoded in one pass, and carries the bytes of stub requests and
+ * responses as they are instead of base64 in JSON. Other payloads are embedded as JSON.
+ *
+ * <pre>
+ * message  = magic(1) codec(1) seq(4) version(str) method(str) body
+ * response = magic(1) codec(1) seq(4) errorCode(4) version(str) message(str) body
+ * body     = NULL(1) | JSON(1) bytes | REQUEST(1) type(4) path(str) data(bytes) resourceInfo(bytes)
+ *          | RESPONSE(1) errorCode(4) errorMessage(str) data(bytes)
+ * str, bytes = length(4, -1 for null) content
+ * </pre>
+ */
+public class NetworkMessageCodec {
+    /** never the first byte of a JSON document */
+    private static final byte MAGIC = (byte) 0xC7;
+
+    public static final int CODEC_JSON = 0;
+    public static final int CODEC_BINARY = 1;
+    /** latest codec of this version */
+    public static final int CODEC_VERSION = CODEC_BINARY;
+
+    private static final byte BODY_NULL = 0;
+    private static final byte BODY_JSON = 1;
+    private static final byte BODY_REQUEST = 2;
+    private static final byte BODY_RESPONSE = 3;
+
+    private ObjectMapper objectMapper = ObjectMapperFactory.getObjectMapper();
+
+    /** A received message, its data is decoded when the type is known */
+    public class DecodedMessage {
+        private int codec;
+        private String version;
+        private int seq;
+        private String method;
+        // JSON data bound while parsing, or its tokens if the type was not known then
+        private Object data;
+        private Class<?> dataType;
+        private IOException dataError;
+        private TokenBuffer jsonData;
+        private ByteBuffer binaryData;
+
+        public <T> NetworkMessage<T> toNetworkMessage(Class<T> dataType) throws IOException {
+            NetworkMessage<T> message = new NetworkMessage<>();
+            message.setVersion(version);
+            message.setSeq(seq);
+            message.setMethod(method);
+            message.setData(decodeData(dataType));
+            return message;
+        }
+
+        @SuppressWarnings("unchecked")
+        private <T> T decodeData(Class<T> dataType) throws IOException {
+            if (codec == CODEC_JSON) {
+                if (dataError != null) {
+                    throw dataError;
+                }
+                if (this.dataType == dataType) {
+                    return (T) data;
+                }
+                if (this.dataType != null) {
+                    return objectMapper.convertValue(data, dataType);
+                }
+                if (jsonData == null) {
+                    return null;
+                }
+                return objectMapper.readValue(jsonData.asParser(objectMapper), dataType);
+            }
+
+            return (T) readBody(binaryData, objectMapper.constructType(dataType));
+        }
+
+        public int getCodec() {
+            return codec;
+        }
+
+        public String getVersion() {
+            return version;
+        }
+
+        public int getSeq() {
+            return seq;
+        }
+
+        public String getMethod() {
+            return method;
+        }
+    }
+
+    public static boolean isBinary(byte[] content) {
+        return content != null && content.length > 0 && content[0] == MAGIC;
+    }
+
+    public byte[] encodeMessage(NetworkMessage<?> message, int codec) throws IOException {
+        if (codec < CODEC_BINARY) {
+            return objectMapper.writeValueAsBytes(message);
+        }
+
+        Writer writer = new Writer();
+        writer.out.writeByte(MAGIC);
+        writer.out.writeByte(CODEC_BINARY);
+        writer.out.writeInt(message.getSeq());
+        writer.writeString(message.getVersion());
+        writer.writeString(message.getMethod());
+        writeBody(writer, message.getData());
+        return writer.toByteArray();
+    }
+
+    public DecodedMessage decodeMessage(byte[] content) throws IOException {
+        return decodeMessage(content, null);
+    }
+
+    /**
+     * @param dataTypes the data type of a method, JSON data is bound to it while parsing if the
+     *     method comes first, null if unknown
+     */
+    public DecodedMessage decodeMessage(byte[] content, Function<String, Class<?>> dataTypes)
+            throws IOException {
+        DecodedMessage message = new DecodedMessage();
+        if (!isBinary(content)) {
+            message.codec = CODEC_JSON;
+            try (JsonParser parser = objectMapper.getFactory().createParser(content)) {
+                if (parser.nextToken() != JsonToken.START_OBJECT) {
+                    throw new IOException("Invalid network message");
+                }
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = parser.getCurrentName();
+                    parser.nextToken();
+                    switch (field) {
+                        case "version":
+                            message.version = parser.getValueAsString();
+                            break;
+                        case "seq":
+                            message.seq = parser.getValueAsInt(0);
+                            break;
+                        case "method":
+                            message.method = parser.getValueAsString();
+                            break;
+                        case "data":
+                            if (!readData(parser, message, dataTypes)) {
+                                return message;
+                            }
+                            break;
+                        default:
+                            break;
+                    }
+                    parser.skipChildren();
+                }
+            }
+            return message;
+        }
+
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(content);
+            buffer.get();
+            message.codec = checkCodec(buffer.get());
+            message.seq = buffer.getInt();
+            message.version = readString(buffer);
+            message.method = readString(buffer);
+            message.binaryData = buffer;
+            return message;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated network message");
+        }
+    }
+
+    /** @return false if the data can not be bound to the type of the method, nor read further */
+    private boolean readData(
+            JsonParser parser, DecodedMessage message, Function<String, Class<?>> dataTypes)
+            throws IOException {
+        if (parser.currentToken() == JsonToken.VALUE_NULL) {
+            return true;
+        }
+
+        Class<?> dataType =
+                dataTypes == null || message.method == null
+                        ? null
+                        : dataTypes.apply(message.method);
+        if (dataType == null) {
+            TokenBuffer buffer = new TokenBuffer(parser);
+            buffer.copyCurrentStructure(parser);
+            message.jsonData = buffer;
+            return true;
+        }
+
+        try {
+            message.data = objectMapper.readValue(parser, dataType);
+            message.dataType = dataType;
+            return true;
+        } catch (IOException e) {
+            // thrown when the data is asked for, as if it was bound then
+            message.dataError = e;
+            return false;
+        }
+    }
+
+    public byte[] encodeResponse(NetworkResponse<?> response, int codec) throws IOException {
+        if (codec < CODEC_BINARY) {
+            return objectMapper.writeValueAsBytes(response);
+        }
+
+        Writer writer = new Writer();
+        writer.out.writeByte(MAGIC);
+        writer.out.writeByte(CODEC_BINARY);
+        writer.out.writeInt(response.getSeq());
+        writer.out.writeInt(response.getErrorCode());
+        writer.writeString(response.getVersion());
+        writer.writeString(response.getMessage());
+        writeBody(writer, response.getData());
+        return writer.toByteArray();
+    }
+
+    /** @param typeReference of the whole NetworkResponse, as for the JSON codec */
+    public NetworkResponse<Object> decodeResponse(byte[] content, TypeReference<?> typeReference)
+            throws IOException {
+        JavaType responseType = objectMapper.getTypeFactory().constructType(typeReference);
+        if (!isBinary(content)) {
+            return objectMapper.readValue(content, responseType);
+        }
+
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(content);
+            buffer.get();
+            checkCodec(buffer.get());
+
+            NetworkResponse<Object> response = new NetworkResponse<>();
+            response.setSeq(buffer.getInt());
+            response.setErrorCode(buffer.getInt());
+            response.setVersion(readString(buffer));
+            response.setMessage(readString(buffer));
+
+            JavaType dataType = responseType.containedType(0);
+            response.setData(
+                    readBody(
+                            buffer,
+                            dataType == null
+                                    ? objectMapper.constructType(Object.class)
+                                    : dataType));
+            return response;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated network response");
+        }
+    }
+
+    private void writeBody(Writer writer, Object data) throws IOException {
+        if (data == null) {
+            writer.out.writeByte(BODY_NULL);
+        } else if (data instanceof Request) {
+            Request request = (Request) data;
+            writer.out.writeByte(BODY_REQUEST);
+            writer.out.writeInt(request.getType());
+            writer.writeString(request.getPath());
+            writer.writeBytes(request.getData());
+            writer.writeBytes(
+                    request.getResourceInfo() == null
+                            ? null
+                            : objectMapper.writeValueAsBytes(request.getResourceInfo()));
+        } else if (data instanceof Response) {
+            Response response = (Response) data;
+            writer.out.writeByte(BODY_RESPONSE);
+            writer.out.writeInt(response.getErrorCode());
+            writer.writeString(response.getErrorMessage());
+            writer.writeBytes(response.getData());
+        } else {
+            writer.out.writeByte(BODY_JSON);
+            writer.writeBytes(objectMapper.writeValueAsBytes(data));
+        }
+    }
+
+    private Object readBody(ByteBuffer buffer, JavaType dataType) throws IOException {
+        try {
+            byte bodyType = buffer.get();
+            switch (bodyType) {
+                case BODY_NULL:
+                    return null;
+                case BODY_JSON:
+                    {
+                        byte[] json = readBytes(buffer);
+                        return json == null ? null : objectMapper.readValue(json, dataType);
+                    }
+                case BODY_REQUEST:
+                    {
+                        Request request = new Request();
+                        request.setType(buffer.getInt());
+                        request.setPath(readString(buffer));
+                        request.setData(readBytes(buffer));
+                        byte[] resourceInfo = readBytes(buffer);
+                        if (resourceInfo != null) {
+                            request.setResourceInfo(
+                                    objectMapper.readValue(resourceInfo, ResourceInfo.class));
+                        }
+                        return request;
+                    }
+                case BODY_RESPONSE:
+                    {
+                        Response response = new Response();
+                        response.setErrorCode(buffer.getInt());
+                        response.setErrorMessage(readString(buffer));
+                        response.setData(readBytes(buffer));
+                        return response;
+                    }
+                default:
+                    throw new IOException("Unknown body type: " + bodyType);
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated network message body");
+        }
+    }
+
+    private int checkCodec(byte codec) throws IOException {
+        if (codec != CODEC_BINARY) {
+            throw new IOException("Unsupported codec: " + codec);
+        }
+        return codec;
+    }
+
+    private static String readString(ByteBuffer buffer) throws IOException {
+        byte[] bytes = readBytes(buffer);
+        return bytes == null ? null : new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] readBytes(ByteBuffer buffer) throws IOException {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > buffer.remaining()) {
+            throw new IOException("Invalid length: " + length);
+        }
+
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private static class Writer {
+        private ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        private DataOutputStream out = new DataOutputStream(bytes);
+
+        private void writeString(String value) throws IOException {
+            writeBytes(value == null ? null : value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        private void writeBytes(byte[] value) throws IOException {
+            if (value == null) {
+                out.writeInt(-1);
+                return;
+            }
+            out.writeInt(value.length);
+            out.write(value);
+        }
+
+        private byte[] toByteArray() {
+            return bytes.toByteArray();
+        }
+    }
+}
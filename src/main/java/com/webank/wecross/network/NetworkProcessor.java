@@ -4,8 +4,9 @@ import com.webank.wecross.network.p2p.netty.common.Node;
 
 public interface NetworkProcessor {
     interface Callback {
-        void onResponse(String responseContent);
+        void onResponse(byte[] responseContent);
     }
 
-    void process(Node node, String content, NetworkProcessor.Callback callback);
+    /** @param content a NetworkMessage in any codec of NetworkMessageCodec */
+    void process(Node node, byte[] content, NetworkProcessor.Callback callback);
 }
@@ -20,6 +20,16 @@ public class UriDecoder {
         return uriAttributes.get(key).get(0);
     }
 
+    /** @return defaultValue if the key is not in the query */
+    public String getQueryBykey(String key, String defaultValue) {
+        QueryStringDecoder decoderQuery = new QueryStringDecoder(uri);
+        Map<String, List<String>> uriAttributes = decoderQuery.parameters();
+        if (!uriAttributes.containsKey(key)) {
+            return defaultValue;
+        }
+        return uriAttributes.get(key).get(0);
+    }
+
     public String getMethod() {
         int end = uri.contains("?") ? uri.indexOf("?") : uri.length();
         String[] splits = uri.substring(1, end).split("/");
@@ -7,13 +7,13 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.webank.wecross.exception.WeCrossException;
+import com.webank.wecross.network.NettyTransport;
 import com.webank.wecross.network.rpc.authentication.RemoteAuthFilter;
 import com.webank.wecross.stub.ObjectMapperFactory;
 import io.netty.handler.codec.http.HttpHeaders;
 import io.netty.handler.ssl.ClientAuth;
 import io.netty.handler.ssl.SslContext;
 import io.netty.handler.ssl.SslContextBuilder;
-import io.netty.handler.ssl.SslProvider;
 import io.netty.handler.ssl.util.InsecureTrustManagerFactory;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
@@ -36,6 +36,7 @@ public class NettyAsyncHttpClientEngine implements ClientMessageEngine {
     private AsyncHttpClient httpClient;
     private ObjectMapper objectMapper = ObjectMapperFactory.getObjectMapper();
     private ClientConnection clientConnection;
+    private NettyTransport transport = NettyTransport.getDefault();
 
     private static int httpClientTimeOut = 100000; // ms
 
@@ -242,13 +243,12 @@ public class NettyAsyncHttpClientEngine implements ClientMessageEngine {
         Resource caCert =
                 pathMatchingResourcePatternResolver.getResource(clientConnection.getCaCert());
 
-        return SslContextBuilder.forClient()
-                .trustManager(caCert.getInputStream())
-                .keyManager(sslCert.getInputStream(), sslKey.getInputStream())
-                .sslProvider(SslProvider.JDK)
-                .clientAuth(ClientAuth.REQUIRE)
-                .trustManager(InsecureTrustManagerFactory.INSTANCE)
-                .build();
+        return transport.buildSslContext(
+                SslContextBuilder.forClient()
+                        .trustManager(caCert.getInputStream())
+                        .keyManager(sslCert.getInputStream(), sslKey.getInputStream())
+                        .clientAuth(ClientAuth.REQUIRE)
+                        .trustManager(InsecureTrustManagerFactory.INSTANCE));
     }
 
     private AsyncHttpClient getHttpAsyncClient(ClientConnection clientConnection)
@@ -256,6 +256,8 @@ public class NettyAsyncHttpClientEngine implements ClientMessageEngine {
         try {
             return asyncHttpClient(
                     config().setSslContext(getSslContext(clientConnection))
+                            // the io threads of the servers, not a set of its own
+                            .setEventLoopGroup(transport.getWorkerGroup())
                             // config().setProxyServer(proxyServer("localhost", 8080))
                             .setConnectTimeout(httpClientTimeOut)
                             .setRequestTimeout(httpClientTimeOut)
@@ -281,4 +283,12 @@ public class NettyAsyncHttpClientEngine implements ClientMessageEngine {
     public void setClientConnection(ClientConnection clientConnection) {
         this.clientConnection = clientConnection;
     }
+
+    public NettyTransport getTransport() {
+        return transport;
+    }
+
+    public void setTransport(NettyTransport transport) {
+        this.transport = transport;
+    }
 }
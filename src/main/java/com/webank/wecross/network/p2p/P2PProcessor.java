@@ -1,7 +1,6 @@
 package com.webank.wecross.network.p2p;
 
 import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.webank.wecross.account.AccountSyncManager;
 import com.webank.wecross.account.AccountSyncMessageData;
 import com.webank.wecross.account.uaproof.UAProofInfo;
@@ -9,11 +8,13 @@ import com.webank.wecross.common.NetworkQueryStatus;
 import com.webank.wecross.exception.WeCrossException;
 import com.webank.wecross.network.NetworkCallback;
 import com.webank.wecross.network.NetworkMessage;
+import com.webank.wecross.network.NetworkMessageCodec;
 import com.webank.wecross.network.NetworkProcessor;
 import com.webank.wecross.network.NetworkResponse;
 import com.webank.wecross.network.p2p.netty.common.Node;
 import com.webank.wecross.peer.Peer;
 import com.webank.wecross.peer.PeerInfoMessageData;
+import com.webank.wecross.peer.PeerInfoRequestData;
 import com.webank.wecross.peer.PeerManager;
 import com.webank.wecross.peer.PeerSeqMessageData;
 import com.webank.wecross.resource.Resource;
@@ -23,8 +24,12 @@ import com.webank.wecross.routine.htlc.HTLCManager;
 import com.webank.wecross.stub.*;
 import com.webank.wecross.zone.ChainInfo;
 import com.webank.wecross.zone.ZoneManager;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -36,7 +41,78 @@ public class P2PProcessor implements NetworkProcessor {
     private ZoneManager zoneManager;
     private P2PService p2PService;
     private RoutineManager routineManager;
-    private ObjectMapper objectMapper = ObjectMapperFactory.getObjectMapper();
+    private NetworkMessageCodec codec = new NetworkMessageCodec();
+
+    /** the status methods, with the types of their data */
+    private static final Map<String, Route> STATUS_ROUTES = new HashMap<>();
+    /** resource methods cached, peers sending more distinct ones get theirs parsed each time */
+    private static final int MAX_ROUTES = 4096;
+    /** resource methods peers sent requests to, parsed once */
+    private Map<String, Route> routes = new ConcurrentHashMap<>();
+
+    /** A method of a request, and the type of its data */
+    private static class Route {
+        private final String method;
+        /** of resource methods, null for status methods */
+        private final Path path;
+        /** bound while parsing, null if unknown */
+        private final Class<?> dataType;
+
+        private Route(String method, Path path, Class<?> dataType) {
+            this.method = method;
+            this.path = path;
+            this.dataType = dataType;
+        }
+    }
+
+    static {
+        STATUS_ROUTES.put(
+                "requestPeerInfo", new Route("requestPeerInfo", null, PeerInfoRequestData.class));
+        STATUS_ROUTES.put("requestUAProof", new Route("requestUAProof", null, Object.class));
+        STATUS_ROUTES.put("seq", new Route("seq", null, PeerSeqMessageData.class));
+    }
+
+    /** @return the route of a method: a status method, or network/stub/resource/method */
+    private Route route(String method) throws Exception {
+        Route route = STATUS_ROUTES.get(method);
+        if (route == null) {
+            route = routes.get(method);
+        }
+        if (route != null) {
+            return route;
+        }
+
+        int first = method.indexOf('/');
+        if (first < 0) {
+            // unknown status method, answered unsupported
+            return new Route(method, null, null);
+        }
+        int second = method.indexOf('/', first + 1);
+        int third = second < 0 ? -1 : method.indexOf('/', second + 1);
+        if (third < 0 || method.indexOf('/', third + 1) >= 0) {
+            throw new Exception("invalid method parameter, method: " + method);
+        }
+
+        Path path = new Path();
+        path.setZone(method.substring(0, first));
+        path.setChain(method.substring(first + 1, second));
+        path.setResource(method.substring(second + 1, third));
+        String action = method.substring(third + 1);
+        route = new Route(action, path, "transaction".equals(action) ? Request.class : null);
+        if (routes.size() < MAX_ROUTES) {
+            routes.put(method, route);
+        }
+        return route;
+    }
+
+    /** @return the data type of a method, null if unknown */
+    private Class<?> dataTypeOf(String method) {
+        try {
+            return route(method).dataType;
+        } catch (Exception e) {
+            return null;
+        }
+    }
 
     public PeerManager getPeerManager() {
         return peerManager;
@@ -71,32 +147,36 @@ public class P2PProcessor implements NetworkProcessor {
     }
 
     public NetworkResponse<Object> onStatusMessage(
-            Peer peerInfo, String method, String p2pRequestString) {
+            Peer peerInfo, String method, NetworkMessageCodec.DecodedMessage p2pMessage) {
 
         NetworkResponse<Object> response = new NetworkResponse<Object>();
         response.setVersion(Versions.currentVersion);
         response.setErrorCode(NetworkQueryStatus.SUCCESS);
         response.setMessage(NetworkQueryStatus.getStatusMessage(NetworkQueryStatus.SUCCESS));
 
-        logger.debug("request string: {}", p2pRequestString);
-
         try {
             switch (method) {
                 case "requestPeerInfo":
                     {
                         logger.debug("Receive requestPeerInfo from peer {}", method, peerInfo);
-                        NetworkMessage<Object> p2pRequest =
-                                objectMapper.readValue(
-                                        p2pRequestString,
-                                        new TypeReference<NetworkMessage<Object>>() {});
+                        NetworkMessage<PeerInfoRequestData> p2pRequest =
+                                p2pMessage.toNetworkMessage(PeerInfoRequestData.class);
 
                         p2pRequest.checkP2PMessage(method);
 
-                        Map<String, ChainInfo> chains = zoneManager.getAllChainsInfo(true);
+                        ZoneManager.LocalChains localChains = zoneManager.getLocalChains();
+                        PeerInfoRequestData requestData = p2pRequest.getData();
 
-                        PeerInfoMessageData data = new PeerInfoMessageData();
-                        data.setSeq(zoneManager.getSeq());
-                        data.setChainInfos(chains);
+                        PeerInfoMessageData data;
+                        if (requestData == null || requestData.getChainDigests() == null) {
+                            // older versions know no digests and replace all chains of the peer
+                            data = new PeerInfoMessageData();
+                            data.setSeq(localChains.getSeq());
+                            data.setChainInfos(localChains.getChainInfos());
+                            data.setChainDigests(localChains.getChainDigests());
+                        } else {
+                            data = buildPeerInfoDelta(localChains, requestData.getChainDigests());
+                        }
 
                         response.setErrorCode(NetworkQueryStatus.SUCCESS);
                         response.setMessage("request " + method + " success");
@@ -108,9 +188,7 @@ public class P2PProcessor implements NetworkProcessor {
                     {
                         logger.debug("Receive requestUAProof from peer:{}", peerInfo);
                         NetworkMessage<Object> p2pRequest =
-                                objectMapper.readValue(
-                                        p2pRequestString,
-                                        new TypeReference<NetworkMessage<Object>>() {});
+                                p2pMessage.toNetworkMessage(Object.class);
 
                         p2pRequest.checkP2PMessage(method);
 
@@ -131,12 +209,18 @@ public class P2PProcessor implements NetworkProcessor {
                     {
                         logger.debug("Receive seq from peer:{}", peerInfo);
                         NetworkMessage<PeerSeqMessageData> p2pRequest =
-                                objectMapper.readValue(
-                                        p2pRequestString,
-                                        new TypeReference<NetworkMessage<PeerSeqMessageData>>() {});
+                                p2pMessage.toNetworkMessage(PeerSeqMessageData.class);
 
                         PeerSeqMessageData data = (PeerSeqMessageData) p2pRequest.getData();
-                        if (data != null && p2pRequest.getMethod().equals("seq")) {
+                        if (peerInfo == null) {
+                            // a heartbeat ahead of the connect event, the next one brings it
+                            logger.debug("Receive seq from unknown peer");
+                        } else if (data != null && p2pRequest.getMethod().equals("seq")) {
+                            // older versions announce nothing and keep JSON
+                            peerInfo.setCodecVersion(
+                                    Math.min(
+                                            data.getCodecVersion(),
+                                            NetworkMessageCodec.CODEC_VERSION));
                             onPeerSeq(peerInfo, data.getSeq());
                             onAccountSeq(peerInfo, data.getAccountSeq());
                         } else {
@@ -148,12 +232,8 @@ public class P2PProcessor implements NetworkProcessor {
                 default:
                     {
                         logger.debug("request method: " + method);
-                        NetworkMessage<Object> p2pRequest =
-                                objectMapper.readValue(
-                                        p2pRequestString,
-                                        new TypeReference<NetworkMessage<Object>>() {});
                         response.setErrorCode(NetworkQueryStatus.URI_PATH_ERROR);
-                        response.setSeq(p2pRequest.getSeq());
+                        response.setSeq(p2pMessage.getSeq());
                         response.setMessage("Unsupported method: " + method);
                         break;
                     }
@@ -174,13 +254,119 @@ public class P2PProcessor implements NetworkProcessor {
         return response;
     }
 
+    /**
+     * @param knownDigests digests of our chains known to the peer
+     * @return the chains added or updated since, and the paths of the removed ones
+     */
+    public PeerInfoMessageData buildPeerInfoDelta(
+            ZoneManager.LocalChains localChains, Map<String, String> knownDigests) {
+        Map<String, ChainInfo> changedChains = new HashMap<>();
+        Map<String, String> changedDigests = new HashMap<>();
+        for (Map.Entry<String, String> entry : localChains.getChainDigests().entrySet()) {
+            String digest = entry.getValue();
+            if (digest == null || !digest.equals(knownDigests.get(entry.getKey()))) {
+                changedChains.put(entry.getKey(), localChains.getChainInfos().get(entry.getKey()));
+                changedDigests.put(entry.getKey(), digest);
+            }
+        }
+
+        List<String> removedChains = new ArrayList<>();
+        for (String path : knownDigests.keySet()) {
+            if (!localChains.getChainInfos().containsKey(path)) {
+                removedChains.add(path);
+            }
+        }
+
+        PeerInfoMessageData data = new PeerInfoMessageData();
+        data.setSeq(localChains.getSeq());
+        data.setDelta(true);
+        data.setChainInfos(changedChains);
+        data.setChainDigests(changedDigests);
+        data.setRemovedChains(removedChains);
+        return data;
+    }
+
+    /**
+     * Update the remote chains of the peer from its peerInfo response
+     *
+     * @param knownDigests sent with the request, a delta against other digests is dropped
+     * @return if the chains of the peer changed
+     */
+    public boolean updatePeerChains(
+            Peer peerInfo, PeerInfoMessageData data, Map<String, String> knownDigests)
+            throws Exception {
+        synchronized (peerInfo) {
+            int newSeq = data.getSeq();
+            Map<String, ChainInfo> newChains =
+                    data.getChainInfos() == null ? new HashMap<>() : data.getChainInfos();
+
+            if (!data.isDelta()) {
+                // compare and update
+                boolean changed = false;
+                changed |=
+                        zoneManager.removeRemoteChains(peerInfo, peerInfo.getChainInfos(), false);
+                changed |= zoneManager.addRemoteChains(peerInfo, newChains);
+                if (changed) {
+                    logger.debug(
+                            "Update peerInfo from {}, seq:{}, resource:{}",
+                            peerInfo,
+                            newSeq,
+                            newChains);
+                    peerInfo.setChainInfos(newSeq, newChains, data.getChainDigests());
+                }
+                return changed;
+            }
+
+            if (peerInfo.getChainDigests() != knownDigests) {
+                // answered to a concurrent request, the next seq brings the changes again
+                logger.debug("Drop outdated peerInfo delta from {}, seq:{}", peerInfo, newSeq);
+                return false;
+            }
+
+            Map<String, ChainInfo> oldChains = peerInfo.getChainInfos();
+            Map<String, ChainInfo> removedChains = new HashMap<>();
+            if (data.getRemovedChains() != null) {
+                for (String path : data.getRemovedChains()) {
+                    if (oldChains.containsKey(path)) {
+                        removedChains.put(path, oldChains.get(path));
+                    }
+                }
+            }
+            Map<String, ChainInfo> updatedChains = new HashMap<>();
+            for (String path : newChains.keySet()) {
+                if (oldChains.containsKey(path)) {
+                    updatedChains.put(path, oldChains.get(path));
+                }
+            }
+
+            zoneManager.removeRemoteChains(peerInfo, removedChains, true);
+            zoneManager.removeRemoteChains(peerInfo, updatedChains, false);
+            zoneManager.addRemoteChains(peerInfo, newChains);
+            peerInfo.updateChainInfos(
+                    newSeq, newChains, data.getChainDigests(), data.getRemovedChains());
+
+            logger.debug(
+                    "Update peerInfo delta from {}, seq:{}, changed:{}, removed:{}",
+                    peerInfo,
+                    newSeq,
+                    newChains.keySet(),
+                    removedChains.keySet());
+            return !newChains.isEmpty() || !removedChains.isEmpty();
+        }
+    }
+
     private void onPeerSeq(Peer peerInfo, int seq) {
 
         if (peerManager.hasPeerChanged(peerInfo.getNode(), seq)) {
+            // only the chains whose digests differ are sent back
+            Map<String, String> knownDigests = peerInfo.getChainDigests();
+            PeerInfoRequestData requestData = new PeerInfoRequestData();
+            requestData.setChainDigests(knownDigests);
+
             NetworkMessage<Object> msg = new NetworkMessage<>();
             msg.newSeq();
 
-            msg.setData(null);
+            msg.setData(requestData);
             msg.setVersion(Versions.currentVersion);
             msg.setMethod("requestPeerInfo");
 
@@ -203,24 +389,7 @@ public class P2PProcessor implements NetworkProcessor {
                                             (PeerInfoMessageData) responseMsg.getData();
                                     int newSeq = data.getSeq();
                                     if (peerManager.hasPeerChanged(peerInfo.getNode(), newSeq)) {
-
-                                        // compare and update
-                                        Map<String, ChainInfo> newChains = data.getChainInfos();
-
-                                        // update zonemanager
-                                        boolean changed = false;
-                                        changed |=
-                                                zoneManager.removeRemoteChains(
-                                                        peerInfo, peerInfo.getChainInfos(), false);
-                                        changed |= zoneManager.addRemoteChains(peerInfo, newChains);
-                                        if (changed) {
-                                            logger.debug(
-                                                    "Update peerInfo from {}, seq:{}, resource:{}",
-                                                    peerInfo,
-                                                    newSeq,
-                                                    newChains);
-                                            peerInfo.setChainInfos(newSeq, newChains);
-                                        }
+                                        updatePeerChains(peerInfo, data, knownDigests);
                                     } else {
                                         logger.debug("Peer info not changed, seq:{}", newSeq);
                                     }
@@ -317,20 +486,29 @@ public class P2PProcessor implements NetworkProcessor {
             String chain,
             String resource,
             String method,
-            String p2pRequestString,
+            NetworkMessageCodec.DecodedMessage p2pMessage,
             NetworkProcessor.Callback callback) {
         Path path = new Path();
         path.setZone(network);
         path.setChain(chain);
         path.setResource(resource);
+        onTransactionMessage(path, method, p2pMessage, callback);
+    }
+
+    private void onTransactionMessage(
+            Path path,
+            String method,
+            NetworkMessageCodec.DecodedMessage p2pMessage,
+            NetworkProcessor.Callback callback) {
+        String network = path.getZone();
+        String chain = path.getChain();
+        String resource = path.getResource();
 
         NetworkResponse<Object> networkResponse = new NetworkResponse<Object>();
         networkResponse.setVersion(Versions.currentVersion);
         networkResponse.setErrorCode(NetworkQueryStatus.SUCCESS);
         networkResponse.setMessage(NetworkQueryStatus.getStatusMessage(NetworkQueryStatus.SUCCESS));
 
-        logger.debug("request string: {}", p2pRequestString);
-
         Resource resourceObj = zoneManager.fetchResource(path);
         if (resourceObj == null) {
             logger.warn("Unable to find resource: {}.{}.{}", network, chain, resource);
@@ -338,7 +516,7 @@ public class P2PProcessor implements NetworkProcessor {
             networkResponse.setErrorCode(NetworkQueryStatus.URI_PATH_ERROR);
             networkResponse.setMessage("Resource not found");
             try {
-                callback.onResponse(objectMapper.writeValueAsString(networkResponse));
+                callback.onResponse(codec.encodeResponse(networkResponse, p2pMessage.getCodec()));
             } catch (Exception e1) {
                 logger.error("Can't serialize error response: " + resource.toString());
             }
@@ -354,9 +532,7 @@ public class P2PProcessor implements NetworkProcessor {
                     {
                         logger.debug("On remote transaction request");
                         NetworkMessage<Request> p2pRequest =
-                                objectMapper.readValue(
-                                        p2pRequestString,
-                                        new TypeReference<NetworkMessage<Request>>() {});
+                                p2pMessage.toNetworkMessage(Request.class);
                         p2pRequest.checkP2PMessage(method);
 
                         resourceObj.onRemoteTransaction(
@@ -366,11 +542,11 @@ public class P2PProcessor implements NetworkProcessor {
                                     public void onResponse(Response response) {
                                         networkResponse.setData(response);
                                         networkResponse.setSeq(p2pRequest.getSeq());
-                                        String responseContent = new String();
+                                        byte[] responseContent = null;
                                         try {
                                             responseContent =
-                                                    objectMapper.writeValueAsString(
-                                                            networkResponse);
+                                                    codec.encodeResponse(
+                                                            networkResponse, p2pMessage.getCodec());
                                         } catch (Exception e) {
                                             logger.warn("Process request error:", e);
                                             NetworkResponse<Object> errorResponse =
@@ -381,8 +557,9 @@ public class P2PProcessor implements NetworkProcessor {
                                             errorResponse.setMessage(e.getLocalizedMessage());
                                             try {
                                                 responseContent =
-                                                        objectMapper.writeValueAsString(
-                                                                errorResponse);
+                                                        codec.encodeResponse(
+                                                                errorResponse,
+                                                                p2pMessage.getCodec());
                                             } catch (Exception e1) {
                                                 logger.error(
                                                         "Can't serialize error response: "
@@ -397,14 +574,10 @@ public class P2PProcessor implements NetworkProcessor {
                     }
                 default:
                     {
-                        NetworkMessage<Object> p2pRequest =
-                                objectMapper.readValue(
-                                        p2pRequestString,
-                                        new TypeReference<NetworkMessage<Object>>() {});
                         logger.warn("Unsupported method: {}", method);
                         networkResponse.setErrorCode(NetworkQueryStatus.URI_PATH_ERROR);
                         networkResponse.setMessage("Unsupported method: " + method);
-                        networkResponse.setSeq(p2pRequest.getSeq());
+                        networkResponse.setSeq(p2pMessage.getSeq());
                         break;
                     }
             }
@@ -420,7 +593,7 @@ public class P2PProcessor implements NetworkProcessor {
         }
 
         try {
-            callback.onResponse(objectMapper.writeValueAsString(networkResponse));
+            callback.onResponse(codec.encodeResponse(networkResponse, p2pMessage.getCodec()));
 
         } catch (Exception e1) {
             logger.error("Can't serialize error response: " + resource.toString());
@@ -428,25 +601,33 @@ public class P2PProcessor implements NetworkProcessor {
     }
 
     @Override
-    public void process(Node node, String content, NetworkProcessor.Callback callback) {
-        NetworkMessage<?> networkMessage = new NetworkMessage<>();
+    public void process(Node node, byte[] content, NetworkProcessor.Callback callback) {
+        // answer in the codec of the request
+        int responseCodec =
+                NetworkMessageCodec.isBinary(content)
+                        ? NetworkMessageCodec.CODEC_BINARY
+                        : NetworkMessageCodec.CODEC_JSON;
+        NetworkMessageCodec.DecodedMessage networkMessage = null;
         try {
-            networkMessage = objectMapper.readValue(content, NetworkMessage.class);
+            // parsed once, the data bound to the type of the method
+            networkMessage = codec.decodeMessage(content, this::dataTypeOf);
 
             String method = networkMessage.getMethod();
-            String r[] = method.split("/");
+            if (method == null) {
+                throw new Exception("method not found in request package");
+            }
+            Route route = route(method);
 
             Peer peerInfo = peerManager.getPeerInfo(node);
 
-            if (r.length == 1) {
+            if (route.path == null) {
                 /** method */
-                NetworkResponse<Object> networkResponse = onStatusMessage(peerInfo, r[0], content);
-                callback.onResponse(objectMapper.writeValueAsString(networkResponse));
-            } else if (r.length == 4) {
-                /** network/stub/resource/method */
-                onTransactionMessage(r[0], r[1], r[2], r[3], content, callback);
+                NetworkResponse<Object> networkResponse =
+                        onStatusMessage(peerInfo, route.method, networkMessage);
+                callback.onResponse(codec.encodeResponse(networkResponse, responseCodec));
             } else {
-                throw new Exception("invalid method parameter, method: " + method);
+                /** network/stub/resource/method, the cached path is not handed out */
+                onTransactionMessage(new Path(route.path), route.method, networkMessage, callback);
             }
 
         } catch (Exception e) {
@@ -454,10 +635,12 @@ public class P2PProcessor implements NetworkProcessor {
             NetworkResponse<Object> networkResponse = new NetworkResponse<>();
             networkResponse.setMessage(e.getMessage());
             networkResponse.setErrorCode(NetworkQueryStatus.INTERNAL_ERROR);
-            networkResponse.setSeq(networkMessage.getSeq());
-            networkResponse.setVersion(networkMessage.getVersion());
+            if (networkMessage != null) {
+                networkResponse.setSeq(networkMessage.getSeq());
+                networkResponse.setVersion(networkMessage.getVersion());
+            }
             try {
-                callback.onResponse(objectMapper.writeValueAsString(networkResponse));
+                callback.onResponse(codec.encodeResponse(networkResponse, responseCodec));
 
             } catch (Exception e1) {
                 logger.error("writeValueAsString exception: {}, e: {}", node, e1);
@@ -1,8 +1,8 @@
 package com.webank.wecross.network.p2p;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.webank.wecross.common.NetworkQueryStatus;
 import com.webank.wecross.network.*;
+import com.webank.wecross.network.p2p.netty.HeartBeatProcessor;
 import com.webank.wecross.network.p2p.netty.MessageType;
 import com.webank.wecross.network.p2p.netty.NettyService;
 import com.webank.wecross.network.p2p.netty.RequestProcessor;
@@ -11,20 +11,40 @@ import com.webank.wecross.network.p2p.netty.response.Response;
 import com.webank.wecross.network.p2p.netty.response.ResponseCallBack;
 import com.webank.wecross.network.p2p.netty.response.StatusCode;
 import com.webank.wecross.peer.Peer;
-import com.webank.wecross.stub.ObjectMapperFactory;
 import java.io.IOException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class P2PService implements NetworkService {
     private Logger logger = LoggerFactory.getLogger(P2PService.class);
-    private ObjectMapper objectMapper = ObjectMapperFactory.getObjectMapper();
+    private NetworkMessageCodec codec = new NetworkMessageCodec();
 
     private NettyService nettyService;
 
     @Override
     public <T> void asyncSendMessage(
             Peer peer, NetworkMessage<T> msg, NetworkCallback<?> callback) {
+        // status methods only read, resource methods may send transactions
+        asyncSendMessage(
+                peer, msg, callback, msg.getMethod() != null && msg.getMethod().indexOf('/') < 0);
+    }
+
+    /** @param idempotent if the message may be sent again on timeouts, or hedged to slow peers */
+    public <T> void asyncSendMessage(
+            Peer peer, NetworkMessage<T> msg, NetworkCallback<?> callback, boolean idempotent) {
+        asyncSendMessage(peer, msg, callback, idempotent, true);
+    }
+
+    /**
+     * @param idempotent if the message may be sent again on timeouts, or hedged to slow peers
+     * @param hedge false if the caller hedges an idempotent message to other peers itself
+     */
+    public <T> void asyncSendMessage(
+            Peer peer,
+            NetworkMessage<T> msg,
+            NetworkCallback<?> callback,
+            boolean idempotent,
+            boolean hedge) {
 
         // check parameters
         try {
@@ -40,13 +60,19 @@ public class P2PService implements NetworkService {
         Request request = new Request();
         request.setType(MessageType.RESOURCE_REQUEST);
         try {
-            request.setContent(objectMapper.writeValueAsString(msg));
+            // JSON until the peer announces the binary codec
+            request.setContent(codec.encodeMessage(msg, peer.getCodecVersion()));
         } catch (Exception e) {
-            logger.error(" P2PMessage to json error: {}", e);
+            logger.error(" Encode P2PMessage error: {}", e);
             executeCallback(callback, NetworkQueryStatus.INTERNAL_ERROR, e.getMessage(), null);
             return;
         }
 
+        // status methods like seq and requestPeerInfo, resource methods are
+        // network/stub/resource/method
+        request.setControl(msg.getMethod().indexOf('/') < 0);
+        request.setIdempotent(idempotent);
+        request.setHedge(hedge);
         if (callback == null) {
             request.setTimeout(0);
         }
@@ -61,7 +87,18 @@ public class P2PService implements NetworkService {
                             logger.trace(" receive response: {}", response);
                         }
                         if (callback != null) {
-                            String content = response.getContent();
+                            if (response.getErrorCode() == StatusCode.UNREACHABLE
+                                    || response.getErrorCode() == StatusCode.BUSY) {
+                                // not processed by the peer, safe to send to another one
+                                executeCallback(
+                                        callback,
+                                        NetworkQueryStatus.PEER_UNAVAILABLE,
+                                        response.getErrorMessage(),
+                                        null);
+                                return;
+                            }
+
+                            byte[] content = response.getContent();
                             try {
                                 /** send request failed or request transfer failed */
                                 if (response.getErrorCode() != StatusCode.SUCCESS) {
@@ -109,6 +146,19 @@ public class P2PService implements NetworkService {
                                 .getCallBack()
                                 .getProcessor(MessageType.RESOURCE_REQUEST);
         nettyRequestProcessor.setNetworkProcessor(networkProcessor);
+
+        HeartBeatProcessor heartBeatProcessor =
+                (HeartBeatProcessor)
+                        nettyService
+                                .getChannelHandlerCallBack()
+                                .getCallBack()
+                                .getProcessor(MessageType.HEARTBEAT);
+        heartBeatProcessor.setNetworkProcessor(networkProcessor);
+    }
+
+    /** @param status a seq message, sent to peers with the next heartbeats */
+    public void setHeartBeatStatus(byte[] status) {
+        nettyService.getInitializer().setHeartBeatStatus(status);
     }
 
     @Override
@@ -1,85 +1,169 @@
 package com.webank.wecross.network.p2p.netty;
 
 import com.webank.wecross.network.p2p.netty.common.Node;
+import com.webank.wecross.network.p2p.netty.message.MessageBatcher;
+import com.webank.wecross.network.p2p.netty.message.proto.Message;
+import com.webank.wecross.network.p2p.netty.message.serialize.MessageSerializer;
 import io.netty.channel.ChannelHandlerContext;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Registry of the connected nodes, their channels and hosts.
+ *
+ * <p>Each node has one immutable entry, replaced as a whole under the lock of its own key, so
+ * lookups on the message path take no lock and see the channels of a node as one consistent state.
+ * The hosts are indexed both ways: host => nodeID in host2NodeID, nodeID => host in the entry.
+ *
+ * <pre>
+ * DISCONNECTED --startConnect--> CONNECTING --addChannelHandler--> CONNECTED
+ *      ^                              |                               |
+ *      +----------endConnect----------+-----removeChannelHandler------+
+ * </pre>
+ */
 public class Connections {
 
     private static final Logger logger = LoggerFactory.getLogger(Connections.class);
 
-    public Set<Node> getConfiguredPeers() {
-        synchronized (configuredPeers) {
-            return configuredPeers;
+    /** Connection state of a host */
+    public enum State {
+        DISCONNECTED,
+        /** dialed, not handshaked yet */
+        CONNECTING,
+        CONNECTED
+    }
+
+    /** A connected node: the host it is known by, its control lane and its data lanes */
+    private static class NodeChannels {
+        private final String host;
+        private final ChannelHandlerContext control;
+        private final List<ChannelHandlerContext> dataLanes;
+
+        NodeChannels(
+                String host, ChannelHandlerContext control, List<ChannelHandlerContext> dataLanes) {
+            this.host = host;
+            this.control = control;
+            this.dataLanes = dataLanes;
+        }
+
+        NodeChannels withHost(String host) {
+            return new NodeChannels(host, control, dataLanes);
+        }
+
+        NodeChannels withDataLane(ChannelHandlerContext ctx) {
+            List<ChannelHandlerContext> lanes = new ArrayList<>(dataLanes);
+            lanes.add(ctx);
+            return new NodeChannels(host, control, Collections.unmodifiableList(lanes));
+        }
+
+        NodeChannels withoutDataLane(ChannelHandlerContext ctx) {
+            List<ChannelHandlerContext> lanes = new ArrayList<>(dataLanes);
+            lanes.remove(ctx);
+            return new NodeChannels(host, control, Collections.unmodifiableList(lanes));
+        }
+
+        /** the first data lane takes over the control lane */
+        NodeChannels promoteDataLane() {
+            List<ChannelHandlerContext> lanes = new ArrayList<>(dataLanes);
+            ChannelHandlerContext ctx = lanes.remove(0);
+            return new NodeChannels(host, ctx, Collections.unmodifiableList(lanes));
         }
     }
 
+    /** all Peers should connect */
+    private Set<Node> configuredPeers = ConcurrentHashMap.newKeySet();
+
+    /** channels kept to each node: its control lane and channelsPerPeer - 1 data lanes */
+    private int channelsPerPeer = 1;
+
+    /** nodeID => its channels and host */
+    private Map<String, NodeChannels> nodes = new ConcurrentHashMap<>();
+    /** Peer Host => nodeID */
+    private Map<String, String> host2NodeID = new ConcurrentHashMap<>();
+    /** hosts dialed and not handshaked yet */
+    private Set<String> connectingHosts = ConcurrentHashMap.newKeySet();
+    /** where the search for the least loaded data lane starts, to spread idle traffic */
+    private AtomicInteger nextLane = new AtomicInteger();
+
+    public Set<Node> getConfiguredPeers() {
+        return configuredPeers;
+    }
+
     public Set<String> getConfiguredIPPorts() {
-        synchronized (configuredPeers) {
-            Set<String> ipPorts = new HashSet<>();
-            for (Node node : getConfiguredPeers()) {
-                ipPorts.add(node.getIPPort());
-            }
-            return ipPorts;
+        Set<String> ipPorts = new HashSet<>();
+        for (Node node : configuredPeers) {
+            ipPorts.add(node.getIPPort());
         }
+        return ipPorts;
     }
 
     public void setConfiguredPeers(Set<Node> configuredPeers) {
-        this.configuredPeers = configuredPeers;
+        Set<Node> peers = ConcurrentHashMap.newKeySet();
+        peers.addAll(configuredPeers);
+        this.configuredPeers = peers;
     }
 
     public void addConfiguredPeer(Node node) {
-        synchronized (configuredPeers) {
-            this.configuredPeers.add(node);
-        }
+        configuredPeers.add(node);
     }
 
     public void removeConfiguredPeer(String ipPort) {
-        synchronized (configuredPeers) {
-            configuredPeers.removeIf(node -> node.getIPPort().equals(ipPort));
-        }
+        configuredPeers.removeIf(node -> node.getIPPort().equals(ipPort));
     }
 
-    /** all Peers should connect */
-    private Set<Node> configuredPeers;
-
-    /** nodeID => ChannelHandlerContext */
-    private Map<String, ChannelHandlerContext> nodeID2ChannelHandler = new ConcurrentHashMap<>();
-    /** Peer Host => nodeID */
-    private Map<String, String> host2NodeID = new ConcurrentHashMap<>();
-
-    public Map<String, ChannelHandlerContext> getNodeID2ChannelHandler() {
-        return nodeID2ChannelHandler;
+    public int getChannelsPerPeer() {
+        return channelsPerPeer;
     }
 
-    public void setNodeID2ChannelHandler(Map<String, ChannelHandlerContext> nodeID2ChannelHandler) {
-        this.nodeID2ChannelHandler = nodeID2ChannelHandler;
+    public void setChannelsPerPeer(int channelsPerPeer) {
+        this.channelsPerPeer = channelsPerPeer;
     }
 
+    /** @return Peer Host => nodeID of the connected nodes, read only */
     public Map<String, String> getHost2NodeID() {
-        return host2NodeID;
+        return Collections.unmodifiableMap(host2NodeID);
     }
 
-    public void setHost2NodeID(Map<String, String> host2NodeID) {
-        this.host2NodeID = host2NodeID;
+    public String getIPPortIDByNodeID(String nodeID) {
+        NodeChannels channels = nodes.get(nodeID);
+        return channels == null ? null : channels.host;
     }
 
-    public String getIPPortIDByNodeID(String nodeID) {
-        String ipPort = null;
-        for (Map.Entry<String, String> entry : getHost2NodeID().entrySet()) {
-            if (entry.getValue().equals(nodeID)) {
-                ipPort = entry.getKey();
-                break;
-            }
+    public int size() {
+        return nodes.size();
+    }
+
+    public State getState(String ipPort) {
+        if (host2NodeID.containsKey(ipPort)) {
+            return State.CONNECTED;
         }
-        return ipPort;
+        return connectingHosts.contains(ipPort) ? State.CONNECTING : State.DISCONNECTED;
+    }
+
+    /**
+     * @param ipPort
+     * @return false if the host is connected or being connected already
+     */
+    public boolean startConnect(String ipPort) {
+        return !host2NodeID.containsKey(ipPort) && connectingHosts.add(ipPort);
+    }
+
+    /**
+     * the dial to the host is over, connected if its channel was added
+     *
+     * @param ipPort
+     */
+    public void endConnect(String ipPort) {
+        connectingHosts.remove(ipPort);
     }
 
     /**
@@ -89,38 +173,58 @@ public class Connections {
      */
     public Set<Node> shouldConnectNodes() {
         Set<Node> hostSet = new HashSet<>();
-        Set<Node> configuredPeers = getConfiguredPeers();
         for (Node host : configuredPeers) {
-            synchronized (host2NodeID) {
-                if (host2NodeID.containsKey(host.getIPPort())) {
-                    continue;
-                }
+            if (getState(host.getIPPort()) == State.DISCONNECTED) {
+                hostSet.add(host);
             }
-            hostSet.add(host);
         }
 
         return hostSet;
     }
 
+    /**
+     * get configured nodes connected with less than channelsPerPeer channels, once their control
+     * lane announced HEADER_VERSION_LANES
+     *
+     * @return node => number of channels to add
+     */
+    public Map<Node, Integer> shouldConnectLanes() {
+        Map<Node, Integer> hostLanes = new HashMap<>();
+        if (channelsPerPeer <= 1) {
+            return hostLanes;
+        }
+
+        for (Node host : configuredPeers) {
+            String nodeID = host2NodeID.get(host.getIPPort());
+            NodeChannels channels = nodeID == null ? null : nodes.get(nodeID);
+            if (channels == null
+                    || MessageSerializer.getHeaderVersion(channels.control.channel())
+                            < Message.HEADER_VERSION_LANES) {
+                continue;
+            }
+
+            int missing = channelsPerPeer - 1 - channels.dataLanes.size();
+            if (missing > 0) {
+                hostLanes.put(host, missing);
+            }
+        }
+        return hostLanes;
+    }
+
     public Set<String> shouldDisconnectNodes() {
         Set<String> nodeIDs = new HashSet<>();
         Set<String> configuredIpPorts = getConfiguredIPPorts();
 
-        synchronized (host2NodeID) {
-            for (Map.Entry<String, String> entry : host2NodeID.entrySet()) {
-                String ipPort = entry.getKey();
-                String nodeID = entry.getValue();
-
-                if (!configuredIpPorts.contains(ipPort)) {
-                    nodeIDs.add(nodeID);
-                }
+        for (Map.Entry<String, String> entry : host2NodeID.entrySet()) {
+            if (!configuredIpPorts.contains(entry.getKey())) {
+                nodeIDs.add(entry.getValue());
             }
-            logger.info(
-                    "shouldDisconnectNodes: {} , configured:{} current:{}",
-                    nodeIDs,
-                    configuredIpPorts,
-                    host2NodeID.entrySet());
         }
+        logger.info(
+                "shouldDisconnectNodes: {} , configured:{} current:{}",
+                nodeIDs,
+                configuredIpPorts,
+                host2NodeID.entrySet());
 
         return nodeIDs;
     }
@@ -133,16 +237,15 @@ public class Connections {
     public List<ChannelHandlerContext> activeChannelHandlers() {
 
         List<ChannelHandlerContext> result = new ArrayList<>();
-        synchronized (nodeID2ChannelHandler) {
-            for (Map.Entry<String, ChannelHandlerContext> entry :
-                    nodeID2ChannelHandler.entrySet()) {
-                if (entry.getValue().channel().isActive()) {
-                    result.add(entry.getValue());
+        for (Map.Entry<String, NodeChannels> entry : nodes.entrySet()) {
+            for (ChannelHandlerContext ctx : channelHandlers(entry.getValue())) {
+                if (ctx.channel().isActive()) {
+                    result.add(ctx);
                 } else {
                     logger.warn(
                             " channel handler not active ??? node: {}, ctx: {}",
                             entry.getKey(),
-                            System.identityHashCode(entry.getValue()));
+                            System.identityHashCode(ctx));
                 }
             }
         }
@@ -154,8 +257,10 @@ public class Connections {
      * @param node
      * @param ctx
      * @param connectToServer
+     * @return true for the first channel to the node, its control lane, false for a data lane
      */
-    public void addChannelHandler(Node node, ChannelHandlerContext ctx, boolean connectToServer) {
+    public boolean addChannelHandler(
+            Node node, ChannelHandlerContext ctx, boolean connectToServer) {
         int hashCode = System.identityHashCode(ctx);
 
         logger.info(
@@ -165,41 +270,52 @@ public class Connections {
                 hashCode,
                 ctx.channel().isActive());
 
-        ChannelHandlerContext oldCtx = null;
-        synchronized (nodeID2ChannelHandler) {
-            oldCtx = nodeID2ChannelHandler.get(node.getNodeID());
+        // what the channel became: 0 control lane, 1 data lane, -1 neither
+        int[] added = new int[] {-1};
+        String[] lastHost = new String[1];
+        nodes.compute(
+                node.getNodeID(),
+                (nodeID, channels) -> {
+                    if (channels == null) {
+                        added[0] = 0;
+                        host2NodeID.put(node.getIPPort(), nodeID);
+                        return new NodeChannels(node.getIPPort(), ctx, Collections.emptyList());
+                    }
 
-            if (oldCtx == null) {
-                nodeID2ChannelHandler.put(node.getNodeID(), ctx);
+                    if (1 + channels.dataLanes.size() < channelsPerPeer) {
+                        added[0] = 1;
+                        channels = channels.withDataLane(ctx);
+                    }
+                    // the host dialed is the one to know the node by
+                    if (connectToServer && !channels.host.equals(node.getIPPort())) {
+                        lastHost[0] = channels.host;
+                        host2NodeID.remove(channels.host, nodeID);
+                        host2NodeID.put(node.getIPPort(), nodeID);
+                        channels = channels.withHost(node.getIPPort());
+                    }
+                    return channels;
+                });
 
-                synchronized (host2NodeID) {
-                    host2NodeID.put(node.getIPPort(), node.getNodeID());
-                }
-            }
+        if (added[0] == 0) {
+            return true;
         }
 
-        if (oldCtx != null) {
-            logger.info(" connection exist, host: {}, node: {} ", node, node.getNodeID());
-            if (connectToServer) {
-                synchronized (host2NodeID) {
-                    for (Map.Entry<String, String> entry : host2NodeID.entrySet()) {
-                        if (entry.getValue().equals(node.getNodeID())) {
-                            host2NodeID.remove(entry.getKey());
-                            host2NodeID.put(node.getIPPort(), node.getNodeID());
-                            logger.info(
-                                    " update, last host: {}, host: {}, node: {} ",
-                                    entry.getKey(),
-                                    node,
-                                    node.getNodeID());
-                            break;
-                        }
-                    }
-                }
-            }
+        logger.info(" connection exist, host: {}, node: {} ", node, node.getNodeID());
+        if (lastHost[0] != null) {
+            logger.info(
+                    " update, last host: {}, host: {}, node: {} ",
+                    lastHost[0],
+                    node,
+                    node.getNodeID());
+        }
 
-            throw new UnsupportedOperationException(
-                    " existing connection, node : " + node.getNodeID() + ", hashCode: " + hashCode);
+        if (added[0] == 1) {
+            logger.info(" add data lane, host: {}, node: {} ", node, node.getNodeID());
+            return false;
         }
+
+        throw new UnsupportedOperationException(
+                " existing connection, node : " + node.getNodeID() + ", hashCode: " + hashCode);
     }
 
     /**
@@ -207,19 +323,69 @@ public class Connections {
      * @return
      */
     public ChannelHandlerContext getChannelHandler(String nodeID) {
-        ChannelHandlerContext ctx = null;
-        synchronized (nodeID2ChannelHandler) {
-            ctx = nodeID2ChannelHandler.get(nodeID);
+        NodeChannels channels = nodes.get(nodeID);
+        return channels == null ? null : channels.control;
+    }
+
+    /**
+     * @param nodeID
+     * @return the control lane and the data lanes to the node
+     */
+    public List<ChannelHandlerContext> getChannelHandlers(String nodeID) {
+        NodeChannels channels = nodes.get(nodeID);
+        return channels == null ? new ArrayList<>() : channelHandlers(channels);
+    }
+
+    private static List<ChannelHandlerContext> channelHandlers(NodeChannels channels) {
+        List<ChannelHandlerContext> channelHandlers =
+                new ArrayList<>(1 + channels.dataLanes.size());
+        channelHandlers.add(channels.control);
+        channelHandlers.addAll(channels.dataLanes);
+        return channelHandlers;
+    }
+
+    /**
+     * @param nodeID
+     * @return the data lane to the node with the least bytes waiting, its control lane if no data
+     *     lane is ready
+     */
+    public ChannelHandlerContext getDataChannelHandler(String nodeID) {
+        NodeChannels channels = nodes.get(nodeID);
+        if (channels == null) {
+            return null;
+        }
+
+        List<ChannelHandlerContext> lanes = channels.dataLanes;
+        ChannelHandlerContext selected = null;
+        if (!lanes.isEmpty()) {
+            int start = nextLane.getAndIncrement();
+            long selectedPendingBytes = Long.MAX_VALUE;
+            for (int i = 0; i < lanes.size(); ++i) {
+                ChannelHandlerContext ctx = lanes.get(Math.floorMod(start + i, lanes.size()));
+                // lanes of older peers may still be closed by them
+                if (!ctx.channel().isActive()
+                        || MessageSerializer.getHeaderVersion(ctx.channel())
+                                < Message.HEADER_VERSION_LANES) {
+                    continue;
+                }
+
+                long pendingBytes = MessageBatcher.getPendingBytes(ctx.channel());
+                if (pendingBytes < selectedPendingBytes) {
+                    selected = ctx;
+                    selectedPendingBytes = pendingBytes;
+                }
+            }
         }
 
-        return ctx;
+        return selected != null ? selected : channels.control;
     }
 
     /**
      * @param node
      * @param ctx
+     * @return true if it was the last channel to the node
      */
-    public void removeChannelHandler(Node node, ChannelHandlerContext ctx) {
+    public boolean removeChannelHandler(Node node, ChannelHandlerContext ctx) {
         int hashCode = System.identityHashCode(ctx);
 
         logger.info(
@@ -228,37 +394,47 @@ public class Connections {
                 node.getNodeID(),
                 hashCode);
 
-        ChannelHandlerContext oldCtx = null;
-        synchronized (nodeID2ChannelHandler) {
-            oldCtx = nodeID2ChannelHandler.get(node.getNodeID());
-
-            if (oldCtx != null && oldCtx == ctx) {
-                nodeID2ChannelHandler.remove(node.getNodeID());
-                logger.info(" remove channel handler, node: {}", node.getNodeID());
-            }
-        }
-
-        if (oldCtx != null && oldCtx == ctx) {
-            synchronized (host2NodeID) {
-                for (Map.Entry<String, String> entry : host2NodeID.entrySet()) {
-                    if (entry.getValue().equals(node.getNodeID())) {
+        // what the channel was: 0 the last one, 1 a control lane taken over, 2 a data lane
+        int[] removed = new int[] {-1};
+        nodes.computeIfPresent(
+                node.getNodeID(),
+                (nodeID, channels) -> {
+                    if (channels.control == ctx) {
+                        if (!channels.dataLanes.isEmpty()) {
+                            // a data lane takes over, the node stays connected
+                            removed[0] = 1;
+                            return channels.promoteDataLane();
+                        }
+                        removed[0] = 0;
+                        host2NodeID.remove(channels.host, nodeID);
                         logger.info(
-                                " remove host info, host: {}, node: {} ",
-                                entry.getKey(),
-                                entry.getValue());
-                        host2NodeID.remove(entry.getKey());
-                        break;
+                                " remove host info, host: {}, node: {} ", channels.host, nodeID);
+                        return null;
                     }
-                }
-            }
-        }
+                    if (channels.dataLanes.contains(ctx)) {
+                        removed[0] = 2;
+                        return channels.withoutDataLane(ctx);
+                    }
+                    return channels;
+                });
 
-        if (oldCtx == null) {
-            logger.warn(
-                    " channel handler not exist, host: {}, node: {}, ctx: {}",
-                    node,
-                    node.getNodeID(),
-                    hashCode);
+        switch (removed[0]) {
+            case 0:
+                logger.info(" remove channel handler, node: {}", node.getNodeID());
+                return true;
+            case 1:
+                logger.info(" promote data lane to control lane, node: {}", node.getNodeID());
+                return false;
+            case 2:
+                logger.info(" remove data lane, node: {}", node.getNodeID());
+                return false;
+            default:
+                logger.warn(
+                        " channel handler not exist, host: {}, node: {}, ctx: {}",
+                        node,
+                        node.getNodeID(),
+                        hashCode);
+                return false;
         }
     }
 }
@@ -1,8 +1,10 @@
 package com.webank.wecross.network.p2p.netty;
 
+import com.webank.wecross.network.NetworkProcessor;
 import com.webank.wecross.network.p2p.netty.common.Node;
 import com.webank.wecross.network.p2p.netty.message.processor.Processor;
 import com.webank.wecross.network.p2p.netty.message.proto.Message;
+import com.webank.wecross.network.p2p.netty.message.serialize.MessageSerializer;
 import io.netty.channel.ChannelHandlerContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -11,6 +13,16 @@ public class HeartBeatProcessor implements Processor {
 
     private static final Logger logger = LoggerFactory.getLogger(HeartBeatProcessor.class);
 
+    private NetworkProcessor networkProcessor;
+
+    public NetworkProcessor getNetworkProcessor() {
+        return networkProcessor;
+    }
+
+    public void setNetworkProcessor(NetworkProcessor networkProcessor) {
+        this.networkProcessor = networkProcessor;
+    }
+
     @Override
     public String name() {
         return "HeartBeat";
@@ -18,9 +30,16 @@ public class HeartBeatProcessor implements Processor {
 
     @Override
     public void process(ChannelHandlerContext ctx, Node node, Message message) {
-        // log with do nothing
+        // older versions send 0 in the result
+        MessageSerializer.setHeaderVersion(ctx.channel(), message.getResult());
         if (logger.isTraceEnabled()) {
             logger.trace(" receive heartbeat, host: {}, seq: {}", node, message.getSeq());
         }
+
+        // the status of the peer, sent as a seq message that needs no response
+        byte[] status = message.getData();
+        if (networkProcessor != null && status.length > 0) {
+            networkProcessor.process(node, status, responseContent -> {});
+        }
     }
 }
@@ -8,4 +8,8 @@ public interface MessageType {
     Short RESOURCE_REQUEST = 0x10;
     /** resource remote request */
     Short RESOURCE_RESPONSE = 0x11;
+    /** frames of several messages to the same peer */
+    Short BATCH = 0x12;
+    /** piece of a frame too long to be sent at once */
+    Short CHUNK = 0x13;
 }
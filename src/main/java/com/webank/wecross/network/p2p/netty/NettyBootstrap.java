@@ -1,20 +1,17 @@
 package com.webank.wecross.network.p2p.netty;
 
+import com.webank.wecross.network.NettyTransport;
 import com.webank.wecross.network.p2p.netty.channel.handler.ChannelHandler;
 import com.webank.wecross.network.p2p.netty.channel.handler.ChannelHandlerCallBack;
+import com.webank.wecross.network.p2p.netty.channel.handler.P2PFrameDecoder;
 import com.webank.wecross.network.p2p.netty.common.Node;
 import com.webank.wecross.network.p2p.netty.factory.P2PConfig;
-import com.webank.wecross.network.p2p.netty.message.proto.Message;
 import com.webank.wecross.network.p2p.netty.message.serialize.MessageSerializer;
 import io.netty.bootstrap.Bootstrap;
 import io.netty.bootstrap.ServerBootstrap;
-import io.netty.buffer.ByteBuf;
 import io.netty.channel.*;
-import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
-import io.netty.channel.socket.nio.NioSocketChannel;
-import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import io.netty.handler.flush.FlushConsolidationHandler;
 import io.netty.handler.logging.LogLevel;
 import io.netty.handler.logging.LoggingHandler;
 import io.netty.handler.ssl.*;
@@ -23,11 +20,13 @@ import io.netty.util.AttributeKey;
 import java.io.IOException;
 import java.security.InvalidParameterException;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
@@ -37,8 +36,9 @@ public class NettyBootstrap {
 
     private static final Logger logger = LoggerFactory.getLogger(NettyBootstrap.class);
 
-    /** Maximum message length of p2p message, default 64MB */
-    private static final Integer maxP2PMessageLength = 64 * 1024 * 1024;
+    /** P2P send window, chunks of long messages wait while 1MB is unflushed, until 256KB */
+    private static final WriteBufferWaterMark sendWindow =
+            new WriteBufferWaterMark(256 * 1024, 1024 * 1024);
     /** P2P connection maximum idle time, default 20000 ms */
     private static final Integer connectionIdleTimeoutMS = 20000;
     /** P2P connection hearbeat period, default 3000ms */
@@ -50,7 +50,11 @@ public class NettyBootstrap {
 
     private ChannelHandlerCallBack channelHandlerCallBack;
     private Connections connections = new Connections();
+    private MessageSerializer messageSerializer = new MessageSerializer();
     private P2PConfig config;
+    private NettyTransport transport = NettyTransport.getDefault();
+    /** the router status, carried by heartbeats on control lanes */
+    private volatile byte[] heartBeatStatus;
 
     public P2PConfig getConfig() {
         return config;
@@ -60,6 +64,22 @@ public class NettyBootstrap {
         this.config = config;
     }
 
+    public byte[] getHeartBeatStatus() {
+        return heartBeatStatus;
+    }
+
+    public void setHeartBeatStatus(byte[] heartBeatStatus) {
+        this.heartBeatStatus = heartBeatStatus;
+    }
+
+    public NettyTransport getTransport() {
+        return transport;
+    }
+
+    public void setTransport(NettyTransport transport) {
+        this.transport = transport;
+    }
+
     public ChannelHandlerCallBack getChannelHandlerCallBack() {
         return channelHandlerCallBack;
     }
@@ -79,6 +99,9 @@ public class NettyBootstrap {
     private final Bootstrap bootstrap = new Bootstrap();
     private final ServerBootstrap serverBootstrap = new ServerBootstrap();
 
+    /** ip:port of the nodes with data lanes being connected */
+    private Set<String> connectingLanes = ConcurrentHashMap.newKeySet();
+
     private ScheduledExecutorService scheduledExecutorService =
             new ScheduledThreadPoolExecutor(1, new CustomizableThreadFactory("p2pbootstrap-"));
 
@@ -97,14 +120,12 @@ public class NettyBootstrap {
             org.springframework.core.io.Resource nodeKey)
             throws IOException {
 
-        SslContext sslCtx =
+        SslContextBuilder sslContextBuilder =
                 SslContextBuilder.forServer(nodeCrt.getInputStream(), nodeKey.getInputStream())
                         .trustManager(caCrt.getInputStream())
-                        .sslProvider(SslProvider.JDK)
-                        .clientAuth(ClientAuth.REQUIRE)
-                        .build();
+                        .clientAuth(ClientAuth.REQUIRE);
 
-        return sslCtx;
+        return transport.buildSslContext(sslContextBuilder);
     }
 
     /**
@@ -121,12 +142,11 @@ public class NettyBootstrap {
             org.springframework.core.io.Resource nodeCrt,
             org.springframework.core.io.Resource nodeKey)
             throws IOException {
-        return SslContextBuilder.forClient()
-                .trustManager(caCrt.getInputStream())
-                .keyManager(nodeCrt.getInputStream(), nodeKey.getInputStream())
-                .sslProvider(SslProvider.JDK)
-                .clientAuth(ClientAuth.REQUIRE)
-                .build();
+        return transport.buildSslContext(
+                SslContextBuilder.forClient()
+                        .trustManager(caCrt.getInputStream())
+                        .keyManager(nodeCrt.getInputStream(), nodeKey.getInputStream())
+                        .clientAuth(ClientAuth.REQUIRE));
     }
 
     /**
@@ -145,16 +165,20 @@ public class NettyBootstrap {
         getConfig().validConfig();
         // set connect peer nodes
         getConnections().setConfiguredPeers(getConfig().getConnectPeers());
+        getConnections().setChannelsPerPeer(getConfig().getChannelsPerPeer());
 
         startListen();
         startConnect();
         startPeriodTasks();
     }
 
-    private void startListen() throws ExecutionException, InterruptedException, IOException {
+    /** Merge the flushes of responses written while reading, and of writes from other threads */
+    private FlushConsolidationHandler newFlushConsolidationHandler() {
+        return new FlushConsolidationHandler(
+                FlushConsolidationHandler.DEFAULT_EXPLICIT_FLUSH_AFTER_FLUSHES, true);
+    }
 
-        EventLoopGroup bossGroup = new NioEventLoopGroup();
-        EventLoopGroup workerGroup = new NioEventLoopGroup();
+    private void startListen() throws ExecutionException, InterruptedException, IOException {
 
         P2PConfig config = getConfig();
 
@@ -163,9 +187,10 @@ public class NettyBootstrap {
                         config.getCaCert(), config.getSslCert(), config.getSslKey());
 
         serverBootstrap
-                .group(bossGroup, workerGroup)
-                .channel(NioServerSocketChannel.class)
+                .group(transport.getBossGroup(), transport.getWorkerGroup())
+                .channel(transport.getServerChannelClass())
                 .option(ChannelOption.SO_BACKLOG, 100)
+                .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK, sendWindow)
                 .handler(new LoggingHandler(LogLevel.INFO))
                 .childHandler(
                         new ChannelInitializer<SocketChannel>() {
@@ -184,13 +209,13 @@ public class NettyBootstrap {
                                 ch.pipeline()
                                         .addLast(
                                                 sslHandler,
-                                                new LengthFieldBasedFrameDecoder(
-                                                        Integer.MAX_VALUE, 0, 4, -4, 0),
+                                                new P2PFrameDecoder(),
                                                 new IdleStateHandler(
                                                         connectionIdleTimeoutMS,
                                                         connectionIdleTimeoutMS,
                                                         connectionIdleTimeoutMS,
                                                         TimeUnit.MILLISECONDS),
+                                                newFlushConsolidationHandler(),
                                                 handler);
                             }
                         });
@@ -204,11 +229,10 @@ public class NettyBootstrap {
 
     private void startConnect() throws IOException {
 
-        // init netty
-        EventLoopGroup workerGroup = new NioEventLoopGroup();
-
-        bootstrap.group(workerGroup);
-        bootstrap.channel(NioSocketChannel.class);
+        // init netty, on the io threads of the server
+        bootstrap.group(transport.getWorkerGroup());
+        bootstrap.channel(transport.getChannelClass());
+        bootstrap.option(ChannelOption.WRITE_BUFFER_WATER_MARK, sendWindow);
 
         P2PConfig config = getConfig();
 
@@ -233,13 +257,13 @@ public class NettyBootstrap {
                         ch.pipeline()
                                 .addLast(
                                         sslHandler,
-                                        new LengthFieldBasedFrameDecoder(
-                                                maxP2PMessageLength, 0, 4, -4, 0),
+                                        new P2PFrameDecoder(),
                                         new IdleStateHandler(
                                                 connectionIdleTimeoutMS,
                                                 connectionIdleTimeoutMS,
                                                 connectionIdleTimeoutMS,
                                                 TimeUnit.MILLISECONDS),
+                                        newFlushConsolidationHandler(),
                                         handler);
                     }
                 });
@@ -249,9 +273,15 @@ public class NettyBootstrap {
     }
 
     private void startPeriodTasks() {
-        // heartbeat: 3 s
+        // heartbeat and missing data lanes: 3 s
         scheduledExecutorService.scheduleAtFixedRate(
-                () -> heartBeat(), 0, heartBeatPeriod, TimeUnit.MILLISECONDS);
+                () -> {
+                    heartBeat();
+                    connectLanes();
+                },
+                0,
+                heartBeatPeriod,
+                TimeUnit.MILLISECONDS);
 
         // reconnect : 30s
         scheduledExecutorService.scheduleAtFixedRate(
@@ -266,27 +296,26 @@ public class NettyBootstrap {
 
     /** list all connected nodes */
     public void listConnectedNodes() {
-        Map<String, String> host2NodeID = getConnections().getHost2NodeID();
-        synchronized (host2NodeID) {
-            host2NodeID.forEach(
-                    (host, nodeID) -> {
-                        logger.info("Current peer url:{} nodeid:{}", host, nodeID);
-                    });
-        }
+        getConnections()
+                .getHost2NodeID()
+                .forEach(
+                        (host, nodeID) -> {
+                            logger.info("Current peer url:{} nodeid:{}", host, nodeID);
+                        });
     }
 
-    /** send heartbeat message to all active nodes */
+    /** send heartbeat message to all active nodes, with the status on their control lanes */
     public void heartBeat() {
+        byte[] status = heartBeatStatus;
         List<ChannelHandlerContext> channelHandlers = getConnections().activeChannelHandlers();
         channelHandlers.forEach(
                 (ctx) -> {
-                    Message message = Message.builder(MessageType.HEARTBEAT);
-                    MessageSerializer serializer = new MessageSerializer();
-                    ByteBuf byteBuf = ctx.alloc().buffer();
-                    serializer.serialize(message, byteBuf);
-                    ctx.writeAndFlush(byteBuf);
-
                     Node node = (Node) ctx.channel().attr(AttributeKey.valueOf("node")).get();
+                    boolean control =
+                            node != null
+                                    && getConnections().getChannelHandler(node.getNodeID()) == ctx;
+                    ctx.writeAndFlush(
+                            messageSerializer.serializeHeartBeat(ctx, control ? status : null));
 
                     if (logger.isTraceEnabled()) {
                         logger.trace(" send heartbeat message to {} ", node);
@@ -301,6 +330,11 @@ public class NettyBootstrap {
                 .shouldConnectNodes()
                 .forEach(
                         host -> {
+                            // one dial in flight per host, until its handshake is over
+                            if (!getConnections().startConnect(host.getIPPort())) {
+                                return;
+                            }
+
                             ChannelFuture channelFuture =
                                     bootstrap.connect(host.getHost(), host.getPort());
                             channelFuture.addListener(
@@ -311,11 +345,18 @@ public class NettyBootstrap {
                                                 if (logger.isDebugEnabled()) {
                                                     logger.debug(" connect to {} success", host);
                                                 }
+                                                onHandshake(
+                                                        future.channel(),
+                                                        () ->
+                                                                getConnections()
+                                                                        .endConnect(
+                                                                                host.getIPPort()));
                                             } else {
                                                 logger.warn(
                                                         " connect to {} failed, error: {}",
                                                         host,
                                                         future.cause());
+                                                getConnections().endConnect(host.getIPPort());
                                             }
                                         }
                                     });
@@ -325,6 +366,60 @@ public class NettyBootstrap {
                         });
     }
 
+    /** connect the missing data lanes to configured nodes, one attempt in flight per node */
+    public void connectLanes() {
+        getConnections()
+                .shouldConnectLanes()
+                .forEach(
+                        (host, missing) -> {
+                            if (!connectingLanes.add(host.getIPPort())) {
+                                return;
+                            }
+
+                            if (logger.isDebugEnabled()) {
+                                logger.debug(" try to connect {} lanes to {}", missing, host);
+                            }
+                            AtomicInteger pending = new AtomicInteger(missing);
+                            for (int i = 0; i < missing; ++i) {
+                                connectLane(
+                                        host,
+                                        () -> {
+                                            if (pending.decrementAndGet() == 0) {
+                                                connectingLanes.remove(host.getIPPort());
+                                            }
+                                        });
+                            }
+                        });
+    }
+
+    /** @param done once the lane is registered, or failed */
+    private void connectLane(Node host, Runnable done) {
+        ChannelFuture channelFuture = bootstrap.connect(host.getHost(), host.getPort());
+        channelFuture.addListener(
+                (ChannelFutureListener)
+                        future -> {
+                            if (!future.isSuccess()) {
+                                logger.warn(
+                                        " connect lane to {} failed, error: {}",
+                                        host,
+                                        future.cause());
+                                done.run();
+                                return;
+                            }
+
+                            onHandshake(future.channel(), done);
+                        });
+    }
+
+    /** @param done once the channel is registered, or its handshake failed */
+    private void onHandshake(Channel channel, Runnable done) {
+        // the channel is registered by the handler right after the handshake
+        channel.pipeline()
+                .get(SslHandler.class)
+                .handshakeFuture()
+                .addListener(handshake -> channel.eventLoop().execute(done));
+    }
+
     public synchronized void removeConnect(String ipPort) {
 
         String nodeID = getConnections().getHost2NodeID().get(ipPort);
@@ -332,8 +427,7 @@ public class NettyBootstrap {
             return;
         }
 
-        ChannelHandlerContext ctx = getConnections().getChannelHandler(nodeID);
-        if (ctx != null) {
+        for (ChannelHandlerContext ctx : getConnections().getChannelHandlers(nodeID)) {
             logger.debug("Try to disconnect {}", nodeID);
             getChannelHandlerCallBack().onDisconnect(ctx);
             ctx.disconnect();
@@ -2,22 +2,29 @@ package com.webank.wecross.network.p2p.netty;
 
 import com.webank.wecross.network.p2p.netty.channel.handler.ChannelHandlerCallBack;
 import com.webank.wecross.network.p2p.netty.common.Node;
+import com.webank.wecross.network.p2p.netty.factory.P2PConfig;
+import com.webank.wecross.network.p2p.netty.message.MessageBatcher;
 import com.webank.wecross.network.p2p.netty.message.proto.Message;
 import com.webank.wecross.network.p2p.netty.message.serialize.MessageSerializer;
 import com.webank.wecross.network.p2p.netty.request.Request;
 import com.webank.wecross.network.p2p.netty.response.Response;
 import com.webank.wecross.network.p2p.netty.response.ResponseCallBack;
 import com.webank.wecross.network.p2p.netty.response.StatusCode;
-import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.util.HashedWheelTimer;
 import io.netty.util.Timeout;
 import io.netty.util.Timer;
 import io.netty.util.TimerTask;
 import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
@@ -26,10 +33,36 @@ import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 public class NettyService {
     private static Logger logger = LoggerFactory.getLogger(NettyService.class);
 
+    /** retries of a request on busy peers and timeouts, hedges not included */
+    public static final int MAX_RETRIES = 2;
+    /** backoff before the first retry, doubled for the next */
+    public static final long RETRY_BACKOFF_MS = 100;
+
     private Timer timer = new HashedWheelTimer();
     private NettyBootstrap nettyBootstrap;
     private SeqMapper seqMapper;
     private ThreadPoolTaskExecutor threadPool;
+    private MessageSerializer messageSerializer = new MessageSerializer();
+    private MessageBatcher messageBatcher = new MessageBatcher();
+    private int maxInflightRequests = P2PConfig.DEFAULT_MAX_INFLIGHT_REQUESTS;
+    // requests awaiting responses by nodeID
+    private Map<String, AtomicInteger> inflightRequests = new ConcurrentHashMap<>();
+    // round trips and retry budgets by nodeID
+    private Map<String, PeerLatency> peerLatencies = new ConcurrentHashMap<>();
+
+    public int getMaxInflightRequests() {
+        return maxInflightRequests;
+    }
+
+    public void setMaxInflightRequests(int maxInflightRequests) {
+        this.maxInflightRequests = maxInflightRequests;
+    }
+
+    /** @return requests to the node awaiting responses */
+    public int getInflightRequests(String nodeID) {
+        AtomicInteger inflight = inflightRequests.get(nodeID);
+        return inflight == null ? 0 : inflight.get();
+    }
 
     public Timer getTimer() {
         return timer;
@@ -130,11 +163,29 @@ public class NettyService {
     }
 
     /**
+     * Send a request, the response to callbacks with a timeout is awaited no longer than the peer
+     * usually takes, and the request is retried or hedged within the retry budget of the peer.
+     *
      * @param node
      * @param request
      * @param callback
      */
     public void asyncSendRequest(Node node, Request request, ResponseCallBack callback) {
+        if (!callback.needOnResponse() || request.getTimeout() <= 0) {
+            send(node, request, callback, request.getTimeout());
+            return;
+        }
+
+        new Exchange(node, request, callback).attempt();
+    }
+
+    /** @return round trips and retry budget of the node */
+    public PeerLatency getPeerLatency(String nodeID) {
+        return peerLatencies.computeIfAbsent(nodeID, key -> new PeerLatency());
+    }
+
+    /** @return if the request was written */
+    private boolean send(Node node, Request request, ResponseCallBack callback, long timeout) {
         Message message = Message.builder(request.getType(), request.getContent());
 
         callback.setMessage(message);
@@ -143,21 +194,37 @@ public class NettyService {
         String nodeID = node.getNodeID();
         if (logger.isTraceEnabled()) {
             logger.trace(
-                    " request content, node: {}, seq: {}, type: {}, timeout: {}, content: {}",
+                    " request content, node: {}, seq: {}, type: {}, timeout: {}, length: {}",
                     nodeID,
                     message.getSeq(),
                     message.getType(),
-                    request.getTimeout(),
-                    request.getContent());
+                    timeout,
+                    message.getDataLength());
         }
 
-        // select random nodes to send
-        ChannelHandlerContext ctx = getConnections().getChannelHandler(nodeID);
+        // peer sync on the control lane, transactions on the least loaded data lane
+        ChannelHandlerContext ctx =
+                request.isControl()
+                        ? getConnections().getChannelHandler(nodeID)
+                        : getConnections().getDataChannelHandler(nodeID);
         if (ctx != null && ctx.channel().isActive()) {
             callback.setCtx(ctx);
-            getSeqMapper().add(message.getSeq(), callback);
+            if (callback.needOnResponse()) {
+                AtomicInteger inflight =
+                        inflightRequests.computeIfAbsent(nodeID, key -> new AtomicInteger());
+                if (inflight.incrementAndGet() > maxInflightRequests) {
+                    // fail at once instead of queueing behind requests that may time out
+                    inflight.decrementAndGet();
+                    callback.sendFailed(StatusCode.BUSY, "too many requests in flight");
+                    return false;
+                }
+                callback.setInflight(inflight);
 
-            if (request.getTimeout() > 0) {
+                // a response nobody waits for is not mapped, it would never be removed
+                getSeqMapper().add(message.getSeq(), callback);
+            }
+
+            if (timeout > 0) {
 
                 final ResponseCallBack finalCallback = callback;
                 final ThreadPoolTaskExecutor finalThreadPool = threadPool;
@@ -182,20 +249,149 @@ public class NettyService {
                                             }
                                         }
                                     },
-                                    request.getTimeout(),
+                                    timeout,
                                     TimeUnit.MILLISECONDS));
                 }
             }
 
-            MessageSerializer serializer = new MessageSerializer();
-            ByteBuf byteBuf = ctx.alloc().buffer();
-            serializer.serialize(message, byteBuf);
-            ctx.writeAndFlush(byteBuf);
+            messageBatcher.send(ctx, messageSerializer.serialize(ctx, message));
             if (logger.isTraceEnabled()) {
                 logger.trace(" send request, host: {}, seq: {}", node, message.getSeq());
             }
+            return true;
         } else {
             callback.sendFailed(StatusCode.UNREACHABLE, "node unreachable");
+            return false;
+        }
+    }
+
+    /**
+     * The attempts of one request, the first response of them goes to the callback of the caller. A
+     * peer answering busy is asked again after a backoff, an idempotent request is also asked again
+     * on a timeout, and sent once more if no response came within the p95 round trip unless the
+     * caller hedges it to other peers.
+     */
+    private class Exchange {
+        private final Node node;
+        private final Request request;
+        private final ResponseCallBack callback;
+        private final PeerLatency peerLatency;
+        private final int requestClass;
+        private final AtomicBoolean done = new AtomicBoolean(false);
+        // attempts sent or waiting for a backoff, the last failure of them is the result
+        private final AtomicInteger pending = new AtomicInteger(1);
+        private final AtomicInteger retries = new AtomicInteger(0);
+        private final List<Attempt> attempts = new CopyOnWriteArrayList<>();
+        private volatile Timeout hedge;
+
+        Exchange(Node node, Request request, ResponseCallBack callback) {
+            this.node = node;
+            this.request = request;
+            this.callback = callback;
+            this.peerLatency = getPeerLatency(node.getNodeID());
+            this.requestClass = PeerLatency.classOf(request.isControl(), request.isIdempotent());
+
+            peerLatency.onRequest();
+        }
+
+        void attempt() {
+            if (done.get()) {
+                return;
+            }
+
+            long timeout = peerLatency.getTimeout(requestClass, request.getTimeout());
+            Attempt attempt = new Attempt(timeout);
+            attempts.add(attempt);
+            attempt.sent = send(node, request, attempt, timeout);
+            if (callback.getMessage() == null) {
+                // the first attempt stands for the request
+                callback.setSeqMapper(getSeqMapper());
+                callback.setMessage(attempt.getMessage());
+            }
+            if (!attempt.sent || !request.isIdempotent() || !request.isHedge() || hedge != null) {
+                return;
+            }
+
+            long hedgeDelay = peerLatency.getP95(requestClass);
+            if (hedgeDelay >= 0) {
+                // the timer resolves no less than a tick, hedges are not sent sooner
+                hedge =
+                        timer.newTimeout(
+                                t -> {
+                                    if (!done.get() && peerLatency.tryRetry()) {
+                                        pending.incrementAndGet();
+                                        attempt();
+                                    }
+                                },
+                                Math.max(1, hedgeDelay / 1000),
+                                TimeUnit.MILLISECONDS);
+            }
+        }
+
+        void onFailed(Attempt attempt, Response response) {
+            boolean retry;
+            if (response.getErrorCode() == StatusCode.TIMEOUT) {
+                // what is known of a round trip that timed out
+                peerLatency.record(requestClass, attempt.timeout * 1000);
+                retry = request.isIdempotent();
+            } else {
+                // a busy peer, not the local in-flight limit, nor an unreachable peer
+                retry = response.getErrorCode() == StatusCode.BUSY && attempt.sent;
+            }
+
+            if (retry && !done.get() && retries.get() < MAX_RETRIES && peerLatency.tryRetry()) {
+                long backoff = RETRY_BACKOFF_MS << retries.getAndIncrement();
+                timer.newTimeout(t -> attempt(), backoff, TimeUnit.MILLISECONDS);
+                return;
+            }
+
+            if (pending.decrementAndGet() == 0) {
+                finish(attempt, response);
+            }
+        }
+
+        void finish(Attempt attempt, Response response) {
+            if (!done.compareAndSet(false, true)) {
+                return;
+            }
+
+            if (hedge != null) {
+                hedge.cancel();
+            }
+            for (Attempt other : attempts) {
+                if (other != attempt) {
+                    other.cancelTimer();
+                    other.releaseInflight();
+                    getSeqMapper().remove(other.getMessage().getSeq());
+                }
+            }
+            callback.onResponse(response);
+        }
+
+        private class Attempt extends ResponseCallBack {
+            private final long timeout;
+            private final long start = System.nanoTime();
+            // set once written, a failure while sending is local and not retried
+            private volatile boolean sent;
+
+            Attempt(long timeout) {
+                this.timeout = timeout;
+            }
+
+            @Override
+            public void onResponse(Response response) {
+                if (response.getErrorCode() == StatusCode.SUCCESS) {
+                    peerLatency.record(requestClass, (System.nanoTime() - start) / 1000);
+                    finish(this, response);
+                } else {
+                    onFailed(this, response);
+                }
+            }
+
+            @Override
+            public boolean needOnResponse() {
+                return true;
+            }
         }
     }
 }
@@ -0,0 +1,112 @@
+package com.webank.wecross.network.p2p.netty;
+
+import java.util.Arrays;
+
+/**
+ * Round trip times of the requests to a peer, and the timeouts, hedges and retries derived from
+ * them.
+ *
+ * <p>Peer sync on the control lane, idempotent calls and other transactions keep distributions of
+ * their own, a slow chain does not stretch the timeouts of peer sync. Transactions are never sent
+ * again and keep the configured timeout, a slow one may still go on chain.
+ */
+public class PeerLatency {
+    public static final int CONTROL = 0;
+    public static final int IDEMPOTENT = 1;
+    public static final int TRANSACTION = 2;
+
+    /** recent round trips kept per class */
+    private static final int WINDOW = 512;
+    /** round trips before the timeout adapts, the configured one is used until then */
+    private static final int MIN_SAMPLES = 32;
+    /** percentiles are sorted out again after this many round trips */
+    private static final int REFRESH_SAMPLES = 16;
+    /** the timeout is p99 times this, no shorter than MIN_TIMEOUT_MS */
+    private static final int TIMEOUT_FACTOR = 4;
+
+    public static final long MIN_TIMEOUT_MS = 1000;
+    /** requests earning a retry, a peer failing everything gets a tenth more traffic */
+    public static final int REQUESTS_PER_RETRY = 10;
+    /** retries saved up while the peer is healthy */
+    public static final int MAX_SAVED_RETRIES = 10;
+
+    private final long[][] samples = new long[3][WINDOW];
+    private final long[] counts = new long[3];
+    // microseconds, -1 until MIN_SAMPLES round trips
+    private final long[] p95 = {-1, -1, -1};
+    private final long[] p99 = {-1, -1, -1};
+    // in requests, REQUESTS_PER_RETRY of them for a retry
+    private int retryCredit = REQUESTS_PER_RETRY * MAX_SAVED_RETRIES;
+
+    public static int classOf(boolean control, boolean idempotent) {
+        return control ? CONTROL : idempotent ? IDEMPOTENT : TRANSACTION;
+    }
+
+    /** @param micros a round trip, or the timeout of a request that got no response */
+    public synchronized void record(int requestClass, long micros) {
+        long count = counts[requestClass]++;
+        samples[requestClass][(int) (count % WINDOW)] = micros;
+
+        ++count;
+        if (count >= MIN_SAMPLES && count % REFRESH_SAMPLES == 0) {
+            long[] sorted = Arrays.copyOf(samples[requestClass], (int) Math.min(count, WINDOW));
+            Arrays.sort(sorted);
+            p95[requestClass] = sorted[(int) (sorted.length * 0.95)];
+            p99[requestClass] = sorted[(int) (sorted.length * 0.99)];
+        }
+    }
+
+    /** @return p95 round trip in microseconds, -1 if too few are known */
+    public synchronized long getP95(int requestClass) {
+        return p95[requestClass];
+    }
+
+    /** @return p99 round trip in microseconds, -1 if too few are known */
+    public synchronized long getP99(int requestClass) {
+        return p99[requestClass];
+    }
+
+    /**
+     * @param maxTimeout the configured timeout in milliseconds
+     * @return p99 times TIMEOUT_FACTOR within MIN_TIMEOUT_MS and maxTimeout, maxTimeout for
+     *     transactions
+     */
+    public long getTimeout(int requestClass, long maxTimeout) {
+        if (requestClass == TRANSACTION) {
+            return maxTimeout;
+        }
+
+        long p99Micros = getP99(requestClass);
+        if (p99Micros < 0) {
+            return maxTimeout;
+        }
+        long timeout = Math.max(MIN_TIMEOUT_MS, p99Micros * TIMEOUT_FACTOR / 1000);
+        return Math.min(maxTimeout, timeout);
+    }
+
+    /** A request to the peer earns a part of a retry */
+    public synchronized void onRequest() {
+        retryCredit = Math.min(REQUESTS_PER_RETRY * MAX_SAVED_RETRIES, retryCredit + 1);
+    }
+
+    /** @return if the budget allows another retry or hedge, taken from it if so */
+    public synchronized boolean tryRetry() {
+        if (retryCredit < REQUESTS_PER_RETRY) {
+            return false;
+        }
+        retryCredit -= REQUESTS_PER_RETRY;
+        return true;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "PeerLatency{"
+                + "p99="
+                + Arrays.toString(p99)
+                + ", counts="
+                + Arrays.toString(counts)
+                + ", retryCredit="
+                + retryCredit
+                + '}';
+    }
+}
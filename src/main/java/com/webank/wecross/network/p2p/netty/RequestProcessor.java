@@ -2,10 +2,10 @@ package com.webank.wecross.network.p2p.netty;
 
 import com.webank.wecross.network.NetworkProcessor;
 import com.webank.wecross.network.p2p.netty.common.Node;
+import com.webank.wecross.network.p2p.netty.message.MessageBatcher;
 import com.webank.wecross.network.p2p.netty.message.processor.Processor;
 import com.webank.wecross.network.p2p.netty.message.proto.Message;
 import com.webank.wecross.network.p2p.netty.message.serialize.MessageSerializer;
-import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -14,6 +14,8 @@ public class RequestProcessor implements Processor {
     private static final Logger logger = LoggerFactory.getLogger(RequestProcessor.class);
 
     private NetworkProcessor networkProcessor;
+    private MessageSerializer messageSerializer = new MessageSerializer();
+    private MessageBatcher messageBatcher = new MessageBatcher();
 
     @Override
     public String name() {
@@ -23,14 +25,14 @@ public class RequestProcessor implements Processor {
     @Override
     public void process(ChannelHandlerContext ctx, Node node, Message message) {
         try {
-            String content = new String(message.getData(), "utf-8");
+            byte[] content = message.getData();
 
             if (logger.isDebugEnabled()) {
                 logger.debug(
-                        "  resource request message, host: {}, seq: {}, content: {}",
+                        "  resource request message, host: {}, seq: {}, length: {}",
                         node,
                         message.getSeq(),
-                        content);
+                        content.length);
             }
 
             networkProcessor.process(
@@ -38,31 +40,30 @@ public class RequestProcessor implements Processor {
                     content,
                     new NetworkProcessor.Callback() {
                         @Override
-                        public void onResponse(String responseContent) {
+                        public void onResponse(byte[] responseContent) {
                             if (responseContent != null) {
 
-                                // send response
-                                message.setType(MessageType.RESOURCE_RESPONSE);
-                                message.setData(responseContent.getBytes());
-
-                                MessageSerializer serializer = new MessageSerializer();
-                                ByteBuf byteBuf = ctx.alloc().buffer();
-                                serializer.serialize(message, byteBuf);
-                                ctx.writeAndFlush(byteBuf);
+                                // send response, the request may be released already
+                                Message response = new Message(message.getSeq());
+                                response.setLegacySeq(message.getLegacySeq());
+                                response.setType(MessageType.RESOURCE_RESPONSE);
+                                response.setData(responseContent);
+                                messageBatcher.send(
+                                        ctx, messageSerializer.serialize(ctx, response));
 
                                 if (logger.isTraceEnabled()) {
                                     logger.trace(
-                                            " Response network message, resource request, host: {}, seq: {}, response content: {}",
+                                            " Response network message, resource request, host: {}, seq: {}, response length: {}",
                                             node,
                                             message.getSeq(),
-                                            responseContent);
+                                            responseContent.length);
                                 }
                             } else {
                                 logger.error(
                                         "response content is null, node: "
                                                 + node
-                                                + ", content: "
-                                                + content);
+                                                + ", seq: "
+                                                + message.getSeq());
                             }
                         }
                     });
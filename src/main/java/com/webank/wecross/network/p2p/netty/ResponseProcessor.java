@@ -32,23 +32,31 @@ public class ResponseProcessor implements Processor {
     @Override
     public void process(ChannelHandlerContext ctx, Node node, Message message) {
         try {
-            String content = new String(message.getData(), "utf-8");
             if (logger.isTraceEnabled()) {
-                logger.trace(" source response, message: {}, content: {}", message, content);
+                logger.trace(" source response, message: {}", message);
             }
 
             ResponseCallBack callback =
                     (ResponseCallBack) getSeqMapper().getAndRemove(message.getSeq());
             if (null == callback) {
-                throw new UnsupportedOperationException(
-                        " not found callback, seq: " + message.getSeq());
+                // timed out, or a request sent without waiting for the response
+                logger.debug(" not found callback, seq: {}", message.getSeq());
+                return;
             }
 
             // cancel timeout firsts
             callback.cancelTimer();
+            callback.releaseInflight();
 
-            Response response =
-                    Response.build(StatusCode.SUCCESS, "Success", message.getSeq(), content);
+            Response response;
+            if (message.getResult() == StatusCode.BUSY) {
+                // older versions always answer 0
+                response = Response.build(StatusCode.BUSY, "peer busy", message.getSeq(), null);
+            } else {
+                response =
+                        Response.build(
+                                StatusCode.SUCCESS, "Success", message.getSeq(), message.getData());
+            }
             callback.onResponse(response);
 
         } catch (Exception e) {
@@ -1,38 +1,64 @@
 package com.webank.wecross.network.p2p.netty;
 
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import io.netty.util.collection.LongObjectHashMap;
 import org.springframework.stereotype.Component;
 
 /** manage uniq sequence to callback object */
 @Component
 public class SeqMapper {
-    /** sequence to callback object mapper */
-    private Map<String, Object> mapper = new ConcurrentHashMap<String, Object>();
+    // seqs are consecutive, so the low bits spread requests evenly over the stripes
+    private static final int STRIPES = 16;
 
-    public Map<String, Object> getMapper() {
-        return mapper;
+    /** sequence to callback object mapper, primitive keys without boxing */
+    private static class Stripe extends LongObjectHashMap<Object> {}
+
+    private final Stripe[] mappers = new Stripe[STRIPES];
+
+    public SeqMapper() {
+        for (int i = 0; i < STRIPES; ++i) {
+            mappers[i] = new Stripe();
+        }
+    }
+
+    private LongObjectHashMap<Object> mapperOf(long seq) {
+        return mappers[(int) (seq & (STRIPES - 1))];
     }
 
-    public void setMapper(Map<String, Object> mapper) {
-        this.mapper = mapper;
+    public Object get(long seq) {
+        LongObjectHashMap<Object> mapper = mapperOf(seq);
+        synchronized (mapper) {
+            return mapper.get(seq);
+        }
     }
 
-    public Object get(String seq) {
-        return mapper.get(seq);
+    public Object getAndRemove(long seq) {
+        LongObjectHashMap<Object> mapper = mapperOf(seq);
+        synchronized (mapper) {
+            return mapper.remove(seq);
+        }
     }
 
-    public Object getAndRemove(String seq) {
-        Object object = mapper.get(seq);
-        mapper.remove(seq);
-        return object;
+    public void add(long seq, Object object) {
+        LongObjectHashMap<Object> mapper = mapperOf(seq);
+        synchronized (mapper) {
+            mapper.put(seq, object);
+        }
     }
 
-    public void add(String seq, Object object) {
-        this.mapper.put(seq, object);
+    public void remove(long seq) {
+        LongObjectHashMap<Object> mapper = mapperOf(seq);
+        synchronized (mapper) {
+            mapper.remove(seq);
+        }
     }
 
-    public void remove(String seq) {
-        mapper.remove(seq);
+    public int size() {
+        int size = 0;
+        for (LongObjectHashMap<Object> mapper : mappers) {
+            synchronized (mapper) {
+                size += mapper.size();
+            }
+        }
+        return size;
     }
 }
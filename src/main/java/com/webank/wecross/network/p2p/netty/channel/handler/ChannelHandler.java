@@ -108,6 +108,19 @@ public class ChannelHandler extends SimpleChannelInboundHandler<ByteBuf> {
         }
     }
 
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) {
+        if (ctx.channel().isWritable()) {
+            getChannelHandlerCallBack().onWritable(ctx);
+        }
+        ctx.fireChannelWritabilityChanged();
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) {
+        getChannelHandlerCallBack().onClosed(ctx);
+    }
+
     public ChannelHandlerCallBack getChannelHandlerCallBack() {
         return channelHandlerCallBack;
     }
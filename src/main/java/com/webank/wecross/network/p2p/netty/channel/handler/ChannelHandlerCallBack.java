@@ -1,8 +1,14 @@
 package com.webank.wecross.network.p2p.netty.channel.handler;
 
 import com.webank.wecross.network.p2p.netty.Connections;
+import com.webank.wecross.network.p2p.netty.MessageType;
 import com.webank.wecross.network.p2p.netty.common.Node;
+import com.webank.wecross.network.p2p.netty.factory.P2PConfig;
+import com.webank.wecross.network.p2p.netty.message.MessageBatcher;
 import com.webank.wecross.network.p2p.netty.message.MessageCallBack;
+import com.webank.wecross.network.p2p.netty.message.proto.Message;
+import com.webank.wecross.network.p2p.netty.message.serialize.MessageSerializer;
+import com.webank.wecross.network.p2p.netty.response.StatusCode;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.socket.SocketChannel;
@@ -10,7 +16,11 @@ import io.netty.handler.ssl.SslHandler;
 import io.netty.util.AttributeKey;
 import java.security.PublicKey;
 import java.security.cert.Certificate;
+import java.util.ArrayDeque;
 import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.net.ssl.SSLPeerUnverifiedException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -23,10 +33,24 @@ public class ChannelHandlerCallBack {
 
     private static Logger logger = LoggerFactory.getLogger(ChannelHandlerCallBack.class);
 
+    /** messages of the channel handed to the thread pool and not processed yet */
+    private static final AttributeKey<AtomicInteger> PENDING_MESSAGES =
+            AttributeKey.valueOf("pendingMessages");
+    /**
+     * frames of the channel the thread pool had no room for, set while there are any, its frames
+     * touched on the event loop only
+     */
+    private static final AttributeKey<Queue<ByteBuf>> BACKLOG = AttributeKey.valueOf("backlog");
+    /** wait before handing the backlog to the thread pool again */
+    private static final long BACKLOG_RETRY_MS = 10;
+
     private ThreadPoolTaskExecutor threadPool = null;
+    private int maxPendingMessages = P2PConfig.DEFAULT_MAX_PENDING_MESSAGES;
+    private MessageSerializer messageSerializer = new MessageSerializer();
 
     private Connections connections;
     private MessageCallBack callBack;
+    private MessageBatcher messageBatcher = new MessageBatcher();
 
     public MessageCallBack getCallBack() {
         return callBack;
@@ -44,6 +68,14 @@ public class ChannelHandlerCallBack {
         this.connections = connections;
     }
 
+    public int getMaxPendingMessages() {
+        return maxPendingMessages;
+    }
+
+    public void setMaxPendingMessages(int maxPendingMessages) {
+        this.maxPendingMessages = maxPendingMessages;
+    }
+
     public ThreadPoolTaskExecutor getThreadPool() {
         return threadPool;
     }
@@ -117,7 +149,11 @@ public class ChannelHandlerCallBack {
         ctx.channel().attr(AttributeKey.valueOf("NodeID")).set(node.getNodeID());
 
         logger.info("add new connections: {}, ctx: {}", node, hashCode);
-        getConnections().addChannelHandler(node, ctx, connectToServer);
+        if (!getConnections().addChannelHandler(node, ctx, connectToServer)) {
+            logger.info(" node {} data lane connected, ctx: {}", node, hashCode);
+            callBack.onLaneConnect(ctx, node);
+            return;
+        }
 
         logger.info(
                 " node {} connect success, nodeID: {}, ctx: {}",
@@ -141,7 +177,12 @@ public class ChannelHandlerCallBack {
         Node node = (Node) ctx.channel().attr(AttributeKey.valueOf("node")).get();
 
         if ((null != node) && (null != node.getNodeID())) {
-            getConnections().removeChannelHandler(node, ctx);
+            if (!getConnections().removeChannelHandler(node, ctx)) {
+                // other channels to the node remain, it is still connected
+                logger.info(
+                        " disconnect lane, host: {}, ctx: {}", node, System.identityHashCode(ctx));
+                return;
+            }
             logger.info(
                     " disconnect, host: {}, nodeID: {}, ctx: {}",
                     node,
@@ -172,26 +213,181 @@ public class ChannelHandlerCallBack {
         }
     }
 
+    /** The send window of the channel opened again */
+    public void onWritable(ChannelHandlerContext ctx) {
+        messageBatcher.resume(ctx);
+    }
+
+    /** Release the frames queued for the channel and the chunks received from it */
+    public void onClosed(ChannelHandlerContext ctx) {
+        messageBatcher.release(ctx.channel());
+        Queue<ByteBuf> backlog = ctx.channel().attr(BACKLOG).getAndSet(null);
+        if (backlog != null) {
+            backlog.forEach(ByteBuf::release);
+        }
+    }
+
+    /** @param message a frame, its reference is handed to the callback */
     public void onMessage(ChannelHandlerContext ctx, ByteBuf message) {
         /*
          use thread pool first onMessage may block
         */
+        if (MessageBatcher.isBatch(message)) {
+            // each frame of a batch is handled as if it arrived alone
+            try {
+                messageBatcher.unbatch(ctx, message, frame -> onMessage(ctx, frame));
+            } catch (Exception e) {
+                logger.error(" invalid batch, ctx: {}, e: {}", System.identityHashCode(ctx), e);
+            }
+            return;
+        }
+        if (MessageBatcher.isChunk(message)) {
+            // a frame sent in chunks is handled once all of them arrived
+            try {
+                messageBatcher.unchunk(ctx, message, frame -> onMessage(ctx, frame));
+            } catch (Exception e) {
+                logger.error(" invalid chunk, ctx: {}, e: {}", System.identityHashCode(ctx), e);
+            }
+            return;
+        }
+
         Node node = (Node) (ctx.channel().attr(AttributeKey.valueOf("node")).get());
 
         if (threadPool == null) {
             callBack.onMessage(ctx, node, message);
         } else {
+            AtomicInteger pending = pendingMessages(ctx);
+            if (pending.incrementAndGet() >= maxPendingMessages) {
+                // the peer waits in its send window until we catch up
+                ctx.channel().config().setAutoRead(false);
+                logger.debug(" pause reading, host: {}, pending: {}", node, pending.get());
+                resumeRead(ctx, pending);
+            }
+
+            // behind the frames waiting for room in the thread pool
+            Queue<ByteBuf> backlog = ctx.channel().attr(BACKLOG).get();
+            if (backlog != null) {
+                backlog.add(message);
+                return;
+            }
+
             try {
-                threadPool.execute(
-                        new Runnable() {
-                            @Override
-                            public void run() {
-                                callBack.onMessage(ctx, node, message);
-                            }
-                        });
+                execute(ctx, node, message, pending);
+            } catch (TaskRejectedException e) {
+                onRejected(ctx, node, message, pending);
+            }
+        }
+    }
+
+    private void execute(
+            ChannelHandlerContext ctx, Node node, ByteBuf message, AtomicInteger pending) {
+        threadPool.execute(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            callBack.onMessage(ctx, node, message);
+                        } finally {
+                            pending.decrementAndGet();
+                            resumeRead(ctx, pending);
+                        }
+                    }
+                });
+    }
+
+    private AtomicInteger pendingMessages(ChannelHandlerContext ctx) {
+        AtomicInteger pending = ctx.channel().attr(PENDING_MESSAGES).get();
+        if (pending == null) {
+            pending = new AtomicInteger();
+            AtomicInteger old = ctx.channel().attr(PENDING_MESSAGES).setIfAbsent(pending);
+            if (old != null) {
+                pending = old;
+            }
+        }
+        return pending;
+    }
+
+    /**
+     * Read again once half of the pending messages are processed and the backlog is handed to the
+     * thread pool, checked on both sides
+     */
+    private void resumeRead(ChannelHandlerContext ctx, AtomicInteger pending) {
+        if (!ctx.channel().config().isAutoRead()
+                && pending.get() <= maxPendingMessages / 2
+                && ctx.channel().attr(BACKLOG).get() == null) {
+            ctx.channel().config().setAutoRead(true);
+        }
+    }
+
+    /**
+     * The thread pool is full: a request is answered busy at once rather than left to time out, the
+     * other messages wait in the backlog of the channel, which reads no more until they are handed
+     * to the thread pool.
+     */
+    private void onRejected(
+            ChannelHandlerContext ctx, Node node, ByteBuf frame, AtomicInteger pending) {
+        int readerIndex = frame.readerIndex();
+        Message message = null;
+        try {
+            message = messageSerializer.deserialize(ctx, frame);
+            if (message.getType() != MessageType.RESOURCE_REQUEST) {
+                ctx.channel().config().setAutoRead(false);
+                Queue<ByteBuf> backlog = new ArrayDeque<>();
+                backlog.add(frame.readerIndex(readerIndex).retain());
+                ctx.channel().attr(BACKLOG).set(backlog);
+                scheduleBacklog(ctx, node, pending);
+                return;
+            }
+
+            pending.decrementAndGet();
+            resumeRead(ctx, pending);
+            logger.warn(
+                    " thread pool full, answer busy, host: {}, seq: {}", node, message.getSeq());
+            Message response = new Message(message.getSeq());
+            response.setLegacySeq(message.getLegacySeq());
+            response.setType(MessageType.RESOURCE_RESPONSE);
+            response.setResult(StatusCode.BUSY);
+            response.setData(new byte[0]);
+            messageBatcher.send(ctx, messageSerializer.serialize(ctx, response));
+        } catch (Exception e) {
+            pending.decrementAndGet();
+            resumeRead(ctx, pending);
+            logger.error(" invalid message, host: {}, e: {}", node, e);
+        } finally {
+            if (message != null) {
+                message.release();
+            }
+            frame.release();
+        }
+    }
+
+    private void scheduleBacklog(ChannelHandlerContext ctx, Node node, AtomicInteger pending) {
+        ctx.executor()
+                .schedule(
+                        () -> drainBacklog(ctx, node, pending),
+                        BACKLOG_RETRY_MS,
+                        TimeUnit.MILLISECONDS);
+    }
+
+    /** Hand the backlog to the thread pool in order, until it is full again */
+    private void drainBacklog(ChannelHandlerContext ctx, Node node, AtomicInteger pending) {
+        Queue<ByteBuf> backlog = ctx.channel().attr(BACKLOG).get();
+        if (backlog == null) {
+            // closed, the frames are released
+            return;
+        }
+
+        ByteBuf frame;
+        while ((frame = backlog.peek()) != null) {
+            try {
+                execute(ctx, node, frame, pending);
             } catch (TaskRejectedException e) {
-                logger.warn(" TaskRejectedException : {}, message: {}", e, message);
+                scheduleBacklog(ctx, node, pending);
+                return;
             }
+            backlog.poll();
         }
+        ctx.channel().attr(BACKLOG).set(null);
+        resumeRead(ctx, pending);
     }
 }
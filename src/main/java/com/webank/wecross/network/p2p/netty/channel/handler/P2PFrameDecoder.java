@@ -0,0 +1,43 @@
+package com.webank.wecross.network.p2p.netty.channel.handler;
+
+import com.webank.wecross.network.p2p.netty.message.MessageBatcher;
+import com.webank.wecross.network.p2p.netty.message.proto.Message;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import io.netty.handler.codec.TooLongFrameException;
+
+/**
+ * Splits p2p frames by their length field. Frames up to MAX_MESSAGE_LENGTH are accepted from older
+ * peers, but only up to MAX_FRAME_LENGTH once the peer sent a chunk: it knows this router
+ * reassembles chunks, and sends longer frames that way.
+ */
+public class P2PFrameDecoder extends LengthFieldBasedFrameDecoder {
+    /** Maximum message length of p2p message, default 64MB */
+    public static final int MAX_MESSAGE_LENGTH = 64 * 1024 * 1024;
+    /** Maximum frame length from peers sending chunks, default 1MB */
+    public static final int MAX_FRAME_LENGTH = 1024 * 1024;
+
+    private boolean chunked = false;
+
+    public P2PFrameDecoder() {
+        super(MAX_MESSAGE_LENGTH, 0, Message.LENGTH_FIELD_LENGTH, -Message.LENGTH_FIELD_LENGTH, 0);
+    }
+
+    @Override
+    protected Object decode(ChannelHandlerContext ctx, ByteBuf in) throws Exception {
+        if (chunked && in.readableBytes() >= Message.LENGTH_FIELD_LENGTH) {
+            long length = in.getUnsignedInt(in.readerIndex());
+            if (length > MAX_FRAME_LENGTH) {
+                throw new TooLongFrameException(
+                        "Frame length " + length + " exceeds " + MAX_FRAME_LENGTH);
+            }
+        }
+
+        Object frame = super.decode(ctx, in);
+        if (!chunked && frame != null && MessageBatcher.isChunk((ByteBuf) frame)) {
+            chunked = true;
+        }
+        return frame;
+    }
+}
@@ -15,6 +15,7 @@ public class NettyBootstrapFactory {
         ChannelHandlerCallBack channelHandlerCallBack = new ChannelHandlerCallBack();
         channelHandlerCallBack.setThreadPool(threadPool);
         channelHandlerCallBack.setCallBack(messageCallBack);
+        channelHandlerCallBack.setMaxPendingMessages(p2pConfig.getMaxPendingMessages());
 
         NettyBootstrap bootstrap = new NettyBootstrap();
         bootstrap.setConfig(p2pConfig);
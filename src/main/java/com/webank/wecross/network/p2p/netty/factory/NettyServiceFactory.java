@@ -15,6 +15,7 @@ public class NettyServiceFactory {
         nettyService.setThreadPool(threadPool);
         nettyService.setInitializer(nettyBootstrap);
         nettyService.setSeqMapper(seqMapper);
+        nettyService.setMaxInflightRequests(nettyBootstrap.getConfig().getMaxInflightRequests());
 
         return nettyService;
     }
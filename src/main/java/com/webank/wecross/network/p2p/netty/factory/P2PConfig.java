@@ -14,6 +14,10 @@ public class P2PConfig {
 
     private static Logger logger = LoggerFactory.getLogger(P2PConfig.class);
 
+    public static final int DEFAULT_CHANNELS_PER_PEER = 3;
+    public static final int DEFAULT_MAX_PENDING_MESSAGES = 1000;
+    public static final int DEFAULT_MAX_INFLIGHT_REQUESTS = 10000;
+
     private String listenIP;
     private Integer listenPort;
 
@@ -26,6 +30,13 @@ public class P2PConfig {
     private Long threadNum;
     private Long threadQueueCapacity;
 
+    /** channels to each peer: one control lane, the others data lanes for transactions */
+    private Integer channelsPerPeer = DEFAULT_CHANNELS_PER_PEER;
+    /** messages of a channel waiting for the thread pool, reading pauses beyond */
+    private Integer maxPendingMessages = DEFAULT_MAX_PENDING_MESSAGES;
+    /** requests to a peer waiting for their responses, more fail at once as busy */
+    private Integer maxInflightRequests = DEFAULT_MAX_INFLIGHT_REQUESTS;
+
     public List<String> getPeers() {
         return peers;
     }
@@ -82,6 +93,30 @@ public class P2PConfig {
         return threadQueueCapacity;
     }
 
+    public Integer getChannelsPerPeer() {
+        return channelsPerPeer;
+    }
+
+    public void setChannelsPerPeer(Integer channelsPerPeer) {
+        this.channelsPerPeer = channelsPerPeer;
+    }
+
+    public Integer getMaxPendingMessages() {
+        return maxPendingMessages;
+    }
+
+    public void setMaxPendingMessages(Integer maxPendingMessages) {
+        this.maxPendingMessages = maxPendingMessages;
+    }
+
+    public Integer getMaxInflightRequests() {
+        return maxInflightRequests;
+    }
+
+    public void setMaxInflightRequests(Integer maxInflightRequests) {
+        this.maxInflightRequests = maxInflightRequests;
+    }
+
     /**
      * parser string host format like: "127.0.0.1:1111" to Host
      *
@@ -143,6 +178,12 @@ public class P2PConfig {
                 + threadNum
                 + ", threadQueueCapacity="
                 + threadQueueCapacity
+                + ", channelsPerPeer="
+                + channelsPerPeer
+                + ", maxPendingMessages="
+                + maxPendingMessages
+                + ", maxInflightRequests="
+                + maxInflightRequests
                 + '}';
     }
 
@@ -169,6 +210,21 @@ public class P2PConfig {
             throw new IllegalArgumentException(" sslKey is null ");
         }
 
+        if (channelsPerPeer == null || channelsPerPeer < 1) {
+            throw new IllegalArgumentException(
+                    " invalid channelsPerPeer, channelsPerPeer: " + channelsPerPeer);
+        }
+
+        if (maxPendingMessages == null || maxPendingMessages < 1) {
+            throw new IllegalArgumentException(
+                    " invalid maxPendingMessages, maxPendingMessages: " + maxPendingMessages);
+        }
+
+        if (maxInflightRequests == null || maxInflightRequests < 1) {
+            throw new IllegalArgumentException(
+                    " invalid maxInflightRequests, maxInflightRequests: " + maxInflightRequests);
+        }
+
         if (peers != null && !peers.isEmpty()) {
             for (String peer : peers) {
                 toHost(peer);
@@ -0,0 +1,386 @@
+package com.webank.wecross.network.p2p.netty.message;
+
+import com.webank.wecross.network.p2p.netty.MessageType;
+import com.webank.wecross.network.p2p.netty.message.proto.Message;
+import com.webank.wecross.network.p2p.netty.message.serialize.MessageSerializer;
+import com.webank.wecross.utils.core.SeqUtils;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundBuffer;
+import io.netty.util.Attribute;
+import io.netty.util.AttributeKey;
+import io.netty.util.collection.LongObjectHashMap;
+import io.netty.util.collection.LongObjectMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Coalesces the frames sent to a channel: frames queued while its event loop is busy are written
+ * with one flush, and packed into BATCH frames for peers announcing HEADER_VERSION_BATCH. Each
+ * batched frame keeps its own seq, so responses are matched as if it was sent alone.
+ *
+ * <p>Frames longer than CHUNK_LENGTH are sent in CHUNK messages to peers announcing
+ * HEADER_VERSION_CHUNKED, interleaved with other frames and with each other, and only while the
+ * channel is writable: its write buffer water marks are the send window. The receiver reassembles
+ * them up to RECEIVE_WINDOW bytes per channel.
+ *
+ * <p>Stateless, one instance can be shared by all channels. The queue of a channel is kept in its
+ * PENDING_FRAMES attribute.
+ */
+public class MessageBatcher {
+    private static final Logger logger = LoggerFactory.getLogger(MessageBatcher.class);
+
+    /** frames waiting for the event loop of a channel */
+    public static final AttributeKey<PendingFrames> PENDING_FRAMES =
+            AttributeKey.valueOf("pendingFrames");
+
+    public static final int MAX_BATCH_LENGTH = 256 * 1024;
+    public static final int MAX_BATCH_FRAMES = 64;
+    /** frames written before giving the event loop back to other channels */
+    private static final int MAX_FLUSH_FRAMES = 16 * MAX_BATCH_FRAMES;
+
+    public static final int CHUNK_LENGTH = 256 * 1024;
+    /** bytes of frames partially received on a channel, and the length of the longest frame */
+    public static final int RECEIVE_WINDOW = 64 * 1024 * 1024;
+
+    private MessageSerializer messageSerializer = new MessageSerializer();
+
+    public static class PendingFrames {
+        private Queue<ByteBuf> frames = new ConcurrentLinkedQueue<>();
+        /** frames to be sent in chunks */
+        private Queue<ByteBuf> streams = new ConcurrentLinkedQueue<>();
+
+        private AtomicBoolean scheduled = new AtomicBoolean(false);
+        private AtomicLong pendingBytes = new AtomicLong();
+
+        // used on the event loop only
+        private ArrayDeque<Stream> activeStreams = new ArrayDeque<>();
+        private LongObjectMap<CompositeByteBuf> partialFrames = new LongObjectHashMap<>();
+        private long partialBytes = 0;
+    }
+
+    private static class Stream {
+        private long seq = SeqUtils.newLongSeq();
+        private ByteBuf frame;
+
+        private Stream(ByteBuf frame) {
+            this.frame = frame;
+        }
+    }
+
+    private static PendingFrames getPendingFrames(Channel channel) {
+        Attribute<PendingFrames> attribute = channel.attr(PENDING_FRAMES);
+        PendingFrames pendingFrames = attribute.get();
+        if (pendingFrames == null) {
+            pendingFrames = new PendingFrames();
+            PendingFrames current = attribute.setIfAbsent(pendingFrames);
+            if (current != null) {
+                pendingFrames = current;
+            }
+        }
+        return pendingFrames;
+    }
+
+    /** @return bytes queued for the channel or written and not yet flushed to its socket */
+    public static long getPendingBytes(Channel channel) {
+        PendingFrames pendingFrames = channel.attr(PENDING_FRAMES).get();
+        long pendingBytes = pendingFrames == null ? 0 : pendingFrames.pendingBytes.get();
+        ChannelOutboundBuffer outboundBuffer = channel.unsafe().outboundBuffer();
+        if (outboundBuffer != null) {
+            pendingBytes += outboundBuffer.totalPendingWriteBytes();
+        }
+        return pendingBytes;
+    }
+
+    /** @param frame serialized for the channel, released once written */
+    public void send(ChannelHandlerContext ctx, ByteBuf frame) {
+        PendingFrames pendingFrames = getPendingFrames(ctx.channel());
+        pendingFrames.pendingBytes.addAndGet(frame.readableBytes());
+        if (frame.readableBytes() > CHUNK_LENGTH
+                && MessageSerializer.getHeaderVersion(ctx.channel())
+                        >= Message.HEADER_VERSION_CHUNKED) {
+            pendingFrames.streams.offer(frame);
+        } else {
+            pendingFrames.frames.offer(frame);
+        }
+        schedule(ctx, pendingFrames);
+    }
+
+    /** Continue the chunks of the channel, once it is writable again */
+    public void resume(ChannelHandlerContext ctx) {
+        schedule(ctx, getPendingFrames(ctx.channel()));
+    }
+
+    /** Release what is queued for the channel and what was partially received from it */
+    public void release(Channel channel) {
+        PendingFrames pendingFrames = channel.attr(PENDING_FRAMES).get();
+        if (pendingFrames == null) {
+            return;
+        }
+
+        ByteBuf frame;
+        while ((frame = pendingFrames.frames.poll()) != null) {
+            pendingFrames.pendingBytes.addAndGet(-frame.readableBytes());
+            frame.release();
+        }
+        while ((frame = pendingFrames.streams.poll()) != null) {
+            pendingFrames.pendingBytes.addAndGet(-frame.readableBytes());
+            frame.release();
+        }
+        Stream stream;
+        while ((stream = pendingFrames.activeStreams.poll()) != null) {
+            pendingFrames.pendingBytes.addAndGet(-stream.frame.readableBytes());
+            stream.frame.release();
+        }
+        for (CompositeByteBuf partialFrame : pendingFrames.partialFrames.values()) {
+            partialFrame.release();
+        }
+        pendingFrames.partialFrames.clear();
+        pendingFrames.partialBytes = 0;
+    }
+
+    private void schedule(ChannelHandlerContext ctx, PendingFrames pendingFrames) {
+        if (!pendingFrames.scheduled.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            ctx.executor().execute(() -> flush(ctx, pendingFrames));
+        } catch (RejectedExecutionException e) {
+            logger.warn(" channel closed, drop pending frames, ctx: {}", ctx);
+            ByteBuf frame;
+            while ((frame = pendingFrames.frames.poll()) != null) {
+                pendingFrames.pendingBytes.addAndGet(-frame.readableBytes());
+                frame.release();
+            }
+            while ((frame = pendingFrames.streams.poll()) != null) {
+                pendingFrames.pendingBytes.addAndGet(-frame.readableBytes());
+                frame.release();
+            }
+            pendingFrames.scheduled.set(false);
+        }
+    }
+
+    private void flush(ChannelHandlerContext ctx, PendingFrames pendingFrames) {
+        // frames queued from now on schedule another flush
+        pendingFrames.scheduled.set(false);
+        if (!ctx.channel().isActive()) {
+            release(ctx.channel());
+            return;
+        }
+
+        boolean batch =
+                MessageSerializer.getHeaderVersion(ctx.channel()) >= Message.HEADER_VERSION_BATCH;
+        List<ByteBuf> batched = new ArrayList<>();
+        int batchLength = 0;
+        int count = 0;
+        ByteBuf frame;
+        while (count < MAX_FLUSH_FRAMES && (frame = pendingFrames.frames.poll()) != null) {
+            ++count;
+            pendingFrames.pendingBytes.addAndGet(-frame.readableBytes());
+            if (!batch) {
+                ctx.write(frame);
+                continue;
+            }
+
+            if (!batched.isEmpty()
+                    && (batched.size() == MAX_BATCH_FRAMES
+                            || batchLength + frame.readableBytes() > MAX_BATCH_LENGTH)) {
+                writeBatch(ctx, batched);
+                batched.clear();
+                batchLength = 0;
+            }
+            batched.add(frame);
+            batchLength += frame.readableBytes();
+        }
+        writeBatch(ctx, batched);
+        int chunks = writeChunks(ctx, pendingFrames);
+        ctx.flush();
+
+        if (logger.isTraceEnabled()) {
+            logger.trace(
+                    " flush {} frames, {} chunks, batch: {}, ctx: {}", count, chunks, batch, ctx);
+        }
+
+        // chunks left behind a closed window are resumed when the channel is writable again
+        if (!pendingFrames.frames.isEmpty()
+                || (ctx.channel().isWritable()
+                        && (!pendingFrames.streams.isEmpty()
+                                || !pendingFrames.activeStreams.isEmpty()))) {
+            schedule(ctx, pendingFrames);
+        }
+    }
+
+    /** Write a chunk of each stream in turn, while the send window is open */
+    private int writeChunks(ChannelHandlerContext ctx, PendingFrames pendingFrames) {
+        ByteBuf frame;
+        while ((frame = pendingFrames.streams.poll()) != null) {
+            pendingFrames.activeStreams.add(new Stream(frame));
+        }
+
+        int count = 0;
+        while (count < MAX_FLUSH_FRAMES
+                && ctx.channel().isWritable()
+                && !pendingFrames.activeStreams.isEmpty()) {
+            ++count;
+            Stream stream = pendingFrames.activeStreams.poll();
+            int length = Math.min(CHUNK_LENGTH, stream.frame.readableBytes());
+
+            Message message = new Message(stream.seq);
+            message.setType(MessageType.CHUNK);
+            message.setContent(stream.frame.readRetainedSlice(length));
+            message.setResult(stream.frame.readableBytes());
+            try {
+                ctx.write(messageSerializer.serialize(ctx, message));
+            } finally {
+                message.release();
+            }
+            pendingFrames.pendingBytes.addAndGet(-length);
+
+            if (stream.frame.isReadable()) {
+                pendingFrames.activeStreams.add(stream);
+            } else {
+                stream.frame.release();
+            }
+        }
+        return count;
+    }
+
+    private void writeBatch(ChannelHandlerContext ctx, List<ByteBuf> frames) {
+        if (frames.isEmpty()) {
+            return;
+        }
+        if (frames.size() == 1) {
+            ctx.write(frames.get(0));
+            return;
+        }
+
+        CompositeByteBuf content = ctx.alloc().compositeDirectBuffer(frames.size());
+        content.addComponents(true, frames);
+
+        Message message = Message.builder(MessageType.BATCH);
+        message.setContent(content);
+        try {
+            ctx.write(messageSerializer.serialize(ctx, message));
+        } finally {
+            message.release();
+        }
+    }
+
+    private static int getType(ByteBuf frame) {
+        if (frame.readableBytes() < Message.LENGTH_FIELD_LENGTH + Message.TYPE_FIELD_LENGTH) {
+            return -1;
+        }
+        short type = frame.getShort(frame.readerIndex() + Message.LENGTH_FIELD_LENGTH);
+        return type & ~(Message.COMPACT_HEADER_FLAG | Message.COMPRESSED_FLAG);
+    }
+
+    /** @return if the frame is a BATCH of other frames */
+    public static boolean isBatch(ByteBuf frame) {
+        return getType(frame) == MessageType.BATCH;
+    }
+
+    /** @return if the frame is a CHUNK of a longer frame */
+    public static boolean isChunk(ByteBuf frame) {
+        return getType(frame) == MessageType.CHUNK;
+    }
+
+    /**
+     * Called on the event loop of the channel, in the order chunks are received.
+     *
+     * @param chunk a CHUNK frame, released here
+     * @param consumer of the reassembled frame once its last chunk is received, taking over its
+     *     reference
+     */
+    public void unchunk(ChannelHandlerContext ctx, ByteBuf chunk, Consumer<ByteBuf> consumer) {
+        Message message;
+        try {
+            message = messageSerializer.deserialize(ctx, chunk);
+        } finally {
+            chunk.release();
+        }
+
+        PendingFrames pendingFrames = getPendingFrames(ctx.channel());
+        long seq = message.getSeq();
+        int remaining = message.getResult();
+        ByteBuf content = message.retainedContent();
+        message.release();
+
+        CompositeByteBuf partialFrame = pendingFrames.partialFrames.get(seq);
+        long received = partialFrame == null ? 0 : partialFrame.readableBytes();
+        long length = received + content.readableBytes() + remaining;
+        if (remaining < 0
+                || length > RECEIVE_WINDOW
+                || pendingFrames.partialBytes + content.readableBytes() > RECEIVE_WINDOW) {
+            content.release();
+            if (partialFrame != null) {
+                pendingFrames.partialFrames.remove(seq);
+                pendingFrames.partialBytes -= received;
+                partialFrame.release();
+            }
+            throw new IllegalArgumentException(
+                    "Invalid chunk, seq: " + seq + ", remaining: " + remaining);
+        }
+
+        if (partialFrame == null) {
+            partialFrame = ctx.alloc().compositeDirectBuffer(Integer.MAX_VALUE);
+            pendingFrames.partialFrames.put(seq, partialFrame);
+        }
+        partialFrame.addComponent(true, content);
+        pendingFrames.partialBytes += content.readableBytes();
+        if (remaining > 0) {
+            return;
+        }
+
+        pendingFrames.partialFrames.remove(seq);
+        pendingFrames.partialBytes -= partialFrame.readableBytes();
+        if (partialFrame.readableBytes() < Message.LENGTH_FIELD_LENGTH
+                || partialFrame.getInt(partialFrame.readerIndex())
+                        != partialFrame.readableBytes()) {
+            partialFrame.release();
+            throw new IllegalArgumentException("Invalid chunked frame, seq: " + seq);
+        }
+        consumer.accept(partialFrame);
+    }
+
+    /**
+     * @param batch a BATCH frame, released here
+     * @param consumer of each frame in the batch, taking over its reference
+     */
+    public void unbatch(ChannelHandlerContext ctx, ByteBuf batch, Consumer<ByteBuf> consumer) {
+        Message message;
+        try {
+            message = messageSerializer.deserialize(ctx, batch);
+        } finally {
+            batch.release();
+        }
+
+        ByteBuf content = message.retainedContent();
+        try {
+            while (content.isReadable()) {
+                int length =
+                        content.readableBytes() < Message.LENGTH_FIELD_LENGTH
+                                ? -1
+                                : content.getInt(content.readerIndex());
+                if (length < Message.LENGTH_FIELD_LENGTH || length > content.readableBytes()) {
+                    throw new IllegalArgumentException("Invalid batched frame length: " + length);
+                }
+                consumer.accept(content.readRetainedSlice(length));
+            }
+        } finally {
+            content.release();
+            message.release();
+        }
+    }
+}
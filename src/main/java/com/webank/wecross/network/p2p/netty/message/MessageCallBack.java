@@ -22,6 +22,7 @@ public class MessageCallBack {
     private Map<Short, Processor> messageToProcessor = new ConcurrentHashMap<Short, Processor>() {};
 
     private SeqMapper seqMapper;
+    private MessageSerializer messageSerializer = new MessageSerializer();
 
     public SeqMapper getSeqMapper() {
         return seqMapper;
@@ -44,6 +45,9 @@ public class MessageCallBack {
     }
 
     public void onConnect(ChannelHandlerContext ctx, Node node) {
+        // announce the header version without waiting for the first heartbeat
+        ctx.writeAndFlush(messageSerializer.serializeHeartBeat(ctx));
+
         Processor processor = getProcessor(ON_CONNECT);
 
         if (processor != null) {
@@ -51,6 +55,11 @@ public class MessageCallBack {
         }
     }
 
+    /** Another channel to a connected node, it only announces its header version */
+    public void onLaneConnect(ChannelHandlerContext ctx, Node node) {
+        ctx.writeAndFlush(messageSerializer.serializeHeartBeat(ctx));
+    }
+
     public void onDisconnect(ChannelHandlerContext ctx, Node node) {
         Processor processor = getProcessor(ON_DISCONNECT);
 
@@ -59,13 +68,14 @@ public class MessageCallBack {
         }
     }
 
+    /** @param byteBuf a frame, released here */
     public void onMessage(ChannelHandlerContext ctx, Node node, ByteBuf byteBuf) {
         Integer hashCode = System.identityHashCode(ctx);
 
+        Message message = null;
         try {
             /** The message header fields are first parsed to get message type, result */
-            MessageSerializer messageSerializer = new MessageSerializer();
-            Message message = messageSerializer.deserialize(byteBuf);
+            message = messageSerializer.deserialize(ctx, byteBuf);
 
             if (logger.isTraceEnabled()) {
                 logger.trace(
@@ -90,6 +100,10 @@ public class MessageCallBack {
         } catch (Exception e) {
             logger.error(" invalid message, host: {}, ctx: {}, e: {}", node, hashCode, e);
         } finally {
+            // processors copy what they keep beyond process()
+            if (message != null) {
+                message.release();
+            }
             byteBuf.release();
         }
     }
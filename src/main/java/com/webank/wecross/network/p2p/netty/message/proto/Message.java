@@ -1,10 +1,15 @@
 package com.webank.wecross.network.p2p.netty.message.proto;
 
-import com.webank.wecross.network.p2p.netty.common.Utils;
+import com.webank.wecross.utils.core.SeqUtils;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
 import java.io.Serializable;
 
 /**
- * message proto =>
+ * Structure of P2P message
+ *
+ * <p>message proto =>
  * +----------------+---------------+--------------+-----------------+--------------------------------------------------+
  * | | | | | | | | length(4 Byte) | type(2 Byte) | seq(32 Byte)| result(4 Byte) | extend
  * fields(default None) | data( >= 0 Byte ) | | | | | | | |
@@ -14,9 +19,24 @@ import java.io.Serializable;
  * + 32 + 4 + length(data) type: type of this packet, specific value reference P2PMessageType seq:
  * unique value that marks a request result: the status of the p2p message itself extend fields:
  * expand other fields as needed, default None, user can extend the protocol field. data: load data
+ *
+ * <p>compact header => length(4 Byte) | type | COMPACT_HEADER_FLAG (2 Byte) | seq(8 Byte) |
+ * result(4 Byte) | data. Sent only to peers announcing HEADER_VERSION_COMPACT in the result field
+ * of their heartbeats, older peers get the legacy header with the seq in 32 hex digits.
+ *
+ * <p>compressed data => uncompressed length(4 Byte) | raw deflate, marked by COMPRESSED_FLAG in the
+ * type. Sent only to peers announcing HEADER_VERSION_COMPRESSION.
+ *
+ * <p>batch data => whole frames back to back, in a message of type MessageType.BATCH. Sent only to
+ * peers announcing HEADER_VERSION_BATCH.
+ *
+ * <p>peers announcing HEADER_VERSION_LANES accept several channels from the same node, transactions
+ * are sent on data lanes apart from the control lane.
+ *
+ * <p>chunk => a piece of a longer frame in a message of type MessageType.CHUNK, seq identifying the
+ * frame and result the bytes still to come. Sent only to peers announcing HEADER_VERSION_CHUNKED,
+ * which then limit the other frames to P2PFrameDecoder.MAX_FRAME_LENGTH.
  */
-
-/** Structure of P2P message */
 public class Message implements Serializable {
 
     private static final long serialVersionUID = -7276897518418560354L;
@@ -28,54 +48,135 @@ public class Message implements Serializable {
     public static final int RESULT_FIELD_LENGTH = 4;
     public static final int HEADER_LENGTH =
             LENGTH_FIELD_LENGTH + TYPE_FIELD_LENGTH + SEQ_FIELD_LENGTH + RESULT_FIELD_LENGTH;
-
-    protected Integer length = 0;
-    protected Short type = 0;
-    protected String seq = Utils.newUUID();
-    protected Integer result = 0;
+    public static final int COMPACT_SEQ_FIELD_LENGTH = 8;
+    public static final int COMPACT_HEADER_LENGTH =
+            LENGTH_FIELD_LENGTH
+                    + TYPE_FIELD_LENGTH
+                    + COMPACT_SEQ_FIELD_LENGTH
+                    + RESULT_FIELD_LENGTH;
+
+    public static final short COMPACT_HEADER_FLAG = 0x4000;
+    public static final short COMPRESSED_FLAG = 0x2000;
+    public static final int HEADER_VERSION_LEGACY = 0;
+    public static final int HEADER_VERSION_COMPACT = 1;
+    public static final int HEADER_VERSION_COMPRESSION = 2;
+    public static final int HEADER_VERSION_BATCH = 3;
+    public static final int HEADER_VERSION_LANES = 4;
+    public static final int HEADER_VERSION_CHUNKED = 5;
+    /** latest header of this version */
+    public static final int HEADER_VERSION = HEADER_VERSION_CHUNKED;
+
+    protected int length = HEADER_LENGTH;
+    protected short type = 0;
+    protected long seq;
+    /** seq of a request from an older peer, not a number, echoed in the response */
+    protected String legacySeq;
+
+    protected int result = 0;
     protected byte[] data = new byte[0];
+    /** body of a received message, a retained slice of its frame */
+    protected transient ByteBuf content;
 
-    public Integer getLength() {
+    public Message() {
+        this(SeqUtils.newLongSeq());
+    }
+
+    /** @param seq of a received message or of the request to answer */
+    public Message(long seq) {
+        this.seq = seq;
+    }
+
+    /**
+     * @return length of the frame as received, or of a legacy frame for a message built here, see
+     *     getDataLength for the body
+     */
+    public int getLength() {
         return length;
     }
 
-    public void setLength(Integer length) {
+    public void setLength(int length) {
         this.length = length;
     }
 
-    public Short getType() {
+    public short getType() {
         return type;
     }
 
-    public void setType(Short type) {
+    public void setType(short type) {
         this.type = type;
     }
 
-    public String getSeq() {
+    public long getSeq() {
         return seq;
     }
 
-    public void setSeq(String seq) {
+    public void setSeq(long seq) {
         this.seq = seq;
     }
 
-    public Integer getResult() {
+    public String getLegacySeq() {
+        return legacySeq;
+    }
+
+    public void setLegacySeq(String legacySeq) {
+        this.legacySeq = legacySeq;
+    }
+
+    public int getResult() {
         return result;
     }
 
-    public void setResult(Integer result) {
+    public void setResult(int result) {
         this.result = result;
     }
 
+    /** The body as an array, copied once from the received content */
     public byte[] getData() {
+        if (data == null) {
+            data = ByteBufUtil.getBytes(content);
+        }
         return data;
     }
 
     public void setData(byte[] data) {
+        release();
         this.data = data;
         setLength(data.length + HEADER_LENGTH);
     }
 
+    /** A reference to the body without copying, released by whoever consumes it */
+    public ByteBuf retainedContent() {
+        return content != null ? content.retainedDuplicate() : Unpooled.wrappedBuffer(data);
+    }
+
+    /** @param content the body, the message takes over its reference */
+    public void setContent(ByteBuf content) {
+        release();
+        this.data = null;
+        this.content = content;
+        setLength(content.readableBytes() + HEADER_LENGTH);
+    }
+
+    public boolean hasContent() {
+        return content != null;
+    }
+
+    /** @return length of the body, whatever the header and compression of its frame */
+    public int getDataLength() {
+        return content != null ? content.readableBytes() : data.length;
+    }
+
+    /** Release the received content, the copied data stays readable */
+    public void release() {
+        if (content != null) {
+            content.release();
+            content = null;
+            if (data == null) {
+                data = new byte[0];
+            }
+        }
+    }
+
     @Override
     public String toString() {
         return "Message{"
@@ -83,26 +184,29 @@ public class Message implements Serializable {
                 + length
                 + ", type="
                 + type
-                + ", seq='"
-                + seq
-                + '\''
+                + ", seq="
+                + (legacySeq == null ? String.valueOf(seq) : legacySeq)
                 + ", result="
                 + result
                 + ", data.length="
-                + data.length
+                + getDataLength()
                 + '}';
     }
 
-    public static Message builder(Short type) {
+    public static Message builder(short type) {
         Message message = new Message();
         message.setType(type);
         return message;
     }
 
-    public static Message builder(Short type, String content) {
+    public static Message builder(short type, String content) {
+        return builder(type, content.getBytes());
+    }
+
+    public static Message builder(short type, byte[] content) {
         Message message = new Message();
         message.setType(type);
-        message.setData(content.getBytes());
+        message.setData(content);
         return message;
     }
 }
@@ -0,0 +1,79 @@
+package com.webank.wecross.network.p2p.netty.message.serialize;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/** Compression of the frames on one channel: bytes saved against CPU time spent */
+public class CompressionStats {
+    private LongAdder compressedMessages = new LongAdder();
+    private LongAdder sentRawBytes = new LongAdder();
+    private LongAdder sentCompressedBytes = new LongAdder();
+    private LongAdder compressNanos = new LongAdder();
+
+    private LongAdder decompressedMessages = new LongAdder();
+    private LongAdder receivedRawBytes = new LongAdder();
+    private LongAdder receivedCompressedBytes = new LongAdder();
+    private LongAdder decompressNanos = new LongAdder();
+
+    public void onCompress(int rawBytes, int compressedBytes, long nanos) {
+        compressedMessages.increment();
+        sentRawBytes.add(rawBytes);
+        sentCompressedBytes.add(compressedBytes);
+        compressNanos.add(nanos);
+    }
+
+    public void onDecompress(int rawBytes, int compressedBytes, long nanos) {
+        decompressedMessages.increment();
+        receivedRawBytes.add(rawBytes);
+        receivedCompressedBytes.add(compressedBytes);
+        decompressNanos.add(nanos);
+    }
+
+    public long getCompressedMessages() {
+        return compressedMessages.sum();
+    }
+
+    public long getDecompressedMessages() {
+        return decompressedMessages.sum();
+    }
+
+    /** @return compressed size / raw size of sent messages, 1 if nothing was compressed */
+    public double getSentRatio() {
+        long raw = sentRawBytes.sum();
+        return raw == 0 ? 1 : (double) sentCompressedBytes.sum() / raw;
+    }
+
+    /** @return compressed size / raw size of received messages, 1 if nothing was compressed */
+    public double getReceivedRatio() {
+        long raw = receivedRawBytes.sum();
+        return raw == 0 ? 1 : (double) receivedCompressedBytes.sum() / raw;
+    }
+
+    public long getSavedBytes() {
+        return sentRawBytes.sum()
+                - sentCompressedBytes.sum()
+                + receivedRawBytes.sum()
+                - receivedCompressedBytes.sum();
+    }
+
+    public long getCpuMicros() {
+        return (compressNanos.sum() + decompressNanos.sum()) / 1000;
+    }
+
+    @Override
+    public String toString() {
+        return "CompressionStats{"
+                + "compressedMessages="
+                + getCompressedMessages()
+                + ", decompressedMessages="
+                + getDecompressedMessages()
+                + ", sentRatio="
+                + getSentRatio()
+                + ", receivedRatio="
+                + getReceivedRatio()
+                + ", savedBytes="
+                + getSavedBytes()
+                + ", cpuMicros="
+                + getCpuMicros()
+                + '}';
+    }
+}
@@ -1,53 +1,361 @@
 package com.webank.wecross.network.p2p.netty.message.serialize;
 
+import com.webank.wecross.network.p2p.netty.MessageType;
 import com.webank.wecross.network.p2p.netty.message.proto.Message;
 import io.netty.buffer.ByteBuf;
-import java.io.UnsupportedEncodingException;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.util.Attribute;
+import io.netty.util.AttributeKey;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
+/**
+ * Frames P2P messages without copying the body: the header is written to a pooled direct buffer and
+ * combined with the body, and a received body is a retained slice of its frame.
+ *
+ * <p>Bodies above the compression threshold are deflated for peers announcing
+ * HEADER_VERSION_COMPRESSION, when that saves at least an eighth.
+ *
+ * <p>Stateless, one instance can be shared by all channels. The header version of a channel is kept
+ * in its HEADER_VERSION attribute, its CompressionStats in COMPRESSION_STATS.
+ */
 public class MessageSerializer {
+    /** header version the peer of a channel announced */
+    public static final AttributeKey<Integer> HEADER_VERSION =
+            AttributeKey.valueOf("headerVersion");
 
-    private void readHeader(Message message, ByteBuf in) throws UnsupportedEncodingException {
-        Integer length = in.readInt();
-        Short type = in.readShort();
+    /** compression of the frames on a channel */
+    public static final AttributeKey<CompressionStats> COMPRESSION_STATS =
+            AttributeKey.valueOf("compressionStats");
 
-        byte[] dst = new byte[32];
-        in.readBytes(dst);
-        String seq = new String(dst, "utf-8");
+    public static final int DEFAULT_COMPRESSION_THRESHOLD = 1024;
+    public static final int MAX_DECOMPRESSED_LENGTH = 64 * 1024 * 1024;
+    private static final int UNCOMPRESSED_LENGTH_FIELD_LENGTH = 4;
+    private static final int MAX_CACHED_BUFFER_LENGTH = 1024 * 1024;
+    private static final int COMPRESSION_SAMPLE_LENGTH = 64 * 1024;
 
-        Integer result = in.readInt();
+    // deflaters are expensive to create, each thread reuses its own
+    private static final ThreadLocal<Deflater> deflaters =
+            ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED, true));
+    private static final ThreadLocal<Inflater> inflaters =
+            ThreadLocal.withInitial(() -> new Inflater(true));
+    private static final ThreadLocal<byte[]> compressBuffers =
+            ThreadLocal.withInitial(() -> new byte[0]);
+
+    private int compressionThreshold = DEFAULT_COMPRESSION_THRESHOLD;
+
+    private static final int LEGACY_SEQ_PADDING =
+            Message.SEQ_FIELD_LENGTH - 2 * Message.COMPACT_SEQ_FIELD_LENGTH;
+    private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    public static int getHeaderVersion(Channel channel) {
+        Integer headerVersion = channel.attr(HEADER_VERSION).get();
+        return headerVersion == null ? Message.HEADER_VERSION_LEGACY : headerVersion;
+    }
+
+    /** @param headerVersion announced by the peer, newer versions fall back to ours */
+    public static void setHeaderVersion(Channel channel, int headerVersion) {
+        channel.attr(HEADER_VERSION).set(Math.min(headerVersion, Message.HEADER_VERSION));
+    }
+
+    public static CompressionStats getCompressionStats(Channel channel) {
+        Attribute<CompressionStats> attribute = channel.attr(COMPRESSION_STATS);
+        CompressionStats compressionStats = attribute.get();
+        if (compressionStats == null) {
+            compressionStats = new CompressionStats();
+            CompressionStats current = attribute.setIfAbsent(compressionStats);
+            if (current != null) {
+                compressionStats = current;
+            }
+        }
+        return compressionStats;
+    }
+
+    private Message readHeader(ByteBuf in) {
+        int length = in.readInt();
+        short type = in.readShort();
+
+        Message message;
+        boolean compact = (type & Message.COMPACT_HEADER_FLAG) != 0;
+        type &= ~(Message.COMPACT_HEADER_FLAG | Message.COMPRESSED_FLAG);
+        if (compact) {
+            message = new Message(in.readLong());
+        } else {
+            message = readLegacySeq(in);
+        }
+
+        int result = in.readInt();
 
         message.setLength(length);
         message.setType(type);
-        message.setSeq(seq);
         message.setResult(result);
+        return message;
     }
 
-    private void readData(Message message, ByteBuf in) {
-        byte[] data = new byte[message.getLength() - Message.HEADER_LENGTH];
-        in.readBytes(data, 0, message.getLength() - Message.HEADER_LENGTH);
-        message.setData(data);
+    /** Seqs of newer peers are numbers in hex, others are only kept to be echoed */
+    private Message readLegacySeq(ByteBuf in) {
+        int index = in.readerIndex();
+        long seq = 0;
+        boolean numeric = true;
+        for (int i = 0; i < Message.SEQ_FIELD_LENGTH && numeric; ++i) {
+            int digit = Character.digit(in.getByte(index + i), 16);
+            numeric = digit >= 0 && (i >= LEGACY_SEQ_PADDING || digit == 0);
+            seq = (seq << 4) | digit;
+        }
+
+        Message message;
+        if (numeric) {
+            message = new Message(seq);
+        } else {
+            message = new Message(0);
+            message.setLegacySeq(
+                    in.toString(index, Message.SEQ_FIELD_LENGTH, StandardCharsets.US_ASCII));
+        }
+        in.skipBytes(Message.SEQ_FIELD_LENGTH);
+        return message;
+    }
+
+    private void writeLegacySeq(Message message, ByteBuf out) {
+        if (message.getLegacySeq() != null) {
+            out.writeCharSequence(message.getLegacySeq(), StandardCharsets.US_ASCII);
+            return;
+        }
+
+        long seq = message.getSeq();
+        for (int i = 0; i < LEGACY_SEQ_PADDING; ++i) {
+            out.writeByte('0');
+        }
+        for (int shift = 60; shift >= 0; shift -= 4) {
+            out.writeByte(HEX_DIGITS[(int) ((seq >>> shift) & 0xf)]);
+        }
     }
 
-    private void writeHeader(Message message, ByteBuf out) {
-        out.writeInt(Message.HEADER_LENGTH + message.getData().length);
-        out.writeShort(message.getType());
-        out.writeBytes(message.getSeq().getBytes(), 0, 32);
+    private void writeHeader(
+            Message message, ByteBuf out, boolean compact, int flags, int dataLength) {
+        if (compact) {
+            out.writeInt(Message.COMPACT_HEADER_LENGTH + dataLength);
+            out.writeShort(message.getType() | Message.COMPACT_HEADER_FLAG | flags);
+            out.writeLong(message.getSeq());
+        } else {
+            out.writeInt(Message.HEADER_LENGTH + dataLength);
+            out.writeShort(message.getType() | flags);
+            writeLegacySeq(message, out);
+        }
         out.writeInt(message.getResult());
     }
 
-    private void writeData(Message message, ByteBuf out) {
-        out.writeBytes(message.getData());
+    /**
+     * @param byteBuf a whole frame, still owned by the caller
+     * @return the message holding its own reference to the body, release it after processing
+     */
+    public Message deserialize(ByteBuf byteBuf) {
+        return deserialize(null, byteBuf);
     }
 
-    public Message deserialize(ByteBuf byteBuf) throws UnsupportedEncodingException {
-        Message message = new Message();
-        readHeader(message, byteBuf);
-        readData(message, byteBuf);
+    /** @param ctx of the channel to account decompression to, may be null */
+    public Message deserialize(ChannelHandlerContext ctx, ByteBuf byteBuf) {
+        int readerIndex = byteBuf.readerIndex();
+        short flags = byteBuf.getShort(readerIndex + Message.LENGTH_FIELD_LENGTH);
+        Message message = readHeader(byteBuf);
+
+        int length = message.getLength();
+        int dataLength = length - (byteBuf.readerIndex() - readerIndex);
+        if (dataLength < 0 || dataLength > byteBuf.readableBytes()) {
+            throw new IllegalArgumentException("Invalid message length: " + length);
+        }
+        message.setContent(byteBuf.readRetainedSlice(dataLength));
+        if ((flags & Message.COMPRESSED_FLAG) != 0) {
+            try {
+                message.setData(inflate(message.retainedContent(), ctx));
+            } catch (RuntimeException e) {
+                message.release();
+                throw e;
+            }
+        }
+        message.setLength(length);
         return message;
     }
 
-    public void serialize(Message message, ByteBuf byteBuf) {
-        writeHeader(message, byteBuf);
-        writeData(message, byteBuf);
+    /** @return a frame of the message in the header version of the channel */
+    public ByteBuf serialize(ChannelHandlerContext ctx, Message message) {
+        return serialize(ctx.alloc(), message, getHeaderVersion(ctx.channel()), ctx);
+    }
+
+    /** @return a frame of the message, to be written to the channel that releases it */
+    public ByteBuf serialize(ByteBufAllocator allocator, Message message, int headerVersion) {
+        return serialize(allocator, message, headerVersion, null);
+    }
+
+    private ByteBuf serialize(
+            ByteBufAllocator allocator,
+            Message message,
+            int headerVersion,
+            ChannelHandlerContext ctx) {
+        boolean compact = headerVersion >= Message.HEADER_VERSION_COMPACT;
+        if (message.getLegacySeq() != null
+                && (compact || message.getLegacySeq().length() != Message.SEQ_FIELD_LENGTH)) {
+            throw new IllegalArgumentException("Invalid message seq: " + message.getLegacySeq());
+        }
+
+        int headerLength = compact ? Message.COMPACT_HEADER_LENGTH : Message.HEADER_LENGTH;
+        if (!message.hasContent()) {
+            if (headerVersion >= Message.HEADER_VERSION_COMPRESSION
+                    && message.getDataLength() >= compressionThreshold) {
+                ByteBuf frame = deflate(allocator, message, ctx);
+                if (frame != null) {
+                    return frame;
+                }
+            }
+
+            // one pooled direct buffer of the exact size, no growing and no heap garbage
+            ByteBuf frame = allocator.directBuffer(headerLength + message.getDataLength());
+            writeHeader(message, frame, compact, 0, message.getDataLength());
+            frame.writeBytes(message.getData());
+            return frame;
+        }
+
+        // a received body is referenced, not copied
+        ByteBuf header = allocator.directBuffer(headerLength);
+        writeHeader(message, header, compact, 0, message.getDataLength());
+        CompositeByteBuf frame = allocator.compositeDirectBuffer(2);
+        frame.addComponents(true, header, message.retainedContent());
+        return frame;
+    }
+
+    /** @return a compressed frame, or null if compression saves less than an eighth */
+    private ByteBuf deflate(
+            ByteBufAllocator allocator, Message message, ChannelHandlerContext ctx) {
+        long start = System.nanoTime();
+        byte[] data = message.getData();
+        int maxLength = data.length - data.length / 8;
+        byte[] out = compressBuffer(maxLength);
+
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        deflater.setInput(data);
+        deflater.finish();
+        int compressedLength = 0;
+        while (!deflater.finished() && compressedLength < maxLength) {
+            compressedLength +=
+                    deflater.deflate(
+                            out,
+                            compressedLength,
+                            Math.min(COMPRESSION_SAMPLE_LENGTH, maxLength - compressedLength));
+
+            // an incompressible body shows early, give up before deflating all of it
+            long read = deflater.getBytesRead();
+            if (read >= COMPRESSION_SAMPLE_LENGTH && compressedLength > read - read / 8) {
+                return null;
+            }
+        }
+        if (!deflater.finished()) {
+            return null;
+        }
+
+        int dataLength = UNCOMPRESSED_LENGTH_FIELD_LENGTH + compressedLength;
+        ByteBuf frame = allocator.directBuffer(Message.COMPACT_HEADER_LENGTH + dataLength);
+        writeHeader(message, frame, true, Message.COMPRESSED_FLAG, dataLength);
+        frame.writeInt(data.length);
+        frame.writeBytes(out, 0, compressedLength);
+
+        if (ctx != null) {
+            getCompressionStats(ctx.channel())
+                    .onCompress(data.length, dataLength, System.nanoTime() - start);
+        }
+        return frame;
+    }
+
+    /** @param content uncompressed length and raw deflate data, released here */
+    private byte[] inflate(ByteBuf content, ChannelHandlerContext ctx) {
+        long start = System.nanoTime();
+        try {
+            int compressedLength = content.readableBytes();
+            int length = content.readInt();
+            if (length < 0 || length > MAX_DECOMPRESSED_LENGTH) {
+                throw new IllegalArgumentException("Invalid uncompressed length: " + length);
+            }
+
+            Inflater inflater = inflaters.get();
+            inflater.reset();
+            if (content.hasArray()) {
+                inflater.setInput(
+                        content.array(),
+                        content.arrayOffset() + content.readerIndex(),
+                        content.readableBytes());
+            } else {
+                inflater.setInput(ByteBufUtil.getBytes(content));
+            }
+
+            byte[] data = new byte[length];
+            int inflated = 0;
+            while (inflated < length
+                    && !inflater.finished()
+                    && !inflater.needsInput()
+                    && !inflater.needsDictionary()) {
+                inflated += inflater.inflate(data, inflated, length - inflated);
+            }
+            if (inflated != length || !inflater.finished()) {
+                throw new IllegalArgumentException(
+                        "Invalid compressed message, inflated: "
+                                + inflated
+                                + ", expected: "
+                                + length);
+            }
+
+            if (ctx != null) {
+                getCompressionStats(ctx.channel())
+                        .onDecompress(length, compressedLength, System.nanoTime() - start);
+            }
+            return data;
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Invalid compressed message", e);
+        } finally {
+            content.release();
+        }
+    }
+
+    private byte[] compressBuffer(int length) {
+        byte[] buffer = compressBuffers.get();
+        if (buffer.length >= length) {
+            return buffer;
+        }
+
+        buffer = new byte[length];
+        if (length <= MAX_CACHED_BUFFER_LENGTH) {
+            compressBuffers.set(buffer);
+        }
+        return buffer;
+    }
+
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    public void setCompressionThreshold(int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    /** @return a heartbeat announcing our header version */
+    public ByteBuf serializeHeartBeat(ChannelHandlerContext ctx) {
+        return serializeHeartBeat(ctx, null);
+    }
+
+    /**
+     * @param status carried as the content, older versions ignore it
+     * @return a heartbeat announcing our header version
+     */
+    public ByteBuf serializeHeartBeat(ChannelHandlerContext ctx, byte[] status) {
+        Message message = Message.builder(MessageType.HEARTBEAT);
+        message.setResult(Message.HEADER_VERSION);
+        if (status != null) {
+            message.setData(status);
+        }
+        return serialize(ctx, message);
     }
 }
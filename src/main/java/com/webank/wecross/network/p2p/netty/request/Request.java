@@ -2,15 +2,21 @@ package com.webank.wecross.network.p2p.netty.request;
 
 public class Request {
     private Short type;
-    private String content;
+    private byte[] content;
     /** timeout, default 60s */
     private Integer timeout = 60 * 1000;
+    /** peer sync request, sent on the control lane apart from transactions */
+    private boolean control = false;
+    /** safe to send again, retried on timeouts and hedged to slow peers */
+    private boolean idempotent = false;
+    /** an idempotent request is also sent once more if slow, unless hedged across peers */
+    private boolean hedge = true;
 
-    public String getContent() {
+    public byte[] getContent() {
         return content;
     }
 
-    public void setContent(String content) {
+    public void setContent(byte[] content) {
         this.content = content;
     }
 
@@ -29,4 +35,28 @@ public class Request {
     public void setType(Short type) {
         this.type = type;
     }
+
+    public boolean isControl() {
+        return control;
+    }
+
+    public void setControl(boolean control) {
+        this.control = control;
+    }
+
+    public boolean isIdempotent() {
+        return idempotent;
+    }
+
+    public void setIdempotent(boolean idempotent) {
+        this.idempotent = idempotent;
+    }
+
+    public boolean isHedge() {
+        return hedge;
+    }
+
+    public void setHedge(boolean hedge) {
+        this.hedge = hedge;
+    }
 }
@@ -3,10 +3,10 @@ package com.webank.wecross.network.p2p.netty.response;
 public class Response {
     private int errorCode;
     private String errorMessage;
-    private String content;
-    private String messageID;
+    private byte[] content;
+    private long messageID;
 
-    public static Response build(int errorCode, String errorMsg, String messageID, String content) {
+    public static Response build(int errorCode, String errorMsg, long messageID, byte[] content) {
 
         Response response = new Response();
         response.setErrorCode(errorCode);
@@ -33,19 +33,19 @@ public class Response {
         this.errorMessage = errorMessage;
     }
 
-    public String getContent() {
+    public byte[] getContent() {
         return content;
     }
 
-    public void setContent(String content) {
+    public void setContent(byte[] content) {
         this.content = content;
     }
 
-    public String getMessageID() {
+    public long getMessageID() {
         return messageID;
     }
 
-    public void setMessageID(String messageID) {
+    public void setMessageID(long messageID) {
         this.messageID = messageID;
     }
 
@@ -57,12 +57,10 @@ public class Response {
                 + ", errorMessage='"
                 + errorMessage
                 + '\''
-                + ", content='"
-                + content
-                + '\''
-                + ", messageID='"
+                + ", content.length="
+                + (content == null ? 0 : content.length)
+                + ", messageID="
                 + messageID
-                + '\''
                 + '}';
     }
 }
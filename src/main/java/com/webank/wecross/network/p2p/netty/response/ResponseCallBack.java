@@ -4,6 +4,8 @@ import com.webank.wecross.network.p2p.netty.SeqMapper;
 import com.webank.wecross.network.p2p.netty.message.proto.Message;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.util.Timeout;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -15,6 +17,8 @@ public abstract class ResponseCallBack {
     private Timeout timeout;
     private SeqMapper seqMapper;
     private ChannelHandlerContext ctx;
+    // requests in flight to the peer, released once by the response, a failure or the timeout
+    private AtomicReference<AtomicInteger> inflight = new AtomicReference<>();
 
     public SeqMapper getSeqMapper() {
         return seqMapper;
@@ -32,6 +36,17 @@ public abstract class ResponseCallBack {
         this.ctx = ctx;
     }
 
+    public void setInflight(AtomicInteger inflight) {
+        this.inflight.set(inflight);
+    }
+
+    public void releaseInflight() {
+        AtomicInteger requests = inflight.getAndSet(null);
+        if (requests != null) {
+            requests.decrementAndGet();
+        }
+    }
+
     public void cancelTimer() {
         if (getTimeout() != null) {
             getTimeout().cancel();
@@ -58,6 +73,7 @@ public abstract class ResponseCallBack {
         }
 
         cancelTimer();
+        releaseInflight();
         getSeqMapper().remove(message.getSeq());
     }
 
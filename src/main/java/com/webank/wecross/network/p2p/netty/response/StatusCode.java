@@ -4,4 +4,6 @@ public interface StatusCode {
     int SUCCESS = 0;
     int UNREACHABLE = 101;
     int TIMEOUT = 102;
+    /** the peer is overloaded, or too many requests to it wait for responses */
+    int BUSY = 103;
 }
@@ -60,6 +60,12 @@ public class URIHandlerDispatcher {
         registerURIHandler(new URIMethod("GET", "/sys/supportedStubs"), systemInfoHandler);
         registerURIHandler(new URIMethod("GET", "/sys/systemStatus"), systemInfoHandler);
         registerURIHandler(new URIMethod("GET", "/sys/routerStatus"), systemInfoHandler);
+        registerURIHandler(new URIMethod("GET", "/sys/blockCacheStatus"), systemInfoHandler);
+
+        BlockSubscriptionURIHandler blockSubscriptionURIHandler =
+                new BlockSubscriptionURIHandler(host);
+        registerURIHandler(
+                new URIMethod("GET", "/sys/subscribeBlocks"), blockSubscriptionURIHandler);
 
         ResourceFetcher resourceFetcher = new ResourceFetcher(host.getZoneManager());
         ListResourcesURIHandler listResourcesURIHandler =
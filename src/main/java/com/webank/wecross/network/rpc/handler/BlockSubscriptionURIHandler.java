@@ -0,0 +1,190 @@
+package com.webank.wecross.network.rpc.handler;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.webank.wecross.account.AccountAccessControlFilter;
+import com.webank.wecross.account.UniversalAccount;
+import com.webank.wecross.account.UserContext;
+import com.webank.wecross.common.NetworkQueryStatus;
+import com.webank.wecross.host.WeCrossHost;
+import com.webank.wecross.network.UriDecoder;
+import com.webank.wecross.network.rpc.netty.handler.EventStreamSubscriber;
+import com.webank.wecross.restserver.RestResponse;
+import com.webank.wecross.stub.Block;
+import com.webank.wecross.stub.BlockHeader;
+import com.webank.wecross.stub.ObjectMapperFactory;
+import com.webank.wecross.stub.Path;
+import com.webank.wecross.stubmanager.MemoryBlockManager;
+import com.webank.wecross.zone.Chain;
+import io.netty.channel.Channel;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * GET /sys/subscribeBlocks?paths=payment.bcos,payment.fabric
+ *
+ * <p>Pushes the header of every block synced by the local chains as Server-Sent Events, all chains
+ * the account can access if paths is omitted.
+ */
+public class BlockSubscriptionURIHandler
+        implements StreamURIHandler, MemoryBlockManager.BlockSyncListener {
+    private static final Logger logger = LoggerFactory.getLogger(BlockSubscriptionURIHandler.class);
+
+    private final ObjectMapper objectMapper = ObjectMapperFactory.getObjectMapper();
+
+    private WeCrossHost host;
+    private int bufferSize = EventStreamSubscriber.DEFAULT_BUFFER_SIZE;
+    private Set<Subscription> subscriptions = ConcurrentHashMap.newKeySet();
+    private AtomicBoolean listening = new AtomicBoolean(false);
+
+    private static class Subscription {
+        private EventStreamSubscriber subscriber;
+        private Set<String> paths;
+        private AccountAccessControlFilter filter;
+
+        private boolean accept(String path, Path chainPath) {
+            if (paths != null && !paths.contains(path)) {
+                return false;
+            }
+            return filter == null || filter.hasPermission(chainPath);
+        }
+    }
+
+    public static class BlockEvent {
+        private String path;
+        private BlockHeader blockHeader;
+
+        public String getPath() {
+            return path;
+        }
+
+        public void setPath(String path) {
+            this.path = path;
+        }
+
+        public BlockHeader getBlockHeader() {
+            return blockHeader;
+        }
+
+        public void setBlockHeader(BlockHeader blockHeader) {
+            this.blockHeader = blockHeader;
+        }
+    }
+
+    public BlockSubscriptionURIHandler(WeCrossHost host) {
+        this.host = host;
+    }
+
+    @Override
+    public void handle(
+            UserContext userContext, String uri, String method, String content, Callback callback) {
+        RestResponse<Object> restResponse = new RestResponse<>();
+        restResponse.setErrorCode(NetworkQueryStatus.URI_PATH_ERROR);
+        restResponse.setMessage("Only supported as an event stream");
+        callback.onResponse(restResponse);
+    }
+
+    @Override
+    public void handleStream(
+            UserContext userContext, String uri, Channel channel, Callback callback) {
+        Subscription subscription = new Subscription();
+        try {
+            String paths = new UriDecoder(uri).getQueryBykey("paths");
+            subscription.paths = new HashSet<>(Arrays.asList(paths.split(",")));
+        } catch (Exception e) {
+            // all chains
+            subscription.paths = null;
+        }
+
+        if (Objects.nonNull(host.getAccountManager())) {
+            try {
+                UniversalAccount ua = host.getAccountManager().getUniversalAccount(userContext);
+                subscription.filter = ua.getAccessControlFilter();
+            } catch (Exception e) {
+                logger.warn("Verify permission failed, error: ", e);
+                RestResponse<Object> restResponse = new RestResponse<>();
+                restResponse.setErrorCode(NetworkQueryStatus.URI_QUERY_ERROR);
+                restResponse.setMessage("Verify permission failed");
+                callback.onResponse(restResponse);
+                return;
+            }
+        }
+
+        if (listening.compareAndSet(false, true)) {
+            host.getZoneManager().getMemoryBlockManagerFactory().addBlockSyncListener(this);
+        }
+
+        subscription.subscriber = new EventStreamSubscriber(channel, bufferSize);
+        subscription.subscriber.setCloseHandler(() -> subscriptions.remove(subscription));
+        subscriptions.add(subscription);
+        subscription.subscriber.open();
+
+        if (logger.isDebugEnabled()) {
+            logger.debug(
+                    "Subscribe blocks, remote: {}, paths: {}, subscribers: {}",
+                    channel.remoteAddress(),
+                    subscription.paths,
+                    subscriptions.size());
+        }
+    }
+
+    @Override
+    public void onBlockSynced(Chain chain, Block block) {
+        if (subscriptions.isEmpty()) {
+            return;
+        }
+
+        String path = chain.getZoneName() + "." + chain.getName();
+        Path chainPath = new Path();
+        chainPath.setZone(chain.getZoneName());
+        chainPath.setChain(chain.getName());
+
+        // encoded once, shared by all subscribers
+        byte[] event = null;
+        for (Subscription subscription : subscriptions) {
+            if (!subscription.accept(path, chainPath)) {
+                continue;
+            }
+
+            if (event == null) {
+                event = encode(path, block);
+                if (event == null) {
+                    return;
+                }
+            }
+            subscription.subscriber.offer(event);
+        }
+    }
+
+    private byte[] encode(String path, Block block) {
+        BlockEvent blockEvent = new BlockEvent();
+        blockEvent.setPath(path);
+        blockEvent.setBlockHeader(block.getBlockHeader());
+        try {
+            return EventStreamSubscriber.encode(
+                    "block",
+                    String.valueOf(block.getBlockHeader().getNumber()),
+                    objectMapper.writeValueAsString(blockEvent));
+        } catch (Exception e) {
+            logger.warn("Encode block event failed, path: {}, e: ", path, e);
+            return null;
+        }
+    }
+
+    public int getSubscriptionCount() {
+        return subscriptions.size();
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public void setBufferSize(int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+}
@@ -0,0 +1,13 @@
+package com.webank.wecross.network.rpc.handler;
+
+import com.webank.wecross.account.UserContext;
+import io.netty.channel.Channel;
+
+/** URI handler that takes over the connection and keeps pushing events on it */
+public interface StreamURIHandler extends URIHandler {
+    /**
+     * @param channel the connection to stream on, the handler owns it once the stream is opened
+     * @param callback for the response if the stream can not be opened
+     */
+    void handleStream(UserContext userContext, String uri, Channel channel, Callback callback);
+}
@@ -7,17 +7,22 @@ import com.webank.wecross.host.WeCrossHost;
 import com.webank.wecross.network.UriDecoder;
 import com.webank.wecross.restserver.RestResponse;
 import com.webank.wecross.restserver.response.StubResponse;
+import com.webank.wecross.stubmanager.BlockMemoryBudget;
+import com.webank.wecross.stubmanager.MemoryBlockManager;
 import com.webank.wecross.stubmanager.StubManager;
+import com.webank.wecross.stubmanager.TransactionIndex;
 import com.webank.wecross.zone.ZoneManager;
 import java.io.File;
 import java.lang.management.ManagementFactory;
 import java.security.Provider;
 import java.security.Security;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.stream.Collectors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-/** GET /sys/supportedStubs */
+/** GET /sys/supportedStubs, /sys/systemStatus, /sys/routerStatus, /sys/blockCacheStatus */
 public class SystemInfoHandler implements URIHandler {
     private WeCrossHost host;
     private static final Logger logger = LoggerFactory.getLogger(SystemInfoHandler.class);
@@ -49,6 +54,9 @@ public class SystemInfoHandler implements URIHandler {
             case "routerStatus":
                 routerStatus(userContext, uri, method, content, callback);
                 break;
+            case "blockCacheStatus":
+                blockCacheStatus(userContext, uri, method, content, callback);
+                break;
         }
     }
 
@@ -366,4 +374,123 @@ public class SystemInfoHandler implements URIHandler {
 
         callback.onResponse(restResponse);
     }
+
+    private class TransactionIndexStatus {
+        private int size;
+        private long hits;
+        private long misses;
+        private double hitRate;
+
+        public int getSize() {
+            return size;
+        }
+
+        public void setSize(int size) {
+            this.size = size;
+        }
+
+        public long getHits() {
+            return hits;
+        }
+
+        public void setHits(long hits) {
+            this.hits = hits;
+        }
+
+        public long getMisses() {
+            return misses;
+        }
+
+        public void setMisses(long misses) {
+            this.misses = misses;
+        }
+
+        public double getHitRate() {
+            return hitRate;
+        }
+
+        public void setHitRate(double hitRate) {
+            this.hitRate = hitRate;
+        }
+    }
+
+    private class BlockCacheStatus {
+        private long maxMemory;
+        private long usedMemory;
+        private long evictedBlocks;
+        private Map<String, Long> chainsUsedMemory;
+        private Map<String, TransactionIndexStatus> chainsTransactionIndex;
+
+        public long getMaxMemory() {
+            return maxMemory;
+        }
+
+        public void setMaxMemory(long maxMemory) {
+            this.maxMemory = maxMemory;
+        }
+
+        public long getUsedMemory() {
+            return usedMemory;
+        }
+
+        public void setUsedMemory(long usedMemory) {
+            this.usedMemory = usedMemory;
+        }
+
+        public long getEvictedBlocks() {
+            return evictedBlocks;
+        }
+
+        public void setEvictedBlocks(long evictedBlocks) {
+            this.evictedBlocks = evictedBlocks;
+        }
+
+        public Map<String, Long> getChainsUsedMemory() {
+            return chainsUsedMemory;
+        }
+
+        public void setChainsUsedMemory(Map<String, Long> chainsUsedMemory) {
+            this.chainsUsedMemory = chainsUsedMemory;
+        }
+
+        public Map<String, TransactionIndexStatus> getChainsTransactionIndex() {
+            return chainsTransactionIndex;
+        }
+
+        public void setChainsTransactionIndex(
+                Map<String, TransactionIndexStatus> chainsTransactionIndex) {
+            this.chainsTransactionIndex = chainsTransactionIndex;
+        }
+    }
+
+    private void blockCacheStatus(
+            UserContext userContext, String uri, String method, String content, Callback callback) {
+        BlockMemoryBudget budget =
+                host.getZoneManager().getMemoryBlockManagerFactory().getBlockMemoryBudget();
+
+        // bytes
+        BlockCacheStatus status = new BlockCacheStatus();
+        status.setMaxMemory(budget.getMaxBytes());
+        status.setUsedMemory(budget.getUsedBytes());
+        status.setEvictedBlocks(budget.getEvictedCount());
+        status.setChainsUsedMemory(budget.getUsage());
+
+        Map<String, TransactionIndexStatus> chainsTransactionIndex = new TreeMap<>();
+        for (Map.Entry<String, MemoryBlockManager> entry :
+                host.getZoneManager().getMemoryBlockManagers().entrySet()) {
+            TransactionIndex transactionIndex = entry.getValue().getTransactionIndex();
+            TransactionIndexStatus indexStatus = new TransactionIndexStatus();
+            indexStatus.setSize(transactionIndex.getSize());
+            indexStatus.setHits(transactionIndex.getHits());
+            indexStatus.setMisses(transactionIndex.getMisses());
+            indexStatus.setHitRate(transactionIndex.getHitRate());
+            chainsTransactionIndex.put(entry.getKey(), indexStatus);
+        }
+        status.setChainsTransactionIndex(chainsTransactionIndex);
+
+        RestResponse<BlockCacheStatus> restResponse = new RestResponse<BlockCacheStatus>();
+        restResponse.setData(status);
+
+        callback.onResponse(restResponse);
+    }
 }
@@ -69,7 +69,13 @@ public class TransactionURIHandler implements URIHandler {
                         try {
                             path = uriDecoder.getQueryBykey("path");
                             txHash = uriDecoder.getQueryBykey("txHash");
-                            blockNumber = Long.valueOf(uriDecoder.getQueryBykey("blockNumber"));
+                            // optional for transactions of the recently synced blocks
+                            String blockNumberString =
+                                    uriDecoder.getQueryBykey("blockNumber", null);
+                            blockNumber =
+                                    Objects.isNull(blockNumberString)
+                                            ? null
+                                            : Long.valueOf(blockNumberString);
                         } catch (Exception e) {
                             restResponse.setErrorCode(NetworkQueryStatus.URI_QUERY_ERROR);
                             restResponse.setMessage(e.getMessage());
@@ -1,6 +1,7 @@
 package com.webank.wecross.network.rpc.netty;
 
 import com.webank.wecross.account.AccountManager;
+import com.webank.wecross.network.NettyTransport;
 import com.webank.wecross.network.p2p.netty.factory.ThreadPoolTaskExecutorFactory;
 import com.webank.wecross.network.rpc.URIHandlerDispatcher;
 import com.webank.wecross.network.rpc.authentication.AuthFilter;
@@ -10,18 +11,13 @@ import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.ChannelPipeline;
-import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioChannelOption;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
 import io.netty.handler.codec.http.HttpObjectAggregator;
 import io.netty.handler.codec.http.HttpServerCodec;
 import io.netty.handler.ssl.ClientAuth;
 import io.netty.handler.ssl.SslContext;
 import io.netty.handler.ssl.SslContextBuilder;
 import io.netty.handler.ssl.SslHandler;
-import io.netty.handler.ssl.SslProvider;
 import io.netty.handler.timeout.IdleStateHandler;
 import java.io.IOException;
 import java.util.concurrent.ExecutionException;
@@ -43,6 +39,7 @@ public class RPCBootstrap {
 
     private ServerBootstrap serverBootstrap = new ServerBootstrap();
     private RPCConfig config;
+    private NettyTransport transport = NettyTransport.getDefault();
     private URIHandlerDispatcher uriHandlerDispatcher;
 
     private AccountManager accountManager;
@@ -64,6 +61,14 @@ public class RPCBootstrap {
         this.config = config;
     }
 
+    public NettyTransport getTransport() {
+        return transport;
+    }
+
+    public void setTransport(NettyTransport transport) {
+        this.transport = transport;
+    }
+
     public URIHandlerDispatcher getUriHandlerDispatcher() {
         return uriHandlerDispatcher;
     }
@@ -90,15 +95,14 @@ public class RPCBootstrap {
 
         SslContextBuilder sslContextBuilder =
                 SslContextBuilder.forServer(nodeCrt.getInputStream(), nodeKey.getInputStream())
-                        .trustManager(caCrt.getInputStream())
-                        .sslProvider(SslProvider.JDK);
+                        .trustManager(caCrt.getInputStream());
 
         if (sslSwitch == RPCConfig.SSLSwitch.SSL_ON_CLIENT_AUTH.getSwh()) {
             logger.info(" clientAuth ");
             sslContextBuilder.clientAuth(ClientAuth.REQUIRE);
         }
 
-        return sslContextBuilder.build();
+        return transport.buildSslContext(sslContextBuilder);
     }
 
     /**
@@ -119,9 +123,6 @@ public class RPCBootstrap {
      */
     private void startHttpServer() throws ExecutionException, InterruptedException, IOException {
 
-        EventLoopGroup bossGroup = new NioEventLoopGroup();
-        EventLoopGroup workerGroup = new NioEventLoopGroup();
-
         /** Configure to use SSL, construct SslContext. */
         SslContext sslCtx =
                 config.getSslSwitch() == RPCConfig.SSLSwitch.SSL_OFF.getSwh()
@@ -140,10 +141,10 @@ public class RPCBootstrap {
                 new MimetypesFileTypeMap(config.getMimeTypesFile());
 
         serverBootstrap
-                .group(bossGroup, workerGroup)
-                .channel(NioServerSocketChannel.class)
+                .group(transport.getBossGroup(), transport.getWorkerGroup())
+                .channel(transport.getServerChannelClass())
                 .option(ChannelOption.SO_BACKLOG, 1024)
-                .childOption(NioChannelOption.SO_REUSEADDR, true)
+                .childOption(ChannelOption.SO_REUSEADDR, true)
                 .childHandler(
                         new ChannelInitializer<SocketChannel>() {
                             @Override
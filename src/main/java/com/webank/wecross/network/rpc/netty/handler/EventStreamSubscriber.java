@@ -0,0 +1,181 @@
+package com.webank.wecross.network.rpc.netty.handler;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.http.DefaultHttpContent;
+import io.netty.handler.codec.http.DefaultHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.timeout.IdleStateHandler;
+import java.nio.charset.StandardCharsets;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * One Server-Sent Events stream over a http connection.
+ *
+ * <p>Events are queued in a bounded buffer and written only while the channel is writable. A
+ * subscriber that falls behind by more than the buffer is evicted: its connection is closed, so a
+ * slow consumer never holds memory or delays the publisher.
+ */
+public class EventStreamSubscriber extends ChannelInboundHandlerAdapter {
+    private static final Logger logger = LoggerFactory.getLogger(EventStreamSubscriber.class);
+
+    public static final int DEFAULT_BUFFER_SIZE = 256;
+    /** keeps proxies from closing the idle stream, 30 s */
+    private static final long HEARTBEAT_INTERVAL = 30 * 1000;
+
+    private static final byte[] HEARTBEAT = ":\n\n".getBytes(StandardCharsets.UTF_8);
+
+    private final Channel channel;
+    private final int bufferSize;
+    private final Queue<byte[]> events = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger bufferedCount = new AtomicInteger(0);
+    private final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+    private ScheduledFuture<?> heartbeat;
+    private Runnable closeHandler;
+
+    public EventStreamSubscriber(Channel channel, int bufferSize) {
+        this.channel = channel;
+        this.bufferSize = Math.max(1, bufferSize);
+    }
+
+    /** Send the response header and take over the channel */
+    public void open() {
+        // the client only reads, the heartbeat detects dead connections instead
+        if (channel.pipeline().get(IdleStateHandler.class) != null) {
+            channel.pipeline().remove(IdleStateHandler.class);
+        }
+        channel.pipeline().addLast(this);
+
+        HttpResponse response =
+                new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+        response.headers().set(HttpHeaderNames.CONTENT_TYPE, "text/event-stream");
+        response.headers().set(HttpHeaderNames.CACHE_CONTROL, HttpHeaderValues.NO_CACHE);
+        response.headers().set(HttpHeaderNames.TRANSFER_ENCODING, HttpHeaderValues.CHUNKED);
+        response.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.KEEP_ALIVE);
+        channel.writeAndFlush(response);
+
+        heartbeat =
+                channel.eventLoop()
+                        .scheduleAtFixedRate(
+                                () -> offer(HEARTBEAT),
+                                HEARTBEAT_INTERVAL,
+                                HEARTBEAT_INTERVAL,
+                                TimeUnit.MILLISECONDS);
+
+        if (!channel.isActive()) {
+            close();
+        }
+    }
+
+    /**
+     * Queue an encoded event, the array is shared by all subscribers and must not be modified
+     *
+     * @return false if the subscriber is closed or has just been evicted
+     */
+    public boolean offer(byte[] event) {
+        if (closed.get()) {
+            return false;
+        }
+
+        if (bufferedCount.incrementAndGet() > bufferSize) {
+            bufferedCount.decrementAndGet();
+            logger.warn(
+                    "Evict slow event stream subscriber, remote: {}, buffered: {}",
+                    channel.remoteAddress(),
+                    bufferSize);
+            close();
+            return false;
+        }
+
+        events.offer(event);
+        if (drainScheduled.compareAndSet(false, true)) {
+            channel.eventLoop().execute(this::drain);
+        }
+        return true;
+    }
+
+    private void drain() {
+        drainScheduled.set(false);
+
+        boolean written = false;
+        byte[] event;
+        while (!closed.get() && channel.isWritable() && (event = events.poll()) != null) {
+            bufferedCount.decrementAndGet();
+            channel.write(new DefaultHttpContent(Unpooled.wrappedBuffer(event)));
+            written = true;
+        }
+
+        if (written) {
+            channel.flush();
+        }
+    }
+
+    public void close() {
+        if (closed.compareAndSet(false, true)) {
+            if (heartbeat != null) {
+                heartbeat.cancel(false);
+            }
+            events.clear();
+            bufferedCount.set(0);
+
+            channel.close();
+            if (closeHandler != null) {
+                closeHandler.run();
+            }
+        }
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        if (ctx.channel().isWritable()) {
+            drain();
+        }
+        super.channelWritabilityChanged(ctx);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        close();
+        super.channelInactive(ctx);
+    }
+
+    public boolean isClosed() {
+        return closed.get();
+    }
+
+    public int getBufferedCount() {
+        return bufferedCount.get();
+    }
+
+    public void setCloseHandler(Runnable closeHandler) {
+        this.closeHandler = closeHandler;
+    }
+
+    /** Encode a Server-Sent Event */
+    public static byte[] encode(String name, String id, String data) {
+        StringBuilder builder = new StringBuilder();
+        builder.append("event: ").append(name).append('\n');
+        if (id != null) {
+            builder.append("id: ").append(id).append('\n');
+        }
+        for (String line : data.split("\n", -1)) {
+            builder.append("data: ").append(line).append('\n');
+        }
+        builder.append('\n');
+        return builder.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -7,6 +7,7 @@ import com.webank.wecross.account.UserContext;
 import com.webank.wecross.exception.WeCrossException;
 import com.webank.wecross.network.rpc.URIHandlerDispatcher;
 import com.webank.wecross.network.rpc.authentication.AuthFilter;
+import com.webank.wecross.network.rpc.handler.StreamURIHandler;
 import com.webank.wecross.network.rpc.handler.URIHandler;
 import com.webank.wecross.network.rpc.netty.URIMethod;
 import com.webank.wecross.restserver.RestResponse;
@@ -165,11 +166,7 @@ public class HttpServerHandler extends SimpleChannelInboundHandler<HttpRequest>
                         }
                     }
 
-                    uriHandler.handle(
-                            userContext,
-                            uri,
-                            method.toString(),
-                            content,
+                    URIHandler.Callback callback =
                             new URIHandler.Callback() {
 
                                 private void write(FullHttpResponse response) {
@@ -273,7 +270,14 @@ public class HttpServerHandler extends SimpleChannelInboundHandler<HttpRequest>
 
                                     write(response);
                                 }
-                            });
+                            };
+
+                    if (uriHandler instanceof StreamURIHandler) {
+                        ((StreamURIHandler) uriHandler)
+                                .handleStream(userContext, uri, ctx.channel(), callback);
+                    } else {
+                        uriHandler.handle(userContext, uri, method.toString(), content, callback);
+                    }
                 });
     }
 
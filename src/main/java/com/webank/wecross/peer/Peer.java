@@ -1,7 +1,10 @@
 package com.webank.wecross.peer;
 
+import com.webank.wecross.network.NetworkMessageCodec;
 import com.webank.wecross.network.p2p.netty.common.Node;
 import com.webank.wecross.zone.ChainInfo;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
@@ -10,7 +13,18 @@ public class Peer {
     Node node;
     private int seq = 0;
     private Map<String, ChainInfo> chainInfos = new HashMap<String, ChainInfo>();
-    private long lastActiveTimestamp = System.currentTimeMillis();
+    // digests announced with chainInfos, replaced as a whole on every update
+    private volatile Map<String, String> chainDigests = Collections.emptyMap();
+    private volatile long lastActiveTimestamp = System.currentTimeMillis();
+    // NetworkMessageCodec announced by the peer, JSON until its first seq message
+    private volatile int codecVersion = NetworkMessageCodec.CODEC_JSON;
+    // chain requests routed to the peer, smoothed as tcp does its round trips, 0 until the first
+    private long smoothedLatency = 0;
+    private long latencyVariance = 0;
+    private double failureRate = 0;
+
+    /** a failure counts as this many times the usual latency when peers are compared */
+    public static final double FAILURE_PENALTY = 10;
 
     public Peer(Node node) {
         this.node = node;
@@ -33,8 +47,45 @@ public class Peer {
     }
 
     public synchronized void setChainInfos(int seq, Map<String, ChainInfo> chainInfos) {
+        setChainInfos(seq, chainInfos, null);
+    }
+
+    public synchronized void setChainInfos(
+            int seq, Map<String, ChainInfo> chainInfos, Map<String, String> chainDigests) {
         this.setSeq(seq);
         this.chainInfos = chainInfos;
+        this.chainDigests =
+                chainDigests == null
+                        ? Collections.emptyMap()
+                        : Collections.unmodifiableMap(new HashMap<>(chainDigests));
+    }
+
+    /** Apply the added, updated and removed chains announced by the peer */
+    public synchronized void updateChainInfos(
+            int seq,
+            Map<String, ChainInfo> changedChains,
+            Map<String, String> changedDigests,
+            Collection<String> removedChains) {
+        Map<String, ChainInfo> newChainInfos = new HashMap<>(chainInfos);
+        Map<String, String> newChainDigests = new HashMap<>(chainDigests);
+        if (removedChains != null) {
+            for (String path : removedChains) {
+                newChainInfos.remove(path);
+                newChainDigests.remove(path);
+            }
+        }
+        newChainInfos.putAll(changedChains);
+        for (String path : changedChains.keySet()) {
+            newChainDigests.put(path, changedDigests == null ? null : changedDigests.get(path));
+        }
+
+        this.setSeq(seq);
+        this.chainInfos = newChainInfos;
+        this.chainDigests = Collections.unmodifiableMap(newChainDigests);
+    }
+
+    public Map<String, String> getChainDigests() {
+        return chainDigests;
     }
 
     public void noteAlive() {
@@ -45,6 +96,45 @@ public class Peer {
         return (System.currentTimeMillis() - lastActiveTimestamp) > timeout;
     }
 
+    public int getCodecVersion() {
+        return codecVersion;
+    }
+
+    public void setCodecVersion(int codecVersion) {
+        this.codecVersion = codecVersion;
+    }
+
+    /**
+     * @param success if the peer answered, whatever its chain answered
+     * @param micros time to the answer
+     */
+    public synchronized void onChainResponse(boolean success, long micros) {
+        failureRate += ((success ? 0 : 1) - failureRate) / 8;
+        if (!success) {
+            return;
+        }
+
+        if (smoothedLatency == 0) {
+            smoothedLatency = micros;
+            latencyVariance = micros / 2;
+        } else {
+            latencyVariance += (Math.abs(smoothedLatency - micros) - latencyVariance) / 4;
+            smoothedLatency += (micros - smoothedLatency) / 8;
+        }
+    }
+
+    /**
+     * @return the latency beyond which the peer is unusually slow in microseconds, -1 if unknown
+     */
+    public synchronized long getSlowLatency() {
+        return smoothedLatency == 0 ? -1 : smoothedLatency + 4 * latencyVariance;
+    }
+
+    /** @return lower for peers answering sooner and failing less, latencies below 1ms are even */
+    public synchronized double getRouteScore() {
+        return Math.max(smoothedLatency, 1000) * (1 + FAILURE_PENALTY * failureRate);
+    }
+
     public long getLastActiveTimestamp() {
         return lastActiveTimestamp;
     }
@@ -1,11 +1,17 @@
 package com.webank.wecross.peer;
 
 import com.webank.wecross.zone.ChainInfo;
+import java.util.Collection;
 import java.util.Map;
 
 public class PeerInfoMessageData {
     private int seq;
     private Map<String, ChainInfo> chainInfos;
+    // digests of the chains in chainInfos, absent from older versions
+    private Map<String, String> chainDigests;
+    // chainInfos holds only the added and updated chains, and these are removed
+    private boolean delta;
+    private Collection<String> removedChains;
 
     public int getSeq() {
         return seq;
@@ -22,4 +28,28 @@ public class PeerInfoMessageData {
     public void setChainInfos(Map<String, ChainInfo> chainInfos) {
         this.chainInfos = chainInfos;
     }
+
+    public Map<String, String> getChainDigests() {
+        return chainDigests;
+    }
+
+    public void setChainDigests(Map<String, String> chainDigests) {
+        this.chainDigests = chainDigests;
+    }
+
+    public boolean isDelta() {
+        return delta;
+    }
+
+    public void setDelta(boolean delta) {
+        this.delta = delta;
+    }
+
+    public Collection<String> getRemovedChains() {
+        return removedChains;
+    }
+
+    public void setRemovedChains(Collection<String> removedChains) {
+        this.removedChains = removedChains;
+    }
 }
@@ -0,0 +1,16 @@
+package com.webank.wecross.peer;
+
+import java.util.Map;
+
+public class PeerInfoRequestData {
+    // digests of the chains of the peer known to the sender, by chain path
+    private Map<String, String> chainDigests;
+
+    public Map<String, String> getChainDigests() {
+        return chainDigests;
+    }
+
+    public void setChainDigests(Map<String, String> chainDigests) {
+        this.chainDigests = chainDigests;
+    }
+}
@@ -3,10 +3,14 @@ package com.webank.wecross.peer;
 import static com.webank.wecross.stub.ResourceInfo.isEqualInfos;
 
 import com.webank.wecross.network.p2p.P2PService;
+import com.webank.wecross.network.p2p.netty.Connections;
 import com.webank.wecross.network.p2p.netty.common.Node;
+import com.webank.wecross.network.p2p.netty.message.serialize.CompressionStats;
+import com.webank.wecross.network.p2p.netty.message.serialize.MessageSerializer;
 import com.webank.wecross.stub.ResourceInfo;
 import com.webank.wecross.utils.core.SeqUtils;
 import com.webank.wecross.zone.ChainInfo;
+import io.netty.channel.ChannelHandlerContext;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -19,12 +23,13 @@ import org.slf4j.LoggerFactory;
 public class PeerManager {
     Logger logger = LoggerFactory.getLogger(PeerManager.class);
 
+    // looked up by every message, without a lock
     private Map<Node, Peer> peerInfos = new ConcurrentHashMap<Node, Peer>(); // peer
-    private int seq = 1; // Seq of the host
+    private volatile int seq = 1; // Seq of the host
     private long peerActiveTimeout;
     private P2PService p2PService;
 
-    private Map<String, ResourceInfo> activeResources = new HashMap<>();
+    private volatile Map<String, ResourceInfo> activeResources = new HashMap<>();
 
     public void newSeq() {
         this.seq = SeqUtils.newSeq();
@@ -42,48 +47,36 @@ public class PeerManager {
         return peerInfos;
     }
 
-    public synchronized Peer getPeerInfo(Node node) {
-        if (peerInfos.containsKey(node)) {
-            return peerInfos.get(node);
-        } else {
-            return null;
-        }
+    public Peer getPeerInfo(Node node) {
+        return peerInfos.get(node);
     }
 
-    public synchronized Peer addPeerInfo(Node node) {
+    public Peer addPeerInfo(Node node) {
         Peer peerInfo = new Peer(node);
-        if (peerInfos.containsKey(node)) {
+        if (peerInfos.put(node, peerInfo) != null) {
             logger.error("Duplicate peerInfo update " + peerInfo);
         }
 
-        peerInfos.put(node, peerInfo);
-
         return peerInfo;
     }
 
-    public synchronized void removePeerInfo(Node node) {
-        Peer peerInfo = peerInfos.get(node);
-        if (peerInfo == null) {
+    public void removePeerInfo(Node node) {
+        if (peerInfos.remove(node) == null) {
             logger.error("Peer not exists, bug? node: {}", node);
-            return;
         }
-
-        peerInfos.remove(node);
     }
 
-    public synchronized void clearPeerInfos() {
+    public void clearPeerInfos() {
         peerInfos.clear();
     }
 
-    public synchronized void notePeerActive(Peer peer) {
+    public void notePeerActive(Peer peer) {
         peer.noteAlive();
     }
 
-    public synchronized boolean hasPeerChanged(Node node, int currentSeq) {
-        if (!peerInfos.containsKey(node)) {
-            return true;
-        }
-        return peerInfos.get(node).getSeq() != currentSeq;
+    public boolean hasPeerChanged(Node node, int currentSeq) {
+        Peer peer = peerInfos.get(node);
+        return peer == null || peer.getSeq() != currentSeq;
     }
 
     public void setPeerInfos(Map<Node, Peer> peerInfos) {
@@ -125,6 +118,7 @@ public class PeerManager {
         public String address;
         public int seq;
         public Collection<ChainInfoDetails> chainInfos;
+        public CompressionStats compression;
 
         @Override
         public int compareTo(PeerDetails o) {
@@ -134,14 +128,15 @@ public class PeerManager {
 
     public Collection<PeerDetails> getPeerDetails() {
         Collection<PeerDetails> peerDetails = new TreeSet<>();
+        Connections connections = p2PService.getNettyService().getConnections();
         for (Peer peer : peerInfos.values()) {
             PeerDetails detail = new PeerDetails();
             detail.nodeID = peer.node.getNodeID();
-            detail.address =
-                    p2PService
-                            .getNettyService()
-                            .getConnections()
-                            .getIPPortIDByNodeID(detail.nodeID);
+            detail.address = connections.getIPPortIDByNodeID(detail.nodeID);
+            ChannelHandlerContext ctx = connections.getChannelHandler(detail.nodeID);
+            if (ctx != null) {
+                detail.compression = MessageSerializer.getCompressionStats(ctx.channel());
+            }
             detail.seq = peer.getSeq();
 
             detail.chainInfos = new HashSet<>();
@@ -3,6 +3,8 @@ package com.webank.wecross.peer;
 public class PeerSeqMessageData {
     private int seq;
     private int accountSeq;
+    // latest NetworkMessageCodec of the sender, absent from older versions
+    private int codecVersion;
 
     public int getSeq() {
         return seq;
@@ -19,4 +21,12 @@ public class PeerSeqMessageData {
     public void setAccountSeq(int accountSeq) {
         this.accountSeq = accountSeq;
     }
+
+    public int getCodecVersion() {
+        return codecVersion;
+    }
+
+    public void setCodecVersion(int codecVersion) {
+        this.codecVersion = codecVersion;
+    }
 }
@@ -1,6 +1,7 @@
 package com.webank.wecross.remote;
 
 import com.fasterxml.jackson.core.type.TypeReference;
+import com.webank.wecross.common.NetworkQueryStatus;
 import com.webank.wecross.network.NetworkCallback;
 import com.webank.wecross.network.NetworkMessage;
 import com.webank.wecross.network.NetworkResponse;
@@ -19,9 +20,40 @@ public class RemoteConnection implements Connection {
     private P2PService p2PService;
     private Map<String, String> properties;
     private ConnectionEventHandler eventHandler;
+    /** only calls are sent, which may be retried and hedged */
+    private boolean idempotent = false;
+    /** calls are sent once more to a slow peer, unless a group hedges them to other peers */
+    private boolean hedge = true;
+
+    /** @return this connection for calls, safe to send again to a slow peer */
+    public RemoteConnection idempotent() {
+        return idempotent(true);
+    }
+
+    /** @param hedge false for a member of a group hedging calls across its peers */
+    public RemoteConnection idempotent(boolean hedge) {
+        RemoteConnection connection = new RemoteConnection();
+        connection.setPeer(peer);
+        connection.setPath(path);
+        connection.setP2PService(p2PService);
+        connection.setProperties(properties);
+        connection.setConnectionEventHandler(eventHandler);
+        connection.setIdempotent(true);
+        connection.setHedge(hedge);
+        return connection;
+    }
+
+    /** Response to a request with the status of the p2p request, a NetworkQueryStatus */
+    interface StatusCallback {
+        void onResponse(int status, Response response);
+    }
 
     @Override
     public void asyncSend(Request request, Connection.Callback callback) {
+        asyncSend(request, (status, response) -> callback.onResponse(response));
+    }
+
+    void asyncSend(Request request, StatusCallback callback) {
 
         try {
             NetworkMessage<Request> networkMessage = new NetworkMessage<Request>();
@@ -51,15 +83,15 @@ public class RemoteConnection implements Connection {
                                                 + status
                                                 + ", message: "
                                                 + message);
-                                callback.onResponse(response);
+                                callback.onResponse(status, response);
                             } else {
 
-                                callback.onResponse((Response) msg.getData());
+                                callback.onResponse(status, (Response) msg.getData());
                             }
                         }
                     };
 
-            p2PService.asyncSendMessage(peer, networkMessage, networkCallback);
+            p2PService.asyncSendMessage(peer, networkMessage, networkCallback, idempotent, hedge);
 
         } catch (Exception e) {
 
@@ -67,7 +99,7 @@ public class RemoteConnection implements Connection {
             response.setErrorCode(StubQueryStatus.REMOTE_QUERY_FAILED);
             response.setErrorMessage(
                     "Async send remote connection exception: " + e.getLocalizedMessage());
-            callback.onResponse(response);
+            callback.onResponse(NetworkQueryStatus.INTERNAL_ERROR, response);
         }
     }
 
@@ -101,6 +133,22 @@ public class RemoteConnection implements Connection {
         this.path = path;
     }
 
+    public boolean isIdempotent() {
+        return idempotent;
+    }
+
+    public void setIdempotent(boolean idempotent) {
+        this.idempotent = idempotent;
+    }
+
+    public boolean isHedge() {
+        return hedge;
+    }
+
+    public void setHedge(boolean hedge) {
+        this.hedge = hedge;
+    }
+
     public P2PService getP2PService() {
         return p2PService;
     }
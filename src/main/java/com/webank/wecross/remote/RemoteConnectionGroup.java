@@ -0,0 +1,212 @@
+package com.webank.wecross.remote;
+
+import com.webank.wecross.common.NetworkQueryStatus;
+import com.webank.wecross.network.p2p.P2PService;
+import com.webank.wecross.stub.Connection;
+import com.webank.wecross.stub.Request;
+import com.webank.wecross.stub.Response;
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Remote connections to the peers serving one chain, tried in turn.
+ *
+ * <p>A request goes to the better of two peers picked at random, and to the next peer if it was not
+ * delivered. Calls also go to the next peer on other failures, and once the first peer takes longer
+ * than it usually does; the first answer is taken, and no peer hedges them again on its own. The
+ * answers of every peer feed its score for later choices.
+ */
+public class RemoteConnectionGroup implements Connection {
+    private static final Logger logger = LoggerFactory.getLogger(RemoteConnectionGroup.class);
+
+    /** wait before asking another peer for a call, if the first one was never asked */
+    public static final long DEFAULT_HEDGE_DELAY_MS = 1000;
+
+    private final List<RemoteConnection> connections;
+    private final boolean idempotent;
+    private final Timer timer;
+
+    /**
+     * @param connections in the order they are tried
+     * @param idempotent if only calls are sent, which may be sent to more than one peer
+     * @param timer for the hedges of calls, none if null
+     */
+    public RemoteConnectionGroup(
+            List<RemoteConnection> connections, boolean idempotent, Timer timer) {
+        this.connections = connections;
+        this.idempotent = idempotent;
+        this.timer = timer;
+    }
+
+    /**
+     * @param connections of a resource or chain, remote ones or a local one
+     * @param idempotent if only calls are sent with the connection
+     * @return the local connection, the only remote one, or a group of the remote ones
+     */
+    public static Connection choose(
+            Collection<Connection> connections, boolean idempotent, Random random) {
+        if (connections == null || connections.isEmpty()) {
+            return null;
+        }
+
+        List<RemoteConnection> remoteConnections = new ArrayList<>(connections.size());
+        for (Connection connection : connections) {
+            if (!(connection instanceof RemoteConnection)) {
+                int index = random.nextInt(connections.size());
+                return (Connection) connections.toArray()[index];
+            }
+            remoteConnections.add((RemoteConnection) connection);
+        }
+
+        if (remoteConnections.size() == 1) {
+            RemoteConnection connection = remoteConnections.get(0);
+            return idempotent ? connection.idempotent() : connection;
+        }
+
+        // the better of two at random spreads requests and avoids slow peers, then the others
+        int first = random.nextInt(remoteConnections.size());
+        int second = random.nextInt(remoteConnections.size() - 1);
+        if (second >= first) {
+            ++second;
+        }
+        RemoteConnection primary =
+                score(remoteConnections.get(first)) <= score(remoteConnections.get(second))
+                        ? remoteConnections.get(first)
+                        : remoteConnections.get(second);
+        remoteConnections.remove(primary);
+        remoteConnections.sort(Comparator.comparingDouble(RemoteConnectionGroup::score));
+        remoteConnections.add(0, primary);
+
+        // calls are hedged across the peers here, not once more to the same peer
+        List<RemoteConnection> ordered = new ArrayList<>(remoteConnections.size());
+        for (RemoteConnection connection : remoteConnections) {
+            ordered.add(idempotent ? connection.idempotent(false) : connection);
+        }
+
+        Timer timer = null;
+        P2PService p2PService = primary.getP2PService();
+        if (idempotent && p2PService != null && p2PService.getNettyService() != null) {
+            timer = p2PService.getNettyService().getTimer();
+        }
+        return new RemoteConnectionGroup(ordered, idempotent, timer);
+    }
+
+    private static double score(RemoteConnection connection) {
+        return connection.getPeer().getRouteScore();
+    }
+
+    public List<RemoteConnection> getConnections() {
+        return connections;
+    }
+
+    public boolean isIdempotent() {
+        return idempotent;
+    }
+
+    @Override
+    public void asyncSend(Request request, Callback callback) {
+        new Routing(request, callback).next();
+    }
+
+    @Override
+    public void setConnectionEventHandler(ConnectionEventHandler eventHandler) {}
+
+    @Override
+    public Map<String, String> getProperties() {
+        return connections.get(0).getProperties();
+    }
+
+    /** One request, sent to the peers in turn */
+    private class Routing {
+        private final Request request;
+        private final Callback callback;
+        private final AtomicBoolean done = new AtomicBoolean(false);
+        private final AtomicInteger nextIndex = new AtomicInteger(0);
+        // peers asked and not answered yet, the last failure of them is the result
+        private final AtomicInteger pending = new AtomicInteger(0);
+        private volatile Timeout hedge;
+        private volatile Response lastFailure;
+
+        Routing(Request request, Callback callback) {
+            this.request = request;
+            this.callback = callback;
+        }
+
+        /** @return if another peer was asked */
+        boolean next() {
+            int index = nextIndex.getAndIncrement();
+            if (done.get() || index >= connections.size()) {
+                return false;
+            }
+
+            RemoteConnection connection = connections.get(index);
+            pending.incrementAndGet();
+            long start = System.nanoTime();
+            connection.asyncSend(
+                    request, (status, response) -> onResponse(connection, start, status, response));
+
+            // unless the first one failed at once and the next is asked already
+            if (index == 0 && idempotent && timer != null && nextIndex.get() == 1) {
+                long slowLatency = connection.getPeer().getSlowLatency();
+                long delay = slowLatency < 0 ? DEFAULT_HEDGE_DELAY_MS : slowLatency / 1000;
+                hedge =
+                        timer.newTimeout(
+                                t -> {
+                                    if (!done.get()) {
+                                        if (logger.isDebugEnabled()) {
+                                            logger.debug(
+                                                    " no answer in {} ms, ask another peer, {}",
+                                                    delay,
+                                                    connection.getPeer());
+                                        }
+                                        next();
+                                    }
+                                },
+                                Math.max(1, delay),
+                                TimeUnit.MILLISECONDS);
+            }
+            return true;
+        }
+
+        void onResponse(RemoteConnection connection, long start, int status, Response response) {
+            boolean success = status == NetworkQueryStatus.SUCCESS;
+            connection.getPeer().onChainResponse(success, (System.nanoTime() - start) / 1000);
+            if (success) {
+                finish(response);
+                return;
+            }
+
+            // transactions only while not delivered, a timed out one may still be on chain
+            lastFailure = response;
+            if ((idempotent || status == NetworkQueryStatus.PEER_UNAVAILABLE) && next()) {
+                logger.debug(" failover from {}, status: {}", connection.getPeer(), status);
+            }
+
+            if (pending.decrementAndGet() == 0) {
+                finish(lastFailure);
+            }
+        }
+
+        void finish(Response response) {
+            if (!done.compareAndSet(false, true)) {
+                return;
+            }
+
+            if (hedge != null) {
+                hedge.cancel();
+            }
+            callback.onResponse(response);
+        }
+    }
+}
@@ -2,6 +2,7 @@ package com.webank.wecross.resource;
 
 import com.webank.wecross.account.UniversalAccount;
 import com.webank.wecross.peer.Peer;
+import com.webank.wecross.remote.RemoteConnectionGroup;
 import com.webank.wecross.stub.*;
 import java.security.SecureRandom;
 import java.util.HashMap;
@@ -56,13 +57,18 @@ public class Resource {
         return connections.isEmpty();
     }
 
+    /** @return a connection failing over to other peers serving the resource while undelivered */
     public Connection chooseConnection() {
-        if (connections == null || connections.size() == 0) {
-            return null;
-        } else {
-            int index = random.nextInt(connections.size());
-            return (Connection) connections.values().toArray()[index];
-        }
+        return connections == null
+                ? null
+                : RemoteConnectionGroup.choose(connections.values(), false, random);
+    }
+
+    /** @return a connection for calls, which may also ask other peers if the first one is slow */
+    public Connection chooseCallConnection() {
+        return connections == null
+                ? null
+                : RemoteConnectionGroup.choose(connections.values(), true, random);
     }
 
     public void setPath(Path path) {
@@ -97,7 +103,7 @@ public class Resource {
                     context,
                     request,
                     false,
-                    chooseConnection(),
+                    chooseCallConnection(),
                     (transactionException, transactionResponse) -> {
                         if (logger.isDebugEnabled()) {
                             logger.debug(
@@ -112,7 +118,7 @@ public class Resource {
                     context,
                     request,
                     true,
-                    chooseConnection(),
+                    chooseCallConnection(),
                     (transactionException, transactionResponse) -> {
                         if (logger.isDebugEnabled()) {
                             logger.debug(
@@ -6,13 +6,22 @@ import com.webank.wecross.exception.WeCrossException;
 import com.webank.wecross.restserver.response.CompleteTransactionResponse;
 import com.webank.wecross.restserver.response.TransactionListResponse;
 import com.webank.wecross.stub.Block;
+import com.webank.wecross.stub.BlockManager;
 import com.webank.wecross.stub.Driver;
 import com.webank.wecross.stub.Path;
 import com.webank.wecross.stub.StubConstant;
 import com.webank.wecross.stub.Transaction;
+import com.webank.wecross.stubmanager.MemoryBlockManager;
 import com.webank.wecross.zone.Chain;
 import com.webank.wecross.zone.ZoneManager;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -20,10 +29,14 @@ import org.slf4j.LoggerFactory;
 public class TransactionFetcher {
     private Logger logger = LoggerFactory.getLogger(TransactionFetcher.class);
 
+    public static final int DEFAULT_MAX_PREFETCH_WINDOW = 16;
+
     private ZoneManager zoneManager;
 
     private AccountManager accountManager;
 
+    private int maxPrefetchWindow = DEFAULT_MAX_PREFETCH_WINDOW;
+
     public TransactionFetcher(ZoneManager zoneManager, AccountManager accountManager) {
         this.zoneManager = zoneManager;
         this.accountManager = accountManager;
@@ -36,14 +49,56 @@ public class TransactionFetcher {
     public void asyncFetchTransaction(
             Path chainPath, String txHash, Long blockNumber, FetchTransactionCallback callback) {
         Chain chain = zoneManager.getChain(chainPath);
-        Driver driver = chain.getDriver();
+        BlockManager blockManager = chain.getBlockManager();
+        if (blockManager instanceof MemoryBlockManager) {
+            // recent transactions are served by the transaction index of synced blocks
+            ((MemoryBlockManager) blockManager)
+                    .asyncGetLocalTransaction(
+                            txHash,
+                            blockNumber,
+                            (localBlockNumber, transaction) -> {
+                                if (Objects.nonNull(transaction)) {
+                                    callback.onResponse(
+                                            null,
+                                            buildTransactionResponse(
+                                                    chainPath,
+                                                    txHash,
+                                                    localBlockNumber,
+                                                    transaction));
+                                } else {
+                                    asyncGetTransaction(
+                                            chainPath, chain, txHash, blockNumber, callback);
+                                }
+                            });
+            return;
+        }
+
+        asyncGetTransaction(chainPath, chain, txHash, blockNumber, callback);
+    }
+
+    private void asyncGetTransaction(
+            Path chainPath,
+            Chain chain,
+            String txHash,
+            Long blockNumber,
+            FetchTransactionCallback callback) {
+        if (Objects.isNull(blockNumber)) {
+            callback.onResponse(
+                    new WeCrossException(
+                            WeCrossException.ErrorCode.GET_TRANSACTION_ERROR,
+                            "blockNumber is required for transactions not synced recently"),
+                    null);
+            return;
+        }
 
+        Driver driver = chain.getDriver();
+        BlockManager blockManager = chain.getBlockManager();
         driver.asyncGetTransaction(
                 txHash,
                 blockNumber,
-                chain.getBlockManager(),
+                blockManager,
                 true,
-                chain.chooseConnection(),
+                chain.chooseReadConnection(),
                 (e, transaction) -> {
                     if (Objects.nonNull(e)) {
                         logger.warn(
@@ -67,57 +122,58 @@ public class TransactionFetcher {
                                 transaction);
                     }
 
-                    CompleteTransactionResponse completeTransactionResponse =
-                            new CompleteTransactionResponse();
-                    completeTransactionResponse.setTxBytes(transaction.getTxBytes());
-                    completeTransactionResponse.setReceiptBytes(transaction.getReceiptBytes());
-                    completeTransactionResponse.setBlockNumber(blockNumber);
-                    completeTransactionResponse.setTxHash(txHash);
-                    completeTransactionResponse.setTimestamp(
-                            transaction.getTransactionResponse().getTimestamp());
-
-                    if (transaction.isTransactionByProxy()) {
-                        completeTransactionResponse.setByProxy(true);
-                        completeTransactionResponse.setPath(
-                                chainPath + "." + transaction.getResource());
-                        UniversalAccount ua =
-                                accountManager.getUniversalAccountByIdentity(
-                                        transaction.getAccountIdentity());
-                        String username = Objects.nonNull(ua) ? ua.getUsername() : null;
-                        completeTransactionResponse.setUsername(username);
-                        completeTransactionResponse.setMethod(
-                                transaction.getTransactionRequest().getMethod());
-                        completeTransactionResponse.setArgs(
-                                transaction.getTransactionRequest().getArgs());
-                        completeTransactionResponse.setResult(
-                                transaction.getTransactionResponse().getResult());
-                        String xaTransactionID =
-                                (String)
-                                        transaction
-                                                .getTransactionRequest()
-                                                .getOptions()
-                                                .get(StubConstant.XA_TRANSACTION_ID);
-                        completeTransactionResponse.setXaTransactionID(
-                                Objects.isNull(xaTransactionID) ? "0" : xaTransactionID);
-                        Long xaTransactionSeq =
-                                (Long)
-                                        transaction
-                                                .getTransactionRequest()
-                                                .getOptions()
-                                                .get(StubConstant.XA_TRANSACTION_SEQ);
-                        completeTransactionResponse.setXaTransactionSeq(
-                                Objects.isNull(xaTransactionSeq) ? 0 : xaTransactionSeq);
-                        if (transaction.getTransactionResponse().getErrorCode() != 0) {
-                            completeTransactionResponse.setErrorCode(
-                                    transaction.getTransactionResponse().getErrorCode());
-                            completeTransactionResponse.setMessage(
-                                    transaction.getTransactionResponse().getMessage());
-                        }
-                    }
-                    callback.onResponse(null, completeTransactionResponse);
+                    callback.onResponse(
+                            null,
+                            buildTransactionResponse(chainPath, txHash, blockNumber, transaction));
                 });
     }
 
+    private CompleteTransactionResponse buildTransactionResponse(
+            Path chainPath, String txHash, Long blockNumber, Transaction transaction) {
+        CompleteTransactionResponse completeTransactionResponse = new CompleteTransactionResponse();
+        completeTransactionResponse.setTxBytes(transaction.getTxBytes());
+        completeTransactionResponse.setReceiptBytes(transaction.getReceiptBytes());
+        completeTransactionResponse.setBlockNumber(blockNumber);
+        completeTransactionResponse.setTxHash(txHash);
+        completeTransactionResponse.setTimestamp(
+                transaction.getTransactionResponse().getTimestamp());
+
+        if (transaction.isTransactionByProxy()) {
+            completeTransactionResponse.setByProxy(true);
+            completeTransactionResponse.setPath(chainPath + "." + transaction.getResource());
+            UniversalAccount ua =
+                    accountManager.getUniversalAccountByIdentity(transaction.getAccountIdentity());
+            String username = Objects.nonNull(ua) ? ua.getUsername() : null;
+            completeTransactionResponse.setUsername(username);
+            completeTransactionResponse.setMethod(transaction.getTransactionRequest().getMethod());
+            completeTransactionResponse.setArgs(transaction.getTransactionRequest().getArgs());
+            completeTransactionResponse.setResult(transaction.getTransactionResponse().getResult());
+            String xaTransactionID =
+                    (String)
+                            transaction
+                                    .getTransactionRequest()
+                                    .getOptions()
+                                    .get(StubConstant.XA_TRANSACTION_ID);
+            completeTransactionResponse.setXaTransactionID(
+                    Objects.isNull(xaTransactionID) ? "0" : xaTransactionID);
+            Long xaTransactionSeq =
+                    (Long)
+                            transaction
+                                    .getTransactionRequest()
+                                    .getOptions()
+                                    .get(StubConstant.XA_TRANSACTION_SEQ);
+            completeTransactionResponse.setXaTransactionSeq(
+                    Objects.isNull(xaTransactionSeq) ? 0 : xaTransactionSeq);
+            if (transaction.getTransactionResponse().getErrorCode() != 0) {
+                completeTransactionResponse.setErrorCode(
+                        transaction.getTransactionResponse().getErrorCode());
+                completeTransactionResponse.setMessage(
+                        transaction.getTransactionResponse().getMessage());
+            }
+        }
+        return completeTransactionResponse;
+    }
+
     public interface FetchBlockCallback {
         void onResponse(WeCrossException e, Block response);
     }
@@ -125,10 +181,10 @@ public class TransactionFetcher {
     public void asyncGetBlock(Path chainPath, Long blockNumber, FetchBlockCallback callback) {
         Chain chain = zoneManager.getChain(chainPath);
         Driver driver = chain.getDriver();
-        driver.asyncGetBlock(
+        asyncGetWholeBlock(
+                chain,
+                driver,
                 blockNumber,
-                false,
-                chain.chooseConnection(),
                 (e, block) -> {
                     if (Objects.nonNull(e)) {
                         logger.warn(
@@ -165,7 +221,7 @@ public class TransactionFetcher {
         Driver driver = chain.getDriver();
 
         driver.asyncGetBlockNumber(
-                chain.chooseConnection(),
+                chain.chooseReadConnection(),
                 (getBlockNumberException, currentBlockNumber) -> {
                     if (Objects.nonNull(getBlockNumberException)) {
                         logger.warn("Failed to get block number: ", getBlockNumberException);
@@ -189,13 +245,13 @@ public class TransactionFetcher {
                     response.setNextBlockNumber(newBlockNumber);
                     response.setNextOffset(newOffset);
 
-                    recursiveFetchTransactionList(chain, driver, size, response, callback);
+                    recursiveFetchTransactionList(
+                            new HistoryBlockWalker(chain, driver), size, response, callback);
                 });
     }
 
     private void recursiveFetchTransactionList(
-            Chain chain,
-            Driver driver,
+            HistoryBlockWalker walker,
             int size,
             TransactionListResponse response,
             FetchTransactionListCallback mainCallback) {
@@ -210,10 +266,8 @@ public class TransactionFetcher {
             return;
         }
 
-        driver.asyncGetBlock(
+        walker.asyncGetBlock(
                 blockNumber,
-                false,
-                chain.chooseConnection(),
                 (getBlockException, block) -> {
                     if (Objects.nonNull(getBlockException)) {
                         logger.warn(
@@ -251,7 +305,7 @@ public class TransactionFetcher {
                         // blank block
                         response.setNextBlockNumber(blockNumber - 1);
                         response.setNextOffset(0);
-                        recursiveFetchTransactionList(chain, driver, size, response, mainCallback);
+                        recursiveFetchTransactionList(walker, size, response, mainCallback);
                         return;
                     }
                     int index;
@@ -308,7 +362,7 @@ public class TransactionFetcher {
                         int nextOffset = index == block.transactionsWithDetail.size() ? 0 : index;
                         response.setNextBlockNumber(nextBlockNumber);
                         response.setNextOffset(nextOffset);
-                        recursiveFetchTransactionList(chain, driver, count, response, mainCallback);
+                        recursiveFetchTransactionList(walker, count, response, mainCallback);
                     } else {
                         int offset = response.getNextOffset();
                         if (offset >= block.transactionsHashes.size()) {
@@ -345,11 +399,164 @@ public class TransactionFetcher {
                         int nextOffset = index == block.transactionsHashes.size() ? 0 : index;
                         response.setNextBlockNumber(nextBlockNumber);
                         response.setNextOffset(nextOffset);
-                        recursiveFetchTransactionList(chain, driver, count, response, mainCallback);
+                        recursiveFetchTransactionList(walker, count, response, mainCallback);
                     }
                 });
     }
 
+    /**
+     * Walks blocks downwards and prefetches older blocks in parallel. The prefetch window doubles
+     * with each block walked, up to maxPrefetchWindow, so a page filled by the first blocks costs
+     * little and a page over a sparse chain takes a few round-trips. Prefetched blocks left when
+     * the page is filled are dropped.
+     *
+     * <p>Blocks are mostly prefetched by the time they are asked for, so callbacks are delivered in
+     * a loop rather than nested in the call asking for the next block.
+     */
+    private class HistoryBlockWalker {
+        private final Chain chain;
+        private final Driver driver;
+        private final Map<Long, CompletableFuture<Block>> prefetchedBlocks = new HashMap<>();
+        private long lowestRequested = -1;
+        private int windowSize = 1;
+        private final Deque<Runnable> deliveries = new ArrayDeque<>();
+        private boolean delivering = false;
+
+        private HistoryBlockWalker(Chain chain, Driver driver) {
+            this.chain = chain;
+            this.driver = driver;
+        }
+
+        private void asyncGetBlock(long blockNumber, Driver.GetBlockCallback callback) {
+            CompletableFuture<Block> future = prefetchedBlocks.remove(blockNumber);
+            if (Objects.isNull(future) && (lowestRequested < 0 || blockNumber >= lowestRequested)) {
+                // restart the walk
+                prefetchedBlocks.clear();
+                lowestRequested = blockNumber + 1;
+                windowSize = 1;
+            }
+
+            prefetch(Math.max(0, blockNumber - windowSize + 1));
+            windowSize = Math.min(maxPrefetchWindow, windowSize * 2);
+
+            if (Objects.isNull(future)) {
+                future = prefetchedBlocks.remove(blockNumber);
+            }
+            future.whenComplete(
+                    (block, e) -> {
+                        if (Objects.nonNull(e)) {
+                            deliver(
+                                    () ->
+                                            callback.onResponse(
+                                                    e instanceof Exception
+                                                            ? (Exception) e
+                                                            : new Exception(e),
+                                                    null));
+                        } else {
+                            deliver(() -> callback.onResponse(null, block));
+                        }
+                    });
+        }
+
+        /** Run the callback, or queue it for the loop running one already */
+        private void deliver(Runnable delivery) {
+            synchronized (deliveries) {
+                deliveries.add(delivery);
+                if (delivering) {
+                    return;
+                }
+                delivering = true;
+            }
+
+            while (true) {
+                Runnable next;
+                synchronized (deliveries) {
+                    next = deliveries.poll();
+                    if (Objects.isNull(next)) {
+                        delivering = false;
+                        return;
+                    }
+                }
+                try {
+                    next.run();
+                } catch (Exception e) {
+                    logger.warn("Block callback failed, e: ", e);
+                }
+            }
+        }
+
+        /** Request every block from lowest up to the lowest one already requested */
+        private void prefetch(long lowest) {
+            if (lowest >= lowestRequested) {
+                return;
+            }
+
+            long from = lowest;
+            int count = (int) (lowestRequested - lowest);
+            List<CompletableFuture<Block>> futures = new ArrayList<>(count);
+            for (long blockNumber = from; blockNumber < from + count; ++blockNumber) {
+                CompletableFuture<Block> future = new CompletableFuture<>();
+                prefetchedBlocks.put(blockNumber, future);
+                futures.add(future);
+            }
+            lowestRequested = lowest;
+
+            // blocks kept by the block manager are read through its caches, older ones by range
+            int retained = 0;
+            BlockManager blockManager = chain.getBlockManager();
+            while (retained < count && isRetained(blockManager, from + count - 1 - retained)) {
+                CompletableFuture<Block> future = futures.get(count - 1 - retained);
+                blockManager.asyncGetBlock(
+                        from + count - 1 - retained,
+                        false,
+                        (e, block) -> complete(future, e, block));
+                retained++;
+            }
+
+            int remaining = count - retained;
+            if (remaining == 0) {
+                return;
+            }
+            driver.asyncGetBlocks(
+                    from,
+                    remaining,
+                    false,
+                    chain.chooseReadConnection(),
+                    (e, blocks) -> {
+                        for (int i = 0; i < remaining; ++i) {
+                            complete(
+                                    futures.get(i),
+                                    e,
+                                    Objects.isNull(e) && i < blocks.size() ? blocks.get(i) : null);
+                        }
+                    });
+        }
+
+        private void complete(CompletableFuture<Block> future, Exception e, Block block) {
+            if (Objects.nonNull(e)) {
+                future.completeExceptionally(e);
+            } else {
+                future.complete(block);
+            }
+        }
+    }
+
+    private boolean isRetained(BlockManager blockManager, long blockNumber) {
+        return blockManager instanceof MemoryBlockManager
+                && ((MemoryBlockManager) blockManager).isRetained(blockNumber);
+    }
+
+    /** Get block with transactions, through the block manager if it keeps the block */
+    private void asyncGetWholeBlock(
+            Chain chain, Driver driver, long blockNumber, Driver.GetBlockCallback callback) {
+        BlockManager blockManager = chain.getBlockManager();
+        if (isRetained(blockManager, blockNumber)) {
+            blockManager.asyncGetBlock(blockNumber, false, callback::onResponse);
+        } else {
+            driver.asyncGetBlock(blockNumber, false, chain.chooseReadConnection(), callback);
+        }
+    }
+
     public ZoneManager getZoneManager() {
         return zoneManager;
     }
@@ -358,6 +565,14 @@ public class TransactionFetcher {
         this.zoneManager = zoneManager;
     }
 
+    public int getMaxPrefetchWindow() {
+        return maxPrefetchWindow;
+    }
+
+    public void setMaxPrefetchWindow(int maxPrefetchWindow) {
+        this.maxPrefetchWindow = Math.max(1, maxPrefetchWindow);
+    }
+
     public AccountManager getAccountManager() {
         return accountManager;
     }
@@ -16,4 +16,12 @@ public interface BlockManager {
     }
 
     void asyncGetBlock(long blockNumber, GetBlockCallback callback);
+
+    /**
+     * @param onlyHeader false to get the block with its transactions, a manager keeping whole
+     *     blocks may return them even if true
+     */
+    default void asyncGetBlock(long blockNumber, boolean onlyHeader, GetBlockCallback callback) {
+        asyncGetBlock(blockNumber, callback);
+    }
 }
@@ -1,6 +1,10 @@
 package com.webank.wecross.stub;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.commons.lang3.tuple.ImmutablePair;
 
 public interface Driver {
@@ -81,6 +85,57 @@ public interface Driver {
     void asyncGetBlock(
             long blockNumber, boolean onlyHeader, Connection connection, GetBlockCallback callback);
 
+    interface GetBlocksCallback {
+        /** @param blocks in height order, from fromBlockNumber */
+        void onResponse(Exception e, List<Block> blocks);
+    }
+
+    /**
+     * Get count blocks from fromBlockNumber in one call. The default implementation requests the
+     * blocks one by one, override it if the chain can serve a range in one round-trip
+     *
+     * @param fromBlockNumber
+     * @param count
+     * @param onlyHeader
+     * @param connection
+     * @param callback called once, with all the blocks or the first error
+     */
+    default void asyncGetBlocks(
+            long fromBlockNumber,
+            int count,
+            boolean onlyHeader,
+            Connection connection,
+            GetBlocksCallback callback) {
+        if (count <= 0) {
+            callback.onResponse(null, new ArrayList<>());
+            return;
+        }
+
+        Block[] blocks = new Block[count];
+        AtomicInteger remaining = new AtomicInteger(count);
+        AtomicBoolean failed = new AtomicBoolean(false);
+        for (int i = 0; i < count; ++i) {
+            int index = i;
+            asyncGetBlock(
+                    fromBlockNumber + i,
+                    onlyHeader,
+                    connection,
+                    (e, block) -> {
+                        if (e != null) {
+                            if (failed.compareAndSet(false, true)) {
+                                callback.onResponse(e, null);
+                            }
+                            return;
+                        }
+
+                        blocks[index] = block;
+                        if (remaining.decrementAndGet() == 0 && !failed.get()) {
+                            callback.onResponse(null, Arrays.asList(blocks));
+                        }
+                    });
+        }
+    }
+
     interface GetTransactionCallback {
         void onResponse(Exception e, Transaction transaction);
     }
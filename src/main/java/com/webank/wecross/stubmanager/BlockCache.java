@@ -0,0 +1,156 @@
+package com.webank.wecross.stubmanager;
+
+import com.webank.wecross.stub.Block;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Ring buffer of the latest blocks indexed by height.
+ *
+ * <p>Single writer (the sync), lock-free readers: a slot is valid only if the block in it has the
+ * requested height. Entries are charged to an optional BlockMemoryBudget, which may evict them
+ * before they are overwritten.
+ */
+public class BlockCache {
+    private static final int MAX_FREQUENCY = 3;
+
+    public static class Entry {
+        private final Block block;
+        private final long size;
+        private final BlockCache cache;
+        private volatile int frequency = 0;
+        private volatile boolean released = false;
+
+        private Entry(Block block, long size, BlockCache cache) {
+            this.block = block;
+            this.size = size;
+            this.cache = cache;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public BlockCache getCache() {
+            return cache;
+        }
+
+        public boolean isReleased() {
+            return released;
+        }
+
+        /** Give the entry another chance if it has been read since the last sweep */
+        public boolean decreaseFrequency() {
+            int current = frequency;
+            if (current > 0) {
+                frequency = current - 1;
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private final String name;
+    private final int capacity;
+    private final AtomicReferenceArray<Entry> slots;
+    private final AtomicLong usedBytes = new AtomicLong(0);
+    private final AtomicInteger count = new AtomicInteger(0);
+    private final BlockMemoryBudget budget;
+
+    public BlockCache(int capacity) {
+        this(null, capacity, null);
+    }
+
+    public BlockCache(String name, int capacity, BlockMemoryBudget budget) {
+        this.name = name;
+        this.capacity = Math.max(1, capacity);
+        this.slots = new AtomicReferenceArray<>(this.capacity);
+        this.budget = budget;
+    }
+
+    /** @return null if the block is not cached */
+    public Block get(long blockNumber) {
+        if (blockNumber < 0) {
+            return null;
+        }
+
+        Entry entry = slots.get(index(blockNumber));
+        if (entry != null && entry.block.getBlockHeader().getNumber() == blockNumber) {
+            // racy increment is fine, the frequency is only a hint
+            if (entry.frequency < MAX_FREQUENCY) {
+                entry.frequency++;
+            }
+            return entry.block;
+        }
+        return null;
+    }
+
+    /** Put a block, the block capacity heights below is overwritten */
+    public void put(Block block) {
+        long size = BlockMemoryBudget.sizeOf(block);
+        Entry entry = new Entry(block, size, this);
+        Entry old = slots.getAndSet(index(block.getBlockHeader().getNumber()), entry);
+        if (old != null) {
+            release(old);
+        }
+
+        usedBytes.addAndGet(size);
+        count.incrementAndGet();
+        if (budget != null) {
+            budget.admit(entry);
+        }
+    }
+
+    /** @return false if the entry has already been overwritten or evicted */
+    public boolean evict(Entry entry) {
+        int index = index(entry.block.getBlockHeader().getNumber());
+        if (slots.compareAndSet(index, entry, null)) {
+            release(entry);
+            return true;
+        }
+        return false;
+    }
+
+    public void clear() {
+        for (int i = 0; i < capacity; ++i) {
+            Entry old = slots.getAndSet(i, null);
+            if (old != null) {
+                release(old);
+            }
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public long getUsedBytes() {
+        return usedBytes.get();
+    }
+
+    public int getCount() {
+        return count.get();
+    }
+
+    public BlockMemoryBudget getBudget() {
+        return budget;
+    }
+
+    private void release(Entry entry) {
+        entry.released = true;
+        usedBytes.addAndGet(-entry.size);
+        count.decrementAndGet();
+        if (budget != null) {
+            budget.release(entry);
+        }
+    }
+
+    private int index(long blockNumber) {
+        return (int) (blockNumber % capacity);
+    }
+}
@@ -0,0 +1,173 @@
+package com.webank.wecross.stubmanager;
+
+import com.webank.wecross.stub.Block;
+import com.webank.wecross.stub.BlockHeader;
+import com.webank.wecross.stub.Transaction;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * One memory budget shared by the block caches of all chains.
+ *
+ * <p>Cached blocks are charged by their estimated serialized size. When the budget is exceeded,
+ * blocks are evicted across chains with a generalized CLOCK: each read raises a block's frequency
+ * (up to 3), the sweep lowers it and evicts blocks that reach zero, so old and rarely read blocks
+ * go first.
+ */
+public class BlockMemoryBudget {
+    private static final Logger logger = LoggerFactory.getLogger(BlockMemoryBudget.class);
+
+    private static final long OBJECT_OVERHEAD = 64;
+    private static final int PURGE_THRESHOLD = 1024;
+
+    private final long maxBytes;
+    private final AtomicLong usedBytes = new AtomicLong(0);
+    private final AtomicLong evictedCount = new AtomicLong(0);
+    private final AtomicLong releasedInClock = new AtomicLong(0);
+    private final ConcurrentLinkedQueue<BlockCache.Entry> clock = new ConcurrentLinkedQueue<>();
+    private final Set<BlockCache> caches = ConcurrentHashMap.newKeySet();
+    private final Object evictLock = new Object();
+
+    public BlockMemoryBudget(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public void register(BlockCache cache) {
+        caches.add(cache);
+    }
+
+    public void unregister(BlockCache cache) {
+        caches.remove(cache);
+    }
+
+    public void admit(BlockCache.Entry entry) {
+        usedBytes.addAndGet(entry.getSize());
+        clock.offer(entry);
+        if (usedBytes.get() > maxBytes) {
+            evict();
+        }
+    }
+
+    public void release(BlockCache.Entry entry) {
+        usedBytes.addAndGet(-entry.getSize());
+
+        // released entries are skipped by the sweep, purge them if the sweep is rare
+        long released = releasedInClock.incrementAndGet();
+        if (released > PURGE_THRESHOLD && released > getCachedCount()) {
+            synchronized (evictLock) {
+                clock.removeIf(BlockCache.Entry::isReleased);
+                releasedInClock.set(0);
+            }
+        }
+    }
+
+    private void evict() {
+        synchronized (evictLock) {
+            BlockCache.Entry entry;
+            while (usedBytes.get() > maxBytes && (entry = clock.poll()) != null) {
+                if (entry.isReleased()) {
+                    releasedInClock.decrementAndGet();
+                    continue;
+                }
+
+                if (entry.decreaseFrequency()) {
+                    clock.offer(entry);
+                    continue;
+                }
+
+                if (entry.getCache().evict(entry)) {
+                    releasedInClock.decrementAndGet();
+                    evictedCount.incrementAndGet();
+                    if (logger.isTraceEnabled()) {
+                        logger.trace(
+                                "Evict block, chain: {}, size: {}",
+                                entry.getCache().getName(),
+                                entry.getSize());
+                    }
+                }
+            }
+        }
+    }
+
+    private long getCachedCount() {
+        long count = 0;
+        for (BlockCache cache : caches) {
+            count += cache.getCount();
+        }
+        return count;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public long getUsedBytes() {
+        return usedBytes.get();
+    }
+
+    public long getEvictedCount() {
+        return evictedCount.get();
+    }
+
+    /** @return used bytes of each chain */
+    public Map<String, Long> getUsage() {
+        Map<String, Long> usage = new TreeMap<>();
+        for (BlockCache cache : caches) {
+            usage.merge(String.valueOf(cache.getName()), cache.getUsedBytes(), Long::sum);
+        }
+        return usage;
+    }
+
+    /** Estimated serialized size of a block */
+    public static long sizeOf(Block block) {
+        long size = OBJECT_OVERHEAD;
+        if (block.getRawBytes() != null) {
+            size += block.getRawBytes().length;
+        }
+
+        BlockHeader header = block.getBlockHeader();
+        if (header != null) {
+            size +=
+                    OBJECT_OVERHEAD
+                            + length(header.getHash())
+                            + length(header.getPrevHash())
+                            + length(header.getStateRoot())
+                            + length(header.getTransactionRoot())
+                            + length(header.getReceiptRoot());
+        }
+
+        if (block.getTransactionsHashes() != null) {
+            for (String hash : block.getTransactionsHashes()) {
+                size += OBJECT_OVERHEAD + length(hash);
+            }
+        }
+
+        if (block.getTransactionsWithDetail() != null) {
+            for (Transaction transaction : block.getTransactionsWithDetail()) {
+                if (transaction == null) {
+                    continue;
+                }
+                size += OBJECT_OVERHEAD * 4;
+                size += transaction.getTxBytes() == null ? 0 : transaction.getTxBytes().length;
+                size +=
+                        transaction.getReceiptBytes() == null
+                                ? 0
+                                : transaction.getReceiptBytes().length;
+                if (transaction.getTransactionResponse() != null) {
+                    size += length(transaction.getTransactionResponse().getHash());
+                }
+            }
+        }
+        return size;
+    }
+
+    private static long length(String value) {
+        return value == null ? 0 : value.length();
+    }
+}
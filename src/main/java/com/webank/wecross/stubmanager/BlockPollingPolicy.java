@@ -0,0 +1,111 @@
+package com.webank.wecross.stubmanager;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Decides when to poll the block number of a chain next.
+ *
+ * <p>The block interval is estimated from the observed block number changes (exponential moving
+ * average) and the next poll is scheduled a little after the next block is expected. The time a
+ * block was produced is only known to be between the poll that saw it and the poll before, so the
+ * estimate is kept in that range and nudged earlier, converging on the real block time. When an
+ * expected block does not show up, polls back off exponentially, so idle chains are polled rarely
+ * and fast chains are polled often. All times are in milliseconds.
+ */
+public class BlockPollingPolicy {
+    private static final double ALPHA = 0.25;
+    private static final int MAX_BACKOFF_SHIFT = 16;
+
+    private long minDelay = 100;
+    private long maxDelay = 10000;
+    private LongSupplier clock = System::currentTimeMillis;
+
+    private double blockInterval = -1;
+    private long lastBlockNumber = -1;
+    private long lastBlockTime = 0;
+    private long lastPollTime = 0;
+    private int missedPolls = 0;
+
+    /** Record the result of a successful poll */
+    public synchronized void onBlockNumber(long blockNumber) {
+        long now = clock.getAsLong();
+        if (blockNumber != lastBlockNumber) {
+            long blockTime = now;
+            if (blockInterval >= 0 && lastBlockNumber >= 0) {
+                double predicted =
+                        lastBlockTime
+                                + (blockNumber - lastBlockNumber) * blockInterval
+                                - getSlack() / 4.0;
+                blockTime = Math.min(now, Math.max(lastPollTime + 1, (long) predicted));
+            }
+
+            if (lastBlockNumber >= 0 && blockNumber > lastBlockNumber) {
+                double observed =
+                        (double) (blockTime - lastBlockTime) / (blockNumber - lastBlockNumber);
+                blockInterval =
+                        blockInterval < 0
+                                ? observed
+                                : ALPHA * observed + (1 - ALPHA) * blockInterval;
+            }
+
+            lastBlockNumber = blockNumber;
+            lastBlockTime = blockTime;
+            missedPolls = 0;
+        } else if (blockInterval >= 0 && now >= lastBlockTime + blockInterval) {
+            // the expected block is late
+            missedPolls++;
+        }
+        lastPollTime = now;
+    }
+
+    /** @return delay before the next poll, defaultDelay until the block interval is known */
+    public synchronized long nextDelay(long defaultDelay) {
+        if (blockInterval < 0) {
+            return defaultDelay;
+        }
+
+        long now = clock.getAsLong();
+        long expected = lastBlockTime + (long) blockInterval;
+        long delay;
+        if (now < expected) {
+            // a little after the expected block to absorb jitter
+            delay = expected - now + getSlack();
+        } else {
+            delay = getSlack() << Math.min(Math.max(0, missedPolls - 1), MAX_BACKOFF_SHIFT);
+        }
+        return Math.max(minDelay, Math.min(maxDelay, delay));
+    }
+
+    private long getSlack() {
+        return Math.max(minDelay, (long) blockInterval / 10);
+    }
+
+    /** @return estimated block interval, -1 if unknown */
+    public synchronized long getBlockInterval() {
+        return (long) blockInterval;
+    }
+
+    public long getMinDelay() {
+        return minDelay;
+    }
+
+    public void setMinDelay(long minDelay) {
+        this.minDelay = Math.max(1, minDelay);
+    }
+
+    public long getMaxDelay() {
+        return maxDelay;
+    }
+
+    public void setMaxDelay(long maxDelay) {
+        this.maxDelay = maxDelay;
+    }
+
+    public LongSupplier getClock() {
+        return clock;
+    }
+
+    public void setClock(LongSupplier clock) {
+        this.clock = clock;
+    }
+}
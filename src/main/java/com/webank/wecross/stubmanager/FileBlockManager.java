@@ -0,0 +1,108 @@
+package com.webank.wecross.stubmanager;
+
+import com.webank.wecross.stub.Block;
+import java.io.IOException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** MemoryBlockManager that also persists every synced block into a FileBlockStore */
+public class FileBlockManager extends MemoryBlockManager {
+    private static final Logger logger = LoggerFactory.getLogger(FileBlockManager.class);
+
+    private FileBlockStore blockStore;
+
+    @Override
+    public void start() {
+        // resume sync from the last stored block
+        if (blockStore.getLastBlockNumber() > getLastBlockNumberAcquired()) {
+            setLastBlockNumberAcquired(blockStore.getLastBlockNumber());
+        }
+        super.start();
+    }
+
+    @Override
+    public void stop() {
+        super.stop();
+        try {
+            blockStore.close();
+        } catch (IOException e) {
+            logger.warn("Close block store failed, e: ", e);
+        }
+    }
+
+    @Override
+    protected boolean onBlockSynced(Block block) {
+        long blockNumber = block.getBlockHeader().getNumber();
+        try {
+            blockStore.append(block);
+            return true;
+        } catch (IOException e) {
+            // blocks after a missing one can not be appended, sync again from the stored ones
+            long lastStored = blockStore.getLastBlockNumber();
+            long resume = lastStored < 0 ? blockNumber : lastStored + 1;
+            logger.error(
+                    "Store block failed, blockNumber: {}, sync again from: {}, e: ",
+                    blockNumber,
+                    resume,
+                    e);
+            restartSync(resume);
+            return false;
+        }
+    }
+
+    @Override
+    protected Block getLocalBlock(long blockNumber) {
+        Block block = super.getLocalBlock(blockNumber);
+        if (block != null || !blockStore.contains(blockNumber)) {
+            return block;
+        }
+
+        try {
+            return blockStore.read(blockNumber);
+        } catch (IOException e) {
+            logger.warn("Read block from store failed, blockNumber: {}, e: ", blockNumber, e);
+            return null;
+        }
+    }
+
+    @Override
+    public boolean isRetained(long blockNumber) {
+        // the store keeps whole blocks only if they are synced whole
+        return super.isRetained(blockNumber)
+                || (!isFetchOnlyHeader() && blockStore.contains(blockNumber));
+    }
+
+    @Override
+    protected void asyncGetHistoryBlock(
+            long blockNumber, boolean onlyHeader, GetBlockCallback callback) {
+        if (!blockStore.contains(blockNumber) || (!onlyHeader && isFetchOnlyHeader())) {
+            super.asyncGetHistoryBlock(blockNumber, onlyHeader, callback);
+            return;
+        }
+
+        getThreadPool()
+                .execute(
+                        () -> {
+                            Block block;
+                            try {
+                                block = blockStore.read(blockNumber);
+                            } catch (IOException e) {
+                                logger.warn(
+                                        "Read block from store failed, blockNumber: {}, e: ",
+                                        blockNumber,
+                                        e);
+                                super.asyncGetHistoryBlock(blockNumber, onlyHeader, callback);
+                                return;
+                            }
+                            callback.onResponse(null, block);
+                        });
+    }
+
+    public FileBlockStore getBlockStore() {
+        return blockStore;
+    }
+
+    public void setBlockStore(FileBlockStore blockStore) {
+        this.blockStore = blockStore;
+    }
+}
@@ -0,0 +1,501 @@
+package com.webank.wecross.stubmanager;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.webank.wecross.stub.Block;
+import com.webank.wecross.stub.ObjectMapperFactory;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.zip.CRC32;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only block log on local disk.
+ *
+ * <p>Blocks are appended to segment files named by the global offset of their first record, and an
+ * index file maps every height (starting from the first stored one) to the global offset of its
+ * record. Record layout: length(4) | crc32(4) | height(8) | rawLength(4) | raw | json.
+ *
+ * <p>Once more than maxSegments segments are written, the oldest ones are deleted with their
+ * blocks. In memory, each segment keeps the offsets of its own blocks.
+ */
+public class FileBlockStore implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(FileBlockStore.class);
+
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String INDEX_FILE = "index";
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final int INDEX_HEADER_SIZE = 8;
+    private static final int INDEX_ENTRY_SIZE = 8;
+
+    private final ObjectMapper objectMapper =
+            ObjectMapperFactory.getObjectMapper()
+                    .configure(DeserializationFeature.USE_LONG_FOR_INTS, true);
+
+    /** A segment file and the offsets of the blocks in it */
+    private static class Segment {
+        private final long base;
+        private final File file;
+        private final FileChannel channel;
+        // -1 until its first block is indexed
+        private long firstBlockNumber = -1;
+        private volatile long[] offsets = new long[64];
+
+        Segment(long base, File file, FileChannel channel) {
+            this.base = base;
+            this.file = file;
+            this.channel = channel;
+        }
+    }
+
+    private File dir;
+    private long segmentSize;
+    private int maxSegments;
+
+    // by the global offset of their first record
+    private ConcurrentSkipListMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+    // by the height of their first block, the segments with blocks indexed
+    private ConcurrentSkipListMap<Long, Segment> blockSegments = new ConcurrentSkipListMap<>();
+    private FileChannel indexChannel;
+
+    private volatile long firstBlockNumber = -1;
+    private volatile long lastBlockNumber = -1;
+    private long writeOffset = 0;
+
+    public FileBlockStore(File dir, long segmentSize) {
+        this(dir, segmentSize, 0);
+    }
+
+    /** @param maxSegments segments kept, older ones are deleted, 0 for no limit */
+    public FileBlockStore(File dir, long segmentSize, int maxSegments) {
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+    }
+
+    public synchronized void open() throws IOException {
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Create block store directory failed: " + dir);
+        }
+
+        File[] files = dir.listFiles((d, name) -> name.endsWith(SEGMENT_SUFFIX));
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                long base =
+                        Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+                segments.put(base, new Segment(base, file, openChannel(file)));
+            }
+        }
+
+        indexChannel = openChannel(new File(dir, INDEX_FILE));
+        loadIndex();
+        recover();
+
+        logger.info(
+                "Block store opened, dir: {}, first: {}, last: {}",
+                dir,
+                firstBlockNumber,
+                lastBlockNumber);
+    }
+
+    public long getFirstBlockNumber() {
+        return firstBlockNumber;
+    }
+
+    public long getLastBlockNumber() {
+        return lastBlockNumber;
+    }
+
+    public boolean contains(long blockNumber) {
+        return firstBlockNumber >= 0
+                && blockNumber >= firstBlockNumber
+                && blockNumber <= lastBlockNumber;
+    }
+
+    /**
+     * Append a block, heights must be continuous once the store is not empty
+     *
+     * @return false if the block is already stored
+     */
+    public synchronized boolean append(Block block) throws IOException {
+        if (indexChannel == null) {
+            throw new IOException("Block store is closed: " + dir);
+        }
+
+        long blockNumber = block.getBlockHeader().getNumber();
+        if (lastBlockNumber >= 0) {
+            if (blockNumber <= lastBlockNumber) {
+                return false;
+            }
+
+            if (blockNumber != lastBlockNumber + 1) {
+                throw new IOException(
+                        "Block is not continuous, last: "
+                                + lastBlockNumber
+                                + ", new: "
+                                + blockNumber);
+            }
+        }
+
+        byte[] raw = block.getRawBytes() == null ? new byte[0] : block.getRawBytes();
+        byte[] json = objectMapper.writeValueAsBytes(block);
+
+        ByteBuffer payload = ByteBuffer.allocate(8 + 4 + raw.length + json.length);
+        payload.putLong(blockNumber);
+        payload.putInt(raw.length);
+        payload.put(raw);
+        payload.put(json);
+        payload.flip();
+
+        CRC32 crc32 = new CRC32();
+        crc32.update(payload.array(), 0, payload.limit());
+
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        header.putInt(payload.limit());
+        header.putInt((int) crc32.getValue());
+        header.flip();
+
+        Map.Entry<Long, Segment> last = segments.lastEntry();
+        Segment segment = last == null ? null : last.getValue();
+        boolean rolled = false;
+        if (segment == null || writeOffset - segment.base >= segmentSize) {
+            segment = newSegment(writeOffset);
+            rolled = true;
+        }
+
+        long recordOffset = writeOffset;
+        long position = recordOffset - segment.base;
+        FileChannel channel = segment.channel;
+        position += writeFully(channel, header, position);
+        writeFully(channel, payload, position);
+        writeOffset += RECORD_HEADER_SIZE + payload.limit();
+
+        if (lastBlockNumber < 0) {
+            firstBlockNumber = blockNumber;
+            ByteBuffer indexHeader = ByteBuffer.allocate(INDEX_HEADER_SIZE);
+            indexHeader.putLong(blockNumber);
+            indexHeader.flip();
+            indexChannel.truncate(0);
+            writeFully(indexChannel, indexHeader, 0);
+        }
+
+        ByteBuffer indexEntry = ByteBuffer.allocate(INDEX_ENTRY_SIZE);
+        indexEntry.putLong(recordOffset);
+        indexEntry.flip();
+        writeFully(
+                indexChannel,
+                indexEntry,
+                INDEX_HEADER_SIZE + (blockNumber - firstBlockNumber) * INDEX_ENTRY_SIZE);
+
+        putOffset(blockNumber, recordOffset);
+        lastBlockNumber = blockNumber;
+        if (rolled) {
+            pruneSegments();
+        }
+        return true;
+    }
+
+    /** @return null if the block is not stored */
+    public Block read(long blockNumber) throws IOException {
+        if (!contains(blockNumber)) {
+            return null;
+        }
+
+        long offset = offsetOf(blockNumber);
+        Block block = offset < 0 ? null : readRecord(offset, null);
+        if (block == null || block.getBlockHeader().getNumber() != blockNumber) {
+            throw new IOException("Broken block record, blockNumber: " + blockNumber);
+        }
+        return block;
+    }
+
+    public synchronized void flush() throws IOException {
+        for (Segment segment : segments.values()) {
+            segment.channel.force(false);
+        }
+        if (indexChannel != null) {
+            indexChannel.force(false);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (indexChannel == null) {
+            return;
+        }
+
+        flush();
+        firstBlockNumber = -1;
+        lastBlockNumber = -1;
+        for (Segment segment : segments.values()) {
+            segment.channel.close();
+        }
+        segments.clear();
+        blockSegments.clear();
+        indexChannel.close();
+        indexChannel = null;
+    }
+
+    private void loadIndex() throws IOException {
+        long size = indexChannel.size();
+        if (size < INDEX_HEADER_SIZE) {
+            return;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate((int) size);
+        readFully(indexChannel, buffer, 0);
+        buffer.flip();
+
+        long first = buffer.getLong();
+        long count = (size - INDEX_HEADER_SIZE) / INDEX_ENTRY_SIZE;
+        for (long i = 0; i < count; ++i) {
+            long offset = buffer.getLong();
+            // blocks of segments deleted before the index was rewritten
+            if (segments.floorEntry(offset) == null) {
+                continue;
+            }
+
+            if (firstBlockNumber < 0) {
+                firstBlockNumber = first + i;
+            }
+            putOffset(first + i, offset);
+            lastBlockNumber = first + i;
+        }
+    }
+
+    /** Drop index entries without a valid record, then index records written after them */
+    private void recover() throws IOException {
+        long[] end = new long[1];
+        while (lastBlockNumber >= 0) {
+            long offset = offsetOf(lastBlockNumber);
+            Block block = offset < 0 ? null : readRecord(offset, end);
+            if (block != null && block.getBlockHeader().getNumber() == lastBlockNumber) {
+                writeOffset = end[0];
+                break;
+            }
+
+            logger.warn("Drop broken index entry, blockNumber: {}", lastBlockNumber);
+            if (lastBlockNumber == firstBlockNumber) {
+                firstBlockNumber = -1;
+                lastBlockNumber = -1;
+            } else {
+                lastBlockNumber--;
+            }
+        }
+
+        // segments after the last block are indexed again below
+        for (Segment segment : blockSegments.tailMap(lastBlockNumber, false).values()) {
+            segment.firstBlockNumber = -1;
+        }
+        blockSegments.tailMap(lastBlockNumber, false).clear();
+        if (lastBlockNumber < 0) {
+            writeOffset = segments.isEmpty() ? 0 : segments.firstKey();
+        }
+
+        while (true) {
+            long offset = writeOffset;
+            Block block = readRecord(offset, end);
+            if (block == null) {
+                break;
+            }
+
+            long blockNumber = block.getBlockHeader().getNumber();
+            if (lastBlockNumber >= 0 && blockNumber != lastBlockNumber + 1) {
+                break;
+            }
+
+            if (lastBlockNumber < 0) {
+                firstBlockNumber = blockNumber;
+            }
+            putOffset(blockNumber, offset);
+            lastBlockNumber = blockNumber;
+            writeOffset = end[0];
+        }
+
+        // discard torn writes, segments after them and the stale tail of the index
+        Map.Entry<Long, Segment> segment = segments.floorEntry(writeOffset);
+        if (segment != null) {
+            segment.getValue().channel.truncate(writeOffset - segment.getKey());
+        }
+        for (Segment stale : segments.tailMap(writeOffset, false).values()) {
+            deleteSegment(stale);
+        }
+
+        writeIndex();
+    }
+
+    /** Rewrite the index from the offsets in memory */
+    private void writeIndex() throws IOException {
+        indexChannel.truncate(0);
+        if (lastBlockNumber < 0) {
+            return;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        buffer.putLong(firstBlockNumber);
+        long position = 0;
+        for (long blockNumber = firstBlockNumber; blockNumber <= lastBlockNumber; ++blockNumber) {
+            if (!buffer.hasRemaining()) {
+                buffer.flip();
+                position += writeFully(indexChannel, buffer, position);
+                buffer.clear();
+            }
+            buffer.putLong(offsetOf(blockNumber));
+        }
+        buffer.flip();
+        writeFully(indexChannel, buffer, position);
+    }
+
+    /** Delete the oldest segments and their blocks while there are more than maxSegments */
+    private void pruneSegments() throws IOException {
+        if (maxSegments <= 0 || segments.size() <= maxSegments) {
+            return;
+        }
+
+        while (segments.size() > maxSegments) {
+            Segment oldest = segments.firstEntry().getValue();
+            logger.info(
+                    "Delete block segment, file: {}, firstBlockNumber: {}",
+                    oldest.file,
+                    oldest.firstBlockNumber);
+            deleteSegment(oldest);
+        }
+
+        Map.Entry<Long, Segment> first = blockSegments.firstEntry();
+        firstBlockNumber = first.getValue().firstBlockNumber;
+        writeIndex();
+    }
+
+    private void deleteSegment(Segment segment) throws IOException {
+        segments.remove(segment.base);
+        if (segment.firstBlockNumber >= 0) {
+            blockSegments.remove(segment.firstBlockNumber);
+        }
+        segment.channel.close();
+        if (!segment.file.delete()) {
+            logger.warn("Delete block segment failed, file: {}", segment.file);
+        }
+    }
+
+    /** @return null if there is no complete and valid record at the offset */
+    private Block readRecord(long offset, long[] end) throws IOException {
+        Map.Entry<Long, Segment> segment = segments.floorEntry(offset);
+        if (segment == null) {
+            return null;
+        }
+
+        FileChannel channel = segment.getValue().channel;
+        long position = offset - segment.getKey();
+        if (position + RECORD_HEADER_SIZE > channel.size()) {
+            return null;
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        readFully(channel, header, position);
+        header.flip();
+        int length = header.getInt();
+        int crc = header.getInt();
+        if (length < 12 || position + RECORD_HEADER_SIZE + length > channel.size()) {
+            return null;
+        }
+
+        ByteBuffer payload = ByteBuffer.allocate(length);
+        readFully(channel, payload, position + RECORD_HEADER_SIZE);
+        payload.flip();
+
+        CRC32 crc32 = new CRC32();
+        crc32.update(payload.array(), 0, length);
+        if ((int) crc32.getValue() != crc) {
+            return null;
+        }
+
+        payload.getLong();
+        int rawLength = payload.getInt();
+        byte[] raw = new byte[rawLength];
+        payload.get(raw);
+
+        Block block =
+                objectMapper.readValue(
+                        payload.array(), payload.position(), payload.remaining(), Block.class);
+        block.setRawBytes(raw);
+
+        if (end != null) {
+            end[0] = segment.getKey() + position + RECORD_HEADER_SIZE + length;
+        }
+        return block;
+    }
+
+    private Segment newSegment(long base) throws IOException {
+        File file = new File(dir, String.format("%020d", base) + SEGMENT_SUFFIX);
+        Segment segment = new Segment(base, file, openChannel(file));
+        segments.put(base, segment);
+        return segment;
+    }
+
+    /** Index the record of a block in the segment it is written to */
+    private void putOffset(long blockNumber, long offset) {
+        Segment segment = segments.floorEntry(offset).getValue();
+        if (segment.firstBlockNumber < 0) {
+            segment.firstBlockNumber = blockNumber;
+            blockSegments.put(blockNumber, segment);
+        }
+
+        int index = (int) (blockNumber - segment.firstBlockNumber);
+        long[] current = segment.offsets;
+        if (index >= current.length) {
+            current = Arrays.copyOf(current, Math.max(current.length * 2, index + 1));
+        }
+        current[index] = offset;
+        segment.offsets = current;
+    }
+
+    /** @return the offset of the record of a block indexed, -1 if not indexed */
+    private long offsetOf(long blockNumber) {
+        Map.Entry<Long, Segment> entry = blockSegments.floorEntry(blockNumber);
+        if (entry == null) {
+            return -1;
+        }
+
+        long[] offsets = entry.getValue().offsets;
+        long index = blockNumber - entry.getKey();
+        return index < offsets.length ? offsets[(int) index] : -1;
+    }
+
+    private static FileChannel openChannel(File file) throws IOException {
+        return FileChannel.open(
+                file.toPath(),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+    }
+
+    private static int writeFully(FileChannel channel, ByteBuffer buffer, long position)
+            throws IOException {
+        int total = 0;
+        while (buffer.hasRemaining()) {
+            total += channel.write(buffer, position + total);
+        }
+        return total;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position)
+            throws IOException {
+        int total = 0;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + total);
+            if (read < 0) {
+                throw new IOException("Unexpected end of block store file");
+            }
+            total += read;
+        }
+    }
+}
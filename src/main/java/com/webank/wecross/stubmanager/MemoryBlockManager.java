@@ -5,20 +5,25 @@ import com.webank.wecross.stub.Block;
 import com.webank.wecross.stub.BlockManager;
 import com.webank.wecross.stub.Connection;
 import com.webank.wecross.stub.Driver;
+import com.webank.wecross.stub.Transaction;
 import com.webank.wecross.zone.Chain;
 import io.netty.util.Timeout;
 import io.netty.util.Timer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
@@ -26,19 +31,50 @@ import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 public class MemoryBlockManager implements BlockManager {
     private static final Logger logger = LoggerFactory.getLogger(MemoryBlockManager.class);
 
+    /** Notified in sync order, on the sync thread and off the sync lock */
+    public interface BlockSyncListener {
+        void onBlockSynced(Chain chain, Block block);
+    }
+
     private ThreadPoolTaskExecutor threadPool;
     private Map<Long, List<GetBlockCallback>> getBlockCallbacks =
             new HashMap<Long, List<GetBlockCallback>>();
-    private LinkedList<Block> blockDataCache = new LinkedList<>();
+    private Map<Long, List<GetBlockCallback>> getBodyCallbacks = new HashMap<>();
+    private int maxCacheSize = 20;
+    private BlockMemoryBudget blockMemoryBudget;
+    private volatile BlockCache blockDataCache = new BlockCache(maxCacheSize);
+    // bodies of blocks synced as headers, loaded on demand and evicted on their own
+    private int maxBodyCacheSize = 20;
+    private volatile BlockCache blockBodyCache = new BlockCache(maxBodyCacheSize);
     private Chain chain;
     private AtomicBoolean running = new AtomicBoolean(false);
     private Timer timer;
     private Timeout timeout;
-    private ReadWriteLock lock = new ReentrantReadWriteLock();
+    // guards getBlockCallbacks and getBodyCallbacks only, cache hits are lock-free
+    private Lock lock = new ReentrantLock();
     private long getBlockNumberDelay = 1000;
-    private int maxCacheSize = 20;
+    private BlockPollingPolicy pollingPolicy = new BlockPollingPolicy();
     private AtomicLong latestBlockNumber = new AtomicLong(-1L);
-    private long lastBlockNumberAcquired = 0;
+    private volatile long lastBlockNumberAcquired = -1;
+    private boolean fetchOnlyHeader = true;
+    private int syncWindowSize = 8;
+    private int syncBatchSize = 4;
+    private List<BlockSyncListener> blockSyncListeners = new CopyOnWriteArrayList<>();
+    private TransactionIndex transactionIndex =
+            new TransactionIndex(MemoryBlockManagerFactory.DEFAULT_TRANSACTION_INDEX_SIZE);
+
+    // sync window, guarded by syncLock
+    private final Object syncLock = new Object();
+    private long syncRound = 0;
+    private long syncTarget = -1;
+    private long nextBlockNumberToFetch = 0;
+    private long nextBlockNumberToCommit = 0;
+    private int fetchingCount = 0;
+    private boolean syncFailed = false;
+    private Map<Long, Block> fetchedBlocks = new HashMap<>();
+    // committed, not handed to onBlockSynced and the listeners yet, in sync order
+    private Deque<Block> syncedBlocks = new ArrayDeque<>();
+    private AtomicBoolean deliveringSyncedBlocks = new AtomicBoolean(false);
 
     private static class Status {
         public static final int Starting = 0;
@@ -68,6 +104,7 @@ public class MemoryBlockManager implements BlockManager {
         // reset latestBlockNumber field
         latestBlockNumber.set(blockNumber);
         fetchBlockNumberStatus.set(Status.OK);
+        pollingPolicy.onBlockNumber(blockNumber);
 
         if (logger.isTraceEnabled()) {
             logger.trace(
@@ -77,49 +114,230 @@ public class MemoryBlockManager implements BlockManager {
         }
 
         long current = lastBlockNumberAcquired;
-        /*
-        lock.readLock().lock();
-        try {
-            if (!blockDataCache.isEmpty()) {
-                current = blockDataCache.peekLast().getBlockHeader().getNumber();
-            }
-        } finally {
-            lock.readLock().unlock();
-        }*/
 
         if (current < blockNumber) {
-            long blockNumberToGet = 0;
-            if (current == 0) {
-                blockNumberToGet = blockNumber;
-            } else {
-                blockNumberToGet = current + 1;
-            }
+            syncBlocks(current < 0 ? blockNumber : current + 1, blockNumber);
+        } else {
+            waitAndSyncBlock(pollingPolicy.nextDelay(getGetBlockNumberDelay()));
+        }
+    }
+
+    /**
+     * Fetch [from, target] in ranges of at most syncBatchSize blocks, with at most syncWindowSize
+     * blocks in flight
+     */
+    private void syncBlocks(long from, long target) {
+        List<long[]> ranges;
+        long round;
+        synchronized (syncLock) {
+            round = ++syncRound;
+            nextBlockNumberToFetch = from;
+            nextBlockNumberToCommit = from;
+            syncTarget = target;
+            syncFailed = false;
+            fetchingCount = 0;
+            fetchedBlocks.clear();
+            ranges = nextRangesToFetch();
+        }
 
-            long finalBlockNumberToGet = blockNumberToGet;
+        fetchBlocks(ranges, round);
+    }
+
+    /** @return ranges of {from, count} */
+    private List<long[]> nextRangesToFetch() {
+        List<long[]> ranges = new ArrayList<>();
+        while (!syncFailed
+                && fetchingCount < syncWindowSize
+                && nextBlockNumberToFetch <= syncTarget) {
+            int count =
+                    (int)
+                            Math.min(
+                                    Math.min(syncBatchSize, syncWindowSize - fetchingCount),
+                                    syncTarget - nextBlockNumberToFetch + 1);
+            ranges.add(new long[] {nextBlockNumberToFetch, count});
+            nextBlockNumberToFetch += count;
+            fetchingCount += count;
+        }
+        return ranges;
+    }
+
+    private void fetchBlocks(List<long[]> ranges, long round) {
+        for (long[] range : ranges) {
+            long from = range[0];
+            int count = (int) range[1];
             chain.getDriver()
-                    .asyncGetBlock(
-                            blockNumberToGet,
-                            true,
-                            chain.chooseConnection(),
-                            (error, data) -> {
-                                onSyncBlock(error, data, finalBlockNumberToGet, blockNumber);
+                    .asyncGetBlocks(
+                            from,
+                            count,
+                            fetchOnlyHeader,
+                            chain.chooseReadConnection(),
+                            (error, blocks) -> {
+                                onSyncBlocks(error, blocks, from, count, round);
                             });
+        }
+    }
 
-        } else {
-            waitAndSyncBlock(getGetBlockNumberDelay());
+    public void onSyncBlocks(Exception e, List<Block> blocks, long from, int count, long round) {
+        if (Objects.isNull(e)) {
+            e = checkBlocks(blocks, from, count);
+        }
+
+        List<long[]> ranges;
+        boolean finished;
+        boolean failed;
+        synchronized (syncLock) {
+            if (round != syncRound) {
+                return;
+            }
+
+            fetchingCount -= count;
+            if (Objects.isNull(e)) {
+                // commit in order, ranges may arrive out of order
+                for (Block block : blocks) {
+                    fetchedBlocks.put(block.getBlockHeader().getNumber(), block);
+                }
+                Block next;
+                while ((next = fetchedBlocks.remove(nextBlockNumberToCommit)) != null) {
+                    commitBlock(next);
+                    nextBlockNumberToCommit++;
+                }
+            } else {
+                logger.warn("onSyncBlocks failed, from: {}, count: {}, e: ", from, count, e);
+                syncFailed = true;
+                for (long blockNumber = from; blockNumber < from + count; ++blockNumber) {
+                    notifyGetBlockCallbacks(blockNumber, e, null);
+                }
+            }
+
+            ranges = nextRangesToFetch();
+            failed = syncFailed;
+            finished = fetchingCount == 0 && (failed || nextBlockNumberToCommit > syncTarget);
+            if (finished) {
+                fetchedBlocks.clear();
+            }
+        }
+
+        deliverSyncedBlocks();
+        fetchBlocks(ranges, round);
+        if (finished) {
+            waitAndSyncBlock(
+                    failed
+                            ? getGetBlockNumberDelay()
+                            : pollingPolicy.nextDelay(getGetBlockNumberDelay()));
         }
     }
 
-    public void onSyncBlock(Exception e, Block block, long currentBlockNumber, long target) {
+    private WeCrossException checkBlocks(List<Block> blocks, long from, int count) {
+        if (Objects.isNull(blocks) || blocks.size() != count) {
+            return new WeCrossException(
+                    WeCrossException.ErrorCode.GET_BLOCK_ERROR,
+                    "Unexpected blocks, from: " + from + ", count: " + count);
+        }
 
-        long blockNumber = currentBlockNumber;
-        if (Objects.isNull(e)) {
-            blockNumber = block.getBlockHeader().getNumber();
+        for (int i = 0; i < count; ++i) {
+            Block block = blocks.get(i);
+            if (Objects.isNull(block)
+                    || Objects.isNull(block.getBlockHeader())
+                    || block.getBlockHeader().getNumber() != from + i) {
+                return new WeCrossException(
+                        WeCrossException.ErrorCode.GET_BLOCK_ERROR,
+                        "Unexpected block, blockNumber: " + (from + i));
+            }
+        }
+        return null;
+    }
+
+    private void commitBlock(Block block) {
+        long blockNumber = block.getBlockHeader().getNumber();
+        // publish before waking up waiters, see asyncGetBlock
+        blockDataCache.put(block);
+        // headers carry the hashes too, their bodies are loaded on lookups
+        transactionIndex.add(block);
+        lastBlockNumberAcquired = blockNumber;
+        notifyGetBlockCallbacks(blockNumber, null, block);
+        syncedBlocks.add(block);
+
+        if (logger.isTraceEnabled()) {
+            logger.trace(
+                    "onSyncBlock, blockNumber: {}, blockHash: {}",
+                    blockNumber,
+                    block.getBlockHeader().getHash());
+        }
+    }
+
+    /** Hand committed blocks to onBlockSynced and the listeners, by one thread at a time */
+    private void deliverSyncedBlocks() {
+        do {
+            if (!deliveringSyncedBlocks.compareAndSet(false, true)) {
+                // the thread delivering takes the blocks committed meanwhile
+                return;
+            }
+
+            try {
+                Block block;
+                while ((block = pollSyncedBlock()) != null) {
+                    if (!onBlockSynced(block)) {
+                        continue;
+                    }
+
+                    for (BlockSyncListener listener : blockSyncListeners) {
+                        try {
+                            listener.onBlockSynced(chain, block);
+                        } catch (Exception e) {
+                            logger.warn(
+                                    "Block sync listener failed, blockNumber: {}, e: ",
+                                    block.getBlockHeader().getNumber(),
+                                    e);
+                        }
+                    }
+                }
+            } finally {
+                deliveringSyncedBlocks.set(false);
+            }
+        } while (hasSyncedBlocks());
+    }
+
+    private Block pollSyncedBlock() {
+        synchronized (syncLock) {
+            return syncedBlocks.poll();
         }
+    }
 
-        lock.writeLock().lock();
+    private boolean hasSyncedBlocks() {
+        synchronized (syncLock) {
+            return !syncedBlocks.isEmpty();
+        }
+    }
+
+    /**
+     * Sync again from blockNumber, dropping the blocks in flight and those not delivered yet
+     *
+     * @param blockNumber the first block to sync again
+     */
+    protected void restartSync(long blockNumber) {
+        boolean inFlight;
+        synchronized (syncLock) {
+            lastBlockNumberAcquired = blockNumber - 1;
+            syncedBlocks.clear();
+            // a finished round has its next poll scheduled already
+            inFlight = fetchingCount > 0;
+            if (inFlight) {
+                syncRound++;
+                fetchingCount = 0;
+                fetchedBlocks.clear();
+            }
+        }
+
+        logger.warn("Restart sync from blockNumber: {}", blockNumber);
+        if (inFlight && running.get()) {
+            waitAndSyncBlock(getGetBlockNumberDelay());
+        }
+    }
+
+    private void notifyGetBlockCallbacks(long blockNumber, Exception e, Block block) {
+        lock.lock();
         try {
-            List<GetBlockCallback> callbacks = getBlockCallbacks.get(blockNumber);
+            List<GetBlockCallback> callbacks = getBlockCallbacks.remove(blockNumber);
             if (callbacks != null) {
                 for (GetBlockCallback callback : callbacks) {
                     threadPool.execute(
@@ -130,51 +348,98 @@ public class MemoryBlockManager implements BlockManager {
                                 }
                             });
                 }
-                getBlockCallbacks.remove(blockNumber);
             }
-
-            if (Objects.isNull(e)) {
-                blockDataCache.add(block);
-                if (blockDataCache.size() > maxCacheSize) {
-                    blockDataCache.pop();
-                }
-            }
-
         } finally {
-            lock.writeLock().unlock();
+            lock.unlock();
         }
+    }
 
-        lastBlockNumberAcquired = blockNumber;
+    /**
+     * Called in sync order after a block is put into the cache, off the sync lock
+     *
+     * @return false if the block was not kept and restartSync was called, the listeners are not
+     *     notified of it then
+     */
+    protected boolean onBlockSynced(Block block) {
+        return true;
+    }
 
-        if (Objects.isNull(e)) {
+    /** Get a synced block without asking the chain, with its body if loaded, null if absent */
+    protected Block getLocalBlock(long blockNumber) {
+        Block block = blockBodyCache.get(blockNumber);
+        return block != null ? block : blockDataCache.get(blockNumber);
+    }
 
-            if (logger.isTraceEnabled()) {
-                logger.trace(
-                        "onSyncBlock, blockNumber: {}, blockHash: {}",
-                        block.getBlockHeader().getNumber(),
-                        block.getBlockHeader().getHash());
-            }
+    /**
+     * @return true if the block is kept by this manager, either synced in the cache window or still
+     *     to be synced
+     */
+    public boolean isRetained(long blockNumber) {
+        long last = lastBlockNumberAcquired;
+        return last >= 0 && blockNumber > last - maxCacheSize;
+    }
 
-            if (block.getBlockHeader().getNumber() < target) {
-                chain.getDriver()
-                        .asyncGetBlock(
-                                block.getBlockHeader().getNumber() + 1,
-                                true,
-                                chain.chooseConnection(),
-                                (error, blockData) -> {
-                                    onSyncBlock(
-                                            error,
-                                            blockData,
-                                            block.getBlockHeader().getNumber() + 1,
-                                            target);
-                                });
-            } else {
-                waitAndSyncBlock(0);
-            }
-        } else {
-            logger.warn("onSyncBlock failed, currentBlockNumber: {}, e: ", currentBlockNumber, e);
-            waitAndSyncBlock(getGetBlockNumberDelay());
+    public interface GetLocalTransactionCallback {
+        /** @param transaction null if not found locally */
+        void onResponse(long blockNumber, Transaction transaction);
+    }
+
+    /**
+     * Look up a transaction of the recently synced blocks through the transaction index, the body
+     * of its block is loaded if headers only are synced
+     *
+     * @param blockNumber of the transaction, null if unknown
+     * @param callback gets a null transaction if the hash is not indexed in blockNumber, or its
+     *     block has no transaction detail or failed to load
+     */
+    public void asyncGetLocalTransaction(
+            String txHash, Long blockNumber, GetLocalTransactionCallback callback) {
+        TransactionIndex.Location location = transactionIndex.get(txHash);
+        if (location == null
+                || (Objects.nonNull(blockNumber) && location.getBlockNumber() != blockNumber)) {
+            transactionIndex.recordLookup(false);
+            callback.onResponse(-1, null);
+            return;
+        }
+
+        long localBlockNumber = location.getBlockNumber();
+        Block block = getLocalBlock(localBlockNumber);
+        Transaction transaction =
+                Objects.isNull(block)
+                        ? null
+                        : TransactionIndex.findTransaction(block, txHash, location.getIndex());
+        if (transaction != null || !fetchOnlyHeader) {
+            transactionIndex.recordLookup(transaction != null);
+            callback.onResponse(localBlockNumber, transaction);
+            return;
         }
+
+        // a header, the body is loaded once and cached for the other transactions of the block
+        asyncGetBlock(
+                localBlockNumber,
+                false,
+                (e, body) -> {
+                    Transaction found =
+                            Objects.nonNull(e) || Objects.isNull(body)
+                                    ? null
+                                    : TransactionIndex.findTransaction(
+                                            body, txHash, location.getIndex());
+                    transactionIndex.recordLookup(found != null);
+                    callback.onResponse(localBlockNumber, found);
+                });
+    }
+
+    /** Get a block older than the cache, or the body of a block synced as header */
+    protected void asyncGetHistoryBlock(
+            long blockNumber, boolean onlyHeader, GetBlockCallback callback) {
+        chain.getDriver()
+                .asyncGetBlock(
+                        blockNumber,
+                        onlyHeader,
+                        chain.chooseReadConnection(),
+                        (error, data) -> {
+                            callback.onResponse(error, data);
+                        });
     }
 
     private void waitAndSyncBlock(long delay) {
@@ -183,7 +448,7 @@ public class MemoryBlockManager implements BlockManager {
                         (timeout) -> {
                             chain.getDriver()
                                     .asyncGetBlockNumber(
-                                            chain.chooseConnection(),
+                                            chain.chooseReadConnection(),
                                             new Driver.GetBlockNumberCallback() {
                                                 @Override
                                                 public void onResponse(
@@ -198,11 +463,19 @@ public class MemoryBlockManager implements BlockManager {
 
     @Override
     public void start() {
-        Connection connection = chain.chooseConnection();
+        Connection connection = chain.chooseReadConnection();
         Driver driver = chain.getDriver();
         if (connection != null && driver != null && running.compareAndSet(false, true)) {
             logger.info("MemoryBlockHeaderManager started");
 
+            String name = chain.getZoneName() + "." + chain.getName();
+            blockDataCache = new BlockCache(name, maxCacheSize, blockMemoryBudget);
+            blockBodyCache = new BlockCache(name, maxBodyCacheSize, blockMemoryBudget);
+            if (blockMemoryBudget != null) {
+                blockMemoryBudget.register(blockDataCache);
+                blockMemoryBudget.register(blockBodyCache);
+            }
+
             chain.getDriver()
                     .asyncGetBlockNumber(
                             connection,
@@ -228,21 +501,39 @@ public class MemoryBlockManager implements BlockManager {
         if (running.compareAndSet(true, false)) {
             logger.info("MemoryBlockHeaderManager stopped");
 
-            for (List<GetBlockCallback> callbacks : getBlockCallbacks.values()) {
-                for (GetBlockCallback callback : callbacks) {
-                    threadPool.execute(
-                            new Runnable() {
-                                @Override
-                                public void run() {
-                                    callback.onResponse(
-                                            new WeCrossException(-1, "Operation canceled"), null);
-                                }
-                            });
+            lock.lock();
+            try {
+                for (List<GetBlockCallback> callbacks : getBlockCallbacks.values()) {
+                    for (GetBlockCallback callback : callbacks) {
+                        threadPool.execute(
+                                new Runnable() {
+                                    @Override
+                                    public void run() {
+                                        callback.onResponse(
+                                                new WeCrossException(-1, "Operation canceled"),
+                                                null);
+                                    }
+                                });
+                    }
                 }
+                getBlockCallbacks.clear();
+            } finally {
+                lock.unlock();
+            }
+
+            synchronized (syncLock) {
+                // drop the responses of blocks still in flight
+                syncRound++;
+                fetchedBlocks.clear();
             }
 
             blockDataCache.clear();
-            getBlockCallbacks.clear();
+            blockBodyCache.clear();
+            transactionIndex.clear();
+            if (blockMemoryBudget != null) {
+                blockMemoryBudget.unregister(blockDataCache);
+                blockMemoryBudget.unregister(blockBodyCache);
+            }
             if (timeout != null) {
                 timeout.cancel();
             }
@@ -273,20 +564,116 @@ public class MemoryBlockManager implements BlockManager {
 
     @Override
     public void asyncGetBlock(long blockNumber, GetBlockCallback callback) {
-        lock.writeLock().lock();
+        asyncGetSyncedBlock(blockNumber, callback);
+    }
 
+    @Override
+    public void asyncGetBlock(long blockNumber, boolean onlyHeader, GetBlockCallback callback) {
+        if (onlyHeader || !fetchOnlyHeader) {
+            asyncGetSyncedBlock(blockNumber, callback);
+            return;
+        }
+
+        Block cached = blockBodyCache.get(blockNumber);
+        if (cached != null) {
+            threadPool.execute(
+                    () -> {
+                        callback.onResponse(null, cached);
+                    });
+            return;
+        }
+
+        long last = lastBlockNumberAcquired;
+        if (last >= 0 && blockNumber > last) {
+            // load the body once the header is synced
+            asyncGetSyncedBlock(
+                    blockNumber,
+                    (e, header) -> {
+                        if (Objects.nonNull(e)) {
+                            callback.onResponse(e, null);
+                        } else {
+                            loadBody(blockNumber, callback);
+                        }
+                    });
+            return;
+        }
+
+        loadBody(blockNumber, callback);
+    }
+
+    /** Load a whole block, concurrent loads of the same block share one request */
+    private void loadBody(long blockNumber, GetBlockCallback callback) {
+        lock.lock();
         try {
-            if (blockDataCache.isEmpty()
-                    || blockNumber < blockDataCache.peekFirst().getBlockHeader().getNumber()) {
-                chain.getDriver()
-                        .asyncGetBlock(
-                                blockNumber,
-                                true,
-                                chain.chooseConnection(),
-                                (error, data) -> {
-                                    callback.onResponse(error, data);
-                                });
-            } else if (blockNumber > blockDataCache.peekLast().getBlockHeader().getNumber()) {
+            List<GetBlockCallback> callbacks = getBodyCallbacks.get(blockNumber);
+            if (callbacks != null) {
+                callbacks.add(callback);
+                return;
+            }
+
+            callbacks = new LinkedList<GetBlockCallback>();
+            callbacks.add(callback);
+            getBodyCallbacks.put(blockNumber, callbacks);
+        } finally {
+            lock.unlock();
+        }
+
+        asyncGetHistoryBlock(blockNumber, false, (e, block) -> onLoadBody(blockNumber, e, block));
+    }
+
+    private void onLoadBody(long blockNumber, Exception e, Block block) {
+        if (Objects.isNull(e)
+                && (Objects.isNull(block)
+                        || Objects.isNull(block.getBlockHeader())
+                        || block.getBlockHeader().getNumber() != blockNumber)) {
+            e =
+                    new WeCrossException(
+                            WeCrossException.ErrorCode.GET_BLOCK_ERROR,
+                            "Unexpected block, blockNumber: " + blockNumber);
+        }
+
+        long last = lastBlockNumberAcquired;
+        if (Objects.isNull(e) && blockNumber > last - maxCacheSize && blockNumber <= last) {
+            // bodies older than the header window would push out the recent ones
+            blockBodyCache.put(block);
+        }
+
+        List<GetBlockCallback> callbacks;
+        lock.lock();
+        try {
+            callbacks = getBodyCallbacks.remove(blockNumber);
+        } finally {
+            lock.unlock();
+        }
+
+        if (callbacks != null) {
+            Exception error = e;
+            Block body = Objects.isNull(e) ? block : null;
+            for (GetBlockCallback callback : callbacks) {
+                threadPool.execute(
+                        () -> {
+                            callback.onResponse(error, body);
+                        });
+            }
+        }
+    }
+
+    /** Get a block as synced, header only if fetchOnlyHeader */
+    private void asyncGetSyncedBlock(long blockNumber, GetBlockCallback callback) {
+        Block cached = blockDataCache.get(blockNumber);
+        if (cached != null) {
+            threadPool.execute(
+                    () -> {
+                        callback.onResponse(null, cached);
+                    });
+            return;
+        }
+
+        lock.lock();
+        try {
+            long last = lastBlockNumberAcquired;
+            if (last >= 0 && blockNumber > last) {
+                // wait for the sync
                 if (!getBlockCallbacks.containsKey(blockNumber)) {
                     getBlockCallbacks.put(blockNumber, new LinkedList<GetBlockCallback>());
                 }
@@ -305,23 +692,21 @@ public class MemoryBlockManager implements BlockManager {
                                 });
                     }
                 }
-            } else {
-                for (Block block : blockDataCache) {
-                    if (block.getBlockHeader().getNumber() == blockNumber) {
-                        threadPool.execute(
-                                new Runnable() {
-                                    @Override
-                                    public void run() {
-                                        callback.onResponse(null, block);
-                                    }
-                                });
-
-                        break;
-                    }
-                }
+                return;
             }
         } finally {
-            lock.writeLock().unlock();
+            lock.unlock();
+        }
+
+        // committed after the first lookup, or older than the cache
+        Block block = blockDataCache.get(blockNumber);
+        if (block != null) {
+            threadPool.execute(
+                    () -> {
+                        callback.onResponse(null, block);
+                    });
+        } else {
+            asyncGetHistoryBlock(blockNumber, fetchOnlyHeader, callback);
         }
     }
 
@@ -333,6 +718,14 @@ public class MemoryBlockManager implements BlockManager {
         this.threadPool = threadPool;
     }
 
+    public Lock getLock() {
+        return lock;
+    }
+
+    public void setLock(Lock lock) {
+        this.lock = lock;
+    }
+
     public Chain getChain() {
         return chain;
     }
@@ -357,11 +750,85 @@ public class MemoryBlockManager implements BlockManager {
         this.getBlockNumberDelay = getBlockNumberDelay;
     }
 
+    public BlockPollingPolicy getPollingPolicy() {
+        return pollingPolicy;
+    }
+
+    public void setPollingPolicy(BlockPollingPolicy pollingPolicy) {
+        this.pollingPolicy = pollingPolicy;
+    }
+
+    public boolean isFetchOnlyHeader() {
+        return fetchOnlyHeader;
+    }
+
+    public void setFetchOnlyHeader(boolean fetchOnlyHeader) {
+        this.fetchOnlyHeader = fetchOnlyHeader;
+    }
+
+    public int getSyncWindowSize() {
+        return syncWindowSize;
+    }
+
+    public void setSyncWindowSize(int syncWindowSize) {
+        this.syncWindowSize = Math.max(1, syncWindowSize);
+    }
+
+    public int getSyncBatchSize() {
+        return syncBatchSize;
+    }
+
+    public void setSyncBatchSize(int syncBatchSize) {
+        this.syncBatchSize = Math.max(1, syncBatchSize);
+    }
+
     public int getMaxCacheSize() {
         return maxCacheSize;
     }
 
     public void setMaxCacheSize(int maxCacheSize) {
         this.maxCacheSize = maxCacheSize;
+        this.blockDataCache = new BlockCache(maxCacheSize);
+    }
+
+    public int getMaxBodyCacheSize() {
+        return maxBodyCacheSize;
+    }
+
+    public void setMaxBodyCacheSize(int maxBodyCacheSize) {
+        this.maxBodyCacheSize = maxBodyCacheSize;
+        this.blockBodyCache = new BlockCache(maxBodyCacheSize);
+    }
+
+    public BlockMemoryBudget getBlockMemoryBudget() {
+        return blockMemoryBudget;
+    }
+
+    public void setBlockMemoryBudget(BlockMemoryBudget blockMemoryBudget) {
+        this.blockMemoryBudget = blockMemoryBudget;
+    }
+
+    public BlockCache getBlockCache() {
+        return blockDataCache;
+    }
+
+    public BlockCache getBlockBodyCache() {
+        return blockBodyCache;
+    }
+
+    public List<BlockSyncListener> getBlockSyncListeners() {
+        return blockSyncListeners;
+    }
+
+    public void setBlockSyncListeners(List<BlockSyncListener> blockSyncListeners) {
+        this.blockSyncListeners = blockSyncListeners;
+    }
+
+    public TransactionIndex getTransactionIndex() {
+        return transactionIndex;
+    }
+
+    public void setTransactionIndex(TransactionIndex transactionIndex) {
+        this.transactionIndex = transactionIndex;
     }
 }
@@ -1,13 +1,42 @@
 package com.webank.wecross.stubmanager;
 
+import com.moandjiezana.toml.Toml;
 import com.webank.wecross.config.ResourceThreadPoolConfig;
+import com.webank.wecross.exception.WeCrossException;
+import com.webank.wecross.utils.ConfigUtils;
 import com.webank.wecross.zone.Chain;
 import io.netty.util.HashedWheelTimer;
 import io.netty.util.Timer;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class MemoryBlockManagerFactory {
+    private static final Logger logger = LoggerFactory.getLogger(MemoryBlockManagerFactory.class);
+
+    public static final String STORE_MEMORY = "memory";
+    public static final String STORE_FILE = "file";
+    public static final String DEFAULT_STORE_DIR = "data/blocks";
+    public static final long DEFAULT_SEGMENT_SIZE = 64L * 1024 * 1024;
+    public static final int DEFAULT_MAX_SEGMENTS = 16;
+    public static final int DEFAULT_SYNC_WINDOW_SIZE = 8;
+    public static final int DEFAULT_SYNC_BATCH_SIZE = 4;
+    public static final int DEFAULT_CACHE_SIZE = 20;
+    public static final int DEFAULT_BODY_CACHE_SIZE = 20;
+    public static final int DEFAULT_TRANSACTION_INDEX_SIZE = 10000;
+    public static final long DEFAULT_MIN_POLL_DELAY = 100;
+    public static final long DEFAULT_MAX_POLL_DELAY = 10000;
+    public static final long DEFAULT_CACHE_MEMORY = 256L * 1024 * 1024;
+
     private ResourceThreadPoolConfig.ResourceThreadPool resourceThreadPool;
     private Timer timer = new HashedWheelTimer();
+    private BlockMemoryBudget blockMemoryBudget = new BlockMemoryBudget(DEFAULT_CACHE_MEMORY);
+    // shared by all block managers, so listeners added later see every chain
+    private List<MemoryBlockManager.BlockSyncListener> blockSyncListeners =
+            new CopyOnWriteArrayList<>();
 
     public MemoryBlockManagerFactory(
             ResourceThreadPoolConfig.ResourceThreadPool resourceThreadPool) {
@@ -16,9 +45,109 @@ public class MemoryBlockManagerFactory {
 
     public MemoryBlockManager build(Chain chain) {
         MemoryBlockManager resourceBlockManager = new MemoryBlockManager();
+        return init(resourceBlockManager, chain);
+    }
+
+    /** Build with the [blockManager] item of a local chain's stub.toml */
+    public MemoryBlockManager build(Chain chain, Toml stubToml) throws WeCrossException {
+        MemoryBlockManager resourceBlockManager = newBlockManager(chain, stubToml);
+        resourceBlockManager.setSyncWindowSize(
+                ConfigUtils.parseInt(
+                        stubToml, "blockManager.syncWindowSize", DEFAULT_SYNC_WINDOW_SIZE));
+        resourceBlockManager.setSyncBatchSize(
+                ConfigUtils.parseInt(
+                        stubToml, "blockManager.syncBatchSize", DEFAULT_SYNC_BATCH_SIZE));
+        resourceBlockManager.setMaxCacheSize(
+                ConfigUtils.parseInt(stubToml, "blockManager.cacheSize", DEFAULT_CACHE_SIZE));
+        resourceBlockManager.setMaxBodyCacheSize(
+                ConfigUtils.parseInt(
+                        stubToml, "blockManager.bodyCacheSize", DEFAULT_BODY_CACHE_SIZE));
+        resourceBlockManager.setTransactionIndex(
+                new TransactionIndex(
+                        ConfigUtils.parseInt(
+                                stubToml,
+                                "blockManager.transactionIndexSize",
+                                DEFAULT_TRANSACTION_INDEX_SIZE)));
+
+        // delays of polling the block number adapt to the block interval of the chain
+        BlockPollingPolicy pollingPolicy = new BlockPollingPolicy();
+        pollingPolicy.setMinDelay(
+                ConfigUtils.parseLong(
+                        stubToml, "blockManager.minPollDelay", DEFAULT_MIN_POLL_DELAY));
+        pollingPolicy.setMaxDelay(
+                ConfigUtils.parseLong(
+                        stubToml, "blockManager.maxPollDelay", DEFAULT_MAX_POLL_DELAY));
+        resourceBlockManager.setPollingPolicy(pollingPolicy);
+        return init(resourceBlockManager, chain);
+    }
+
+    private MemoryBlockManager newBlockManager(Chain chain, Toml stubToml) throws WeCrossException {
+        String store = ConfigUtils.parseString(stubToml, "blockManager.store", STORE_MEMORY);
+        if (STORE_MEMORY.equals(store)) {
+            return new MemoryBlockManager();
+        }
+
+        if (!STORE_FILE.equals(store)) {
+            throw new WeCrossException(
+                    WeCrossException.ErrorCode.UNEXPECTED_CONFIG,
+                    "Unsupported [blockManager] store: " + store + ", chain: " + chain.getName());
+        }
+
+        String storePath =
+                ConfigUtils.parseString(
+                        stubToml,
+                        "blockManager.storePath",
+                        DEFAULT_STORE_DIR
+                                + File.separator
+                                + chain.getZoneName()
+                                + File.separator
+                                + chain.getName());
+        long segmentSize =
+                ConfigUtils.parseLong(stubToml, "blockManager.segmentSize", DEFAULT_SEGMENT_SIZE);
+        int maxSegments =
+                ConfigUtils.parseInt(stubToml, "blockManager.maxSegments", DEFAULT_MAX_SEGMENTS);
+
+        FileBlockStore blockStore =
+                new FileBlockStore(new File(storePath), segmentSize, maxSegments);
+        try {
+            blockStore.open();
+        } catch (IOException e) {
+            logger.error("Open block store failed, path: {}, e: ", storePath, e);
+            throw new WeCrossException(
+                    WeCrossException.ErrorCode.UNEXPECTED_CONFIG,
+                    "Open block store failed, path: " + storePath,
+                    e);
+        }
+
+        FileBlockManager fileBlockManager = new FileBlockManager();
+        fileBlockManager.setBlockStore(blockStore);
+        // keep whole blocks on disk so history queries can be served locally
+        fileBlockManager.setFetchOnlyHeader(false);
+        return fileBlockManager;
+    }
+
+    public BlockMemoryBudget getBlockMemoryBudget() {
+        return blockMemoryBudget;
+    }
+
+    public void setBlockMemoryBudget(BlockMemoryBudget blockMemoryBudget) {
+        this.blockMemoryBudget = blockMemoryBudget;
+    }
+
+    public void addBlockSyncListener(MemoryBlockManager.BlockSyncListener listener) {
+        blockSyncListeners.add(listener);
+    }
+
+    public void removeBlockSyncListener(MemoryBlockManager.BlockSyncListener listener) {
+        blockSyncListeners.remove(listener);
+    }
+
+    private MemoryBlockManager init(MemoryBlockManager resourceBlockManager, Chain chain) {
         resourceBlockManager.setThreadPool(resourceThreadPool.getThreadPool());
         resourceBlockManager.setChain(chain);
         resourceBlockManager.setTimer(timer);
+        resourceBlockManager.setBlockMemoryBudget(blockMemoryBudget);
+        resourceBlockManager.setBlockSyncListeners(blockSyncListeners);
         return resourceBlockManager;
     }
 }
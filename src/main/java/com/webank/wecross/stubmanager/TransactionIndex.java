@@ -0,0 +1,149 @@
+package com.webank.wecross.stubmanager;
+
+import com.webank.wecross.stub.Block;
+import com.webank.wecross.stub.Transaction;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Bounded index of transaction hash to its position in the latest synced blocks */
+public class TransactionIndex {
+    public static class Location {
+        private final long blockNumber;
+        private final int index;
+
+        public Location(long blockNumber, int index) {
+            this.blockNumber = blockNumber;
+            this.index = index;
+        }
+
+        public long getBlockNumber() {
+            return blockNumber;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+    }
+
+    private final int capacity;
+    private final Map<String, Location> locations = new ConcurrentHashMap<>();
+    private final Deque<List<String>> blocks = new ArrayDeque<>();
+    private int size = 0;
+
+    private final AtomicLong hits = new AtomicLong(0);
+    private final AtomicLong misses = new AtomicLong(0);
+
+    public TransactionIndex(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /** Index a block, the oldest blocks are dropped when there are more than capacity hashes */
+    public synchronized void add(Block block) {
+        if (capacity <= 0) {
+            return;
+        }
+
+        List<String> hashes = getHashes(block);
+        long blockNumber = block.getBlockHeader().getNumber();
+        for (int i = 0; i < hashes.size(); ++i) {
+            locations.put(hashes.get(i), new Location(blockNumber, i));
+        }
+        blocks.addLast(hashes);
+        size += hashes.size();
+
+        while (size > capacity && blocks.size() > 1) {
+            List<String> oldest = blocks.removeFirst();
+            for (String hash : oldest) {
+                Location location = locations.get(hash);
+                if (location != null && location.getBlockNumber() < blockNumber) {
+                    locations.remove(hash, location);
+                }
+            }
+            size -= oldest.size();
+        }
+    }
+
+    public Location get(String txHash) {
+        return txHash == null ? null : locations.get(txHash);
+    }
+
+    public synchronized void clear() {
+        locations.clear();
+        blocks.clear();
+        size = 0;
+    }
+
+    public void recordLookup(boolean hit) {
+        if (hit) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+    }
+
+    public int getSize() {
+        return locations.size();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public double getHitRate() {
+        long total = hits.get() + misses.get();
+        return total == 0 ? 0 : (double) hits.get() / total;
+    }
+
+    /** @return null if the block carries no detail of the transaction */
+    public static Transaction findTransaction(Block block, String txHash, int index) {
+        List<Transaction> transactions = block.getTransactionsWithDetail();
+        if (transactions == null || transactions.isEmpty()) {
+            return null;
+        }
+
+        if (index >= 0 && index < transactions.size() && matches(transactions.get(index), txHash)) {
+            return transactions.get(index);
+        }
+
+        for (Transaction transaction : transactions) {
+            if (matches(transaction, txHash)) {
+                return transaction;
+            }
+        }
+        return null;
+    }
+
+    private static boolean matches(Transaction transaction, String txHash) {
+        return transaction != null
+                && transaction.getTransactionResponse() != null
+                && txHash.equals(transaction.getTransactionResponse().getHash());
+    }
+
+    private static List<String> getHashes(Block block) {
+        List<String> hashes = new ArrayList<>();
+        if (block.getTransactionsHashes() != null && !block.getTransactionsHashes().isEmpty()) {
+            hashes.addAll(block.getTransactionsHashes());
+        } else if (block.getTransactionsWithDetail() != null) {
+            for (Transaction transaction : block.getTransactionsWithDetail()) {
+                hashes.add(
+                        transaction == null || transaction.getTransactionResponse() == null
+                                ? ""
+                                : transaction.getTransactionResponse().getHash());
+            }
+        }
+        return hashes;
+    }
+}
@@ -1,12 +1,25 @@
 package com.webank.wecross.utils.core;
 
 import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class SeqUtils {
     static final int SEQ_BOUND = Integer.MAX_VALUE - 1;
 
-    public static synchronized int newSeq() {
-        SecureRandom rand = new SecureRandom();
-        return rand.nextInt(SEQ_BOUND);
+    // lock-free, seeded randomly so seqs of a restarted router differ from the last run
+    private static final AtomicLong counter = new AtomicLong(new SecureRandom().nextLong());
+
+    /** @return a positive seq, unique among the last SEQ_BOUND ones */
+    public static int newSeq() {
+        return (int) Math.floorMod(counter.incrementAndGet(), (long) SEQ_BOUND) + 1;
+    }
+
+    /** @return a non-zero 64-bit seq */
+    public static long newLongSeq() {
+        long seq = counter.incrementAndGet();
+        while (seq == 0) {
+            seq = counter.incrementAndGet();
+        }
+        return seq;
     }
 }
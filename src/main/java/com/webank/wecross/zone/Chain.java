@@ -3,6 +3,7 @@ package com.webank.wecross.zone;
 import com.webank.wecross.account.UniversalAccount;
 import com.webank.wecross.peer.Peer;
 import com.webank.wecross.remote.RemoteConnection;
+import com.webank.wecross.remote.RemoteConnectionGroup;
 import com.webank.wecross.resource.Resource;
 import com.webank.wecross.stub.Account;
 import com.webank.wecross.stub.BlockManager;
@@ -171,6 +172,15 @@ public class Chain {
     }
 
     public Connection chooseConnection() {
+        return chooseConnection(false);
+    }
+
+    /** @return a connection for reads, which may also ask other peers if the first one is slow */
+    public Connection chooseReadConnection() {
+        return chooseConnection(true);
+    }
+
+    private Connection chooseConnection(boolean idempotent) {
         Map<Peer, Connection> connections = getConnections();
         if (connections == null) {
             logger.warn("Chain {} connection is null", name);
@@ -182,12 +192,7 @@ public class Chain {
             return connection;
         }
 
-        if (connections.size() == 0) {
-            return null;
-        } else {
-            int index = random.nextInt(connections.size());
-            return (Connection) connections.values().toArray()[index];
-        }
+        return RemoteConnectionGroup.choose(connections.values(), idempotent, random);
     }
 
     public void addResource(Path path, Resource resource, boolean replaceIfExist) {
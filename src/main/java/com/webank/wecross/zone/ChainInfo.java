@@ -2,12 +2,18 @@ package com.webank.wecross.zone;
 
 import static com.webank.wecross.exception.WeCrossException.ErrorCode.GET_CHAIN_CHECKSUM_ERROR;
 
+import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.json.JsonMapper;
 import com.webank.wecross.exception.WeCrossException;
 import com.webank.wecross.stub.Block;
 import com.webank.wecross.stub.Connection;
 import com.webank.wecross.stub.Driver;
 import com.webank.wecross.stub.ResourceInfo;
 import com.webank.wecross.utils.Sha256Utils;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -19,6 +25,13 @@ import org.slf4j.LoggerFactory;
 
 public class ChainInfo {
     private static Logger logger = LoggerFactory.getLogger(ChainInfo.class);
+    /** JSON with the same bytes for equal infos, whatever the order of their maps */
+    private static final ObjectMapper canonicalMapper =
+            JsonMapper.builder()
+                    .enable(MapperFeature.SORT_PROPERTIES_ALPHABETICALLY)
+                    .enable(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS)
+                    .build();
+
     private String zone;
     private String name;
     private String stubType;
@@ -103,6 +116,35 @@ public class ChainInfo {
         return checksum;
     }
 
+    /**
+     * @return sha256 of what peers sync of the chain, the same for infos that differ only in the
+     *     order of resources or properties, or null if it can not be built
+     */
+    public String buildDigest() {
+        ChainInfo canonical = new ChainInfo();
+        canonical.setZone(zone);
+        canonical.setName(name);
+        canonical.setStubType(stubType);
+        canonical.setProperties(properties);
+        canonical.setChecksum(checksum);
+        if (resources != null) {
+            List<ResourceInfo> sorted = new ArrayList<>(resources);
+            sorted.sort(
+                    Comparator.comparing(
+                            ResourceInfo::getName, Comparator.nullsFirst(String::compareTo)));
+            canonical.setResources(sorted);
+        } else {
+            canonical.setResources(null);
+        }
+
+        try {
+            return Sha256Utils.sha256String(canonicalMapper.writeValueAsBytes(canonical));
+        } catch (Exception e) {
+            logger.warn("Could not build digest of chain {}: {}", name, e.getMessage());
+            return null;
+        }
+    }
+
     @Override
     public String toString() {
         return "ChainInfo{"
@@ -20,6 +20,7 @@ import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -36,6 +37,26 @@ public class ZoneManager {
     private MemoryBlockManagerFactory memoryBlockManagerFactory;
     private PeerManager peerManager;
     private BlockVerifierTomlConfig.Verifiers verifiers;
+    private volatile LocalChains localChains;
+
+    /** The local chains announced to peers, and their digests, as of a seq */
+    public static class LocalChains {
+        private int seq;
+        private Map<String, ChainInfo> chainInfos;
+        private Map<String, String> chainDigests = new HashMap<>();
+
+        public int getSeq() {
+            return seq;
+        }
+
+        public Map<String, ChainInfo> getChainInfos() {
+            return chainInfos;
+        }
+
+        public Map<String, String> getChainDigests() {
+            return chainDigests;
+        }
+    }
 
     public Chain getChain(Path path) {
         lock.readLock().lock();
@@ -156,6 +177,27 @@ public class ZoneManager {
         return zones;
     }
 
+    /** @return block managers of all chains that sync blocks locally, by chain path */
+    public Map<String, MemoryBlockManager> getMemoryBlockManagers() {
+        lock.readLock().lock();
+        try {
+            Map<String, MemoryBlockManager> blockManagers = new TreeMap<>();
+            for (Map.Entry<String, Zone> zoneEntry : zones.entrySet()) {
+                for (Map.Entry<String, Chain> chainEntry :
+                        zoneEntry.getValue().getChains().entrySet()) {
+                    if (chainEntry.getValue().getBlockManager() instanceof MemoryBlockManager) {
+                        blockManagers.put(
+                                zoneEntry.getKey() + "." + chainEntry.getKey(),
+                                (MemoryBlockManager) chainEntry.getValue().getBlockManager());
+                    }
+                }
+            }
+            return blockManagers;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
     public void setZones(Map<String, Zone> zones) {
         this.zones = zones;
     }
@@ -437,6 +479,25 @@ public class ZoneManager {
         return chains;
     }
 
+    /** @return the local chains, their digests built again only once the seq changed */
+    public LocalChains getLocalChains() {
+        LocalChains current = localChains;
+        int currentSeq = seq.get();
+        if (current != null && current.seq == currentSeq) {
+            return current;
+        }
+
+        // read after the seq, the infos are at least as new as it
+        current = new LocalChains();
+        current.seq = currentSeq;
+        current.chainInfos = getAllChainsInfo(true);
+        for (Map.Entry<String, ChainInfo> entry : current.chainInfos.entrySet()) {
+            current.chainDigests.put(entry.getKey(), entry.getValue().buildDigest());
+        }
+        localChains = current;
+        return current;
+    }
+
     public P2PService getP2PService() {
         return p2PService;
     }
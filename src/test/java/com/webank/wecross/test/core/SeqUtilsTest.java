@@ -3,6 +3,7 @@ package com.webank.wecross.test.core;
 import com.webank.wecross.utils.core.SeqUtils;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -17,4 +18,26 @@ public class SeqUtilsTest {
             integerSet.add(seq);
         }
     }
+
+    @Test
+    public void newLongSeqTest() throws Exception {
+        Set<Long> seqs = ConcurrentHashMap.newKeySet();
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; ++i) {
+            threads[i] =
+                    new Thread(
+                            () -> {
+                                for (int j = 0; j < 10000; ++j) {
+                                    long seq = SeqUtils.newLongSeq();
+                                    Assert.assertNotEquals(0, seq);
+                                    Assert.assertTrue(seqs.add(seq));
+                                }
+                            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(40000, seqs.size());
+    }
 }
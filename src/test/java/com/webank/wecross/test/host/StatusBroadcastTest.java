@@ -0,0 +1,107 @@
+package com.webank.wecross.test.host;
+
+import com.webank.wecross.account.AccountSyncManager;
+import com.webank.wecross.host.WeCrossHost;
+import com.webank.wecross.network.NetworkMessage;
+import com.webank.wecross.network.p2p.P2PService;
+import com.webank.wecross.network.p2p.netty.HeartBeatProcessor;
+import com.webank.wecross.network.p2p.netty.MessageType;
+import com.webank.wecross.network.p2p.netty.common.Node;
+import com.webank.wecross.network.p2p.netty.message.MessageCallBack;
+import com.webank.wecross.network.p2p.netty.message.proto.Message;
+import com.webank.wecross.network.p2p.netty.message.serialize.MessageSerializer;
+import com.webank.wecross.peer.Peer;
+import com.webank.wecross.peer.PeerManager;
+import com.webank.wecross.zone.ZoneManager;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class StatusBroadcastTest {
+    private void addPeer(PeerManager peerManager, int i) {
+        Node node = new Node("node" + i, "127.0.0.1", 25500 + i);
+        peerManager.getPeerInfos().put(node, new Peer(node));
+    }
+
+    @Test
+    public void broadcastTest() throws Exception {
+        ZoneManager zoneManager = Mockito.mock(ZoneManager.class);
+        AccountSyncManager accountSyncManager = Mockito.mock(AccountSyncManager.class);
+        P2PService p2PService = Mockito.mock(P2PService.class);
+        Mockito.when(zoneManager.getP2PService()).thenReturn(p2PService);
+        Mockito.when(zoneManager.getSeq()).thenReturn(1);
+        Mockito.when(accountSyncManager.getSeq()).thenReturn(1);
+
+        PeerManager peerManager = new PeerManager();
+        peerManager.setPeerInfos(new ConcurrentHashMap<>());
+        int peers = 10;
+        for (int i = 0; i < peers; ++i) {
+            addPeer(peerManager, i);
+        }
+
+        WeCrossHost host = new WeCrossHost();
+        host.setZoneManager(zoneManager);
+        host.setAccountSyncManager(accountSyncManager);
+        host.setPeerManager(peerManager);
+        host.setP2PService(p2PService);
+
+        // the first status goes to all peers and into the heartbeats
+        host.broadcastStatus();
+        Mockito.verify(p2PService, Mockito.times(peers))
+                .asyncSendMessage(Mockito.any(), Mockito.any(NetworkMessage.class), Mockito.any());
+        Mockito.verify(p2PService, Mockito.times(1)).setHeartBeatStatus(Mockito.any());
+
+        // nothing changed, nothing sent
+        int seconds = 20;
+        for (int i = 0; i < seconds; ++i) {
+            host.broadcastStatus();
+        }
+        Mockito.verify(p2PService, Mockito.times(peers))
+                .asyncSendMessage(Mockito.any(), Mockito.any(NetworkMessage.class), Mockito.any());
+
+        // a new peer gets the status on its own
+        addPeer(peerManager, peers);
+        host.broadcastStatus();
+        Mockito.verify(p2PService, Mockito.times(peers + 1))
+                .asyncSendMessage(Mockito.any(), Mockito.any(NetworkMessage.class), Mockito.any());
+
+        // a change goes to all peers at once
+        Mockito.when(zoneManager.getSeq()).thenReturn(2);
+        host.broadcastStatus();
+        host.broadcastStatus();
+        Mockito.verify(p2PService, Mockito.times(2 * peers + 2))
+                .asyncSendMessage(Mockito.any(), Mockito.any(NetworkMessage.class), Mockito.any());
+        Mockito.verify(p2PService, Mockito.times(2)).setHeartBeatStatus(Mockito.any());
+    }
+
+    @Test
+    public void heartBeatStatusTest() throws Exception {
+        EmbeddedChannel channel = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+        ChannelHandlerContext ctx = channel.pipeline().firstContext();
+        MessageSerializer.setHeaderVersion(channel, Message.HEADER_VERSION);
+        MessageSerializer messageSerializer = new MessageSerializer();
+
+        List<byte[]> received = new ArrayList<>();
+        HeartBeatProcessor heartBeatProcessor = new HeartBeatProcessor();
+        heartBeatProcessor.setNetworkProcessor((node, content, callback) -> received.add(content));
+        MessageCallBack callBack = new MessageCallBack();
+        callBack.setProcessor(MessageType.HEARTBEAT, heartBeatProcessor);
+
+        Node node = new Node("node", "127.0.0.1", 25500);
+        byte[] status = "{\"method\":\"seq\"}".getBytes();
+        callBack.onMessage(ctx, node, messageSerializer.serializeHeartBeat(ctx, status));
+        Assert.assertEquals(1, received.size());
+        Assert.assertArrayEquals(status, received.get(0));
+
+        // heartbeats of data lanes and older versions carry nothing
+        callBack.onMessage(ctx, node, messageSerializer.serializeHeartBeat(ctx));
+        Assert.assertEquals(1, received.size());
+        Assert.assertEquals(Message.HEADER_VERSION, MessageSerializer.getHeaderVersion(channel));
+    }
+}
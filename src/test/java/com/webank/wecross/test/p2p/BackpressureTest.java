@@ -0,0 +1,277 @@
+package com.webank.wecross.test.p2p;
+
+import com.webank.wecross.network.p2p.netty.MessageType;
+import com.webank.wecross.network.p2p.netty.NettyBootstrap;
+import com.webank.wecross.network.p2p.netty.NettyService;
+import com.webank.wecross.network.p2p.netty.ResponseProcessor;
+import com.webank.wecross.network.p2p.netty.SeqMapper;
+import com.webank.wecross.network.p2p.netty.channel.handler.ChannelHandlerCallBack;
+import com.webank.wecross.network.p2p.netty.common.Node;
+import com.webank.wecross.network.p2p.netty.factory.ThreadPoolTaskExecutorFactory;
+import com.webank.wecross.network.p2p.netty.message.MessageCallBack;
+import com.webank.wecross.network.p2p.netty.message.processor.Processor;
+import com.webank.wecross.network.p2p.netty.message.proto.Message;
+import com.webank.wecross.network.p2p.netty.message.serialize.MessageSerializer;
+import com.webank.wecross.network.p2p.netty.request.Request;
+import com.webank.wecross.network.p2p.netty.response.Response;
+import com.webank.wecross.network.p2p.netty.response.ResponseCallBack;
+import com.webank.wecross.network.p2p.netty.response.StatusCode;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+public class BackpressureTest {
+    private MessageSerializer messageSerializer = new MessageSerializer();
+
+    private EmbeddedChannel newChannel() {
+        EmbeddedChannel channel = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+        MessageSerializer.setHeaderVersion(channel, Message.HEADER_VERSION);
+        return channel;
+    }
+
+    private ChannelHandlerCallBack newChannelHandlerCallBack(
+            ThreadPoolTaskExecutor threadPool, CountDownLatch blocked, AtomicInteger processed) {
+        MessageCallBack callBack = new MessageCallBack();
+        callBack.setProcessor(
+                MessageType.RESOURCE_REQUEST,
+                new Processor() {
+                    @Override
+                    public String name() {
+                        return "test";
+                    }
+
+                    @Override
+                    public void process(ChannelHandlerContext ctx, Node node, Message message) {
+                        try {
+                            blocked.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        processed.incrementAndGet();
+                    }
+                });
+        callBack.setProcessor(
+                MessageType.RESOURCE_RESPONSE,
+                new Processor() {
+                    @Override
+                    public String name() {
+                        return "test";
+                    }
+
+                    @Override
+                    public void process(ChannelHandlerContext ctx, Node node, Message message) {
+                        processed.incrementAndGet();
+                    }
+                });
+
+        ChannelHandlerCallBack channelHandlerCallBack = new ChannelHandlerCallBack();
+        channelHandlerCallBack.setCallBack(callBack);
+        channelHandlerCallBack.setThreadPool(threadPool);
+        return channelHandlerCallBack;
+    }
+
+    private ByteBuf newRequest(ChannelHandlerContext ctx, long seq) {
+        Message message = new Message(seq);
+        message.setType(MessageType.RESOURCE_REQUEST);
+        message.setData(("request " + seq).getBytes());
+        return messageSerializer.serialize(ctx, message);
+    }
+
+    @Test
+    public void pauseReadTest() throws Exception {
+        EmbeddedChannel channel = newChannel();
+        ChannelHandlerContext ctx = channel.pipeline().firstContext();
+        CountDownLatch blocked = new CountDownLatch(1);
+        AtomicInteger processed = new AtomicInteger();
+        ThreadPoolTaskExecutor threadPool =
+                ThreadPoolTaskExecutorFactory.build(2L, 100L, "backpressure-");
+        ChannelHandlerCallBack channelHandlerCallBack =
+                newChannelHandlerCallBack(threadPool, blocked, processed);
+        channelHandlerCallBack.setMaxPendingMessages(8);
+
+        for (int i = 1; i < 8; ++i) {
+            channelHandlerCallBack.onMessage(ctx, newRequest(ctx, i));
+            Assert.assertTrue(channel.config().isAutoRead());
+        }
+        channelHandlerCallBack.onMessage(ctx, newRequest(ctx, 8));
+        Assert.assertFalse(channel.config().isAutoRead());
+
+        // reading goes on once half of them are processed
+        blocked.countDown();
+        for (int i = 0; i < 100 && processed.get() < 8; ++i) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(8, processed.get());
+        Assert.assertTrue(channel.config().isAutoRead());
+        threadPool.shutdown();
+    }
+
+    @Test
+    public void busyResponseTest() throws Exception {
+        EmbeddedChannel channel = newChannel();
+        ChannelHandlerContext ctx = channel.pipeline().firstContext();
+        CountDownLatch blocked = new CountDownLatch(1);
+        AtomicInteger processed = new AtomicInteger();
+        ThreadPoolTaskExecutor threadPool =
+                ThreadPoolTaskExecutorFactory.build(1L, 1L, "backpressure-");
+        ChannelHandlerCallBack channelHandlerCallBack =
+                newChannelHandlerCallBack(threadPool, blocked, processed);
+
+        // one request runs, one waits in the queue, the third is answered busy
+        for (int i = 1; i <= 3; ++i) {
+            channelHandlerCallBack.onMessage(ctx, newRequest(ctx, i));
+        }
+        channel.runPendingTasks();
+        ByteBuf frame = channel.readOutbound();
+        Assert.assertNotNull(frame);
+        Message response = messageSerializer.deserialize(frame);
+        Assert.assertEquals((short) MessageType.RESOURCE_RESPONSE, response.getType());
+        Assert.assertEquals(StatusCode.BUSY, response.getResult());
+        Assert.assertEquals(3, response.getSeq());
+        response.release();
+        frame.release();
+
+        // which the requester hands to the callback as busy
+        SeqMapper seqMapper = new SeqMapper();
+        List<Response> responses = new ArrayList<>();
+        ResponseCallBack callback = newCallBack(responses);
+        callback.setSeqMapper(seqMapper);
+        seqMapper.add(3, callback);
+        ResponseProcessor responseProcessor = new ResponseProcessor();
+        responseProcessor.setSeqMapper(seqMapper);
+        Message busy = new Message(3);
+        busy.setType(MessageType.RESOURCE_RESPONSE);
+        busy.setResult(StatusCode.BUSY);
+        busy.setData(new byte[0]);
+        responseProcessor.process(ctx, null, busy);
+        Assert.assertEquals(1, responses.size());
+        Assert.assertEquals(StatusCode.BUSY, responses.get(0).getErrorCode());
+
+        blocked.countDown();
+        threadPool.shutdown();
+    }
+
+    @Test
+    public void backlogTest() throws Exception {
+        EmbeddedChannel channel = newChannel();
+        ChannelHandlerContext ctx = channel.pipeline().firstContext();
+        CountDownLatch blocked = new CountDownLatch(1);
+        AtomicInteger processed = new AtomicInteger();
+        ThreadPoolTaskExecutor threadPool =
+                ThreadPoolTaskExecutorFactory.build(1L, 1L, "backpressure-");
+        ChannelHandlerCallBack channelHandlerCallBack =
+                newChannelHandlerCallBack(threadPool, blocked, processed);
+
+        // the thread pool is full, a response waits rather than runs on the event loop
+        for (int i = 1; i <= 2; ++i) {
+            channelHandlerCallBack.onMessage(ctx, newRequest(ctx, i));
+        }
+        Message message = new Message(3L);
+        message.setType(MessageType.RESOURCE_RESPONSE);
+        message.setData("response".getBytes());
+        channelHandlerCallBack.onMessage(ctx, messageSerializer.serialize(ctx, message));
+        channel.runPendingTasks();
+        Assert.assertEquals(0, processed.get());
+        Assert.assertFalse(channel.config().isAutoRead());
+        Assert.assertNull(channel.readOutbound());
+
+        // and is handed to the thread pool once there is room
+        blocked.countDown();
+        for (int i = 0; i < 100 && processed.get() < 3; ++i) {
+            Thread.sleep(20);
+            channel.runScheduledPendingTasks();
+        }
+        Assert.assertEquals(3, processed.get());
+        Assert.assertTrue(channel.config().isAutoRead());
+        threadPool.shutdown();
+    }
+
+    private ResponseCallBack newCallBack(List<Response> responses) {
+        return new ResponseCallBack() {
+            @Override
+            public void onResponse(Response response) {
+                responses.add(response);
+            }
+
+            @Override
+            public boolean needOnResponse() {
+                return true;
+            }
+        };
+    }
+
+    @Test
+    public void inflightRequestsTest() throws Exception {
+        EmbeddedChannel channel = newChannel();
+        ChannelHandlerContext ctx = channel.pipeline().firstContext();
+        Node node = new Node("node", "127.0.0.1", 25500);
+
+        NettyBootstrap bootstrap = new NettyBootstrap();
+        bootstrap.getConnections().addChannelHandler(node, ctx, false);
+        SeqMapper seqMapper = new SeqMapper();
+        NettyService nettyService = new NettyService();
+        nettyService.setInitializer(bootstrap);
+        nettyService.setSeqMapper(seqMapper);
+        nettyService.setMaxInflightRequests(4);
+
+        List<Response> responses = new ArrayList<>();
+        List<Long> seqs = new ArrayList<>();
+        for (int i = 0; i < 5; ++i) {
+            Request request = new Request();
+            request.setType(MessageType.RESOURCE_REQUEST);
+            request.setContent(("request " + i).getBytes());
+            request.setControl(true);
+            request.setTimeout(0);
+            ResponseCallBack callback = newCallBack(responses);
+            nettyService.asyncSendRequest(node, request, callback);
+            seqs.add(callback.getMessage().getSeq());
+        }
+
+        // the fifth fails at once
+        Assert.assertEquals(1, responses.size());
+        Assert.assertEquals(StatusCode.BUSY, responses.get(0).getErrorCode());
+        Assert.assertEquals(4, nettyService.getInflightRequests(node.getNodeID()));
+        Assert.assertEquals(4, seqMapper.size());
+
+        // a response makes room for another request
+        ResponseProcessor responseProcessor = new ResponseProcessor();
+        responseProcessor.setSeqMapper(seqMapper);
+        Message message = new Message(seqs.get(0));
+        message.setType(MessageType.RESOURCE_RESPONSE);
+        message.setData("response".getBytes());
+        responseProcessor.process(ctx, node, message);
+        Assert.assertEquals(StatusCode.SUCCESS, responses.get(1).getErrorCode());
+        Assert.assertEquals(3, nettyService.getInflightRequests(node.getNodeID()));
+
+        // requests sent without waiting for responses are neither counted nor mapped
+        Request request = new Request();
+        request.setType(MessageType.RESOURCE_REQUEST);
+        request.setContent("seq".getBytes());
+        request.setControl(true);
+        request.setTimeout(0);
+        nettyService.asyncSendRequest(
+                node,
+                request,
+                new ResponseCallBack() {
+                    @Override
+                    public void onResponse(Response response) {}
+
+                    @Override
+                    public boolean needOnResponse() {
+                        return false;
+                    }
+                });
+        Assert.assertEquals(3, nettyService.getInflightRequests(node.getNodeID()));
+        Assert.assertEquals(3, seqMapper.size());
+
+        channel.finishAndReleaseAll();
+    }
+}
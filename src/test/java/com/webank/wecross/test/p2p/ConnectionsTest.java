@@ -0,0 +1,321 @@
+package com.webank.wecross.test.p2p;
+
+import com.webank.wecross.network.p2p.netty.Connections;
+import com.webank.wecross.network.p2p.netty.common.Node;
+import com.webank.wecross.network.p2p.netty.message.proto.Message;
+import com.webank.wecross.network.p2p.netty.message.serialize.MessageSerializer;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+
+public class ConnectionsTest {
+    private static final int PEERS = 300;
+    private static final int THREADS = 8;
+
+    private ChannelHandlerContext newContext() {
+        EmbeddedChannel channel = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+        MessageSerializer.setHeaderVersion(channel, Message.HEADER_VERSION);
+        return channel.pipeline().firstContext();
+    }
+
+    private Node newNode(int i) {
+        return new Node("node" + i, "127.0.0.1", 25500 + i);
+    }
+
+    @Test
+    public void registryTest() throws Exception {
+        Connections connections = new Connections();
+        connections.setChannelsPerPeer(2);
+        Node node = newNode(0);
+        connections.setConfiguredPeers(new HashSet<>(Arrays.asList(node)));
+
+        // dialed once until its handshake is over
+        Assert.assertEquals(1, connections.shouldConnectNodes().size());
+        Assert.assertTrue(connections.startConnect(node.getIPPort()));
+        Assert.assertFalse(connections.startConnect(node.getIPPort()));
+        Assert.assertEquals(Connections.State.CONNECTING, connections.getState(node.getIPPort()));
+        Assert.assertTrue(connections.shouldConnectNodes().isEmpty());
+
+        ChannelHandlerContext control = newContext();
+        Assert.assertTrue(connections.addChannelHandler(node, control, true));
+        connections.endConnect(node.getIPPort());
+        Assert.assertEquals(Connections.State.CONNECTED, connections.getState(node.getIPPort()));
+        Assert.assertEquals(node.getIPPort(), connections.getIPPortIDByNodeID(node.getNodeID()));
+        Assert.assertEquals(node.getNodeID(), connections.getHost2NodeID().get(node.getIPPort()));
+
+        // a data lane, then no more channels
+        ChannelHandlerContext lane = newContext();
+        Assert.assertFalse(connections.addChannelHandler(node, lane, true));
+        Assert.assertSame(lane, connections.getDataChannelHandler(node.getNodeID()));
+        Assert.assertEquals(2, connections.getChannelHandlers(node.getNodeID()).size());
+        try {
+            connections.addChannelHandler(node, newContext(), false);
+            Assert.fail();
+        } catch (UnsupportedOperationException e) {
+            // the existing channels stay
+        }
+
+        // the node reached at another host is known by the host dialed
+        Node moved = new Node(node.getNodeID(), "127.0.0.2", 25500);
+        try {
+            connections.addChannelHandler(moved, newContext(), true);
+            Assert.fail();
+        } catch (UnsupportedOperationException e) {
+            Assert.assertEquals(
+                    moved.getIPPort(), connections.getIPPortIDByNodeID(node.getNodeID()));
+            Assert.assertNull(connections.getHost2NodeID().get(node.getIPPort()));
+        }
+
+        // the data lane takes over, then the node is gone from both indexes
+        Assert.assertFalse(connections.removeChannelHandler(node, control));
+        Assert.assertSame(lane, connections.getChannelHandler(node.getNodeID()));
+        Assert.assertTrue(connections.removeChannelHandler(node, lane));
+        Assert.assertNull(connections.getChannelHandler(node.getNodeID()));
+        Assert.assertNull(connections.getIPPortIDByNodeID(node.getNodeID()));
+        Assert.assertTrue(connections.getHost2NodeID().isEmpty());
+        Assert.assertEquals(
+                Connections.State.DISCONNECTED, connections.getState(moved.getIPPort()));
+        Assert.assertFalse(connections.removeChannelHandler(node, lane));
+    }
+
+    /** The registry as it was: every access locks the map, hosts are found by a scan */
+    private static class LockedRegistry {
+        private Map<String, ChannelHandlerContext> nodeID2ChannelHandler = new HashMap<>();
+        private Map<String, String> host2NodeID = new HashMap<>();
+
+        void add(Node node, ChannelHandlerContext ctx) {
+            synchronized (nodeID2ChannelHandler) {
+                nodeID2ChannelHandler.put(node.getNodeID(), ctx);
+                synchronized (host2NodeID) {
+                    host2NodeID.put(node.getIPPort(), node.getNodeID());
+                }
+            }
+        }
+
+        void remove(Node node) {
+            synchronized (nodeID2ChannelHandler) {
+                nodeID2ChannelHandler.remove(node.getNodeID());
+            }
+            synchronized (host2NodeID) {
+                host2NodeID.remove(node.getIPPort());
+            }
+        }
+
+        ChannelHandlerContext getChannelHandler(String nodeID) {
+            synchronized (nodeID2ChannelHandler) {
+                return nodeID2ChannelHandler.get(nodeID);
+            }
+        }
+
+        String getIPPortIDByNodeID(String nodeID) {
+            synchronized (host2NodeID) {
+                for (Map.Entry<String, String> entry : host2NodeID.entrySet()) {
+                    if (entry.getValue().equals(nodeID)) {
+                        return entry.getKey();
+                    }
+                }
+            }
+            return null;
+        }
+    }
+
+    private interface Registry {
+        void add(Node node, ChannelHandlerContext ctx);
+
+        void remove(Node node, ChannelHandlerContext ctx);
+
+        Object lookup(String nodeID);
+    }
+
+    /**
+     * @return lookups per second of THREADS threads, one of them also reconnecting a peer in turn,
+     *     each lookup finds the channel and the host of a node as every message and peer detail
+     *     does
+     */
+    private double lookupsPerSecond(Registry registry, List<Node> nodes, long millis)
+            throws Exception {
+        List<ChannelHandlerContext> contexts = new ArrayList<>();
+        for (Node node : nodes) {
+            ChannelHandlerContext ctx = newContext();
+            contexts.add(ctx);
+            registry.add(node, ctx);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        AtomicBoolean stop = new AtomicBoolean(false);
+        AtomicLong lookups = new AtomicLong();
+        CountDownLatch started = new CountDownLatch(THREADS);
+        for (int t = 0; t < THREADS; ++t) {
+            int thread = t;
+            executor.execute(
+                    () -> {
+                        started.countDown();
+                        long count = 0;
+                        for (int i = thread; !stop.get(); ++i) {
+                            int index = i % nodes.size();
+                            if (thread == 0 && i % 64 == 0) {
+                                registry.remove(nodes.get(index), contexts.get(index));
+                                registry.add(nodes.get(index), contexts.get(index));
+                            }
+                            if (registry.lookup(nodes.get(index).getNodeID()) != null) {
+                                ++count;
+                            }
+                        }
+                        lookups.addAndGet(count);
+                    });
+        }
+        started.await();
+        long start = System.nanoTime();
+        Thread.sleep(millis);
+        stop.set(true);
+        long elapsed = System.nanoTime() - start;
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        return lookups.get() * 1e9 / elapsed;
+    }
+
+    @Test
+    public void concurrentLookupTest() throws Exception {
+        Connections connections = new Connections();
+        List<Node> nodes = new ArrayList<>();
+        List<ChannelHandlerContext> contexts = new ArrayList<>();
+        for (int i = 0; i < PEERS; ++i) {
+            nodes.add(newNode(i));
+            contexts.add(newContext());
+            connections.addChannelHandler(nodes.get(i), contexts.get(i), true);
+        }
+
+        // one thread reconnects the even peers, the others look up every peer
+        int rounds = 20000;
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        AtomicLong missed = new AtomicLong();
+        AtomicLong wrong = new AtomicLong();
+        List<Future<?>> futures = new ArrayList<>();
+        futures.add(
+                executor.submit(
+                        () -> {
+                            for (int i = 0; i < rounds; ++i) {
+                                int index = (i * 2) % PEERS;
+                                connections.removeChannelHandler(
+                                        nodes.get(index), contexts.get(index));
+                                connections.addChannelHandler(
+                                        nodes.get(index), contexts.get(index), true);
+                            }
+                        }));
+        for (int t = 1; t < THREADS; ++t) {
+            int thread = t;
+            futures.add(
+                    executor.submit(
+                            () -> {
+                                for (int i = thread; i < rounds + thread; ++i) {
+                                    int index = i % PEERS;
+                                    Node node = nodes.get(index);
+                                    ChannelHandlerContext ctx =
+                                            connections.getChannelHandler(node.getNodeID());
+                                    String host = connections.getIPPortIDByNodeID(node.getNodeID());
+                                    if (ctx == null || host == null) {
+                                        if (index % 2 == 1) {
+                                            missed.incrementAndGet();
+                                        }
+                                    } else if (ctx != contexts.get(index)
+                                            || !host.equals(node.getIPPort())) {
+                                        wrong.incrementAndGet();
+                                    }
+                                }
+                            }));
+        }
+        for (Future<?> future : futures) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        // peers left alone are always found, none is ever found at another's channel or host
+        Assert.assertEquals(0, missed.get());
+        Assert.assertEquals(0, wrong.get());
+        Assert.assertEquals(PEERS, connections.size());
+        for (int i = 0; i < PEERS; ++i) {
+            Assert.assertSame(
+                    contexts.get(i), connections.getChannelHandler(nodes.get(i).getNodeID()));
+        }
+    }
+
+    @Test
+    @Ignore("benchmark, run by hand")
+    public void contentionBenchmark() throws Exception {
+        List<Node> nodes = new ArrayList<>();
+        for (int i = 0; i < PEERS; ++i) {
+            nodes.add(newNode(i));
+        }
+
+        double locked = 0;
+        double registry = 0;
+        for (int round = 0; round < 2; ++round) {
+            // the first round warms up
+            LockedRegistry lockedRegistry = new LockedRegistry();
+            locked =
+                    lookupsPerSecond(
+                            new Registry() {
+                                @Override
+                                public void add(Node node, ChannelHandlerContext ctx) {
+                                    lockedRegistry.add(node, ctx);
+                                }
+
+                                @Override
+                                public void remove(Node node, ChannelHandlerContext ctx) {
+                                    lockedRegistry.remove(node);
+                                }
+
+                                @Override
+                                public Object lookup(String nodeID) {
+                                    return lockedRegistry.getChannelHandler(nodeID) == null
+                                            ? null
+                                            : lockedRegistry.getIPPortIDByNodeID(nodeID);
+                                }
+                            },
+                            nodes,
+                            500);
+
+            Connections connections = new Connections();
+            registry =
+                    lookupsPerSecond(
+                            new Registry() {
+                                @Override
+                                public void add(Node node, ChannelHandlerContext ctx) {
+                                    connections.addChannelHandler(node, ctx, true);
+                                }
+
+                                @Override
+                                public void remove(Node node, ChannelHandlerContext ctx) {
+                                    connections.removeChannelHandler(node, ctx);
+                                }
+
+                                @Override
+                                public Object lookup(String nodeID) {
+                                    return connections.getChannelHandler(nodeID) == null
+                                            ? null
+                                            : connections.getIPPortIDByNodeID(nodeID);
+                                }
+                            },
+                            nodes,
+                            500);
+            Assert.assertEquals(PEERS, connections.size());
+        }
+        Assert.assertTrue(registry > locked);
+    }
+}
@@ -0,0 +1,300 @@
+package com.webank.wecross.test.p2p;
+
+import com.webank.wecross.network.p2p.netty.MessageType;
+import com.webank.wecross.network.p2p.netty.channel.handler.ChannelHandlerCallBack;
+import com.webank.wecross.network.p2p.netty.channel.handler.P2PFrameDecoder;
+import com.webank.wecross.network.p2p.netty.common.Node;
+import com.webank.wecross.network.p2p.netty.message.MessageBatcher;
+import com.webank.wecross.network.p2p.netty.message.MessageCallBack;
+import com.webank.wecross.network.p2p.netty.message.processor.Processor;
+import com.webank.wecross.network.p2p.netty.message.proto.Message;
+import com.webank.wecross.network.p2p.netty.message.serialize.MessageSerializer;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.DecoderException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MessageBatcherTest {
+    private MessageSerializer messageSerializer = new MessageSerializer();
+    private MessageBatcher messageBatcher = new MessageBatcher();
+
+    private AtomicInteger flushes = new AtomicInteger();
+
+    private EmbeddedChannel newChannel(int headerVersion) {
+        EmbeddedChannel channel =
+                new EmbeddedChannel(
+                        new ChannelOutboundHandlerAdapter() {
+                            @Override
+                            public void flush(ChannelHandlerContext ctx) throws Exception {
+                                flushes.incrementAndGet();
+                                super.flush(ctx);
+                            }
+                        },
+                        new ChannelInboundHandlerAdapter() {
+                            @Override
+                            public void channelWritabilityChanged(ChannelHandlerContext ctx) {
+                                if (ctx.channel().isWritable()) {
+                                    messageBatcher.resume(ctx);
+                                }
+                            }
+                        });
+        MessageSerializer.setHeaderVersion(channel, headerVersion);
+        return channel;
+    }
+
+    private MessageCallBack newMessageCallBack(List<Message> received) {
+        MessageCallBack callBack = new MessageCallBack();
+        callBack.setProcessor(
+                MessageType.RESOURCE_REQUEST,
+                new Processor() {
+                    @Override
+                    public String name() {
+                        return "test";
+                    }
+
+                    @Override
+                    public void process(ChannelHandlerContext ctx, Node node, Message message) {
+                        message.getData();
+                        received.add(message);
+                    }
+                });
+        return callBack;
+    }
+
+    private List<Message> send(EmbeddedChannel channel, int count) {
+        ChannelHandlerContext ctx = channel.pipeline().lastContext();
+        List<Message> messages = new ArrayList<>();
+        for (int i = 0; i < count; ++i) {
+            Message message =
+                    Message.builder(
+                            MessageType.RESOURCE_REQUEST,
+                            ("request " + i).getBytes(StandardCharsets.UTF_8));
+            messages.add(message);
+            messageBatcher.send(ctx, messageSerializer.serialize(ctx, message));
+        }
+        channel.runPendingTasks();
+        return messages;
+    }
+
+    /** Copy the outbound frames into single buffers, like the frame decoder hands them over */
+    private List<ByteBuf> receive(EmbeddedChannel channel) {
+        List<ByteBuf> frames = new ArrayList<>();
+        ByteBuf frame;
+        while ((frame = channel.readOutbound()) != null) {
+            ByteBuf received = PooledByteBufAllocator.DEFAULT.directBuffer(frame.readableBytes());
+            received.writeBytes(frame);
+            frame.release();
+            frames.add(received);
+        }
+        return frames;
+    }
+
+    @Test
+    public void batchTest() throws Exception {
+        EmbeddedChannel channel = newChannel(Message.HEADER_VERSION_BATCH);
+        List<Message> messages = send(channel, 10);
+
+        List<ByteBuf> frames = receive(channel);
+        Assert.assertEquals(1, frames.size());
+        Assert.assertEquals(1, flushes.get());
+        Assert.assertTrue(MessageBatcher.isBatch(frames.get(0)));
+
+        // each request is handed to its processor with its own seq
+        List<Message> received = new ArrayList<>();
+        ChannelHandlerCallBack channelHandlerCallBack = new ChannelHandlerCallBack();
+        channelHandlerCallBack.setCallBack(newMessageCallBack(received));
+        channelHandlerCallBack.onMessage(channel.pipeline().lastContext(), frames.get(0));
+
+        Assert.assertEquals(messages.size(), received.size());
+        for (int i = 0; i < messages.size(); ++i) {
+            Assert.assertEquals(messages.get(i).getSeq(), received.get(i).getSeq());
+            Assert.assertArrayEquals(messages.get(i).getData(), received.get(i).getData());
+        }
+        Assert.assertEquals(0, frames.get(0).refCnt());
+    }
+
+    @Test
+    public void olderPeerTest() throws Exception {
+        EmbeddedChannel channel = newChannel(Message.HEADER_VERSION_COMPRESSION);
+        List<Message> messages = send(channel, 10);
+
+        // written one by one with a single flush
+        List<ByteBuf> frames = receive(channel);
+        Assert.assertEquals(messages.size(), frames.size());
+        Assert.assertEquals(1, flushes.get());
+        for (int i = 0; i < messages.size(); ++i) {
+            Assert.assertFalse(MessageBatcher.isBatch(frames.get(i)));
+            Message message = messageSerializer.deserialize(frames.get(i));
+            Assert.assertEquals(messages.get(i).getSeq(), message.getSeq());
+            message.release();
+            frames.get(i).release();
+        }
+    }
+
+    @Test
+    public void batchLimitTest() throws Exception {
+        EmbeddedChannel channel = newChannel(Message.HEADER_VERSION_BATCH);
+        int count = 10 * MessageBatcher.MAX_BATCH_FRAMES + 1;
+        send(channel, count);
+
+        List<ByteBuf> frames = receive(channel);
+        Assert.assertEquals(11, frames.size());
+        Assert.assertEquals(1, flushes.get());
+
+        int unbatched = 0;
+        for (ByteBuf frame : frames) {
+            List<ByteBuf> batched = new ArrayList<>();
+            if (MessageBatcher.isBatch(frame)) {
+                messageBatcher.unbatch(null, frame, batched::add);
+            } else {
+                batched.add(frame);
+            }
+            unbatched += batched.size();
+            batched.forEach(ByteBuf::release);
+        }
+        Assert.assertEquals(count, unbatched);
+    }
+
+    @Test
+    public void invalidBatchTest() throws Exception {
+        Message message = Message.builder(MessageType.BATCH, new byte[] {0, 0, 1, 0});
+        ByteBuf frame =
+                messageSerializer.serialize(
+                        PooledByteBufAllocator.DEFAULT, message, Message.HEADER_VERSION_BATCH);
+
+        List<ByteBuf> batched = new ArrayList<>();
+        try {
+            messageBatcher.unbatch(null, frame, batched::add);
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(batched.isEmpty());
+            Assert.assertEquals(0, frame.refCnt());
+        }
+    }
+
+    @Test
+    public void chunkTest() throws Exception {
+        EmbeddedChannel channel = newChannel(Message.HEADER_VERSION_CHUNKED);
+        ChannelHandlerContext ctx = channel.pipeline().lastContext();
+
+        byte[] data = new byte[4 * MessageBatcher.CHUNK_LENGTH + 100];
+        new Random(0).nextBytes(data);
+        Message large = Message.builder(MessageType.RESOURCE_REQUEST, data);
+        messageBatcher.send(ctx, messageSerializer.serialize(ctx, large));
+        List<Message> messages = send(channel, 10);
+
+        // each chunk waits for the window, opened again when the previous one is flushed
+        List<ByteBuf> frames = new ArrayList<>();
+        for (List<ByteBuf> flushed = receive(channel);
+                !flushed.isEmpty();
+                flushed = receive(channel)) {
+            frames.addAll(flushed);
+            channel.runPendingTasks();
+        }
+        Assert.assertEquals(6, frames.size());
+        Assert.assertTrue(flushes.get() >= 5);
+        Assert.assertFalse(MessageBatcher.isChunk(frames.get(0)));
+        for (ByteBuf frame : frames.subList(1, frames.size())) {
+            Assert.assertTrue(MessageBatcher.isChunk(frame));
+            Assert.assertTrue(frame.readableBytes() <= P2PFrameDecoder.MAX_FRAME_LENGTH);
+        }
+
+        // requests queued behind the long one are not held up by it
+        List<Message> received = new ArrayList<>();
+        ChannelHandlerCallBack channelHandlerCallBack = new ChannelHandlerCallBack();
+        channelHandlerCallBack.setCallBack(newMessageCallBack(received));
+        EmbeddedChannel receiver = newChannel(Message.HEADER_VERSION_CHUNKED);
+        for (ByteBuf frame : frames) {
+            channelHandlerCallBack.onMessage(receiver.pipeline().lastContext(), frame);
+        }
+
+        Assert.assertEquals(messages.size() + 1, received.size());
+        for (int i = 0; i < messages.size(); ++i) {
+            Assert.assertEquals(messages.get(i).getSeq(), received.get(i).getSeq());
+        }
+        Assert.assertEquals(large.getSeq(), received.get(messages.size()).getSeq());
+        Assert.assertArrayEquals(data, received.get(messages.size()).getData());
+        Assert.assertEquals(0, MessageBatcher.getPendingBytes(channel));
+        for (ByteBuf frame : frames) {
+            Assert.assertEquals(0, frame.refCnt());
+        }
+    }
+
+    @Test
+    public void olderPeerChunkTest() throws Exception {
+        EmbeddedChannel channel = newChannel(Message.HEADER_VERSION_LANES);
+        ChannelHandlerContext ctx = channel.pipeline().lastContext();
+        Message large =
+                Message.builder(
+                        MessageType.RESOURCE_REQUEST, new byte[2 * MessageBatcher.CHUNK_LENGTH]);
+        messageBatcher.send(ctx, messageSerializer.serialize(ctx, large));
+        channel.runPendingTasks();
+
+        List<ByteBuf> frames = receive(channel);
+        Assert.assertEquals(1, frames.size());
+        Assert.assertFalse(MessageBatcher.isChunk(frames.get(0)));
+        frames.get(0).release();
+    }
+
+    @Test
+    public void invalidChunkTest() throws Exception {
+        EmbeddedChannel channel = newChannel(Message.HEADER_VERSION_CHUNKED);
+        ChannelHandlerContext ctx = channel.pipeline().lastContext();
+
+        Message message = Message.builder(MessageType.CHUNK, new byte[] {0, 0, 1, 0});
+        message.setResult(MessageBatcher.RECEIVE_WINDOW);
+        ByteBuf frame = messageSerializer.serialize(ctx, message);
+        try {
+            messageBatcher.unchunk(ctx, frame, received -> Assert.fail());
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            Assert.assertEquals(0, frame.refCnt());
+        }
+
+        // the last chunk completes a frame of another length than its length field
+        message.setResult(0);
+        frame = messageSerializer.serialize(ctx, message);
+        try {
+            messageBatcher.unchunk(ctx, frame, received -> Assert.fail());
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            Assert.assertEquals(0, frame.refCnt());
+        }
+    }
+
+    @Test
+    public void frameLimitTest() throws Exception {
+        EmbeddedChannel channel = new EmbeddedChannel(new P2PFrameDecoder());
+        int length = P2PFrameDecoder.MAX_FRAME_LENGTH + 1;
+
+        // accepted until the peer sends chunks
+        ByteBuf frame = channel.alloc().buffer(length);
+        frame.writeInt(length).writeZero(length - Message.LENGTH_FIELD_LENGTH);
+        Assert.assertTrue(channel.writeInbound(frame));
+        ((ByteBuf) channel.readInbound()).release();
+
+        Message chunk = Message.builder(MessageType.CHUNK, new byte[] {1});
+        Assert.assertTrue(
+                channel.writeInbound(
+                        messageSerializer.serialize(
+                                channel.alloc(), chunk, Message.HEADER_VERSION_CHUNKED)));
+        ((ByteBuf) channel.readInbound()).release();
+
+        try {
+            channel.writeInbound(channel.alloc().buffer(4).writeInt(length));
+            Assert.fail();
+        } catch (DecoderException e) {
+            Assert.assertTrue(e.getMessage().contains("exceeds"));
+        }
+    }
+}
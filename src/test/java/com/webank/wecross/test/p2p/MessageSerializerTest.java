@@ -0,0 +1,394 @@
+package com.webank.wecross.test.p2p;
+
+import com.webank.wecross.network.NetworkMessageCodec;
+import com.webank.wecross.network.NetworkResponse;
+import com.webank.wecross.network.p2p.netty.HeartBeatProcessor;
+import com.webank.wecross.network.p2p.netty.MessageType;
+import com.webank.wecross.network.p2p.netty.common.Node;
+import com.webank.wecross.network.p2p.netty.common.Utils;
+import com.webank.wecross.network.p2p.netty.message.MessageCallBack;
+import com.webank.wecross.network.p2p.netty.message.processor.Processor;
+import com.webank.wecross.network.p2p.netty.message.proto.Message;
+import com.webank.wecross.network.p2p.netty.message.serialize.CompressionStats;
+import com.webank.wecross.network.p2p.netty.message.serialize.MessageSerializer;
+import com.webank.wecross.peer.PeerInfoMessageData;
+import com.webank.wecross.stub.ResourceInfo;
+import com.webank.wecross.utils.core.SeqUtils;
+import com.webank.wecross.zone.ChainInfo;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MessageSerializerTest {
+    private ByteBufAllocator allocator = PooledByteBufAllocator.DEFAULT;
+    private MessageSerializer messageSerializer = new MessageSerializer();
+
+    private byte[] newData(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+
+    /** Copy an outbound frame into one buffer, like the frame decoder hands it over */
+    private ByteBuf receive(ByteBuf frame) {
+        ByteBuf received = allocator.directBuffer(frame.readableBytes());
+        received.writeBytes(frame);
+        frame.release();
+        return received;
+    }
+
+    @Test
+    public void serializeTest() throws Exception {
+        for (int size : new int[] {0, 1024}) {
+            for (int headerVersion = Message.HEADER_VERSION_LEGACY;
+                    headerVersion <= Message.HEADER_VERSION;
+                    ++headerVersion) {
+                serializeTest(size, headerVersion);
+            }
+        }
+
+        Message message = Message.builder(MessageType.HEARTBEAT);
+        message.setLegacySeq("short");
+        try {
+            messageSerializer.serialize(allocator, message, Message.HEADER_VERSION_LEGACY);
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private void serializeTest(int size, int headerVersion) throws Exception {
+        boolean compact = headerVersion >= Message.HEADER_VERSION_COMPACT;
+        Message message = Message.builder(MessageType.RESOURCE_REQUEST, newData(size));
+        message.setResult(7);
+
+        ByteBuf frame = receive(messageSerializer.serialize(allocator, message, headerVersion));
+        Assert.assertEquals(
+                (compact ? Message.COMPACT_HEADER_LENGTH : Message.HEADER_LENGTH) + size,
+                frame.readableBytes());
+
+        Message result = messageSerializer.deserialize(frame);
+        Assert.assertEquals(frame.capacity(), result.getLength());
+        Assert.assertEquals(message.getType(), result.getType());
+        Assert.assertEquals(message.getSeq(), result.getSeq());
+        Assert.assertNull(result.getLegacySeq());
+        Assert.assertEquals(message.getResult(), result.getResult());
+        Assert.assertEquals(size, result.getDataLength());
+
+        // forwarded as received
+        ByteBuf forwarded = messageSerializer.serialize(allocator, result, headerVersion);
+        Assert.assertEquals(frame.capacity(), forwarded.readableBytes());
+        forwarded.release();
+
+        // the body is a slice of the frame, it keeps the frame alive
+        frame.release();
+        Assert.assertEquals(1, frame.refCnt());
+        Assert.assertArrayEquals(message.getData(), result.getData());
+        result.release();
+        Assert.assertEquals(0, frame.refCnt());
+        Assert.assertArrayEquals(message.getData(), result.getData());
+    }
+
+    @Test
+    public void legacySeqTest() throws Exception {
+        // a request from an older peer is answered with its own seq
+        String uuid = "a3c1e2f0b4d5467889abcdef01234567";
+        ByteBuf frame = allocator.directBuffer();
+        frame.writeInt(Message.HEADER_LENGTH + 1);
+        frame.writeShort(MessageType.RESOURCE_REQUEST);
+        frame.writeCharSequence(uuid, StandardCharsets.US_ASCII);
+        frame.writeInt(0);
+        frame.writeByte(1);
+
+        Message request = messageSerializer.deserialize(frame);
+        frame.release();
+        request.release();
+        Assert.assertEquals(uuid, request.getLegacySeq());
+        Assert.assertEquals(0, request.getSeq());
+
+        Message response = new Message(request.getSeq());
+        response.setLegacySeq(request.getLegacySeq());
+        frame = messageSerializer.serialize(allocator, response, Message.HEADER_VERSION_LEGACY);
+        Assert.assertEquals(
+                uuid,
+                frame.toString(
+                        Message.LENGTH_FIELD_LENGTH + Message.TYPE_FIELD_LENGTH,
+                        Message.SEQ_FIELD_LENGTH,
+                        StandardCharsets.US_ASCII));
+        frame.release();
+
+        // numeric seqs in the legacy header are zero padded hex
+        Message message = new Message(0x0123456789abcdefL);
+        frame = messageSerializer.serialize(allocator, message, Message.HEADER_VERSION_LEGACY);
+        Assert.assertEquals(
+                "00000000000000000123456789abcdef",
+                frame.toString(
+                        Message.LENGTH_FIELD_LENGTH + Message.TYPE_FIELD_LENGTH,
+                        Message.SEQ_FIELD_LENGTH,
+                        StandardCharsets.US_ASCII));
+        Message result = messageSerializer.deserialize(frame);
+        frame.release();
+        result.release();
+        Assert.assertEquals(message.getSeq(), result.getSeq());
+        Assert.assertNull(result.getLegacySeq());
+
+        message = new Message(-1);
+        frame = messageSerializer.serialize(allocator, message, Message.HEADER_VERSION_LEGACY);
+        result = messageSerializer.deserialize(frame);
+        frame.release();
+        result.release();
+        Assert.assertEquals(-1, result.getSeq());
+    }
+
+    @Test
+    public void headerVersionTest() throws Exception {
+        EmbeddedChannel channel = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+        Assert.assertEquals(
+                Message.HEADER_VERSION_LEGACY, MessageSerializer.getHeaderVersion(channel));
+
+        // heartbeats announce the version in the result, older peers send 0
+        Message heartBeat = new Message();
+        heartBeat.setResult(Message.HEADER_VERSION + 1);
+        new HeartBeatProcessor().process(channel.pipeline().firstContext(), null, heartBeat);
+        Assert.assertEquals(Message.HEADER_VERSION, MessageSerializer.getHeaderVersion(channel));
+
+        heartBeat.setResult(0);
+        new HeartBeatProcessor().process(channel.pipeline().firstContext(), null, heartBeat);
+        Assert.assertEquals(
+                Message.HEADER_VERSION_LEGACY, MessageSerializer.getHeaderVersion(channel));
+    }
+
+    @Test
+    public void onMessageReleaseTest() throws Exception {
+        AtomicReference<Message> received = new AtomicReference<>();
+        MessageCallBack messageCallBack = new MessageCallBack();
+        messageCallBack.setProcessor(
+                MessageType.RESOURCE_REQUEST,
+                new Processor() {
+                    @Override
+                    public String name() {
+                        return "test";
+                    }
+
+                    @Override
+                    public void process(ChannelHandlerContext ctx, Node node, Message message) {
+                        message.getData();
+                        received.set(message);
+                    }
+                });
+
+        byte[] data = newData(100);
+        ByteBuf frame =
+                receive(
+                        messageSerializer.serialize(
+                                allocator,
+                                Message.builder(MessageType.RESOURCE_REQUEST, data),
+                                Message.HEADER_VERSION));
+        messageCallBack.onMessage(null, null, frame);
+        Assert.assertEquals(0, frame.refCnt());
+        Assert.assertArrayEquals(data, received.get().getData());
+
+        // unknown or broken frames are released too
+        frame =
+                receive(
+                        messageSerializer.serialize(
+                                allocator,
+                                Message.builder(MessageType.HEARTBEAT, data),
+                                Message.HEADER_VERSION_LEGACY));
+        messageCallBack.onMessage(null, null, frame);
+        Assert.assertEquals(0, frame.refCnt());
+
+        frame = allocator.directBuffer(8);
+        frame.writeInt(1000);
+        messageCallBack.onMessage(null, null, frame);
+        Assert.assertEquals(0, frame.refCnt());
+    }
+
+    /** A requestPeerInfo answer of a router with many chains */
+    private byte[] newPeerInfoResponse(int chains) throws Exception {
+        Map<String, ChainInfo> chainInfos = new HashMap<>();
+        for (int i = 0; i < chains; ++i) {
+            List<ResourceInfo> resources = new ArrayList<>();
+            for (int j = 0; j < 10; ++j) {
+                ResourceInfo resourceInfo = new ResourceInfo();
+                resourceInfo.setName("HelloWorld" + j);
+                resourceInfo.setStubType("BCOS2.0");
+                resourceInfo.setChecksum(Integer.toHexString(i * 31 + j));
+                resources.add(resourceInfo);
+            }
+            ChainInfo chainInfo = new ChainInfo();
+            chainInfo.setZone("payment");
+            chainInfo.setName("bcos" + i);
+            chainInfo.setStubType("BCOS2.0");
+            chainInfo.setResources(resources);
+            chainInfos.put("payment.bcos" + i, chainInfo);
+        }
+        PeerInfoMessageData data = new PeerInfoMessageData();
+        data.setSeq(1);
+        data.setChainInfos(chainInfos);
+
+        NetworkResponse<Object> response = new NetworkResponse<>();
+        response.setSeq(1);
+        response.setData(data);
+        return new NetworkMessageCodec().encodeResponse(response, NetworkMessageCodec.CODEC_BINARY);
+    }
+
+    @Test
+    public void compressionTest() throws Exception {
+        EmbeddedChannel channel = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+        ChannelHandlerContext ctx = channel.pipeline().firstContext();
+        byte[] data = newPeerInfoResponse(100);
+        Message message = Message.builder(MessageType.RESOURCE_RESPONSE, data);
+
+        // not before the peer announces it
+        MessageSerializer.setHeaderVersion(channel, Message.HEADER_VERSION_COMPACT);
+        ByteBuf frame = messageSerializer.serialize(ctx, message);
+        Assert.assertEquals(Message.COMPACT_HEADER_LENGTH + data.length, frame.readableBytes());
+        frame.release();
+
+        MessageSerializer.setHeaderVersion(channel, Message.HEADER_VERSION);
+        int rounds = 16;
+        int compressedLength = 0;
+        for (int i = 0; i < rounds; ++i) {
+            frame = receive(messageSerializer.serialize(ctx, message));
+            compressedLength = frame.readableBytes();
+            Message result = messageSerializer.deserialize(ctx, frame);
+            frame.release();
+            Assert.assertEquals(0, frame.refCnt());
+            Assert.assertEquals(message.getSeq(), result.getSeq());
+            Assert.assertEquals(MessageType.RESOURCE_RESPONSE.shortValue(), result.getType());
+            Assert.assertArrayEquals(data, result.getData());
+            Assert.assertEquals(data.length, result.getDataLength());
+        }
+        Assert.assertTrue(compressedLength * 4 < data.length);
+
+        CompressionStats stats = MessageSerializer.getCompressionStats(channel);
+        Assert.assertEquals(rounds, stats.getCompressedMessages());
+        Assert.assertEquals(rounds, stats.getDecompressedMessages());
+        Assert.assertTrue(stats.getSentRatio() < 0.25);
+        Assert.assertEquals(stats.getSentRatio(), stats.getReceivedRatio(), 0.0001);
+        Assert.assertTrue(stats.getSavedBytes() > (long) rounds * data.length / 2);
+
+        // small messages are sent as they are
+        message = Message.builder(MessageType.RESOURCE_RESPONSE, Arrays.copyOf(data, 100));
+        frame = messageSerializer.serialize(ctx, message);
+        Assert.assertEquals(Message.COMPACT_HEADER_LENGTH + 100, frame.readableBytes());
+        frame.release();
+
+        // corrupted data is rejected without leaking the frame
+        frame = receive(messageSerializer.serialize(ctx, Message.builder((short) 1, data)));
+        frame.setByte(frame.writerIndex() - 1, frame.getByte(frame.writerIndex() - 1) + 1);
+        frame.setByte(frame.writerIndex() - 20, frame.getByte(frame.writerIndex() - 20) + 1);
+        try {
+            messageSerializer.deserialize(ctx, frame);
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        frame.release();
+        Assert.assertEquals(0, frame.refCnt());
+    }
+
+    /**
+     * Framing as it was: a serializer per message, a growing buffer, copies on read and a new UUID
+     * for every message
+     */
+    private static class LegacySerializer {
+        ByteBuf serialize(ByteBufAllocator allocator, Message message) {
+            ByteBuf out = allocator.buffer();
+            out.writeInt(Message.HEADER_LENGTH + message.getData().length);
+            out.writeShort(message.getType());
+            out.writeBytes(Utils.newUUID().getBytes(), 0, 32);
+            out.writeInt(message.getResult());
+            out.writeBytes(message.getData());
+            return out;
+        }
+
+        Message deserialize(ByteBuf in) throws Exception {
+            Integer length = in.readInt();
+            Short type = in.readShort();
+            byte[] dst = new byte[32];
+            in.readBytes(dst);
+            String seq = new String(dst, "utf-8");
+            Integer result = in.readInt();
+
+            Utils.newUUID();
+            Message message = new Message(0);
+            message.setLegacySeq(seq);
+            message.setType(type);
+            message.setResult(result);
+            byte[] data = new byte[length - Message.HEADER_LENGTH];
+            in.readBytes(data);
+            message.setData(data);
+            return message;
+        }
+    }
+
+    private interface Framing {
+        void roundTrip(Message message) throws Exception;
+    }
+
+    /** @return heap bytes allocated per round trip */
+    private long allocated(Framing framing, Message message, int rounds) throws Exception {
+        com.sun.management.ThreadMXBean threadMXBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+
+        long allocated = threadMXBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < rounds; ++i) {
+            framing.roundTrip(message);
+        }
+        return (threadMXBean.getThreadAllocatedBytes(threadId) - allocated) / rounds;
+    }
+
+    @Test
+    public void allocationTest() throws Exception {
+        int rounds = 20000;
+        for (int size : new int[] {0, 1024, 16 * 1024}) {
+            Message message = Message.builder(MessageType.RESOURCE_REQUEST, newData(size));
+
+            // send a frame and read the body of the received copy
+            Framing legacy =
+                    m -> {
+                        ByteBuf frame = receive(new LegacySerializer().serialize(allocator, m));
+                        new LegacySerializer().deserialize(frame).getData();
+                        frame.release();
+                    };
+            Framing pooled =
+                    m -> {
+                        m.setSeq(SeqUtils.newLongSeq());
+                        ByteBuf frame =
+                                receive(
+                                        messageSerializer.serialize(
+                                                allocator, m, Message.HEADER_VERSION_COMPACT));
+                        Message received = messageSerializer.deserialize(frame);
+                        frame.release();
+                        received.getData();
+                        received.release();
+                    };
+
+            // warm up
+            allocated(legacy, message, rounds);
+            allocated(pooled, message, rounds);
+
+            // frames are pooled, the body is copied to the heap once when read
+            long pooledAllocated = allocated(pooled, message, rounds);
+            Assert.assertTrue(pooledAllocated < allocated(legacy, message, rounds));
+            Assert.assertTrue(pooledAllocated < size + 1024);
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package com.webank.wecross.test.p2p;
+
+import com.webank.wecross.network.NettyTransport;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.ssl.ClientAuth;
+import io.netty.handler.ssl.JdkSslContext;
+import io.netty.handler.ssl.OpenSsl;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.handler.ssl.SslProvider;
+import java.net.InetSocketAddress;
+import java.security.Provider;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import javax.net.ssl.SSLContext;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.core.io.ClassPathResource;
+
+public class NettyTransportTest {
+    private static final int MESSAGE_LENGTH = 64 * 1024;
+
+    private NettyTransport newTransport(String transport, String sslProvider) {
+        NettyTransport nettyTransport = new NettyTransport();
+        nettyTransport.setTransport(transport);
+        nettyTransport.setSslProvider(sslProvider);
+        nettyTransport.setIoThreads(2);
+        return nettyTransport;
+    }
+
+    @Test
+    public void isEpollTest() throws Exception {
+        Assert.assertFalse(newTransport(NettyTransport.NIO, NettyTransport.JDK).isEpoll());
+        Assert.assertEquals(
+                NioSocketChannel.class,
+                newTransport(NettyTransport.NIO, NettyTransport.JDK).getChannelClass());
+
+        // auto and explicit choices fall back when the native libraries are missing
+        for (String transport : new String[] {NettyTransport.AUTO, NettyTransport.EPOLL}) {
+            NettyTransport nettyTransport = newTransport(transport, NettyTransport.JDK);
+            Assert.assertEquals(Epoll.isAvailable(), nettyTransport.isEpoll());
+            Assert.assertEquals(
+                    Epoll.isAvailable() ? EpollSocketChannel.class : NioSocketChannel.class,
+                    nettyTransport.getChannelClass());
+        }
+    }
+
+    @Test
+    public void getSslProviderTypeTest() throws Exception {
+        Assert.assertEquals(
+                SslProvider.JDK,
+                newTransport(NettyTransport.NIO, NettyTransport.JDK).getSslProviderType());
+
+        for (String sslProvider : new String[] {NettyTransport.AUTO, NettyTransport.OPENSSL}) {
+            Assert.assertEquals(
+                    OpenSsl.isAvailable() ? SslProvider.OPENSSL : SslProvider.JDK,
+                    newTransport(NettyTransport.NIO, sslProvider).getSslProviderType());
+        }
+    }
+
+    private SslContextBuilder newServerBuilder() throws Exception {
+        return SslContextBuilder.forServer(
+                        new ClassPathResource("p2p/ssl.crt").getInputStream(),
+                        new ClassPathResource("p2p/ssl.key").getInputStream())
+                .trustManager(new ClassPathResource("p2p/ca.crt").getInputStream())
+                .clientAuth(ClientAuth.REQUIRE);
+    }
+
+    private SslContextBuilder newClientBuilder() throws Exception {
+        return SslContextBuilder.forClient()
+                .trustManager(new ClassPathResource("p2p/ca.crt").getInputStream())
+                .keyManager(
+                        new ClassPathResource("p2p/ssl.crt").getInputStream(),
+                        new ClassPathResource("p2p/ssl.key").getInputStream());
+    }
+
+    /** OpenSSL is picked whatever the libraries, its builds fail on a JCA provider set */
+    private static class OpenSslTransport extends NettyTransport {
+        @Override
+        public SslProvider getSslProviderType() {
+            return SslProvider.OPENSSL;
+        }
+    }
+
+    @Test
+    public void buildSslContextTest() throws Exception {
+        NettyTransport transport = newTransport(NettyTransport.NIO, NettyTransport.AUTO);
+        SslContext serverContext = transport.buildSslContext(newServerBuilder());
+        SslContext clientContext = transport.buildSslContext(newClientBuilder());
+        Assert.assertTrue(serverContext.isServer());
+        Assert.assertTrue(clientContext.isClient());
+        Assert.assertEquals(
+                transport.getSslProviderType() == SslProvider.JDK,
+                serverContext instanceof JdkSslContext);
+        Assert.assertEquals(
+                transport.getSslProviderType() == SslProvider.JDK,
+                clientContext instanceof JdkSslContext);
+
+        transport = newTransport(NettyTransport.NIO, NettyTransport.JDK);
+        Assert.assertTrue(transport.buildSslContext(newServerBuilder()) instanceof JdkSslContext);
+        Assert.assertTrue(transport.buildSslContext(newClientBuilder()) instanceof JdkSslContext);
+    }
+
+    @Test
+    public void buildSslContextFallbackTest() throws Exception {
+        NettyTransport transport = new OpenSslTransport();
+        Provider jsse = SSLContext.getDefault().getProvider();
+
+        SslContext serverContext =
+                transport.buildSslContext(newServerBuilder().sslContextProvider(jsse));
+        SslContext clientContext =
+                transport.buildSslContext(newClientBuilder().sslContextProvider(jsse));
+        Assert.assertTrue(serverContext instanceof JdkSslContext);
+        Assert.assertTrue(serverContext.isServer());
+        Assert.assertTrue(clientContext instanceof JdkSslContext);
+        Assert.assertTrue(clientContext.isClient());
+    }
+
+    /** Counts the bytes received, and answers a byte once all of them are */
+    private static class Sink extends ChannelInboundHandlerAdapter {
+        private long received = 0;
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            ByteBuf buffer = (ByteBuf) msg;
+            received += buffer.readableBytes();
+            buffer.release();
+            if (received == MESSAGE_LENGTH) {
+                ctx.writeAndFlush(ctx.alloc().buffer(1).writeByte(1));
+            }
+        }
+    }
+
+    @Test
+    public void handshakeTest() throws Exception {
+        NettyTransport transport = newTransport(NettyTransport.AUTO, NettyTransport.AUTO);
+        SslContext serverContext = transport.buildSslContext(newServerBuilder());
+        SslContext clientContext = transport.buildSslContext(newClientBuilder());
+        try {
+            Channel server =
+                    new ServerBootstrap()
+                            .group(transport.getBossGroup(), transport.getWorkerGroup())
+                            .channel(transport.getServerChannelClass())
+                            .childHandler(
+                                    new ChannelInitializer<SocketChannel>() {
+                                        @Override
+                                        protected void initChannel(SocketChannel ch) {
+                                            ch.pipeline()
+                                                    .addLast(
+                                                            serverContext.newHandler(ch.alloc()),
+                                                            new Sink());
+                                        }
+                                    })
+                            .bind("127.0.0.1", 0)
+                            .sync()
+                            .channel();
+            int port = ((InetSocketAddress) server.localAddress()).getPort();
+
+            CompletableFuture<Void> ack = new CompletableFuture<>();
+            Channel channel =
+                    new Bootstrap()
+                            .group(transport.getWorkerGroup())
+                            .channel(transport.getChannelClass())
+                            .handler(
+                                    new ChannelInitializer<SocketChannel>() {
+                                        @Override
+                                        protected void initChannel(SocketChannel ch) {
+                                            ch.pipeline()
+                                                    .addLast(
+                                                            clientContext.newHandler(ch.alloc()),
+                                                            new ChannelInboundHandlerAdapter() {
+                                                                @Override
+                                                                public void channelRead(
+                                                                        ChannelHandlerContext ctx,
+                                                                        Object msg) {
+                                                                    ((ByteBuf) msg).release();
+                                                                    ack.complete(null);
+                                                                }
+                                                            });
+                                        }
+                                    })
+                            .connect("127.0.0.1", port)
+                            .sync()
+                            .channel();
+            Assert.assertTrue(
+                    channel.pipeline()
+                            .get(SslHandler.class)
+                            .handshakeFuture()
+                            .await(10, TimeUnit.SECONDS));
+            Assert.assertTrue(
+                    channel.pipeline().get(SslHandler.class).handshakeFuture().isSuccess());
+
+            ByteBuf buffer = channel.alloc().directBuffer(MESSAGE_LENGTH);
+            buffer.writeZero(MESSAGE_LENGTH);
+            channel.writeAndFlush(buffer).sync();
+            ack.get(10, TimeUnit.SECONDS);
+
+            channel.close().sync();
+            server.close().sync();
+        } finally {
+            transport.shutdown();
+        }
+    }
+}
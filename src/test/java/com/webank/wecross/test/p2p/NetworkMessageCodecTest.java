@@ -0,0 +1,305 @@
+package com.webank.wecross.test.p2p;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.webank.wecross.account.AccountSyncManager;
+import com.webank.wecross.network.NetworkMessage;
+import com.webank.wecross.network.NetworkMessageCodec;
+import com.webank.wecross.network.NetworkResponse;
+import com.webank.wecross.network.p2p.P2PProcessor;
+import com.webank.wecross.network.p2p.netty.common.Node;
+import com.webank.wecross.peer.Peer;
+import com.webank.wecross.peer.PeerInfoMessageData;
+import com.webank.wecross.peer.PeerManager;
+import com.webank.wecross.peer.PeerSeqMessageData;
+import com.webank.wecross.restserver.Versions;
+import com.webank.wecross.stub.ObjectMapperFactory;
+import com.webank.wecross.stub.Request;
+import com.webank.wecross.stub.Response;
+import com.webank.wecross.zone.ChainInfo;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+
+public class NetworkMessageCodecTest {
+    private NetworkMessageCodec codec = new NetworkMessageCodec();
+    private ObjectMapper objectMapper = ObjectMapperFactory.getObjectMapper();
+
+    private NetworkMessage<Request> buildTransactionMessage(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        Request request = Request.newRequest(1, data);
+        request.setPath("payment.bcos.HelloWorld");
+
+        NetworkMessage<Request> message = new NetworkMessage<>();
+        message.setVersion(Versions.currentVersion);
+        message.setMethod("payment/bcos/HelloWorld/transaction");
+        message.newSeq();
+        message.setData(request);
+        return message;
+    }
+
+    private NetworkMessage<Object> buildPeerInfoMessage() {
+        NetworkMessage<Object> message = new NetworkMessage<>();
+        message.setVersion(Versions.currentVersion);
+        message.setMethod("requestPeerInfo");
+        message.newSeq();
+        return message;
+    }
+
+    @Test
+    public void messageTest() throws Exception {
+        NetworkMessage<Request> message = buildTransactionMessage(1024);
+        for (int codecVersion :
+                new int[] {NetworkMessageCodec.CODEC_JSON, NetworkMessageCodec.CODEC_BINARY}) {
+            byte[] content = codec.encodeMessage(message, codecVersion);
+            Assert.assertEquals(
+                    codecVersion == NetworkMessageCodec.CODEC_BINARY,
+                    NetworkMessageCodec.isBinary(content));
+
+            NetworkMessageCodec.DecodedMessage decoded = codec.decodeMessage(content);
+            Assert.assertEquals(codecVersion, decoded.getCodec());
+            Assert.assertEquals(message.getMethod(), decoded.getMethod());
+
+            NetworkMessage<Request> result = decoded.toNetworkMessage(Request.class);
+            Assert.assertEquals(message.getSeq(), result.getSeq());
+            Assert.assertEquals(message.getVersion(), result.getVersion());
+            Assert.assertEquals(message.getData().getType(), result.getData().getType());
+            Assert.assertEquals(message.getData().getPath(), result.getData().getPath());
+            Assert.assertArrayEquals(message.getData().getData(), result.getData().getData());
+            Assert.assertNull(result.getData().getResourceInfo());
+        }
+
+        // JSON stays readable by older versions
+        byte[] json = codec.encodeMessage(message, NetworkMessageCodec.CODEC_JSON);
+        Assert.assertEquals(
+                message.getMethod(),
+                objectMapper.readValue(json, NetworkMessage.class).getMethod());
+
+        // raw bytes instead of base64
+        byte[] binary = codec.encodeMessage(message, NetworkMessageCodec.CODEC_BINARY);
+        Assert.assertTrue(binary.length < 1024 + 128);
+        Assert.assertTrue(json.length > 1024 * 4 / 3);
+    }
+
+    @Test
+    public void responseTest() throws Exception {
+        ChainInfo chainInfo = new ChainInfo();
+        chainInfo.setZone("payment");
+        chainInfo.setName("bcos");
+        chainInfo.setStubType("BCOS2.0");
+        Map<String, ChainInfo> chainInfos = new HashMap<>();
+        chainInfos.put("payment.bcos", chainInfo);
+        PeerInfoMessageData data = new PeerInfoMessageData();
+        data.setSeq(7);
+        data.setChainInfos(chainInfos);
+
+        NetworkResponse<Object> response = new NetworkResponse<>();
+        response.setVersion(Versions.currentVersion);
+        response.setSeq(100);
+        response.setErrorCode(0);
+        response.setMessage("request requestPeerInfo success");
+        response.setData(data);
+
+        Response stubResponse = new Response();
+        stubResponse.setErrorCode(1);
+        stubResponse.setErrorMessage("failed");
+        stubResponse.setData("result".getBytes(StandardCharsets.UTF_8));
+
+        for (int codecVersion :
+                new int[] {NetworkMessageCodec.CODEC_JSON, NetworkMessageCodec.CODEC_BINARY}) {
+            NetworkResponse<Object> result =
+                    codec.decodeResponse(
+                            codec.encodeResponse(response, codecVersion),
+                            new TypeReference<NetworkResponse<PeerInfoMessageData>>() {});
+            Assert.assertEquals(100, result.getSeq());
+            Assert.assertEquals(response.getMessage(), result.getMessage());
+            PeerInfoMessageData resultData = (PeerInfoMessageData) result.getData();
+            Assert.assertEquals(7, resultData.getSeq());
+            Assert.assertEquals("bcos", resultData.getChainInfos().get("payment.bcos").getName());
+
+            response.setData(stubResponse);
+            result =
+                    codec.decodeResponse(
+                            codec.encodeResponse(response, codecVersion),
+                            new TypeReference<NetworkResponse<Response>>() {});
+            Response resultResponse = (Response) result.getData();
+            Assert.assertEquals(1, resultResponse.getErrorCode());
+            Assert.assertEquals("failed", resultResponse.getErrorMessage());
+            Assert.assertArrayEquals(stubResponse.getData(), resultResponse.getData());
+            response.setData(data);
+        }
+    }
+
+    @Test
+    public void negotiateTest() throws Exception {
+        Node node = new Node();
+        node.setNodeID("123456");
+        Peer peer = new Peer(node);
+        PeerManager peerManager = Mockito.mock(PeerManager.class);
+        Mockito.when(peerManager.getPeerInfo(node)).thenReturn(peer);
+        Mockito.when(peerManager.hasPeerChanged(ArgumentMatchers.any(), ArgumentMatchers.anyInt()))
+                .thenReturn(false);
+        AccountSyncManager accountSyncManager = Mockito.mock(AccountSyncManager.class);
+        Mockito.when(
+                        accountSyncManager.hasPeerChanged(
+                                ArgumentMatchers.any(), ArgumentMatchers.anyInt()))
+                .thenReturn(false);
+
+        P2PProcessor p2pProcessor = new P2PProcessor();
+        p2pProcessor.setPeerManager(peerManager);
+        p2pProcessor.setAccountSyncManager(accountSyncManager);
+
+        // the peer announces the binary codec in its JSON seq message
+        PeerSeqMessageData seqData = new PeerSeqMessageData();
+        seqData.setCodecVersion(NetworkMessageCodec.CODEC_BINARY);
+        NetworkMessage<Object> seqMessage = new NetworkMessage<>();
+        seqMessage.setVersion(Versions.currentVersion);
+        seqMessage.setMethod("seq");
+        seqMessage.newSeq();
+        seqMessage.setData(seqData);
+        Assert.assertEquals(NetworkMessageCodec.CODEC_JSON, peer.getCodecVersion());
+        p2pProcessor.process(
+                node,
+                codec.encodeMessage(seqMessage, NetworkMessageCodec.CODEC_JSON),
+                responseContent -> {});
+        Assert.assertEquals(NetworkMessageCodec.CODEC_BINARY, peer.getCodecVersion());
+
+        // a binary request is answered in binary
+        NetworkMessage<Object> message = buildPeerInfoMessage();
+        message.setMethod("unknown");
+        AtomicReference<byte[]> response = new AtomicReference<>();
+        p2pProcessor.process(
+                node,
+                codec.encodeMessage(message, NetworkMessageCodec.CODEC_BINARY),
+                response::set);
+        Assert.assertTrue(NetworkMessageCodec.isBinary(response.get()));
+        NetworkResponse<Object> networkResponse =
+                codec.decodeResponse(
+                        response.get(), new TypeReference<NetworkResponse<Object>>() {});
+        Assert.assertEquals(message.getSeq(), networkResponse.getSeq());
+        Assert.assertEquals("Unsupported method: unknown", networkResponse.getMessage());
+
+        // an older peer announces nothing
+        seqMessage.setData(new PeerSeqMessageData());
+        String legacySeq =
+                objectMapper.writeValueAsString(seqMessage).replace(",\"codecVersion\":0", "");
+        Assert.assertFalse(legacySeq.contains("codecVersion"));
+        p2pProcessor.process(
+                node, legacySeq.getBytes(StandardCharsets.UTF_8), responseContent -> {});
+        Assert.assertEquals(NetworkMessageCodec.CODEC_JSON, peer.getCodecVersion());
+    }
+
+    private interface Codec {
+        byte[] encode(NetworkMessage<?> message) throws Exception;
+
+        Object decode(byte[] content) throws Exception;
+    }
+
+    /** Decode as P2PProcessor did before: the envelope, then again with the body type */
+    private Codec legacyCodec(TypeReference<?> typeReference) {
+        return new Codec() {
+            @Override
+            public byte[] encode(NetworkMessage<?> message) throws Exception {
+                return objectMapper.writeValueAsString(message).getBytes();
+            }
+
+            @Override
+            public Object decode(byte[] content) throws Exception {
+                String string = new String(content, "utf-8");
+                objectMapper.readValue(string, NetworkMessage.class).getMethod();
+                return objectMapper.readValue(string, typeReference);
+            }
+        };
+    }
+
+    private Codec newCodec(int codecVersion, Class<?> dataType) {
+        return new Codec() {
+            @Override
+            public byte[] encode(NetworkMessage<?> message) throws Exception {
+                return codec.encodeMessage(message, codecVersion);
+            }
+
+            @Override
+            public Object decode(byte[] content) throws Exception {
+                return codec.decodeMessage(content).toNetworkMessage(dataType);
+            }
+        };
+    }
+
+    private long measure(Codec target, NetworkMessage<?> message, int rounds) throws Exception {
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; ++i) {
+            target.decode(target.encode(message));
+        }
+        return (System.nanoTime() - start) / rounds;
+    }
+
+    @Test
+    public void codecSizeTest() throws Exception {
+        // JSON stays as it was, binary carries transaction data as it is rather than in base64
+        for (int size : new int[] {1024, 16 * 1024}) {
+            NetworkMessage<?> message = buildTransactionMessage(size);
+            int legacy =
+                    legacyCodec(new TypeReference<NetworkMessage<Request>>() {})
+                            .encode(message)
+                            .length;
+            int json =
+                    newCodec(NetworkMessageCodec.CODEC_JSON, Request.class).encode(message).length;
+            int binary =
+                    newCodec(NetworkMessageCodec.CODEC_BINARY, Request.class)
+                            .encode(message)
+                            .length;
+            Assert.assertEquals(legacy, json);
+            Assert.assertTrue(binary > size);
+            Assert.assertTrue(binary < size + 128);
+            Assert.assertTrue(binary < json);
+        }
+
+        NetworkMessage<?> message = buildPeerInfoMessage();
+        int legacy =
+                legacyCodec(new TypeReference<NetworkMessage<Object>>() {}).encode(message).length;
+        Assert.assertEquals(
+                legacy,
+                newCodec(NetworkMessageCodec.CODEC_JSON, Object.class).encode(message).length);
+        Assert.assertTrue(
+                newCodec(NetworkMessageCodec.CODEC_BINARY, Object.class).encode(message).length
+                        < legacy);
+    }
+
+    @Test
+    @Ignore("benchmark, run by hand")
+    public void codecBenchmark() throws Exception {
+        int rounds = 5000;
+        Object[][] cases = {
+            {"transaction 1KB", buildTransactionMessage(1024), Request.class},
+            {"transaction 16KB", buildTransactionMessage(16 * 1024), Request.class},
+            {"requestPeerInfo", buildPeerInfoMessage(), Object.class}
+        };
+
+        for (Object[] c : cases) {
+            NetworkMessage<?> message = (NetworkMessage<?>) c[1];
+            Class<?> dataType = (Class<?>) c[2];
+            Codec legacy =
+                    legacyCodec(
+                            dataType == Request.class
+                                    ? new TypeReference<NetworkMessage<Request>>() {}
+                                    : new TypeReference<NetworkMessage<Object>>() {});
+            Codec binary = newCodec(NetworkMessageCodec.CODEC_BINARY, dataType);
+
+            // warm up
+            measure(legacy, message, rounds);
+            measure(binary, message, rounds);
+
+            long legacyCost = measure(legacy, message, rounds);
+            Assert.assertTrue((String) c[0], measure(binary, message, rounds) < legacyCost);
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package com.webank.wecross.test.p2p;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.webank.wecross.common.NetworkQueryStatus;
+import com.webank.wecross.network.NetworkMessage;
+import com.webank.wecross.network.NetworkMessageCodec;
+import com.webank.wecross.network.NetworkResponse;
+import com.webank.wecross.network.p2p.P2PProcessor;
+import com.webank.wecross.network.p2p.netty.common.Node;
+import com.webank.wecross.peer.PeerManager;
+import com.webank.wecross.resource.Resource;
+import com.webank.wecross.restserver.Versions;
+import com.webank.wecross.routine.RoutineManager;
+import com.webank.wecross.routine.htlc.HTLCManager;
+import com.webank.wecross.stub.Connection;
+import com.webank.wecross.stub.ObjectMapperFactory;
+import com.webank.wecross.stub.Path;
+import com.webank.wecross.stub.Request;
+import com.webank.wecross.stub.Response;
+import com.webank.wecross.zone.ZoneManager;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+
+public class P2PDispatchTest {
+    private NetworkMessageCodec codec = new NetworkMessageCodec();
+    private ObjectMapper objectMapper = ObjectMapperFactory.getObjectMapper();
+    private List<Path> paths = new ArrayList<>();
+
+    private P2PProcessor newProcessor() throws Exception {
+        Resource resource = Mockito.mock(Resource.class);
+        Mockito.doAnswer(
+                        invocation -> {
+                            Request request = invocation.getArgument(0);
+                            Response response = new Response();
+                            response.setData(request.getData());
+                            ((Connection.Callback) invocation.getArgument(1)).onResponse(response);
+                            return null;
+                        })
+                .when(resource)
+                .onRemoteTransaction(ArgumentMatchers.any(), ArgumentMatchers.any());
+
+        ZoneManager zoneManager = Mockito.mock(ZoneManager.class);
+        Mockito.when(zoneManager.fetchResource(ArgumentMatchers.any()))
+                .thenAnswer(
+                        invocation -> {
+                            paths.add(invocation.getArgument(0));
+                            return resource;
+                        });
+        HTLCManager htlcManager = Mockito.mock(HTLCManager.class);
+        Mockito.when(
+                        htlcManager.filterHTLCResource(
+                                ArgumentMatchers.any(),
+                                ArgumentMatchers.any(),
+                                ArgumentMatchers.any()))
+                .thenReturn(resource);
+        RoutineManager routineManager = Mockito.mock(RoutineManager.class);
+        Mockito.when(routineManager.getHtlcManager()).thenReturn(htlcManager);
+
+        P2PProcessor p2pProcessor = new P2PProcessor();
+        p2pProcessor.setZoneManager(zoneManager);
+        p2pProcessor.setRoutineManager(routineManager);
+        p2pProcessor.setPeerManager(Mockito.mock(PeerManager.class));
+        return p2pProcessor;
+    }
+
+    private NetworkMessage<Request> buildTransactionMessage(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        Request request = Request.newRequest(1, data);
+        request.setPath("payment.bcos.HelloWorld");
+
+        NetworkMessage<Request> message = new NetworkMessage<>();
+        message.setVersion(Versions.currentVersion);
+        message.setMethod("payment/bcos/HelloWorld/transaction");
+        message.newSeq();
+        message.setData(request);
+        return message;
+    }
+
+    private NetworkResponse<Object> process(P2PProcessor p2pProcessor, byte[] content)
+            throws Exception {
+        AtomicReference<byte[]> responseContent = new AtomicReference<>();
+        p2pProcessor.process(new Node("node", "127.0.0.1", 25500), content, responseContent::set);
+        return codec.decodeResponse(
+                responseContent.get(), new TypeReference<NetworkResponse<Response>>() {});
+    }
+
+    @Test
+    public void dispatchTest() throws Exception {
+        P2PProcessor p2pProcessor = newProcessor();
+        NetworkMessage<Request> message = buildTransactionMessage(64);
+
+        // the route is parsed once, every request gets a path of its own
+        for (int i = 0; i < 2; ++i) {
+            NetworkResponse<Object> response =
+                    process(
+                            p2pProcessor,
+                            codec.encodeMessage(message, NetworkMessageCodec.CODEC_JSON));
+            Assert.assertEquals(NetworkQueryStatus.SUCCESS, (int) response.getErrorCode());
+            Assert.assertEquals(message.getSeq(), response.getSeq());
+            Assert.assertArrayEquals(
+                    message.getData().getData(), ((Response) response.getData()).getData());
+        }
+        Assert.assertEquals(2, paths.size());
+        Assert.assertEquals(Path.decode("payment.bcos.HelloWorld"), paths.get(0));
+        Assert.assertNotSame(paths.get(0), paths.get(1));
+
+        // data ahead of the method is bound once the method is known
+        String json = objectMapper.writeValueAsString(message);
+        JsonNode root = objectMapper.readTree(json);
+        String reordered =
+                "{\"data\":"
+                        + root.get("data")
+                        + ",\"version\":\""
+                        + message.getVersion()
+                        + "\",\"seq\":"
+                        + message.getSeq()
+                        + ",\"method\":\""
+                        + message.getMethod()
+                        + "\"}";
+        NetworkResponse<Object> response =
+                process(p2pProcessor, reordered.getBytes(StandardCharsets.UTF_8));
+        Assert.assertEquals(NetworkQueryStatus.SUCCESS, (int) response.getErrorCode());
+        Assert.assertArrayEquals(
+                message.getData().getData(), ((Response) response.getData()).getData());
+
+        // data not of the type of the method fails the request, not the parser
+        String invalid = json.replace(root.get("data").toString(), "[1,2]");
+        response = process(p2pProcessor, invalid.getBytes(StandardCharsets.UTF_8));
+        Assert.assertEquals(NetworkQueryStatus.INTERNAL_ERROR, (int) response.getErrorCode());
+
+        // methods of neither form
+        message.setMethod("payment/bcos");
+        response =
+                process(p2pProcessor, codec.encodeMessage(message, NetworkMessageCodec.CODEC_JSON));
+        Assert.assertEquals(NetworkQueryStatus.INTERNAL_ERROR, (int) response.getErrorCode());
+        Assert.assertTrue(response.getMessage().contains("invalid method"));
+    }
+
+    /** Decode and route as P2PProcessor did before: a tree, split method, bind from the tree */
+    private Object legacyDispatch(byte[] content) throws Exception {
+        JsonNode root = objectMapper.readTree(content);
+        String[] r = root.get("method").asText().split("/");
+        Path path = new Path();
+        path.setZone(r[0]);
+        path.setChain(r[1]);
+        path.setResource(r[2]);
+        return objectMapper.treeToValue(root.get("data"), Request.class);
+    }
+
+    /** Decode and route as P2PProcessor does: one pass binding the data, a table of paths */
+    private Object dispatch(byte[] content, Map<String, Path> routes) throws Exception {
+        NetworkMessageCodec.DecodedMessage message =
+                codec.decodeMessage(
+                        content, method -> routes.containsKey(method) ? Request.class : null);
+        Path path = new Path(routes.get(message.getMethod()));
+        return message.toNetworkMessage(Request.class).getData();
+    }
+
+    private double messagesPerSecond(byte[] content, Map<String, Path> routes, int rounds)
+            throws Exception {
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; ++i) {
+            if (routes == null) {
+                legacyDispatch(content);
+            } else {
+                dispatch(content, routes);
+            }
+        }
+        return rounds * 1e9 / (System.nanoTime() - start);
+    }
+
+    @Test
+    public void legacyDispatchTest() throws Exception {
+        Map<String, Path> routes = new HashMap<>();
+        routes.put("payment/bcos/HelloWorld/transaction", Path.decode("payment.bcos.HelloWorld"));
+
+        // bound in one pass, the request is the one bound from the tree
+        for (int size : new int[] {0, 256, 4096}) {
+            byte[] content =
+                    codec.encodeMessage(
+                            buildTransactionMessage(size), NetworkMessageCodec.CODEC_JSON);
+            Request request = (Request) dispatch(content, routes);
+            Request legacy = (Request) legacyDispatch(content);
+            Assert.assertEquals(size, request.getData().length);
+            Assert.assertArrayEquals(legacy.getData(), request.getData());
+            Assert.assertEquals(legacy.getPath(), request.getPath());
+        }
+    }
+
+    @Test
+    @Ignore("benchmark, run by hand")
+    public void dispatchBenchmark() throws Exception {
+        Map<String, Path> routes = new HashMap<>();
+        routes.put("payment/bcos/HelloWorld/transaction", Path.decode("payment.bcos.HelloWorld"));
+        int rounds = 20000;
+
+        for (int size : new int[] {256, 4096}) {
+            byte[] content =
+                    codec.encodeMessage(
+                            buildTransactionMessage(size), NetworkMessageCodec.CODEC_JSON);
+
+            // warm up
+            messagesPerSecond(content, null, rounds);
+            messagesPerSecond(content, routes, rounds);
+
+            Assert.assertTrue(
+                    messagesPerSecond(content, routes, rounds)
+                            > messagesPerSecond(content, null, rounds));
+        }
+    }
+}
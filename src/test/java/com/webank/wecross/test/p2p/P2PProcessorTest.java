@@ -1,9 +1,25 @@
 package com.webank.wecross.test.p2p;
 
+import com.webank.wecross.config.ResourceThreadPoolConfig;
 import com.webank.wecross.network.p2p.P2PProcessor;
 import com.webank.wecross.network.p2p.netty.common.Node;
 import com.webank.wecross.peer.Peer;
+import com.webank.wecross.peer.PeerInfoMessageData;
+import com.webank.wecross.stub.ObjectMapperFactory;
+import com.webank.wecross.stub.Path;
+import com.webank.wecross.stub.ResourceInfo;
+import com.webank.wecross.stubmanager.MemoryBlockManagerFactory;
+import com.webank.wecross.stubmanager.StubManager;
+import com.webank.wecross.zone.Chain;
+import com.webank.wecross.zone.ChainInfo;
+import com.webank.wecross.zone.ZoneManager;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Assert;
 import org.junit.Test;
+import org.mockito.Mockito;
 
 public class P2PProcessorTest {
     @Test
@@ -18,4 +34,149 @@ public class P2PProcessorTest {
         // NetworkResponse<Object> response = p2pProcessor.onStatusMessage(peer, method,
         // p2pRequestString);
     }
+
+    private ChainInfo newChainInfo(String name, int resources) {
+        ChainInfo chainInfo = new ChainInfo();
+        chainInfo.setZone("payment");
+        chainInfo.setName(name);
+        chainInfo.setStubType("test");
+        chainInfo.setChecksum("chainChecksum-" + name);
+        chainInfo.setProperties(new HashMap<>());
+        chainInfo.setResources(new ArrayList<>());
+        for (int i = 0; i < resources; ++i) {
+            ResourceInfo resourceInfo = new ResourceInfo();
+            resourceInfo.setName("contract" + i);
+            resourceInfo.setStubType("test");
+            chainInfo.getResources().add(resourceInfo);
+        }
+        return chainInfo;
+    }
+
+    private ZoneManager.LocalChains newLocalChains(int seq, Map<String, ChainInfo> chainInfos) {
+        Map<String, String> chainDigests = new HashMap<>();
+        for (Map.Entry<String, ChainInfo> entry : chainInfos.entrySet()) {
+            chainDigests.put(entry.getKey(), entry.getValue().buildDigest());
+        }
+
+        ZoneManager.LocalChains localChains = Mockito.mock(ZoneManager.LocalChains.class);
+        Mockito.when(localChains.getSeq()).thenReturn(seq);
+        Mockito.when(localChains.getChainInfos()).thenReturn(chainInfos);
+        Mockito.when(localChains.getChainDigests()).thenReturn(chainDigests);
+        return localChains;
+    }
+
+    private P2PProcessor newRequester() throws Exception {
+        StubManager stubManager = Mockito.mock(StubManager.class);
+        Mockito.when(stubManager.getStubDriver(Mockito.anyString())).thenReturn(null);
+
+        ZoneManager zoneManager = new ZoneManager();
+        zoneManager.setStubManager(stubManager);
+        zoneManager.setMemoryBlockManagerFactory(
+                new MemoryBlockManagerFactory(
+                        new ResourceThreadPoolConfig.ResourceThreadPool(10, 10, 200)));
+
+        P2PProcessor p2pProcessor = new P2PProcessor();
+        p2pProcessor.setZoneManager(zoneManager);
+        return p2pProcessor;
+    }
+
+    @Test
+    public void chainDigestTest() throws Exception {
+        ChainInfo chainInfo = newChainInfo("bcos", 3);
+        ChainInfo reordered = newChainInfo("bcos", 3);
+        Collections.reverse(reordered.getResources());
+        Assert.assertNotNull(chainInfo.buildDigest());
+        Assert.assertEquals(chainInfo.buildDigest(), reordered.buildDigest());
+
+        reordered.getProperties().put("key", "value");
+        Assert.assertNotEquals(chainInfo.buildDigest(), reordered.buildDigest());
+    }
+
+    @Test
+    public void peerInfoDeltaTest() throws Exception {
+        P2PProcessor responder = new P2PProcessor();
+        P2PProcessor requester = newRequester();
+        ZoneManager zoneManager = requester.getZoneManager();
+        Peer peer = new Peer(new Node("aaa", "127.0.0.1", 100));
+
+        // the first request knows no digests and gets all chains
+        Map<String, ChainInfo> chains = new HashMap<>();
+        for (int i = 0; i < 100; ++i) {
+            chains.put("payment.bcos" + i, newChainInfo("bcos" + i, 20));
+        }
+        ZoneManager.LocalChains localChains = newLocalChains(1, chains);
+        Map<String, String> knownDigests = peer.getChainDigests();
+        PeerInfoMessageData data = responder.buildPeerInfoDelta(localChains, knownDigests);
+        Assert.assertTrue(data.isDelta());
+        Assert.assertEquals(100, data.getChainInfos().size());
+        Assert.assertTrue(data.getRemovedChains().isEmpty());
+        int fullLength = ObjectMapperFactory.getObjectMapper().writeValueAsBytes(data).length;
+
+        Assert.assertTrue(requester.updatePeerChains(peer, data, knownDigests));
+        Assert.assertEquals(1, peer.getSeq());
+        Assert.assertEquals(100, zoneManager.getAllChainsInfo(false).size());
+        Assert.assertEquals(localChains.getChainDigests(), peer.getChainDigests());
+
+        // one chain updated, one removed and one added
+        chains = new HashMap<>(chains);
+        chains.put("payment.bcos0", newChainInfo("bcos0", 21));
+        chains.remove("payment.bcos1");
+        chains.put("payment.bcos100", newChainInfo("bcos100", 20));
+        localChains = newLocalChains(2, chains);
+        knownDigests = peer.getChainDigests();
+        data = responder.buildPeerInfoDelta(localChains, knownDigests);
+        Assert.assertEquals(2, data.getChainInfos().size());
+        Assert.assertTrue(data.getChainInfos().containsKey("payment.bcos0"));
+        Assert.assertTrue(data.getChainInfos().containsKey("payment.bcos100"));
+        Assert.assertEquals(Collections.singletonList("payment.bcos1"), data.getRemovedChains());
+        int deltaLength = ObjectMapperFactory.getObjectMapper().writeValueAsBytes(data).length;
+        // a fraction of the full peer info, about the 3 chains of 100 it carries
+        Assert.assertTrue(deltaLength * 10 < fullLength);
+
+        Assert.assertTrue(requester.updatePeerChains(peer, data, knownDigests));
+        Assert.assertEquals(2, peer.getSeq());
+        Assert.assertEquals(100, zoneManager.getAllChainsInfo(false).size());
+        Assert.assertNull(zoneManager.getChain(Path.decode("payment.bcos1")));
+        Chain updated = zoneManager.getChain(Path.decode("payment.bcos0"));
+        Assert.assertEquals(21, updated.getResources().size());
+        Assert.assertTrue(updated.getPeers().contains(peer));
+        Assert.assertEquals(localChains.getChainDigests(), peer.getChainDigests());
+        Assert.assertEquals(localChains.getChainInfos().keySet(), peer.getChainInfos().keySet());
+
+        // nothing changed, only the seq is taken
+        localChains = newLocalChains(3, chains);
+        knownDigests = peer.getChainDigests();
+        data = responder.buildPeerInfoDelta(localChains, knownDigests);
+        Assert.assertTrue(data.getChainInfos().isEmpty());
+        Assert.assertTrue(data.getRemovedChains().isEmpty());
+        Assert.assertFalse(requester.updatePeerChains(peer, data, knownDigests));
+        Assert.assertEquals(3, peer.getSeq());
+
+        // a delta against digests replaced meanwhile is dropped
+        Map<String, String> outdatedDigests = new HashMap<>(peer.getChainDigests());
+        chains = new HashMap<>(chains);
+        chains.remove("payment.bcos2");
+        data = responder.buildPeerInfoDelta(newLocalChains(4, chains), outdatedDigests);
+        Assert.assertFalse(requester.updatePeerChains(peer, data, outdatedDigests));
+        Assert.assertEquals(3, peer.getSeq());
+        Assert.assertNotNull(zoneManager.getChain(Path.decode("payment.bcos2")));
+    }
+
+    @Test
+    public void olderPeerInfoTest() throws Exception {
+        P2PProcessor requester = newRequester();
+        Peer peer = new Peer(new Node("aaa", "127.0.0.1", 100));
+
+        // older versions answer with all chains and no digests
+        Map<String, ChainInfo> chains = new HashMap<>();
+        chains.put("payment.bcos0", newChainInfo("bcos0", 2));
+        PeerInfoMessageData data = new PeerInfoMessageData();
+        data.setSeq(1);
+        data.setChainInfos(chains);
+
+        Assert.assertTrue(requester.updatePeerChains(peer, data, peer.getChainDigests()));
+        Assert.assertEquals(1, peer.getSeq());
+        Assert.assertTrue(peer.getChainDigests().isEmpty());
+        Assert.assertEquals(1, requester.getZoneManager().getAllChainsInfo(false).size());
+    }
 }
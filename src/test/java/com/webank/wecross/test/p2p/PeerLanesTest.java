@@ -0,0 +1,228 @@
+package com.webank.wecross.test.p2p;
+
+import com.webank.wecross.network.NetworkProcessor;
+import com.webank.wecross.network.p2p.netty.HeartBeatProcessor;
+import com.webank.wecross.network.p2p.netty.MessageType;
+import com.webank.wecross.network.p2p.netty.NettyBootstrap;
+import com.webank.wecross.network.p2p.netty.NettyService;
+import com.webank.wecross.network.p2p.netty.RequestProcessor;
+import com.webank.wecross.network.p2p.netty.ResponseProcessor;
+import com.webank.wecross.network.p2p.netty.SeqMapper;
+import com.webank.wecross.network.p2p.netty.common.Node;
+import com.webank.wecross.network.p2p.netty.factory.NettyBootstrapFactory;
+import com.webank.wecross.network.p2p.netty.factory.NettyServiceFactory;
+import com.webank.wecross.network.p2p.netty.factory.P2PConfig;
+import com.webank.wecross.network.p2p.netty.factory.ThreadPoolTaskExecutorFactory;
+import com.webank.wecross.network.p2p.netty.message.MessageCallBack;
+import com.webank.wecross.network.p2p.netty.request.Request;
+import com.webank.wecross.network.p2p.netty.response.Response;
+import com.webank.wecross.network.p2p.netty.response.ResponseCallBack;
+import com.webank.wecross.network.p2p.netty.response.StatusCode;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import java.net.ServerSocket;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+/** Two routers in one process, connected over loopback TLS */
+public class PeerLanesTest {
+    private static final int CHANNELS_PER_PEER = 3;
+    private static final byte[] BULK_REQUEST = "bulk".getBytes();
+    private static final byte[] BULK_RESPONSE = new byte[4 * 1024 * 1024];
+
+    static {
+        new Random(0).nextBytes(BULK_RESPONSE);
+    }
+
+    private int freePort() throws Exception {
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            return serverSocket.getLocalPort();
+        }
+    }
+
+    private NettyService newRouter(int port, String peer) throws Exception {
+        P2PConfig config = new P2PConfig();
+        config.setListenIP("127.0.0.1");
+        config.setListenPort(port);
+        config.setCaCert(new ClassPathResource("p2p/ca.crt"));
+        config.setSslCert(new ClassPathResource("p2p/ssl.crt"));
+        config.setSslKey(new ClassPathResource("p2p/ssl.key"));
+        config.setPeers(peer == null ? Collections.emptyList() : Arrays.asList(peer));
+        config.setChannelsPerPeer(CHANNELS_PER_PEER);
+
+        SeqMapper seqMapper = new SeqMapper();
+        ThreadPoolTaskExecutor threadPool =
+                ThreadPoolTaskExecutorFactory.build(8L, 10000L, "lanes-" + port + "-");
+
+        // a peer-info like response for bulk requests, an echo for the others
+        RequestProcessor requestProcessor = new RequestProcessor();
+        requestProcessor.setNetworkProcessor(
+                (Node node, byte[] content, NetworkProcessor.Callback callback) ->
+                        callback.onResponse(
+                                Arrays.equals(BULK_REQUEST, content) ? BULK_RESPONSE : content));
+        ResponseProcessor responseProcessor = new ResponseProcessor();
+        responseProcessor.setSeqMapper(seqMapper);
+
+        MessageCallBack messageCallBack = new MessageCallBack();
+        messageCallBack.setSeqMapper(seqMapper);
+        messageCallBack.setProcessor(MessageType.HEARTBEAT, new HeartBeatProcessor());
+        messageCallBack.setProcessor(MessageType.RESOURCE_REQUEST, requestProcessor);
+        messageCallBack.setProcessor(MessageType.RESOURCE_RESPONSE, responseProcessor);
+
+        NettyBootstrap bootstrap = NettyBootstrapFactory.build(config, threadPool, messageCallBack);
+        NettyService nettyService = NettyServiceFactory.build(seqMapper, threadPool, bootstrap);
+        nettyService.start();
+        return nettyService;
+    }
+
+    private Request newRequest(byte[] content, boolean control) {
+        Request request = new Request();
+        request.setType(MessageType.RESOURCE_REQUEST);
+        request.setContent(content);
+        request.setControl(control);
+        return request;
+    }
+
+    private Node waitForLanes(NettyService router, String peer) throws Exception {
+        for (int i = 0; i < 200; ++i) {
+            String nodeID = router.getConnections().getHost2NodeID().get(peer);
+            if (nodeID != null
+                    && router.getConnections().getChannelHandlers(nodeID).size()
+                            == CHANNELS_PER_PEER
+                    && router.getConnections().getDataChannelHandler(nodeID)
+                            != router.getConnections().getChannelHandler(nodeID)) {
+                String[] ipPort = peer.split(":");
+                return new Node(nodeID, ipPort[0], Integer.parseInt(ipPort[1]));
+            }
+            router.getInitializer().connectLanes();
+            Thread.sleep(100);
+        }
+        throw new AssertionError("lanes to " + peer + " not connected");
+    }
+
+    /** Count the bytes written to the channel */
+    private void countWrites(ChannelHandlerContext ctx, AtomicLong written) {
+        ctx.pipeline()
+                .addFirst(
+                        new ChannelOutboundHandlerAdapter() {
+                            @Override
+                            public void write(
+                                    ChannelHandlerContext ctx, Object msg, ChannelPromise promise)
+                                    throws Exception {
+                                if (msg instanceof ByteBuf) {
+                                    written.addAndGet(((ByteBuf) msg).readableBytes());
+                                }
+                                super.write(ctx, msg, promise);
+                            }
+                        });
+    }
+
+    /**
+     * @return rounds in which a small request sent right after a bulk one on the control lane is
+     *     answered before the bulk response is complete
+     */
+    private int overtakes(NettyService router, Node node, boolean control, int rounds)
+            throws Exception {
+        int overtakes = 0;
+        for (int i = 0; i < rounds; ++i) {
+            CountDownLatch bulkDone = new CountDownLatch(1);
+            router.asyncSendRequest(
+                    node,
+                    newRequest(BULK_REQUEST, true),
+                    new ResponseCallBack() {
+                        @Override
+                        public void onResponse(Response response) {
+                            bulkDone.countDown();
+                        }
+
+                        @Override
+                        public boolean needOnResponse() {
+                            return true;
+                        }
+                    });
+
+            byte[] content = ("transaction " + i).getBytes();
+            Response response = router.sendRequest(node, newRequest(content, control));
+            Assert.assertEquals(StatusCode.SUCCESS, response.getErrorCode());
+            Assert.assertArrayEquals(content, response.getContent());
+            if (bulkDone.getCount() > 0) {
+                ++overtakes;
+            }
+            Assert.assertTrue(bulkDone.await(10, TimeUnit.SECONDS));
+        }
+        return overtakes;
+    }
+
+    @Test
+    public void mixedTrafficTest() throws Exception {
+        int serverPort = freePort();
+        String server = "127.0.0.1:" + serverPort;
+        NettyService serverRouter = newRouter(serverPort, null);
+        NettyService clientRouter = newRouter(freePort(), server);
+
+        Node node = waitForLanes(clientRouter, server);
+        ChannelHandlerContext control =
+                clientRouter.getConnections().getChannelHandler(node.getNodeID());
+        // the server registers the last lane once its side of the handshake is done
+        for (int i = 0;
+                i < 100
+                        && serverRouter.getConnections().activeChannelHandlers().size()
+                                < CHANNELS_PER_PEER;
+                ++i) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(
+                CHANNELS_PER_PEER, serverRouter.getConnections().activeChannelHandlers().size());
+
+        AtomicLong dataLaneWritten = new AtomicLong();
+        for (ChannelHandlerContext ctx :
+                clientRouter.getConnections().getChannelHandlers(node.getNodeID())) {
+            if (ctx != control) {
+                countWrites(ctx, dataLaneWritten);
+            }
+        }
+
+        int rounds = 20;
+        // sent in chunks, a bulk response holds up neither lane until it is complete
+        Assert.assertTrue(overtakes(clientRouter, node, true, rounds) > rounds / 2);
+        Assert.assertEquals(0, dataLaneWritten.get());
+        // and transactions are routed to a data lane
+        Assert.assertTrue(overtakes(clientRouter, node, false, rounds) > rounds / 2);
+        Assert.assertTrue(dataLaneWritten.get() > 0);
+
+        // a lost data lane leaves the peer connected on the others
+        ChannelHandlerContext dataLaneCtx =
+                clientRouter.getConnections().getDataChannelHandler(node.getNodeID());
+        dataLaneCtx.close().sync();
+        for (int i = 0;
+                i < 100
+                        && clientRouter
+                                .getConnections()
+                                .getChannelHandlers(node.getNodeID())
+                                .contains(dataLaneCtx);
+                ++i) {
+            Thread.sleep(10);
+        }
+        Assert.assertFalse(
+                clientRouter
+                        .getConnections()
+                        .getChannelHandlers(node.getNodeID())
+                        .contains(dataLaneCtx));
+        Assert.assertSame(
+                control, clientRouter.getConnections().getChannelHandler(node.getNodeID()));
+        Response response = clientRouter.sendRequest(node, newRequest("after".getBytes(), false));
+        Assert.assertEquals(StatusCode.SUCCESS, response.getErrorCode());
+
+        clientRouter.getInitializer().removeConfiguredPeer(server);
+    }
+}
@@ -0,0 +1,196 @@
+package com.webank.wecross.test.p2p;
+
+import com.webank.wecross.network.NetworkProcessor;
+import com.webank.wecross.network.p2p.netty.HeartBeatProcessor;
+import com.webank.wecross.network.p2p.netty.MessageType;
+import com.webank.wecross.network.p2p.netty.NettyBootstrap;
+import com.webank.wecross.network.p2p.netty.NettyService;
+import com.webank.wecross.network.p2p.netty.PeerLatency;
+import com.webank.wecross.network.p2p.netty.RequestProcessor;
+import com.webank.wecross.network.p2p.netty.ResponseProcessor;
+import com.webank.wecross.network.p2p.netty.SeqMapper;
+import com.webank.wecross.network.p2p.netty.common.Node;
+import com.webank.wecross.network.p2p.netty.factory.NettyBootstrapFactory;
+import com.webank.wecross.network.p2p.netty.factory.NettyServiceFactory;
+import com.webank.wecross.network.p2p.netty.factory.P2PConfig;
+import com.webank.wecross.network.p2p.netty.factory.ThreadPoolTaskExecutorFactory;
+import com.webank.wecross.network.p2p.netty.message.MessageCallBack;
+import com.webank.wecross.network.p2p.netty.request.Request;
+import com.webank.wecross.network.p2p.netty.response.Response;
+import com.webank.wecross.network.p2p.netty.response.StatusCode;
+import java.net.ServerSocket;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+/** Two routers in one process, the server delays some responses */
+public class PeerLatencyTest {
+    private static final long DELAY_MS = 1500;
+
+    private ScheduledExecutorService delayer = Executors.newSingleThreadScheduledExecutor();
+    // contents answered late the first time only
+    private Set<String> delayedOnce = ConcurrentHashMap.newKeySet();
+    // copies of each content the server received
+    private Map<String, AtomicInteger> received = new ConcurrentHashMap<>();
+
+    private int freePort() throws Exception {
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            return serverSocket.getLocalPort();
+        }
+    }
+
+    private NettyService newRouter(int port, String peer) throws Exception {
+        P2PConfig config = new P2PConfig();
+        config.setListenIP("127.0.0.1");
+        config.setListenPort(port);
+        config.setCaCert(new ClassPathResource("p2p/ca.crt"));
+        config.setSslCert(new ClassPathResource("p2p/ssl.crt"));
+        config.setSslKey(new ClassPathResource("p2p/ssl.key"));
+        config.setPeers(peer == null ? Collections.emptyList() : Arrays.asList(peer));
+
+        SeqMapper seqMapper = new SeqMapper();
+        ThreadPoolTaskExecutor threadPool =
+                ThreadPoolTaskExecutorFactory.build(8L, 10000L, "latency-" + port + "-");
+
+        // an echo, late and marked so for contents starting with slow, and the first time for hedge
+        RequestProcessor requestProcessor = new RequestProcessor();
+        requestProcessor.setNetworkProcessor(
+                (Node node, byte[] content, NetworkProcessor.Callback callback) -> {
+                    String text = new String(content);
+                    received.computeIfAbsent(text, key -> new AtomicInteger()).incrementAndGet();
+                    if (text.startsWith("slow")
+                            || (text.startsWith("hedge") && delayedOnce.add(text))) {
+                        delayer.schedule(
+                                () -> callback.onResponse(("late " + text).getBytes()),
+                                DELAY_MS,
+                                TimeUnit.MILLISECONDS);
+                    } else {
+                        callback.onResponse(content);
+                    }
+                });
+        ResponseProcessor responseProcessor = new ResponseProcessor();
+        responseProcessor.setSeqMapper(seqMapper);
+
+        MessageCallBack messageCallBack = new MessageCallBack();
+        messageCallBack.setSeqMapper(seqMapper);
+        messageCallBack.setProcessor(MessageType.HEARTBEAT, new HeartBeatProcessor());
+        messageCallBack.setProcessor(MessageType.RESOURCE_REQUEST, requestProcessor);
+        messageCallBack.setProcessor(MessageType.RESOURCE_RESPONSE, responseProcessor);
+
+        NettyBootstrap bootstrap = NettyBootstrapFactory.build(config, threadPool, messageCallBack);
+        NettyService nettyService = NettyServiceFactory.build(seqMapper, threadPool, bootstrap);
+        nettyService.start();
+        return nettyService;
+    }
+
+    private Request newRequest(String content, boolean idempotent) {
+        Request request = new Request();
+        request.setType(MessageType.RESOURCE_REQUEST);
+        request.setContent(content.getBytes());
+        request.setIdempotent(idempotent);
+        return request;
+    }
+
+    private Node waitForPeer(NettyService router, String peer) throws Exception {
+        for (int i = 0; i < 200; ++i) {
+            String nodeID = router.getConnections().getHost2NodeID().get(peer);
+            if (nodeID != null && router.getConnections().getDataChannelHandler(nodeID) != null) {
+                String[] ipPort = peer.split(":");
+                return new Node(nodeID, ipPort[0], Integer.parseInt(ipPort[1]));
+            }
+            Thread.sleep(100);
+        }
+        throw new AssertionError(peer + " not connected");
+    }
+
+    @Test
+    public void adaptiveTimeoutTest() throws Exception {
+        int serverPort = freePort();
+        String server = "127.0.0.1:" + serverPort;
+        newRouter(serverPort, null);
+        NettyService clientRouter = newRouter(freePort(), server);
+        Node node = waitForPeer(clientRouter, server);
+        PeerLatency peerLatency = clientRouter.getPeerLatency(node.getNodeID());
+
+        // the configured timeout until enough round trips are known
+        Assert.assertEquals(60000, peerLatency.getTimeout(PeerLatency.IDEMPOTENT, 60000));
+        for (int i = 0; i < 64; ++i) {
+            Response response = clientRouter.sendRequest(node, newRequest("call " + i, true));
+            Assert.assertEquals(StatusCode.SUCCESS, response.getErrorCode());
+            response = clientRouter.sendRequest(node, newRequest("transaction " + i, false));
+            Assert.assertEquals(StatusCode.SUCCESS, response.getErrorCode());
+        }
+        Assert.assertTrue(peerLatency.getTimeout(PeerLatency.IDEMPOTENT, 60000) < 60000);
+        // transactions are not sent again, they wait as long as configured
+        Assert.assertEquals(60000, peerLatency.getTimeout(PeerLatency.TRANSACTION, 60000));
+
+        // so a transaction far slower than the others is answered, and sent once
+        Response response = clientRouter.sendRequest(node, newRequest("slow transaction", false));
+        Assert.assertEquals(StatusCode.SUCCESS, response.getErrorCode());
+        Assert.assertArrayEquals("late slow transaction".getBytes(), response.getContent());
+        Assert.assertEquals(1, received.get("slow transaction").get());
+
+        // a call answered late is hedged to the peer, the second copy answers
+        response = clientRouter.sendRequest(node, newRequest("hedge call", true));
+        Assert.assertEquals(StatusCode.SUCCESS, response.getErrorCode());
+        Assert.assertArrayEquals("hedge call".getBytes(), response.getContent());
+        Assert.assertEquals(2, received.get("hedge call").get());
+
+        clientRouter.getInitializer().removeConfiguredPeer(server);
+    }
+
+    @Test
+    public void percentileTest() throws Exception {
+        PeerLatency peerLatency = new PeerLatency();
+        for (int i = 0; i < 31; ++i) {
+            peerLatency.record(PeerLatency.IDEMPOTENT, 500 * 1000);
+        }
+        Assert.assertEquals(-1, peerLatency.getP99(PeerLatency.IDEMPOTENT));
+        Assert.assertEquals(60000, peerLatency.getTimeout(PeerLatency.IDEMPOTENT, 60000));
+
+        peerLatency.record(PeerLatency.IDEMPOTENT, 500 * 1000);
+        Assert.assertEquals(500 * 1000, peerLatency.getP99(PeerLatency.IDEMPOTENT));
+        Assert.assertEquals(2000, peerLatency.getTimeout(PeerLatency.IDEMPOTENT, 60000));
+        Assert.assertEquals(1500, peerLatency.getTimeout(PeerLatency.IDEMPOTENT, 1500));
+        // the other classes are apart
+        Assert.assertEquals(60000, peerLatency.getTimeout(PeerLatency.CONTROL, 60000));
+        for (int i = 0; i < 32; ++i) {
+            peerLatency.record(PeerLatency.TRANSACTION, 500 * 1000);
+        }
+        Assert.assertEquals(500 * 1000, peerLatency.getP99(PeerLatency.TRANSACTION));
+        Assert.assertEquals(60000, peerLatency.getTimeout(PeerLatency.TRANSACTION, 60000));
+
+        // fast round trips are given the least timeout
+        for (int i = 0; i < 512; ++i) {
+            peerLatency.record(PeerLatency.IDEMPOTENT, 100);
+        }
+        Assert.assertEquals(
+                PeerLatency.MIN_TIMEOUT_MS, peerLatency.getTimeout(PeerLatency.IDEMPOTENT, 60000));
+    }
+
+    @Test
+    public void retryBudgetTest() throws Exception {
+        PeerLatency peerLatency = new PeerLatency();
+        for (int i = 0; i < PeerLatency.MAX_SAVED_RETRIES; ++i) {
+            Assert.assertTrue(peerLatency.tryRetry());
+        }
+        Assert.assertFalse(peerLatency.tryRetry());
+
+        // ten requests earn one retry
+        for (int i = 0; i < PeerLatency.REQUESTS_PER_RETRY; ++i) {
+            peerLatency.onRequest();
+        }
+        Assert.assertTrue(peerLatency.tryRetry());
+        Assert.assertFalse(peerLatency.tryRetry());
+    }
+}
@@ -0,0 +1,64 @@
+package com.webank.wecross.test.p2p;
+
+import com.webank.wecross.network.p2p.netty.SeqMapper;
+import com.webank.wecross.utils.core.SeqUtils;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SeqMapperTest {
+    @Test
+    public void seqMapperTest() throws Exception {
+        SeqMapper seqMapper = new SeqMapper();
+        long[] seqs = new long[1000];
+        for (int i = 0; i < seqs.length; ++i) {
+            seqs[i] = SeqUtils.newLongSeq();
+            seqMapper.add(seqs[i], i);
+        }
+        seqMapper.add(-1, "negative");
+        Assert.assertEquals(seqs.length + 1, seqMapper.size());
+
+        for (int i = 0; i < seqs.length; ++i) {
+            Assert.assertEquals(i, seqMapper.get(seqs[i]));
+            Assert.assertEquals(i, seqMapper.getAndRemove(seqs[i]));
+            Assert.assertNull(seqMapper.getAndRemove(seqs[i]));
+        }
+        Assert.assertEquals("negative", seqMapper.get(-1));
+        seqMapper.remove(-1);
+        Assert.assertEquals(0, seqMapper.size());
+    }
+
+    @Test
+    public void concurrentTest() throws Throwable {
+        SeqMapper seqMapper = new SeqMapper();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; ++i) {
+            threads[i] =
+                    new Thread(
+                            () -> {
+                                try {
+                                    for (int j = 0; j < 100000; ++j) {
+                                        long seq = SeqUtils.newLongSeq();
+                                        seqMapper.add(seq, seq);
+                                        Assert.assertEquals(seq, seqMapper.getAndRemove(seq));
+                                    }
+                                } catch (Throwable e) {
+                                    failure.compareAndSet(null, e);
+                                }
+                            });
+        }
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        // failed asserts in the workers only end their own thread, rethrow the first one here
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+        Assert.assertEquals(0, seqMapper.size());
+    }
+}
@@ -0,0 +1,196 @@
+package com.webank.wecross.test.resource;
+
+import com.webank.wecross.common.NetworkQueryStatus;
+import com.webank.wecross.network.NetworkCallback;
+import com.webank.wecross.network.NetworkMessage;
+import com.webank.wecross.network.NetworkResponse;
+import com.webank.wecross.network.p2p.P2PService;
+import com.webank.wecross.network.p2p.netty.common.Node;
+import com.webank.wecross.peer.Peer;
+import com.webank.wecross.remote.RemoteConnection;
+import com.webank.wecross.remote.RemoteConnectionGroup;
+import com.webank.wecross.resource.Resource;
+import com.webank.wecross.stub.Connection;
+import com.webank.wecross.stub.Request;
+import com.webank.wecross.stub.Response;
+import com.webank.wecross.stub.StubQueryStatus;
+import io.netty.util.HashedWheelTimer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class RemoteConnectionGroupTest {
+    private ScheduledExecutorService delayer = Executors.newSingleThreadScheduledExecutor();
+    // how each peer answers, a status and a delay in ms
+    private Map<Peer, int[]> answers = new ConcurrentHashMap<>();
+    private Map<Peer, AtomicInteger> asked = new ConcurrentHashMap<>();
+
+    private P2PService newP2PService() {
+        P2PService p2PService = Mockito.mock(P2PService.class);
+        Mockito.doAnswer(
+                        invocation -> {
+                            Peer peer = invocation.getArgument(0);
+                            NetworkCallback<Response> callback = invocation.getArgument(2);
+                            asked.computeIfAbsent(peer, key -> new AtomicInteger())
+                                    .incrementAndGet();
+
+                            int[] answer = answers.get(peer);
+                            Response response = new Response();
+                            response.setErrorCode(StubQueryStatus.SUCCESS);
+                            response.setErrorMessage(peer.getNode().getNodeID());
+                            NetworkResponse<Response> networkResponse = new NetworkResponse<>();
+                            networkResponse.setData(response);
+                            Runnable respond =
+                                    () ->
+                                            callback.onResponse(
+                                                    answer[0],
+                                                    "status " + answer[0],
+                                                    networkResponse);
+                            if (answer[1] > 0) {
+                                delayer.schedule(respond, answer[1], TimeUnit.MILLISECONDS);
+                            } else {
+                                respond.run();
+                            }
+                            return null;
+                        })
+                .when(p2PService)
+                .asyncSendMessage(
+                        Mockito.any(),
+                        Mockito.any(NetworkMessage.class),
+                        Mockito.any(),
+                        Mockito.anyBoolean(),
+                        Mockito.anyBoolean());
+        return p2PService;
+    }
+
+    private RemoteConnection newConnection(P2PService p2PService, String name, int status) {
+        Peer peer = new Peer(new Node(name, "127.0.0.1", 25500));
+        answers.put(peer, new int[] {status, 0});
+
+        RemoteConnection connection = new RemoteConnection();
+        connection.setPeer(peer);
+        connection.setPath("payment.bcos.HelloWorld");
+        connection.setP2PService(p2PService);
+        return connection;
+    }
+
+    private Response send(Connection connection) throws Exception {
+        CompletableFuture<Response> future = new CompletableFuture<>();
+        connection.asyncSend(new Request(), future::complete);
+        return future.get(10, TimeUnit.SECONDS);
+    }
+
+    private int asked(RemoteConnection connection) {
+        AtomicInteger count = asked.get(connection.getPeer());
+        return count == null ? 0 : count.get();
+    }
+
+    @Test
+    public void failoverTest() throws Exception {
+        P2PService p2PService = newP2PService();
+        RemoteConnection down =
+                newConnection(p2PService, "down", NetworkQueryStatus.PEER_UNAVAILABLE);
+        RemoteConnection up = newConnection(p2PService, "up", NetworkQueryStatus.SUCCESS);
+
+        // a transaction not delivered goes to the next peer
+        Connection group = new RemoteConnectionGroup(Arrays.asList(down, up), false, null);
+        Response response = send(group);
+        Assert.assertEquals(StubQueryStatus.SUCCESS, response.getErrorCode());
+        Assert.assertEquals("up", response.getErrorMessage());
+
+        // one that may have been delivered does not
+        answers.get(down.getPeer())[0] = NetworkQueryStatus.INTERNAL_ERROR;
+        response = send(group);
+        Assert.assertEquals(StubQueryStatus.REMOTE_QUERY_FAILED, response.getErrorCode());
+        Assert.assertEquals(1, asked(up));
+
+        // a call does
+        group = new RemoteConnectionGroup(Arrays.asList(down, up), true, null);
+        response = send(group);
+        Assert.assertEquals(StubQueryStatus.SUCCESS, response.getErrorCode());
+        Assert.assertEquals(2, asked(up));
+
+        // no peer left, the last failure is the answer
+        answers.get(up.getPeer())[0] = NetworkQueryStatus.PEER_UNAVAILABLE;
+        response = send(group);
+        Assert.assertEquals(StubQueryStatus.REMOTE_QUERY_FAILED, response.getErrorCode());
+    }
+
+    @Test
+    public void hedgeTest() throws Exception {
+        P2PService p2PService = newP2PService();
+        RemoteConnection slow = newConnection(p2PService, "slow", NetworkQueryStatus.SUCCESS);
+        RemoteConnection fast = newConnection(p2PService, "fast", NetworkQueryStatus.SUCCESS);
+        for (int i = 0; i < 8; ++i) {
+            slow.getPeer().onChainResponse(true, 10 * 1000);
+        }
+        answers.get(slow.getPeer())[1] = 3000;
+
+        HashedWheelTimer timer = new HashedWheelTimer(10, TimeUnit.MILLISECONDS);
+        Connection group = new RemoteConnectionGroup(Arrays.asList(slow, fast), true, timer);
+        // answered by the other peer asked once the first is unusually slow
+        Response response = send(group);
+        Assert.assertEquals("fast", response.getErrorMessage());
+        Assert.assertEquals(1, asked(slow));
+        Assert.assertEquals(1, asked(fast));
+
+        // transactions are not hedged
+        group = new RemoteConnectionGroup(Arrays.asList(slow, fast), false, timer);
+        response = send(group);
+        Assert.assertEquals("slow", response.getErrorMessage());
+        Assert.assertEquals(1, asked(fast));
+        timer.stop();
+    }
+
+    @Test
+    public void scoreTest() throws Exception {
+        P2PService p2PService = newP2PService();
+        Resource resource = new Resource();
+        List<RemoteConnection> connections = new ArrayList<>();
+        for (String name : Arrays.asList("a", "b", "c")) {
+            RemoteConnection connection =
+                    newConnection(p2PService, name, NetworkQueryStatus.SUCCESS);
+            connections.add(connection);
+            resource.addConnection(connection.getPeer(), connection);
+            // known latencies, so a single slow answer does not make a peer look worse
+            for (int i = 0; i < 8; ++i) {
+                connection.getPeer().onChainResponse(true, 1000);
+            }
+        }
+
+        // a failing peer is asked first no more
+        RemoteConnection failing = connections.get(0);
+        answers.get(failing.getPeer())[0] = NetworkQueryStatus.PEER_UNAVAILABLE;
+        for (int i = 0; i < 100; ++i) {
+            Response response = send(resource.chooseConnection());
+            Assert.assertEquals(StubQueryStatus.SUCCESS, response.getErrorCode());
+        }
+        int failingAsked = asked(failing);
+        for (int i = 0; i < 100; ++i) {
+            RemoteConnectionGroup group = (RemoteConnectionGroup) resource.chooseConnection();
+            Assert.assertEquals(3, group.getConnections().size());
+            Assert.assertNotSame(failing.getPeer(), group.getConnections().get(0).getPeer());
+            Assert.assertSame(failing.getPeer(), group.getConnections().get(2).getPeer());
+        }
+        Assert.assertTrue(failingAsked < 50);
+
+        // calls are sent as such
+        RemoteConnectionGroup group = (RemoteConnectionGroup) resource.chooseCallConnection();
+        Assert.assertTrue(group.isIdempotent());
+        Assert.assertTrue(group.getConnections().get(0).isIdempotent());
+        // and hedged by the group alone
+        for (RemoteConnection connection : group.getConnections()) {
+            Assert.assertFalse(connection.isHedge());
+        }
+    }
+}
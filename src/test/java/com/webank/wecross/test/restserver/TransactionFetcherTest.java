@@ -0,0 +1,256 @@
+package com.webank.wecross.test.restserver;
+
+import com.webank.wecross.exception.WeCrossException;
+import com.webank.wecross.restserver.fetcher.TransactionFetcher;
+import com.webank.wecross.restserver.response.CompleteTransactionResponse;
+import com.webank.wecross.restserver.response.TransactionListResponse;
+import com.webank.wecross.stub.Block;
+import com.webank.wecross.stub.BlockHeader;
+import com.webank.wecross.stub.BlockManager;
+import com.webank.wecross.stub.Connection;
+import com.webank.wecross.stub.Driver;
+import com.webank.wecross.stub.Path;
+import com.webank.wecross.stub.Transaction;
+import com.webank.wecross.stub.TransactionResponse;
+import com.webank.wecross.stubmanager.MemoryBlockManager;
+import com.webank.wecross.zone.Chain;
+import com.webank.wecross.zone.ZoneManager;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+
+public class TransactionFetcherTest {
+    private static final long TIP = 10000;
+
+    private ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(8);
+
+    /**
+     * A driver answering after rtt ms, in the caller thread if 0, with one transaction every
+     * sparsity blocks, counting blocks requested and the most requested at once
+     */
+    private Driver mockDriver(
+            long rtt, int sparsity, AtomicInteger getBlockCount, AtomicInteger maxFetching) {
+        AtomicInteger fetching = new AtomicInteger(0);
+        Driver driver = Mockito.mock(Driver.class, Mockito.CALLS_REAL_METHODS);
+        Mockito.doAnswer(
+                        invocation -> {
+                            Driver.GetBlockNumberCallback callback = invocation.getArgument(1);
+                            scheduler.schedule(
+                                    () -> callback.onResponse(null, TIP),
+                                    rtt,
+                                    TimeUnit.MILLISECONDS);
+                            return null;
+                        })
+                .when(driver)
+                .asyncGetBlockNumber(
+                        ArgumentMatchers.any(),
+                        ArgumentMatchers.any(Driver.GetBlockNumberCallback.class));
+        Mockito.doAnswer(
+                        invocation -> {
+                            long blockNumber = invocation.getArgument(0);
+                            Driver.GetBlockCallback callback = invocation.getArgument(3);
+                            getBlockCount.incrementAndGet();
+                            maxFetching.accumulateAndGet(fetching.incrementAndGet(), Math::max);
+
+                            BlockHeader blockHeader = new BlockHeader();
+                            blockHeader.setNumber(blockNumber);
+                            Block block = new Block();
+                            block.setBlockHeader(blockHeader);
+                            if (blockNumber % sparsity == 0) {
+                                block.transactionsHashes.add("0x" + blockNumber);
+                            }
+                            Runnable response =
+                                    () -> {
+                                        fetching.decrementAndGet();
+                                        callback.onResponse(null, block);
+                                    };
+                            if (rtt == 0) {
+                                response.run();
+                            } else {
+                                scheduler.schedule(response, rtt, TimeUnit.MILLISECONDS);
+                            }
+                            return null;
+                        })
+                .when(driver)
+                .asyncGetBlock(
+                        ArgumentMatchers.anyLong(),
+                        ArgumentMatchers.anyBoolean(),
+                        ArgumentMatchers.any(),
+                        ArgumentMatchers.any(Driver.GetBlockCallback.class));
+        return driver;
+    }
+
+    private TransactionFetcher newFetcher(Driver driver) {
+        return newFetcher(driver, null);
+    }
+
+    private TransactionFetcher newFetcher(Driver driver, BlockManager blockManager) {
+        Chain chain = Mockito.mock(Chain.class);
+        Mockito.when(chain.getDriver()).thenReturn(driver);
+        Mockito.when(chain.getBlockManager()).thenReturn(blockManager);
+        Mockito.when(chain.chooseReadConnection()).thenReturn(Mockito.mock(Connection.class));
+        ZoneManager zoneManager = Mockito.mock(ZoneManager.class);
+        Mockito.when(zoneManager.getChain(ArgumentMatchers.any(Path.class))).thenReturn(chain);
+        return new TransactionFetcher(zoneManager, null);
+    }
+
+    private TransactionListResponse fetchPage(TransactionFetcher fetcher, int size)
+            throws Exception {
+        CompletableFuture<TransactionListResponse> future = new CompletableFuture<>();
+        fetcher.asyncFetchTransactionList(
+                Path.decode("payment.bcos"),
+                -1,
+                0,
+                size,
+                (e, response) -> {
+                    if (e != null) {
+                        future.completeExceptionally(e);
+                    } else {
+                        future.complete(response);
+                    }
+                });
+        return future.get(60, TimeUnit.SECONDS);
+    }
+
+    private CompletableFuture<CompleteTransactionResponse> fetchTransaction(
+            TransactionFetcher fetcher, String txHash, Long blockNumber) throws Exception {
+        CompletableFuture<CompleteTransactionResponse> future = new CompletableFuture<>();
+        fetcher.asyncFetchTransaction(
+                Path.decode("payment.bcos"),
+                txHash,
+                blockNumber,
+                (e, response) -> {
+                    if (e != null) {
+                        future.completeExceptionally(e);
+                    } else {
+                        future.complete(response);
+                    }
+                });
+        return future;
+    }
+
+    @Test
+    public void fetchLocalTransactionTest() throws Exception {
+        TransactionResponse transactionResponse = new TransactionResponse();
+        transactionResponse.setHash("0x5");
+        Transaction transaction = new Transaction();
+        transaction.setTransactionResponse(transactionResponse);
+        MemoryBlockManager blockManager = Mockito.mock(MemoryBlockManager.class);
+        Mockito.doAnswer(
+                        invocation -> {
+                            String txHash = invocation.getArgument(0);
+                            MemoryBlockManager.GetLocalTransactionCallback callback =
+                                    invocation.getArgument(2);
+                            if ("0x5".equals(txHash)) {
+                                callback.onResponse(5, transaction);
+                            } else {
+                                callback.onResponse(-1, null);
+                            }
+                            return null;
+                        })
+                .when(blockManager)
+                .asyncGetLocalTransaction(
+                        ArgumentMatchers.any(), ArgumentMatchers.any(), ArgumentMatchers.any());
+        Driver driver = Mockito.mock(Driver.class);
+        TransactionFetcher fetcher = newFetcher(driver, blockManager);
+
+        // a synced transaction is found without its block number
+        CompleteTransactionResponse response =
+                fetchTransaction(fetcher, "0x5", null).get(10, TimeUnit.SECONDS);
+        Assert.assertEquals("0x5", response.getTxHash());
+        Assert.assertEquals(5, response.getBlockNumber());
+
+        // others are asked to the chain, which needs it
+        try {
+            fetchTransaction(fetcher, "0x6", null).get(10, TimeUnit.SECONDS);
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof WeCrossException);
+        }
+        Mockito.verify(driver, Mockito.never())
+                .asyncGetTransaction(
+                        ArgumentMatchers.any(),
+                        ArgumentMatchers.anyLong(),
+                        ArgumentMatchers.any(),
+                        ArgumentMatchers.anyBoolean(),
+                        ArgumentMatchers.any(),
+                        ArgumentMatchers.any());
+    }
+
+    @Test
+    public void fetchTransactionListTest() throws Exception {
+        AtomicInteger getBlockCount = new AtomicInteger(0);
+        TransactionFetcher fetcher =
+                newFetcher(mockDriver(0, 3, getBlockCount, new AtomicInteger(0)));
+
+        TransactionListResponse response = fetchPage(fetcher, 5);
+        Assert.assertEquals(5, response.getTransactions().size());
+        for (int i = 0; i < 5; ++i) {
+            long blockNumber = (TIP / 3 - i) * 3;
+            Assert.assertEquals(blockNumber, response.getTransactions().get(i).getBlockNumber());
+            Assert.assertEquals("0x" + blockNumber, response.getTransactions().get(i).getTxHash());
+        }
+        Assert.assertEquals((TIP / 3 - 4) * 3 - 1, response.getNextBlockNumber());
+        Assert.assertEquals(0, response.getNextOffset());
+
+        // prefetching stays bounded by the window
+        Assert.assertTrue(
+                getBlockCount.get()
+                        <= TIP
+                                - response.getNextBlockNumber()
+                                + TransactionFetcher.DEFAULT_MAX_PREFETCH_WINDOW);
+    }
+
+    @Test
+    public void sparseChainTest() throws Exception {
+        // every block is answered right away, walking them must not nest a call per block
+        AtomicInteger getBlockCount = new AtomicInteger(0);
+        TransactionFetcher fetcher =
+                newFetcher(mockDriver(0, (int) TIP, getBlockCount, new AtomicInteger(0)));
+
+        TransactionListResponse response = fetchPage(fetcher, 2);
+        Assert.assertEquals(2, response.getTransactions().size());
+        Assert.assertEquals(TIP, response.getTransactions().get(0).getBlockNumber());
+        Assert.assertEquals(0, response.getTransactions().get(1).getBlockNumber());
+        Assert.assertEquals(-1, response.getNextBlockNumber());
+        Assert.assertEquals(TIP + 1, getBlockCount.get());
+    }
+
+    @Test
+    public void prefetchWindowTest() throws Exception {
+        int size = 10;
+        long rtt = 20;
+        for (int sparsity : new int[] {1, 4, 16}) {
+            int[] maxFetched = new int[2];
+            for (int window : new int[] {1, TransactionFetcher.DEFAULT_MAX_PREFETCH_WINDOW}) {
+                AtomicInteger getBlockCount = new AtomicInteger(0);
+                AtomicInteger maxFetching = new AtomicInteger(0);
+                TransactionFetcher fetcher =
+                        newFetcher(mockDriver(rtt, sparsity, getBlockCount, maxFetching));
+                fetcher.setMaxPrefetchWindow(window);
+
+                // warm up
+                fetchPage(fetcher, size);
+                maxFetching.set(0);
+
+                TransactionListResponse response = fetchPage(fetcher, size);
+                maxFetched[window == 1 ? 0 : 1] = maxFetching.get();
+                Assert.assertEquals(size, response.getTransactions().size());
+            }
+
+            // one round trip at a time without prefetching, overlapped within the window
+            Assert.assertEquals(1, maxFetched[0]);
+            Assert.assertTrue(maxFetched[1] <= TransactionFetcher.DEFAULT_MAX_PREFETCH_WINDOW);
+            if (sparsity >= 4) {
+                Assert.assertTrue(maxFetched[1] > 1);
+            }
+        }
+    }
+}
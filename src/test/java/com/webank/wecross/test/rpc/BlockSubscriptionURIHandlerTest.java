@@ -0,0 +1,115 @@
+package com.webank.wecross.test.rpc;
+
+import com.webank.wecross.host.WeCrossHost;
+import com.webank.wecross.network.rpc.handler.BlockSubscriptionURIHandler;
+import com.webank.wecross.network.rpc.netty.handler.EventStreamSubscriber;
+import com.webank.wecross.stub.Block;
+import com.webank.wecross.stub.BlockHeader;
+import com.webank.wecross.stubmanager.MemoryBlockManagerFactory;
+import com.webank.wecross.zone.Chain;
+import com.webank.wecross.zone.ZoneManager;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class BlockSubscriptionURIHandlerTest {
+
+    private Block buildBlock(long number) {
+        BlockHeader blockHeader = new BlockHeader();
+        blockHeader.setNumber(number);
+        blockHeader.setHash("0x" + number);
+        Block block = new Block();
+        block.setBlockHeader(blockHeader);
+        return block;
+    }
+
+    private Chain mockChain(String zone, String name) {
+        Chain chain = Mockito.mock(Chain.class);
+        Mockito.when(chain.getZoneName()).thenReturn(zone);
+        Mockito.when(chain.getName()).thenReturn(name);
+        return chain;
+    }
+
+    private BlockSubscriptionURIHandler newHandler(MemoryBlockManagerFactory factory) {
+        ZoneManager zoneManager = Mockito.mock(ZoneManager.class);
+        Mockito.when(zoneManager.getMemoryBlockManagerFactory()).thenReturn(factory);
+        WeCrossHost host = Mockito.mock(WeCrossHost.class);
+        Mockito.when(host.getZoneManager()).thenReturn(zoneManager);
+        Mockito.when(host.getAccountManager()).thenReturn(null);
+        return new BlockSubscriptionURIHandler(host);
+    }
+
+    @Test
+    public void pushBlockTest() throws Exception {
+        MemoryBlockManagerFactory factory = Mockito.mock(MemoryBlockManagerFactory.class);
+        BlockSubscriptionURIHandler handler = newHandler(factory);
+
+        EmbeddedChannel channel = new EmbeddedChannel();
+        handler.handleStream(null, "/sys/subscribeBlocks?paths=payment.bcos", channel, null);
+        Mockito.verify(factory).addBlockSyncListener(handler);
+        Assert.assertEquals(1, handler.getSubscriptionCount());
+
+        HttpResponse response = channel.readOutbound();
+        Assert.assertEquals("text/event-stream", response.headers().get("Content-Type"));
+
+        handler.onBlockSynced(mockChain("payment", "bcos"), buildBlock(100));
+        handler.onBlockSynced(mockChain("payment", "fabric"), buildBlock(200));
+        channel.runPendingTasks();
+
+        HttpContent content = channel.readOutbound();
+        String event = content.content().toString(StandardCharsets.UTF_8);
+        Assert.assertTrue(event.startsWith("event: block\nid: 100\ndata: {"));
+        Assert.assertTrue(event.contains("\"path\":\"payment.bcos\""));
+        Assert.assertTrue(event.endsWith("\n\n"));
+
+        // other chains are filtered out
+        Assert.assertNull(channel.readOutbound());
+
+        channel.close();
+        Assert.assertEquals(0, handler.getSubscriptionCount());
+    }
+
+    @Test
+    public void evictSlowSubscriberTest() throws Exception {
+        BlockSubscriptionURIHandler handler =
+                newHandler(Mockito.mock(MemoryBlockManagerFactory.class));
+        handler.setBufferSize(4);
+
+        EmbeddedChannel fast = new EmbeddedChannel();
+        EmbeddedChannel slow = new EmbeddedChannel();
+        handler.handleStream(null, "/sys/subscribeBlocks", fast, null);
+        handler.handleStream(null, "/sys/subscribeBlocks", slow, null);
+        Assert.assertEquals(2, handler.getSubscriptionCount());
+
+        Chain chain = mockChain("payment", "bcos");
+        for (long i = 0; i < 10; ++i) {
+            handler.onBlockSynced(chain, buildBlock(i));
+            // only the fast subscriber gets its events written
+            fast.runPendingTasks();
+        }
+
+        Assert.assertTrue(fast.isActive());
+        Assert.assertFalse(slow.isActive());
+        Assert.assertEquals(1, handler.getSubscriptionCount());
+
+        fast.readOutbound(); // response header
+        for (long i = 0; i < 10; ++i) {
+            HttpContent content = fast.readOutbound();
+            Assert.assertTrue(
+                    content.content().toString(StandardCharsets.UTF_8).contains("id: " + i + "\n"));
+        }
+    }
+
+    @Test
+    public void encodeTest() throws Exception {
+        Assert.assertEquals(
+                "event: block\nid: 1\ndata: a\ndata: b\n\n",
+                new String(
+                        EventStreamSubscriber.encode("block", "1", "a\nb"),
+                        StandardCharsets.UTF_8));
+    }
+}
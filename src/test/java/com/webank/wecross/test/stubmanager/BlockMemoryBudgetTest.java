@@ -0,0 +1,79 @@
+package com.webank.wecross.test.stubmanager;
+
+import com.webank.wecross.stub.Block;
+import com.webank.wecross.stub.BlockHeader;
+import com.webank.wecross.stubmanager.BlockCache;
+import com.webank.wecross.stubmanager.BlockMemoryBudget;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BlockMemoryBudgetTest {
+
+    public Block buildBlock(long number, int rawSize) {
+        BlockHeader blockHeader = new BlockHeader();
+        blockHeader.setNumber(number);
+        Block block = new Block();
+        block.setBlockHeader(blockHeader);
+        block.setRawBytes(new byte[rawSize]);
+        return block;
+    }
+
+    @Test
+    public void evictAcrossChainsTest() throws Exception {
+        long blockSize = BlockMemoryBudget.sizeOf(buildBlock(0, 1000));
+        BlockMemoryBudget budget = new BlockMemoryBudget(blockSize * 10);
+
+        BlockCache small = new BlockCache("payment.small", 100, budget);
+        BlockCache large = new BlockCache("payment.large", 100, budget);
+        budget.register(small);
+        budget.register(large);
+
+        for (long i = 0; i < 5; ++i) {
+            small.put(buildBlock(i, 1000));
+        }
+        Assert.assertEquals(blockSize * 5, budget.getUsedBytes());
+
+        for (long i = 0; i < 20; ++i) {
+            // keep reading the blocks of the small chain
+            for (long j = 0; j < 5; ++j) {
+                Assert.assertNotNull(small.get(j));
+            }
+            large.put(buildBlock(i, 1000));
+        }
+
+        Assert.assertTrue(budget.getUsedBytes() <= budget.getMaxBytes());
+        Assert.assertEquals(
+                budget.getUsedBytes(),
+                budget.getUsage().get("payment.small") + budget.getUsage().get("payment.large"));
+
+        // frequently read blocks survive, old blocks of the busy chain are evicted first
+        for (long i = 0; i < 5; ++i) {
+            Assert.assertNotNull(small.get(i));
+        }
+        Assert.assertNull(large.get(0));
+        Assert.assertNotNull(large.get(19));
+        Assert.assertEquals(15, budget.getEvictedCount());
+
+        small.clear();
+        large.clear();
+        Assert.assertEquals(0, budget.getUsedBytes());
+    }
+
+    @Test
+    public void overwriteTest() throws Exception {
+        BlockMemoryBudget budget = new BlockMemoryBudget(1024 * 1024);
+        BlockCache cache = new BlockCache("payment.bcos", 4, budget);
+        budget.register(cache);
+
+        for (long i = 0; i < 10000; ++i) {
+            cache.put(buildBlock(i, 10));
+        }
+
+        // the ring keeps the latest 4 blocks, overwritten blocks are released
+        Assert.assertEquals(4, cache.getCount());
+        Assert.assertNull(cache.get(9995));
+        Assert.assertNotNull(cache.get(9996));
+        Assert.assertEquals(cache.getUsedBytes(), budget.getUsedBytes());
+        Assert.assertEquals(0, budget.getEvictedCount());
+    }
+}
@@ -0,0 +1,235 @@
+package com.webank.wecross.test.stubmanager;
+
+import com.webank.wecross.stub.Block;
+import com.webank.wecross.stub.BlockHeader;
+import com.webank.wecross.stub.Connection;
+import com.webank.wecross.stub.Driver;
+import com.webank.wecross.stub.Transaction;
+import com.webank.wecross.stubmanager.FileBlockManager;
+import com.webank.wecross.stubmanager.FileBlockStore;
+import com.webank.wecross.zone.Chain;
+import io.netty.util.HashedWheelTimer;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.stubbing.Answer;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+public class FileBlockStoreTest {
+
+    public Block buildBlock(long number) {
+        BlockHeader blockHeader = new BlockHeader();
+        blockHeader.setNumber(number);
+        blockHeader.setHash("0x" + number);
+        Block block = new Block();
+        block.setBlockHeader(blockHeader);
+        block.setRawBytes(new byte[] {1, 2, (byte) number});
+        block.getTransactionsHashes().add("tx" + number);
+
+        Transaction transaction = new Transaction();
+        transaction.getTransactionResponse().setHash("tx" + number);
+        transaction.getTransactionRequest().getOptions().put("seq", number);
+        block.getTransactionsWithDetail().add(transaction);
+        return block;
+    }
+
+    @Test
+    public void appendAndReadTest() throws Exception {
+        File dir = Files.createTempDirectory("blocks").toFile();
+        FileBlockStore blockStore = new FileBlockStore(dir, 256);
+        blockStore.open();
+        Assert.assertEquals(-1, blockStore.getLastBlockNumber());
+        Assert.assertNull(blockStore.read(0));
+
+        for (long i = 10; i < 50; ++i) {
+            Assert.assertTrue(blockStore.append(buildBlock(i)));
+        }
+        Assert.assertFalse(blockStore.append(buildBlock(20)));
+        try {
+            blockStore.append(buildBlock(60));
+            Assert.fail();
+        } catch (Exception e) {
+            // gap is not allowed
+        }
+
+        Assert.assertEquals(10, blockStore.getFirstBlockNumber());
+        Assert.assertEquals(49, blockStore.getLastBlockNumber());
+        Assert.assertTrue(dir.listFiles((d, name) -> name.endsWith(".log")).length > 1);
+
+        Block block = blockStore.read(33);
+        Assert.assertEquals(33, block.getBlockHeader().getNumber());
+        Assert.assertEquals("0x33", block.getBlockHeader().getHash());
+        Assert.assertArrayEquals(new byte[] {1, 2, 33}, block.getRawBytes());
+        Assert.assertEquals("tx33", block.getTransactionsHashes().get(0));
+        Assert.assertEquals(
+                33L,
+                block.getTransactionsWithDetail()
+                        .get(0)
+                        .getTransactionRequest()
+                        .getOptions()
+                        .get("seq"));
+        blockStore.close();
+
+        // resume
+        blockStore = new FileBlockStore(dir, 256);
+        blockStore.open();
+        Assert.assertEquals(10, blockStore.getFirstBlockNumber());
+        Assert.assertEquals(49, blockStore.getLastBlockNumber());
+        Assert.assertTrue(blockStore.append(buildBlock(50)));
+        Assert.assertEquals(50, blockStore.read(50).getBlockHeader().getNumber());
+        Assert.assertEquals(10, blockStore.read(10).getBlockHeader().getNumber());
+        blockStore.close();
+    }
+
+    @Test
+    public void recoverTest() throws Exception {
+        File dir = Files.createTempDirectory("blocks").toFile();
+        FileBlockStore blockStore = new FileBlockStore(dir, 1024 * 1024);
+        blockStore.open();
+        for (long i = 0; i < 10; ++i) {
+            blockStore.append(buildBlock(i));
+        }
+        blockStore.close();
+
+        // torn write of the last record and a lost index
+        File segment = dir.listFiles((d, name) -> name.endsWith(".log"))[0];
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.setLength(file.length() - 3);
+        }
+        Assert.assertTrue(new File(dir, "index").delete());
+
+        blockStore = new FileBlockStore(dir, 1024 * 1024);
+        blockStore.open();
+        Assert.assertEquals(0, blockStore.getFirstBlockNumber());
+        Assert.assertEquals(8, blockStore.getLastBlockNumber());
+        Assert.assertNull(blockStore.read(9));
+
+        Assert.assertTrue(blockStore.append(buildBlock(9)));
+        Assert.assertEquals("0x9", blockStore.read(9).getBlockHeader().getHash());
+        Assert.assertEquals("0x5", blockStore.read(5).getBlockHeader().getHash());
+        blockStore.close();
+    }
+
+    @Test
+    public void retentionTest() throws Exception {
+        File dir = Files.createTempDirectory("blocks").toFile();
+        FileBlockStore blockStore = new FileBlockStore(dir, 256, 3);
+        blockStore.open();
+        for (long i = 0; i < 100; ++i) {
+            Assert.assertTrue(blockStore.append(buildBlock(i)));
+        }
+
+        // the oldest segments are deleted with their blocks
+        Assert.assertEquals(3, dir.listFiles((d, name) -> name.endsWith(".log")).length);
+        long first = blockStore.getFirstBlockNumber();
+        Assert.assertTrue(first > 0);
+        Assert.assertEquals(99, blockStore.getLastBlockNumber());
+        Assert.assertNull(blockStore.read(first - 1));
+        Assert.assertEquals("0x" + first, blockStore.read(first).getBlockHeader().getHash());
+        blockStore.close();
+        Assert.assertFalse(blockStore.contains(99));
+
+        // resume with the blocks kept
+        blockStore = new FileBlockStore(dir, 256, 3);
+        blockStore.open();
+        Assert.assertEquals(first, blockStore.getFirstBlockNumber());
+        Assert.assertEquals(99, blockStore.getLastBlockNumber());
+        Assert.assertTrue(blockStore.append(buildBlock(100)));
+        for (long i = blockStore.getFirstBlockNumber(); i <= 100; ++i) {
+            Assert.assertEquals("0x" + i, blockStore.read(i).getBlockHeader().getHash());
+        }
+        blockStore.close();
+    }
+
+    @Test
+    public void failedAppendTest() throws Exception {
+        long target = 20;
+        Driver driver = Mockito.mock(Driver.class, Mockito.CALLS_REAL_METHODS);
+        Mockito.doAnswer(
+                        (Answer<Void>)
+                                invocation -> {
+                                    Driver.GetBlockNumberCallback callback =
+                                            invocation.getArgument(1);
+                                    callback.onResponse(null, target);
+                                    return null;
+                                })
+                .when(driver)
+                .asyncGetBlockNumber(Mockito.any(), Mockito.any());
+        Mockito.doAnswer(
+                        (Answer<Void>)
+                                invocation -> {
+                                    long from = invocation.getArgument(0);
+                                    int count = invocation.getArgument(1);
+                                    Driver.GetBlocksCallback callback = invocation.getArgument(4);
+                                    List<Block> blocks = new ArrayList<>();
+                                    for (int i = 0; i < count; ++i) {
+                                        blocks.add(buildBlock(from + i));
+                                    }
+                                    callback.onResponse(null, blocks);
+                                    return null;
+                                })
+                .when(driver)
+                .asyncGetBlocks(
+                        Mockito.anyLong(),
+                        Mockito.anyInt(),
+                        Mockito.anyBoolean(),
+                        Mockito.any(),
+                        Mockito.any());
+        Chain chain = Mockito.mock(Chain.class);
+        Mockito.when(chain.getDriver()).thenReturn(driver);
+        Mockito.when(chain.chooseReadConnection()).thenReturn(Mockito.mock(Connection.class));
+
+        // the disk fails once, in the middle of the sync
+        AtomicInteger appends = new AtomicInteger();
+        FileBlockStore blockStore =
+                new FileBlockStore(Files.createTempDirectory("blocks").toFile(), 1024 * 1024) {
+                    @Override
+                    public synchronized boolean append(Block block) throws IOException {
+                        if (block.getBlockHeader().getNumber() == 5
+                                && appends.getAndIncrement() == 0) {
+                            throw new IOException("No space left on device");
+                        }
+                        return super.append(block);
+                    }
+                };
+        blockStore.open();
+
+        FileBlockManager blockManager = new FileBlockManager();
+        blockManager.setBlockStore(blockStore);
+        blockManager.setThreadPool(
+                new ThreadPoolTaskExecutor() {
+                    @Override
+                    public void execute(Runnable task) {
+                        task.run();
+                    }
+                });
+        blockManager.setChain(chain);
+        blockManager.setTimer(new HashedWheelTimer());
+        blockManager.setGetBlockNumberDelay(100);
+        blockManager.setLastBlockNumberAcquired(0);
+        blockManager.start();
+
+        for (int i = 0; i < 100 && blockStore.getLastBlockNumber() < target; ++i) {
+            Thread.sleep(100);
+        }
+
+        // block 5 synced again and stored the second time, the store has every block in order
+        Assert.assertEquals(2, appends.get());
+        Assert.assertEquals(1, blockStore.getFirstBlockNumber());
+        Assert.assertEquals(target, blockStore.getLastBlockNumber());
+        for (long i = 1; i <= target; ++i) {
+            Assert.assertEquals("0x" + i, blockStore.read(i).getBlockHeader().getHash());
+        }
+
+        // the store is closed with the manager
+        blockManager.stop();
+        Assert.assertFalse(blockStore.contains(target));
+    }
+}
@@ -12,14 +12,32 @@ import com.webank.wecross.stub.BlockManager;
 import com.webank.wecross.stub.Connection;
 import com.webank.wecross.stub.Driver;
 import com.webank.wecross.stub.Request;
+import com.webank.wecross.stub.Transaction;
+import com.webank.wecross.stub.TransactionResponse;
+import com.webank.wecross.stubmanager.BlockPollingPolicy;
 import com.webank.wecross.stubmanager.MemoryBlockManager;
 import com.webank.wecross.zone.Chain;
 import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
 import io.netty.util.Timer;
+import io.netty.util.TimerTask;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
 import org.junit.Assert;
 import org.junit.Test;
 import org.mockito.Mockito;
@@ -44,6 +62,67 @@ public class MemoryBlockManagerTest {
         return block;
     }
 
+    /** Run callbacks in the caller thread */
+    private ThreadPoolTaskExecutor newInlineExecutor() {
+        return new ThreadPoolTaskExecutor() {
+            @Override
+            public void execute(Runnable task) {
+                task.run();
+            }
+        };
+    }
+
+    /** Driver of a chain at blockNumber, answering in the caller thread */
+    private Driver newDriver(long blockNumber) {
+        Driver driver = Mockito.mock(Driver.class, Mockito.CALLS_REAL_METHODS);
+        Mockito.doAnswer(
+                        (Answer<Void>)
+                                invocation -> {
+                                    Driver.GetBlockNumberCallback callback =
+                                            invocation.getArgument(1);
+                                    callback.onResponse(null, blockNumber);
+                                    return null;
+                                })
+                .when(driver)
+                .asyncGetBlockNumber(Mockito.any(), Mockito.any());
+        Mockito.doAnswer(
+                        (Answer<Void>)
+                                invocation -> {
+                                    long number = invocation.getArgument(0);
+                                    Driver.GetBlockCallback callback = invocation.getArgument(3);
+                                    callback.onResponse(null, buildBlock(number));
+                                    return null;
+                                })
+                .when(driver)
+                .asyncGetBlock(
+                        Mockito.anyLong(), Mockito.anyBoolean(), Mockito.any(), Mockito.any());
+        return driver;
+    }
+
+    private Chain newChain(Driver driver) {
+        Chain chain = Mockito.mock(Chain.class);
+        Mockito.when(chain.getDriver()).thenReturn(driver);
+        Mockito.when(chain.chooseReadConnection()).thenReturn(Mockito.mock(Connection.class));
+        return chain;
+    }
+
+    /** Manager running callbacks in the caller thread */
+    private MemoryBlockManager newBlockManager(Driver driver, Timer timer) {
+        MemoryBlockManager memoryBlockManager = new MemoryBlockManager();
+        memoryBlockManager.setThreadPool(newInlineExecutor());
+        memoryBlockManager.setChain(newChain(driver));
+        memoryBlockManager.setTimer(timer);
+        return memoryBlockManager;
+    }
+
+    /** Manager syncing from block 1 once started, without polling again */
+    private MemoryBlockManager newBlockManager(Driver driver) {
+        MemoryBlockManager memoryBlockManager = newBlockManager(driver, new HashedWheelTimer());
+        memoryBlockManager.setGetBlockNumberDelay(100000);
+        memoryBlockManager.setLastBlockNumberAcquired(0);
+        return memoryBlockManager;
+    }
+
     @Test
     public void testSyncBlock() throws InterruptedException {
         MemoryBlockManager memoryBlockManager = new MemoryBlockManager();
@@ -55,7 +134,7 @@ public class MemoryBlockManagerTest {
         threadPool.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
         threadPool.initialize();
 
-        Driver driver = Mockito.mock(Driver.class);
+        Driver driver = Mockito.mock(Driver.class, Mockito.CALLS_REAL_METHODS);
         Mockito.doAnswer(
                         (Answer<Void>)
                                 invocation -> {
@@ -90,7 +169,7 @@ public class MemoryBlockManagerTest {
 
         Chain chain = Mockito.mock(Chain.class);
         Mockito.when(chain.getDriver()).thenReturn(driver);
-        Mockito.when(chain.chooseConnection())
+        Mockito.when(chain.chooseReadConnection())
                 .thenReturn(
                         new Connection() {
                             @Override
@@ -226,6 +305,587 @@ public class MemoryBlockManagerTest {
         memoryBlockManager.stop();
     }
 
+    @Test
+    public void testPipelinedCatchUp() throws Exception {
+        // one block is fetched at a time without a window, up to a window of blocks with one
+        assertEquals(1, catchUp(1, 100));
+        int pipelined = catchUp(16, 100);
+        Assert.assertTrue(pipelined > 1);
+        Assert.assertTrue(pipelined <= 16);
+    }
+
+    /** @return the most blocks fetched at once */
+    private int catchUp(int syncWindowSize, long target) throws Exception {
+        ThreadPoolTaskExecutor threadPool = new ThreadPoolTaskExecutor();
+        threadPool.setCorePoolSize(10);
+        threadPool.setMaxPoolSize(100);
+        threadPool.setQueueCapacity(1000);
+        threadPool.initialize();
+
+        // 5~15ms latency, so responses arrive out of order
+        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(4);
+        Random random = new Random();
+        AtomicInteger fetching = new AtomicInteger();
+        AtomicInteger maxFetching = new AtomicInteger();
+
+        Driver driver = Mockito.mock(Driver.class, Mockito.CALLS_REAL_METHODS);
+        Mockito.doAnswer(
+                        (Answer<Void>)
+                                invocation -> {
+                                    Driver.GetBlockNumberCallback callback =
+                                            invocation.getArgument(1);
+                                    threadPool.execute(() -> callback.onResponse(null, target));
+                                    return null;
+                                })
+                .when(driver)
+                .asyncGetBlockNumber(Mockito.any(), Mockito.any());
+        Mockito.doAnswer(
+                        (Answer<Void>)
+                                invocation -> {
+                                    long blockNumber = invocation.getArgument(0);
+                                    Driver.GetBlockCallback callback = invocation.getArgument(3);
+                                    maxFetching.accumulateAndGet(
+                                            fetching.incrementAndGet(), Math::max);
+                                    scheduler.schedule(
+                                            () -> {
+                                                fetching.decrementAndGet();
+                                                callback.onResponse(null, buildBlock(blockNumber));
+                                            },
+                                            5 + random.nextInt(10),
+                                            TimeUnit.MILLISECONDS);
+                                    return null;
+                                })
+                .when(driver)
+                .asyncGetBlock(
+                        Mockito.anyLong(), Mockito.anyBoolean(), Mockito.any(), Mockito.any());
+
+        List<Long> syncedBlockNumbers = Collections.synchronizedList(new ArrayList<>());
+        MemoryBlockManager memoryBlockManager =
+                new MemoryBlockManager() {
+                    @Override
+                    protected boolean onBlockSynced(Block block) {
+                        syncedBlockNumbers.add(block.getBlockHeader().getNumber());
+                        return true;
+                    }
+                };
+        memoryBlockManager.setThreadPool(threadPool);
+        memoryBlockManager.setChain(newChain(driver));
+        memoryBlockManager.setTimer(new HashedWheelTimer());
+        memoryBlockManager.setGetBlockNumberDelay(100);
+        memoryBlockManager.setSyncWindowSize(syncWindowSize);
+        memoryBlockManager.setLastBlockNumberAcquired(0);
+
+        long begin = System.currentTimeMillis();
+        memoryBlockManager.start();
+        // blocks are handed to onBlockSynced right after they are committed
+        while (syncedBlockNumbers.size() < target) {
+            Thread.sleep(2);
+            Assert.assertTrue(System.currentTimeMillis() - begin < 30000);
+        }
+
+        CompletableFuture<Block> future = new CompletableFuture<>();
+        memoryBlockManager.asyncGetBlock(target, (e, block) -> future.complete(block));
+        assertEquals(target, future.get(10, TimeUnit.SECONDS).getBlockHeader().getNumber());
+
+        memoryBlockManager.stop();
+        scheduler.shutdown();
+        threadPool.shutdown();
+
+        // committed in order without gap
+        assertEquals(target, syncedBlockNumbers.size());
+        for (int i = 0; i < target; ++i) {
+            assertEquals(i + 1, syncedBlockNumbers.get(i).longValue());
+        }
+        return maxFetching.get();
+    }
+
+    @Test
+    public void testConcurrentCacheHit() throws Exception {
+        long target = 64;
+        Driver driver = newDriver(target);
+        MemoryBlockManager memoryBlockManager = newBlockManager(driver);
+        memoryBlockManager.setMaxCacheSize((int) target);
+        memoryBlockManager.start();
+        assertEquals(target, memoryBlockManager.getLastBlockNumberAcquired());
+
+        // the sync takes the lock to wake up waiters, count the reads only
+        AtomicInteger locks = new AtomicInteger();
+        memoryBlockManager.setLock(
+                new ReentrantLock() {
+                    @Override
+                    public void lock() {
+                        locks.incrementAndGet();
+                        super.lock();
+                    }
+                });
+
+        int reads = 10000;
+        AtomicLong hits = new AtomicLong();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> readers = new ArrayList<>();
+        for (int t = 0; t < 4; ++t) {
+            readers.add(
+                    new Thread(
+                            () -> {
+                                try {
+                                    for (int i = 0; i < reads; ++i) {
+                                        long blockNumber = 1 + i % target;
+                                        BlockManager.GetBlockCallback callback =
+                                                (e, block) -> {
+                                                    assertNull(e);
+                                                    assertEquals(
+                                                            blockNumber,
+                                                            block.getBlockHeader().getNumber());
+                                                    hits.incrementAndGet();
+                                                };
+                                        if (i % 2 == 0) {
+                                            memoryBlockManager.asyncGetBlock(blockNumber, callback);
+                                        } else {
+                                            memoryBlockManager.asyncGetBlock(
+                                                    blockNumber, true, callback);
+                                        }
+                                    }
+                                } catch (Throwable e) {
+                                    failure.compareAndSet(null, e);
+                                }
+                            }));
+        }
+        for (Thread reader : readers) {
+            reader.start();
+        }
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        assertEquals((long) reads * readers.size(), hits.get());
+        assertEquals(0, locks.get());
+        // while a block not synced yet is waited for under it
+        memoryBlockManager.asyncGetBlock(target + 1, (e, block) -> {});
+        assertEquals(1, locks.get());
+
+        // every read is a hit, nothing but the sync reaches the chain
+        Mockito.verify(driver, Mockito.times((int) target))
+                .asyncGetBlock(
+                        Mockito.anyLong(), Mockito.anyBoolean(), Mockito.any(), Mockito.any());
+        memoryBlockManager.stop();
+    }
+
+    /** @return the transaction found by the manager, with its block number */
+    private Object[] getLocalTransaction(
+            MemoryBlockManager memoryBlockManager, String txHash, Long blockNumber) {
+        List<Object[]> results = new ArrayList<>();
+        memoryBlockManager.asyncGetLocalTransaction(
+                txHash,
+                blockNumber,
+                (localBlockNumber, transaction) ->
+                        results.add(new Object[] {localBlockNumber, transaction}));
+        // callbacks run in the caller thread
+        assertEquals(1, results.size());
+        return results.get(0);
+    }
+
+    @Test
+    public void testTransactionIndex() throws Exception {
+        long target = 8;
+        Driver driver = newDriver(target);
+        // headers carry the hashes, whole blocks the transactions too
+        Mockito.doAnswer(
+                        (Answer<Void>)
+                                invocation -> {
+                                    long blockNumber = invocation.getArgument(0);
+                                    boolean onlyHeader = invocation.getArgument(1);
+                                    Driver.GetBlockCallback callback = invocation.getArgument(3);
+                                    Block block = buildBlock(blockNumber);
+                                    block.getTransactionsHashes().add("0x" + blockNumber);
+                                    if (!onlyHeader) {
+                                        TransactionResponse transactionResponse =
+                                                new TransactionResponse();
+                                        transactionResponse.setHash("0x" + blockNumber);
+                                        Transaction transaction = new Transaction();
+                                        transaction.setTransactionResponse(transactionResponse);
+                                        block.setTransactionsWithDetail(
+                                                Collections.singletonList(transaction));
+                                    }
+                                    callback.onResponse(null, block);
+                                    return null;
+                                })
+                .when(driver)
+                .asyncGetBlock(
+                        Mockito.anyLong(), Mockito.anyBoolean(), Mockito.any(), Mockito.any());
+
+        for (boolean fetchOnlyHeader : new boolean[] {true, false}) {
+            Mockito.clearInvocations(driver);
+            MemoryBlockManager memoryBlockManager = newBlockManager(driver);
+            memoryBlockManager.setFetchOnlyHeader(fetchOnlyHeader);
+            memoryBlockManager.start();
+            assertEquals(target, memoryBlockManager.getLastBlockNumberAcquired());
+            assertEquals(target, memoryBlockManager.getTransactionIndex().getSize());
+            int synced = fetchOnlyHeader ? 0 : (int) target;
+
+            // with or without its block number
+            Object[] result = getLocalTransaction(memoryBlockManager, "0x5", 5L);
+            assertEquals(5L, result[0]);
+            assertEquals("0x5", ((Transaction) result[1]).getTransactionResponse().getHash());
+            result = getLocalTransaction(memoryBlockManager, "0x5", null);
+            assertEquals(5L, result[0]);
+            assertEquals("0x5", ((Transaction) result[1]).getTransactionResponse().getHash());
+            assertEquals(2, memoryBlockManager.getTransactionIndex().getHits());
+
+            // the body of a header is loaded on the first hit only
+            Mockito.verify(driver, Mockito.times(synced + (fetchOnlyHeader ? 1 : 0)))
+                    .asyncGetBlock(
+                            Mockito.anyLong(), Mockito.eq(false), Mockito.any(), Mockito.any());
+
+            // in another block, or not indexed
+            assertNull(getLocalTransaction(memoryBlockManager, "0x5", 6L)[1]);
+            assertNull(getLocalTransaction(memoryBlockManager, "0x9", null)[1]);
+            assertEquals(2, memoryBlockManager.getTransactionIndex().getMisses());
+            memoryBlockManager.stop();
+        }
+    }
+
+    @Test
+    public void testDefaultGetBlocks() throws Exception {
+        Driver driver = Mockito.mock(Driver.class, Mockito.CALLS_REAL_METHODS);
+        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(4);
+        Random random = new Random();
+        AtomicInteger fetching = new AtomicInteger();
+        AtomicInteger maxFetching = new AtomicInteger();
+        Mockito.doAnswer(
+                        (Answer<Void>)
+                                invocation -> {
+                                    long blockNumber = invocation.getArgument(0);
+                                    Driver.GetBlockCallback callback = invocation.getArgument(3);
+                                    scheduler.schedule(
+                                            () -> {
+                                                if (blockNumber == 13) {
+                                                    callback.onResponse(
+                                                            new Exception("failed"), null);
+                                                } else {
+                                                    callback.onResponse(
+                                                            null, buildBlock(blockNumber));
+                                                }
+                                            },
+                                            random.nextInt(5),
+                                            TimeUnit.MILLISECONDS);
+                                    return null;
+                                })
+                .when(driver)
+                .asyncGetBlock(
+                        Mockito.anyLong(), Mockito.anyBoolean(), Mockito.any(), Mockito.any());
+
+        // fan out to asyncGetBlock, blocks come back in height order
+        CompletableFuture<List<Block>> future = new CompletableFuture<>();
+        driver.asyncGetBlocks(0, 10, true, null, (e, blocks) -> future.complete(blocks));
+        List<Block> blocks = future.get(10, TimeUnit.SECONDS);
+        assertEquals(10, blocks.size());
+        for (int i = 0; i < 10; ++i) {
+            assertEquals(i, blocks.get(i).getBlockHeader().getNumber());
+        }
+
+        // the first error only
+        AtomicLong calls = new AtomicLong();
+        CompletableFuture<Exception> error = new CompletableFuture<>();
+        driver.asyncGetBlocks(
+                10,
+                10,
+                true,
+                null,
+                (e, result) -> {
+                    calls.incrementAndGet();
+                    error.complete(e);
+                });
+        assertEquals("failed", error.get(10, TimeUnit.SECONDS).getMessage());
+        Thread.sleep(50);
+        assertEquals(1, calls.get());
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void testBatchSync() throws Exception {
+        long target = 100;
+        List<long[]> requests = Collections.synchronizedList(new ArrayList<>());
+        Driver driver = newDriver(target);
+        // a chain with a native range API
+        Mockito.doAnswer(
+                        (Answer<Void>)
+                                invocation -> {
+                                    long from = invocation.getArgument(0);
+                                    int count = invocation.getArgument(1);
+                                    Driver.GetBlocksCallback callback = invocation.getArgument(4);
+                                    requests.add(new long[] {from, count});
+                                    List<Block> blocks = new ArrayList<>();
+                                    for (int i = 0; i < count; ++i) {
+                                        blocks.add(buildBlock(from + i));
+                                    }
+                                    callback.onResponse(null, blocks);
+                                    return null;
+                                })
+                .when(driver)
+                .asyncGetBlocks(
+                        Mockito.anyLong(),
+                        Mockito.anyInt(),
+                        Mockito.anyBoolean(),
+                        Mockito.any(),
+                        Mockito.any());
+
+        MemoryBlockManager memoryBlockManager = newBlockManager(driver);
+        memoryBlockManager.setSyncWindowSize(32);
+        memoryBlockManager.setSyncBatchSize(16);
+        memoryBlockManager.start();
+        assertEquals(target, memoryBlockManager.getLastBlockNumberAcquired());
+        memoryBlockManager.stop();
+
+        // 100 blocks in 7 round-trips, ranges are contiguous and never single block calls
+        assertEquals(7, requests.size());
+        requests.sort(Comparator.comparingLong(request -> request[0]));
+        long next = 1;
+        for (long[] request : requests) {
+            assertEquals(next, request[0]);
+            assertTrue(request[1] <= 16);
+            next += request[1];
+        }
+        assertEquals(target + 1, next);
+        Mockito.verify(driver, Mockito.never())
+                .asyncGetBlock(
+                        Mockito.anyLong(), Mockito.anyBoolean(), Mockito.any(), Mockito.any());
+    }
+
+    @Test
+    public void testTieredCache() throws Exception {
+        long target = 30;
+        List<Driver.GetBlockCallback> bodyLoads = Collections.synchronizedList(new ArrayList<>());
+        Driver driver = newDriver(target);
+        Mockito.doAnswer(
+                        (Answer<Void>)
+                                invocation -> {
+                                    long blockNumber = invocation.getArgument(0);
+                                    boolean onlyHeader = invocation.getArgument(1);
+                                    Driver.GetBlockCallback callback = invocation.getArgument(3);
+                                    if (onlyHeader) {
+                                        callback.onResponse(null, buildBlock(blockNumber));
+                                        return null;
+                                    }
+
+                                    // bodies are answered by the test
+                                    bodyLoads.add(
+                                            (e, block) -> {
+                                                Block body = buildBlock(blockNumber);
+                                                body.getTransactionsHashes()
+                                                        .add("0x" + blockNumber);
+                                                callback.onResponse(null, body);
+                                            });
+                                    return null;
+                                })
+                .when(driver)
+                .asyncGetBlock(
+                        Mockito.anyLong(), Mockito.anyBoolean(), Mockito.any(), Mockito.any());
+
+        MemoryBlockManager memoryBlockManager = newBlockManager(driver);
+        memoryBlockManager.setMaxCacheSize(20);
+        memoryBlockManager.setMaxBodyCacheSize(4);
+        memoryBlockManager.start();
+        assertEquals(target, memoryBlockManager.getLastBlockNumberAcquired());
+
+        // the sync fetches headers only
+        Mockito.verify(driver, Mockito.never())
+                .asyncGetBlock(Mockito.anyLong(), Mockito.eq(false), Mockito.any(), Mockito.any());
+        List<Block> results = Collections.synchronizedList(new ArrayList<>());
+        memoryBlockManager.asyncGetBlock(target, true, (e, block) -> results.add(block));
+        memoryBlockManager.asyncGetBlock(target, (e, block) -> results.add(block));
+        assertEquals(2, results.size());
+        assertTrue(results.get(0).getTransactionsHashes().isEmpty());
+        assertTrue(results.get(1).getTransactionsHashes().isEmpty());
+        assertEquals(0, bodyLoads.size());
+
+        // concurrent body reads share one load
+        results.clear();
+        memoryBlockManager.asyncGetBlock(target, false, (e, block) -> results.add(block));
+        memoryBlockManager.asyncGetBlock(target, false, (e, block) -> results.add(block));
+        assertEquals(1, bodyLoads.size());
+        bodyLoads.remove(0).onResponse(null, null);
+        assertEquals(2, results.size());
+        assertEquals("0x" + target, results.get(0).getTransactionsHashes().get(0));
+        assertEquals("0x" + target, results.get(1).getTransactionsHashes().get(0));
+
+        // then it is cached apart from the header
+        memoryBlockManager.asyncGetBlock(target, false, (e, block) -> results.add(block));
+        assertEquals(3, results.size());
+        assertEquals(0, bodyLoads.size());
+        assertEquals(1, memoryBlockManager.getBlockBodyCache().getCount());
+        assertEquals(20, memoryBlockManager.getBlockCache().getCount());
+
+        // bodies older than the header window are not cached
+        memoryBlockManager.asyncGetBlock(1, false, (e, block) -> results.add(block));
+        bodyLoads.remove(0).onResponse(null, null);
+        memoryBlockManager.asyncGetBlock(1, false, (e, block) -> results.add(block));
+        assertEquals(1, bodyLoads.size());
+        assertEquals(1, memoryBlockManager.getBlockBodyCache().getCount());
+        memoryBlockManager.stop();
+    }
+
+    /** Timer that only fires when the test advances the simulated clock */
+    private static class SimulatedTimer implements Timer {
+        private long now = 0;
+        private PriorityQueue<SimulatedTimeout> timeouts =
+                new PriorityQueue<>(Comparator.comparingLong(timeout -> timeout.deadline));
+
+        private class SimulatedTimeout implements Timeout {
+            private final TimerTask task;
+            private final long deadline;
+            private boolean cancelled = false;
+            private boolean expired = false;
+
+            private SimulatedTimeout(TimerTask task, long deadline) {
+                this.task = task;
+                this.deadline = deadline;
+            }
+
+            @Override
+            public Timer timer() {
+                return SimulatedTimer.this;
+            }
+
+            @Override
+            public TimerTask task() {
+                return task;
+            }
+
+            @Override
+            public boolean isExpired() {
+                return expired;
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return cancelled;
+            }
+
+            @Override
+            public boolean cancel() {
+                if (expired || cancelled) {
+                    return false;
+                }
+                cancelled = timeouts.remove(this);
+                return cancelled;
+            }
+        }
+
+        @Override
+        public Timeout newTimeout(TimerTask task, long delay, TimeUnit unit) {
+            SimulatedTimeout timeout = new SimulatedTimeout(task, now + unit.toMillis(delay));
+            timeouts.add(timeout);
+            return timeout;
+        }
+
+        @Override
+        public Set<Timeout> stop() {
+            timeouts.clear();
+            return Collections.emptySet();
+        }
+
+        public void runUntil(long end) throws Exception {
+            while (!timeouts.isEmpty() && timeouts.peek().deadline <= end) {
+                SimulatedTimeout timeout = timeouts.poll();
+                now = timeout.deadline;
+                timeout.expired = true;
+                timeout.task.run(timeout);
+            }
+            now = end;
+        }
+    }
+
+    private static class PollingResult {
+        private long polls = 0;
+        private long blocks = 0;
+        private long staleness = 0;
+
+        private long getAverageStaleness() {
+            return blocks == 0 ? 0 : staleness / blocks;
+        }
+    }
+
+    /**
+     * Chain produces a block every blockInterval ms until idleAfter, then stops
+     *
+     * @return polls of the block number and how long new blocks stay unseen
+     */
+    private PollingResult simulatePolling(
+            boolean adaptive, long blockInterval, long idleAfter, long duration) throws Exception {
+        SimulatedTimer timer = new SimulatedTimer();
+
+        // blocks are not aligned with the polls
+        long offset = blockInterval / 3;
+        PollingResult result = new PollingResult();
+        long[] lastSeen = new long[] {-1};
+        Driver driver = newDriver(0);
+        Mockito.doAnswer(
+                        (Answer<Void>)
+                                invocation -> {
+                                    long height =
+                                            (Math.min(timer.now, idleAfter) + offset)
+                                                    / blockInterval;
+                                    result.polls++;
+                                    if (lastSeen[0] >= 0) {
+                                        for (long i = lastSeen[0] + 1; i <= height; ++i) {
+                                            result.blocks++;
+                                            result.staleness +=
+                                                    timer.now - (i * blockInterval - offset);
+                                        }
+                                    }
+                                    lastSeen[0] = height;
+
+                                    Driver.GetBlockNumberCallback callback =
+                                            invocation.getArgument(1);
+                                    callback.onResponse(null, height);
+                                    return null;
+                                })
+                .when(driver)
+                .asyncGetBlockNumber(Mockito.any(), Mockito.any());
+
+        MemoryBlockManager memoryBlockManager = newBlockManager(driver, timer);
+        memoryBlockManager.setGetBlockNumberDelay(1000);
+        BlockPollingPolicy pollingPolicy = new BlockPollingPolicy();
+        pollingPolicy.setClock(() -> timer.now);
+        if (!adaptive) {
+            // the fixed delay of the past
+            pollingPolicy.setMinDelay(1000);
+            pollingPolicy.setMaxDelay(1000);
+        }
+        memoryBlockManager.setPollingPolicy(pollingPolicy);
+
+        memoryBlockManager.start();
+        timer.runUntil(duration);
+        memoryBlockManager.stop();
+
+        // blocks produced right before the end may not be seen yet
+        assertTrue(lastSeen[0] >= (Math.min(duration, idleAfter) + offset) / blockInterval - 1);
+        return result;
+    }
+
+    @Test
+    public void testAdaptivePolling() throws Exception {
+        long minute = 60 * 1000;
+
+        // fast chain, poll right after each block
+        PollingResult fixed = simulatePolling(false, 200, Long.MAX_VALUE, 10 * minute);
+        PollingResult adaptive = simulatePolling(true, 200, Long.MAX_VALUE, 10 * minute);
+        Assert.assertTrue(adaptive.getAverageStaleness() * 4 < fixed.getAverageStaleness());
+
+        // slow chain, far less polls
+        fixed = simulatePolling(false, 30000, Long.MAX_VALUE, 60 * minute);
+        adaptive = simulatePolling(true, 30000, Long.MAX_VALUE, 60 * minute);
+        Assert.assertTrue(adaptive.polls * 5 < fixed.polls);
+        Assert.assertTrue(adaptive.getAverageStaleness() < 30000 / 5);
+
+        // chain goes idle, polls back off
+        fixed = simulatePolling(false, 1000, 10 * minute, 60 * minute);
+        adaptive = simulatePolling(true, 1000, 10 * minute, 60 * minute);
+        Assert.assertTrue(adaptive.polls * 3 < fixed.polls);
+    }
+
     private void waitingForAllDone(ThreadPoolTaskExecutor threadPool, String prefix)
             throws InterruptedException {
         int waitingTimes = 0;
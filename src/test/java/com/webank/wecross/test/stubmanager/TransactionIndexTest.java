@@ -0,0 +1,97 @@
+package com.webank.wecross.test.stubmanager;
+
+import com.webank.wecross.stub.Block;
+import com.webank.wecross.stub.BlockHeader;
+import com.webank.wecross.stub.Transaction;
+import com.webank.wecross.stub.TransactionResponse;
+import com.webank.wecross.stubmanager.TransactionIndex;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TransactionIndexTest {
+
+    private static String txHash(long blockNumber, int index) {
+        return "0x" + blockNumber + "_" + index;
+    }
+
+    public Block buildBlock(long number, int txCount, boolean withDetail) {
+        BlockHeader blockHeader = new BlockHeader();
+        blockHeader.setNumber(number);
+        Block block = new Block();
+        block.setBlockHeader(blockHeader);
+        block.setRawBytes(new byte[] {});
+
+        List<String> hashes = new ArrayList<>();
+        List<Transaction> transactions = new ArrayList<>();
+        for (int i = 0; i < txCount; ++i) {
+            TransactionResponse response = new TransactionResponse();
+            response.setHash(txHash(number, i));
+            Transaction transaction = new Transaction();
+            transaction.setTransactionResponse(response);
+            transactions.add(transaction);
+            hashes.add(txHash(number, i));
+        }
+
+        if (withDetail) {
+            block.setTransactionsWithDetail(transactions);
+        } else {
+            block.setTransactionsHashes(hashes);
+        }
+        return block;
+    }
+
+    @Test
+    public void evictTest() throws Exception {
+        TransactionIndex transactionIndex = new TransactionIndex(25);
+        for (long i = 0; i < 10; ++i) {
+            transactionIndex.add(buildBlock(i, 10, i % 2 == 0));
+        }
+
+        // whole blocks are dropped, the latest blocks stay indexed
+        Assert.assertEquals(20, transactionIndex.getSize());
+        Assert.assertNull(transactionIndex.get(txHash(7, 9)));
+        Assert.assertEquals(8, transactionIndex.get(txHash(8, 0)).getBlockNumber());
+        Assert.assertEquals(9, transactionIndex.get(txHash(9, 9)).getBlockNumber());
+        Assert.assertEquals(9, transactionIndex.get(txHash(9, 9)).getIndex());
+
+        transactionIndex.clear();
+        Assert.assertEquals(0, transactionIndex.getSize());
+        Assert.assertNull(transactionIndex.get(txHash(9, 9)));
+    }
+
+    @Test
+    public void findTransactionTest() throws Exception {
+        Block block = buildBlock(1, 10, true);
+        Assert.assertEquals(
+                txHash(1, 3),
+                TransactionIndex.findTransaction(block, txHash(1, 3), 3)
+                        .getTransactionResponse()
+                        .getHash());
+
+        // a stale position falls back to a scan of the block
+        Assert.assertEquals(
+                txHash(1, 3),
+                TransactionIndex.findTransaction(block, txHash(1, 3), 5)
+                        .getTransactionResponse()
+                        .getHash());
+        Assert.assertNull(TransactionIndex.findTransaction(block, txHash(2, 3), 3));
+        Assert.assertNull(
+                TransactionIndex.findTransaction(buildBlock(1, 10, false), txHash(1, 3), 3));
+    }
+
+    @Test
+    public void hitRateTest() throws Exception {
+        TransactionIndex transactionIndex = new TransactionIndex(100);
+        Assert.assertEquals(0, transactionIndex.getHitRate(), 0);
+
+        transactionIndex.recordLookup(true);
+        transactionIndex.recordLookup(true);
+        transactionIndex.recordLookup(true);
+        transactionIndex.recordLookup(false);
+        Assert.assertEquals(3, transactionIndex.getHits());
+        Assert.assertEquals(1, transactionIndex.getMisses());
+        Assert.assertEquals(0.75, transactionIndex.getHitRate(), 0.0001);
+    }
+}